@@ -0,0 +1,743 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.io.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+import java.util.zip.*;
+import javax.imageio.*;
+import javax.imageio.metadata.*;
+import javax.imageio.stream.*;
+import org.w3c.dom.*;
+
+/**
+ * Loads animated GIF and APNG files directly into clips, with the delay of
+ * each frame taken from the file. Frames are decoded one at a time and
+ * composited onto a single canvas according to the file's disposal and
+ * blending rules, so no template of every frame is ever built.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip spin = AnimatedImageLoader.load (new File ("spin.gif"));
+ * <br /> &nbsp;
+ *     mySprite.setAnimation (Animations.IDLE1, spin);
+ *
+ * <br /> <br />
+ *
+ * Every frame covers the whole canvas of the file. Given a FramePool, each
+ * frame is trimmed to its visible pixels and shared with identical frames as
+ * soon as it is composited, so only the trimmed frames are ever held.
+ *
+ * <br /> <br />
+ *
+ * GIF frames are read through the ImageIO GIF reader and its metadata. The
+ * ImageIO PNG reader knows nothing of animation, so APNG files are split
+ * into a standalone PNG per frame, each of which is then decoded by ImageIO.
+ * A PNG without animation loads as a clip of one frame.
+ *
+ * @see {@link AssetLoader#loadAnimation(File, FramePool)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class AnimatedImageLoader
+{
+  //Constants
+  /**
+   * The delay given to frames whose file specifies none, as browsers do.
+   */
+  public static final int DEFAULT_DELAY = 100;
+
+  /**
+   * The ways in which a frame may be disposed of before the next is drawn,
+   * numbered as in APNG.
+   */
+  private static final int DISPOSE_NONE       = 0;
+  private static final int DISPOSE_BACKGROUND = 1;
+  private static final int DISPOSE_PREVIOUS   = 2;
+
+  /**
+   * The signature at the start of every PNG file.
+   */
+  private static final byte [] PNG_SIGNATURE =
+    {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+  /**
+   * The metadata format of the ImageIO GIF reader.
+   */
+  private static final String GIF_IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+  private static final String GIF_STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+
+  //Constructors
+  /**
+   * The loader is never instantiated.
+   */
+  private AnimatedImageLoader ()
+  {
+  }
+
+  //Functions
+  /**
+   * Loads an animated GIF or APNG file into a clip.
+   *
+   * @param file - The file
+   * @return The clip, with one frame per frame of the file
+   *
+   * @throws IOException - If the file cannot be read, or is neither a GIF
+   *                       nor a PNG
+   */
+  public static AnimationClip load (File file) throws IOException
+  {
+    return load (file, null);
+  }
+
+  /**
+   * Loads an animated GIF or APNG file into a clip, trimming and sharing
+   * each frame through the given pool as it is decoded.
+   *
+   * @param file - The file
+   * @param pool - The pool through which to trim and share the frames, or
+   *               null to keep every frame whole
+   * @return The clip, with one frame per frame of the file
+   *
+   * @throws IOException - If the file cannot be read, or is neither a GIF
+   *                       nor a PNG
+   */
+  public static AnimationClip load (File file, FramePool pool)
+    throws IOException
+  {
+    try (InputStream in = new FileInputStream (file))
+    {
+      return load (in, pool);
+    }
+  }
+
+  /**
+   * Loads an animated GIF or APNG image from a stream into a clip. The
+   * stream is read to the end of the image but not closed.
+   *
+   * @param in   - The stream
+   * @param pool - The pool through which to trim and share the frames, or
+   *               null to keep every frame whole
+   * @return The clip, with one frame per frame of the image
+   *
+   * @throws IOException - If the stream cannot be read, or holds neither a
+   *                       GIF nor a PNG
+   */
+  public static AnimationClip load (InputStream in, FramePool pool)
+    throws IOException
+  {
+    BufferedInputStream buffered = new BufferedInputStream (in);
+    byte [] magic = new byte [PNG_SIGNATURE.length];
+
+    buffered.mark (magic.length);
+
+    int read = buffered.readNBytes (magic, 0, magic.length);
+
+    buffered.reset ();
+
+    if (read >= 6 && magic [0] == 'G' && magic [1] == 'I' && magic [2] == 'F')
+    {
+      return loadGif (buffered, pool);
+    }
+
+    if (read == magic.length && Arrays.equals (magic, PNG_SIGNATURE))
+    {
+      return loadPng (new DataInputStream (buffered), pool);
+    }
+
+    throw new IOException ("Not a GIF or PNG image");
+  }
+
+  /**
+   * Reads every frame of a GIF, one at a time.
+   *
+   * @param in   - The stream, positioned at the start of the GIF
+   * @param pool - The pool for the frames, or null
+   * @return The clip
+   */
+  private static AnimationClip loadGif (InputStream in, FramePool pool)
+    throws IOException
+  {
+    Iterator <ImageReader> readers = ImageIO.getImageReadersByFormatName ("gif");
+
+    if (!readers.hasNext ())
+    {
+      throw new IOException ("No decoder found for GIF");
+    }
+
+    ImageReader reader = readers.next ();
+
+    try (ImageInputStream stream = ImageIO.createImageInputStream (in))
+    {
+      reader.setInput (stream, true, false);
+
+      Frames frames = new Frames (pool);
+      Canvas canvas = null;
+
+      //Frames are read in order until there are no more, rather than counted
+      //first, which would mean scanning the whole file before decoding any
+      for (int index = 0; ; index++)
+      {
+        BufferedImage image;
+
+        try
+        {
+          image = reader.read (index);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+          break;
+        }
+
+        Element metadata = (Element) reader.getImageMetadata (index)
+                                           .getAsTree (GIF_IMAGE_FORMAT);
+        Element descriptor = child (metadata, "ImageDescriptor");
+        Element control = child (metadata, "GraphicControlExtension");
+
+        if (canvas == null)
+        {
+          canvas = new Canvas (screenSize (reader, descriptor, image));
+        }
+
+        int x = attribute (descriptor, "imageLeftPosition", 0);
+        int y = attribute (descriptor, "imageTopPosition", 0);
+        int disposal = DISPOSE_NONE;
+        int delay = 0;
+
+        if (control != null)
+        {
+          delay = attribute (control, "delayTime", 0) * 10;
+
+          switch (control.getAttribute ("disposalMethod"))
+          {
+            case "restoreToBackgroundColor":
+              disposal = DISPOSE_BACKGROUND;
+              break;
+
+            case "restoreToPrevious":
+              disposal = DISPOSE_PREVIOUS;
+              break;
+
+            default:
+              disposal = DISPOSE_NONE;
+          }
+        }
+
+        frames.add (canvas.draw (image, x, y, false, disposal), delay);
+      }
+
+      if (canvas == null)
+      {
+        throw new IOException ("GIF contains no frames");
+      }
+
+      return frames.toClip ();
+    }
+    finally
+    {
+      reader.dispose ();
+    }
+  }
+
+  /**
+   * Determines the size of a GIF's canvas: its logical screen, or failing
+   * that its first frame.
+   */
+  private static Dimension screenSize (ImageReader reader, Element descriptor,
+                                       BufferedImage first)
+    throws IOException
+  {
+    int width  = attribute (descriptor, "imageLeftPosition", 0) +
+                 first.getWidth ();
+    int height = attribute (descriptor, "imageTopPosition", 0) +
+                 first.getHeight ();
+
+    IIOMetadata stream = reader.getStreamMetadata ();
+
+    if (stream != null)
+    {
+      Element screen = child ((Element) stream.getAsTree (GIF_STREAM_FORMAT),
+                              "LogicalScreenDescriptor");
+
+      width  = Math.max (width, attribute (screen, "logicalScreenWidth", 0));
+      height = Math.max (height, attribute (screen, "logicalScreenHeight", 0));
+    }
+
+    return new Dimension (width, height);
+  }
+
+  /**
+   * Reads every frame of an APNG, one at a time. Each frame's chunks are
+   * gathered until the next frame begins, then rebuilt into a PNG of their
+   * own and decoded.
+   *
+   * @param in   - The stream, positioned at the PNG signature
+   * @param pool - The pool for the frames, or null
+   * @return The clip
+   */
+  private static AnimationClip loadPng (DataInputStream in, FramePool pool)
+    throws IOException
+  {
+    in.readFully (new byte [PNG_SIGNATURE.length]);
+
+    byte [] header = null;
+    boolean animated = false;
+    boolean seenData = false;
+
+    //Chunks before the image data (ie. PLTE, tRNS) apply to every frame
+    ByteArrayOutputStream shared = new ByteArrayOutputStream ();
+
+    Frames frames = new Frames (pool);
+    Canvas canvas = null;
+    ApngFrame pending = null;
+
+    while (true)
+    {
+      int length = in.readInt ();
+      byte [] type = new byte [4];
+
+      in.readFully (type);
+
+      if (length < 0)
+      {
+        throw new IOException ("Corrupt PNG chunk length");
+      }
+
+      byte [] data = new byte [length];
+
+      in.readFully (data);
+      in.readInt ();
+
+      String name = new String (type, "US-ASCII");
+
+      if (header == null && !name.equals ("IHDR"))
+      {
+        throw new IOException ("PNG does not begin with IHDR");
+      }
+
+      switch (name)
+      {
+        case "IHDR":
+          header = data;
+          canvas = new Canvas (new Dimension (readInt (data, 0),
+                                              readInt (data, 4)));
+          break;
+
+        case "acTL":
+          animated = !seenData;
+          break;
+
+        case "fcTL":
+          if (pending != null)
+          {
+            pending.finish (header, shared, canvas, frames);
+          }
+
+          pending = new ApngFrame (data);
+          break;
+
+        case "IDAT":
+          //Without animation the image is the only frame. With animation it
+          //is the first frame only if a frame control chunk came before it;
+          //otherwise it is shown by viewers that cannot animate, and skipped
+          if (!animated && pending == null)
+          {
+            pending = new ApngFrame (canvas.getWidth (), canvas.getHeight ());
+          }
+
+          if (pending != null)
+          {
+            pending.addData (data, 0);
+          }
+
+          seenData = true;
+          break;
+
+        case "fdAT":
+          if (pending != null && animated)
+          {
+            pending.addData (data, 4);
+          }
+          break;
+
+        case "IEND":
+          if (pending != null)
+          {
+            pending.finish (header, shared, canvas, frames);
+          }
+
+          if (header == null || frames.size () == 0)
+          {
+            throw new IOException ("PNG contains no frames");
+          }
+
+          return frames.toClip ();
+
+        default:
+          if (!seenData)
+          {
+            writeChunk (shared, name, data);
+          }
+      }
+    }
+  }
+
+  /**
+   * Appends a chunk, with its length and CRC, to a PNG being built.
+   *
+   * @param out  - The PNG being built
+   * @param type - The type of the chunk
+   * @param data - The contents of the chunk
+   */
+  private static void writeChunk (ByteArrayOutputStream out, String type,
+                                  byte [] data)
+    throws IOException
+  {
+    writeChunk (out, type, data, 0, data.length);
+  }
+
+  /**
+   * Appends a chunk, with its length and CRC, to a PNG being built.
+   *
+   * @param out    - The PNG being built
+   * @param type   - The type of the chunk
+   * @param data   - The array holding the contents of the chunk
+   * @param offset - The start of the contents within the array
+   * @param length - The length of the contents
+   */
+  private static void writeChunk (ByteArrayOutputStream out, String type,
+                                  byte [] data, int offset, int length)
+    throws IOException
+  {
+    DataOutputStream chunk = new DataOutputStream (out);
+    byte [] typeBytes = type.getBytes ("US-ASCII");
+    CRC32 crc = new CRC32 ();
+
+    crc.update (typeBytes);
+    crc.update (data, offset, length);
+
+    chunk.writeInt (length);
+    chunk.write (typeBytes);
+    chunk.write (data, offset, length);
+    chunk.writeInt ((int) crc.getValue ());
+  }
+
+  /**
+   * Reads a big-endian int from a chunk.
+   */
+  private static int readInt (byte [] data, int offset)
+  {
+    return (data [offset] & 0xFF) << 24 | (data [offset + 1] & 0xFF) << 16 |
+           (data [offset + 2] & 0xFF) << 8 | (data [offset + 3] & 0xFF);
+  }
+
+  /**
+   * Reads a big-endian unsigned short from a chunk.
+   */
+  private static int readShort (byte [] data, int offset)
+  {
+    return (data [offset] & 0xFF) << 8 | (data [offset + 1] & 0xFF);
+  }
+
+  /**
+   * Returns the first child of a metadata node with the given name.
+   */
+  private static Element child (Element parent, String name)
+  {
+    for (Node node = parent.getFirstChild (); node != null;
+         node = node.getNextSibling ())
+    {
+      if (name.equals (node.getNodeName ()))
+      {
+        return (Element) node;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns an integer attribute of a metadata node.
+   */
+  private static int attribute (Element element, String name, int fallback)
+  {
+    if (element == null || !element.hasAttribute (name))
+    {
+      return fallback;
+    }
+
+    return Integer.parseInt (element.getAttribute (name));
+  }
+
+  /**
+   * Gathers the frames of a clip as they are composited.
+   */
+  private static final class Frames
+  {
+    //Members
+    private final FramePool pool;
+    private final List <BufferedImage> images = new ArrayList <BufferedImage> ();
+    private final List <AtlasRegion> regions = new ArrayList <AtlasRegion> ();
+    private int [] delays = new int [16];
+    private int count = 0;
+
+    //Constructors
+    Frames (FramePool pool)
+    {
+      this.pool = pool;
+    }
+
+    //Functions
+    /**
+     * Adds a frame, pooling it straight away if there is a pool.
+     *
+     * @param frame - The composited frame
+     * @param delay - Its delay in milliseconds, or 0 if none was given
+     */
+    void add (BufferedImage frame, int delay)
+    {
+      if (pool == null)
+      {
+        images.add (frame);
+      }
+      else
+      {
+        regions.add (pool.intern (frame));
+      }
+
+      if (count == delays.length)
+      {
+        delays = Arrays.copyOf (delays, count * 2);
+      }
+
+      delays [count++] = delay <= 0 ? DEFAULT_DELAY : delay;
+    }
+
+    int size ()
+    {
+      return count;
+    }
+
+    AnimationClip toClip ()
+    {
+      int [] delay = Arrays.copyOf (delays, count);
+
+      return pool == null
+             ? new AnimationClip (images.toArray (new BufferedImage [count]),
+                                  delay)
+             : new AnimationClip (regions.toArray (new AtlasRegion [count]),
+                                  delay);
+    }
+  }
+
+  /**
+   * The canvas onto which the frames of an animation are composited, in
+   * turn, according to their disposal and blending rules.
+   */
+  private static final class Canvas
+  {
+    //Members
+    private final BufferedImage image;
+    private final Graphics2D g;
+
+    //Constructors
+    Canvas (Dimension size)
+    {
+      image = new BufferedImage (Math.max (size.width, 1),
+                                 Math.max (size.height, 1),
+                                 BufferedImage.TYPE_INT_ARGB);
+      g = image.createGraphics ();
+    }
+
+    //Functions
+    int getWidth ()
+    {
+      return image.getWidth ();
+    }
+
+    int getHeight ()
+    {
+      return image.getHeight ();
+    }
+
+    /**
+     * Draws a frame onto the canvas, copies the result, then disposes of the
+     * frame ready for the next.
+     *
+     * @param frame    - The decoded frame
+     * @param x        - The x position of the frame on the canvas
+     * @param y        - The y position of the frame on the canvas
+     * @param replace  - True to replace the pixels beneath the frame, false
+     *                   to blend over them
+     * @param disposal - How the frame is disposed of afterwards
+     * @return A copy of the whole canvas, with the frame drawn
+     */
+    BufferedImage draw (BufferedImage frame, int x, int y, boolean replace,
+                        int disposal)
+    {
+      Rectangle area = new Rectangle (x, y, frame.getWidth (),
+                                      frame.getHeight ())
+                         .intersection (new Rectangle (0, 0, getWidth (),
+                                                       getHeight ()));
+      Raster previous = null;
+
+      if (disposal == DISPOSE_PREVIOUS && !area.isEmpty ())
+      {
+        previous = image.getData (area);
+      }
+
+      if (replace)
+      {
+        clear (area);
+      }
+
+      g.drawImage (frame, x, y, null);
+
+      BufferedImage copy = ImageConverter.createCompatible (
+        getWidth (), getHeight (), Transparency.TRANSLUCENT);
+      Graphics2D copyGraphics = copy.createGraphics ();
+
+      copyGraphics.setComposite (AlphaComposite.Src);
+      copyGraphics.drawImage (image, 0, 0, null);
+      copyGraphics.dispose ();
+
+      if (disposal == DISPOSE_BACKGROUND)
+      {
+        clear (area);
+      }
+      else if (previous != null)
+      {
+        image.getRaster ().setRect (previous);
+      }
+
+      return copy;
+    }
+
+    /**
+     * Clears an area of the canvas to transparent.
+     */
+    private void clear (Rectangle area)
+    {
+      Composite composite = g.getComposite ();
+
+      g.setComposite (AlphaComposite.Clear);
+      g.fillRect (area.x, area.y, area.width, area.height);
+      g.setComposite (composite);
+    }
+  }
+
+  /**
+   * The chunks of a single APNG frame, gathered as they are read.
+   */
+  private static final class ApngFrame
+  {
+    //Members
+    private final int width;
+    private final int height;
+    private final int x;
+    private final int y;
+    private final int delay;
+    private final int disposal;
+    private final boolean replace;
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream ();
+
+    //Constructors
+    /**
+     * Creates a frame from its frame control (fcTL) chunk.
+     */
+    ApngFrame (byte [] control)
+    {
+      width    = readInt (control, 4);
+      height   = readInt (control, 8);
+      x        = readInt (control, 12);
+      y        = readInt (control, 16);
+      disposal = control [24];
+      replace  = control [25] == 0;
+
+      int numerator   = readShort (control, 20);
+      int denominator = readShort (control, 22);
+
+      delay = (int) Math.round (numerator * 1000.0 /
+                                (denominator == 0 ? 100 : denominator));
+    }
+
+    /**
+     * Creates the single frame of a PNG without animation.
+     */
+    ApngFrame (int width, int height)
+    {
+      this.width  = width;
+      this.height = height;
+      x = y = delay = 0;
+      disposal  = DISPOSE_NONE;
+      replace   = true;
+    }
+
+    //Functions
+    /**
+     * Adds compressed image data to the frame.
+     *
+     * @param chunk  - The contents of an IDAT or fdAT chunk
+     * @param offset - The start of the image data within the chunk
+     */
+    void addData (byte [] chunk, int offset)
+    {
+      data.write (chunk, offset, chunk.length - offset);
+    }
+
+    /**
+     * Rebuilds the frame as a standalone PNG, decodes it, and composites it
+     * onto the canvas.
+     *
+     * @param header - The contents of the file's IHDR chunk
+     * @param shared - The chunks that apply to every frame
+     * @param canvas - The canvas
+     * @param frames - Receives the composited frame
+     */
+    void finish (byte [] header, ByteArrayOutputStream shared, Canvas canvas,
+                 Frames frames)
+      throws IOException
+    {
+      if (header == null)
+      {
+        throw new IOException ("PNG does not begin with IHDR");
+      }
+
+      byte [] frameHeader = header.clone ();
+
+      frameHeader [0] = (byte) (width >>> 24);
+      frameHeader [1] = (byte) (width >>> 16);
+      frameHeader [2] = (byte) (width >>> 8);
+      frameHeader [3] = (byte)  width;
+      frameHeader [4] = (byte) (height >>> 24);
+      frameHeader [5] = (byte) (height >>> 16);
+      frameHeader [6] = (byte) (height >>> 8);
+      frameHeader [7] = (byte)  height;
+
+      ByteArrayOutputStream png = new ByteArrayOutputStream ();
+
+      png.write (PNG_SIGNATURE);
+      writeChunk (png, "IHDR", frameHeader);
+      shared.writeTo (png);
+      writeChunk (png, "IDAT", data.toByteArray ());
+      writeChunk (png, "IEND", new byte [0]);
+
+      BufferedImage image = ImageIO.read (new ByteArrayInputStream (
+        png.toByteArray ()));
+
+      if (image == null)
+      {
+        throw new IOException ("Could not decode APNG frame");
+      }
+
+      //The first frame may not restore to the previous frame; there is none
+      int dispose = disposal == DISPOSE_PREVIOUS && frames.size () == 0
+                    ? DISPOSE_BACKGROUND : disposal;
+
+      frames.add (canvas.draw (image, x, y, replace, dispose), delay);
+    }
+  }
+}
@@ -0,0 +1,770 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * An immutable animation: the individual frames cut from a template, along
+ * with the delay of each frame. Clips are built once and may then be shared
+ * by any number of Sprites, on any number of threads, since nothing about a
+ * clip changes after construction.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip walk = AnimationClip.slice (myWalkTemplate, 5, 6, 30,
+ *                                               Sprite.FR_12FPS);
+ *
+ * <br /> <br />
+ *
+ * Altering the delay of a clip produces a new clip that shares the frames of
+ * the original.
+ *
+ * <br /> <br />
+ *
+ * Each clip also precomputes its timeline: the time at which each frame ends,
+ * measured from the start of the clip. The frame showing at any moment can
+ * therefore be found directly from the elapsed time, rather than by stepping
+ * through the frames one call at a time.
+ *
+ * <br /> <br />
+ *
+ * ie. BufferedImage current = walk.getFrame (walk.frameAt (elapsedNanos));
+ *
+ * <br /> <br />
+ *
+ * A lazy clip holds no frames at all, only a FrameSource from which to build
+ * them. Its frames are built the first time they are needed and kept in the
+ * shared FrameCache, which drops the least recently used frames once its
+ * memory budget is exceeded.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip death = AnimationClip.lazy (
+ *       new SheetFrameSource (myDeathFile, 4, 5, 20), Sprite.FR_12FPS);
+ *
+ * <br /> <br />
+ *
+ * The collision mask of each frame is built the first time it is requested
+ * and then kept with the clip, or all at once while loading.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip attack = AnimationClip.slice (myAttackTemplate, 2, 2, 4,
+ *       Sprite.FR_12FPS).buildCollisionMasks ();
+ *
+ * @author Dominic Aquilina
+ */
+public final class AnimationClip
+{
+  //Constants
+  /**
+   * Constant: The number of nanoseconds in a millisecond
+   */
+  static final long NANOS_PER_MILLI = 1000000L;
+  
+  //Members
+  /**
+   * The individual frames of the animation, in playback order, or null if
+   * the clip is lazy.
+   */
+  private final BufferedImage [] frames;
+
+  /**
+   * The region holding each corresponding frame. Unless the clip has been
+   * packed into an atlas, each region simply covers the whole frame. Null if
+   * the clip is lazy.
+   */
+  private final AtlasRegion [] regions;
+
+  /**
+   * Builds the frames of a lazy clip, or null if the clip holds its frames.
+   */
+  private final FrameSource source;
+
+  /**
+   * Distinguishes the frames of this clip's source within the FrameCache.
+   */
+  private final int sourceId;
+
+  /**
+   * The delay, in milliseconds, of each corresponding frame.
+   */
+  private final int [] delay;
+
+  /**
+   * The time, in nanoseconds from the start of the clip, at which each
+   * corresponding frame ends. Ascending, so it may be binary searched.
+   */
+  private final long [] timeline;
+
+  /**
+   * The total length of the clip, in nanoseconds.
+   */
+  private final long duration;
+
+  /**
+   * The delay shared by every frame, in nanoseconds, or 0 if the frames have
+   * differing delays. Uniform clips look up frames by division alone.
+   */
+  private final long uniformDelay;
+
+  /**
+   * The collision mask of each corresponding frame, or null where it has yet
+   * to be built. Shared with any clip that differs only in its delays.
+   */
+  private final CollisionMask [] masks;
+
+  //Constructors
+  /**
+   * Creates a clip from a set of frames and their corresponding delays. Both
+   * arrays are copied, so the caller may reuse them afterwards.
+   *
+   * @param frames - The frames of the animation
+   * @param delay  - The delay of each frame, in milliseconds
+   *
+   * @throws IllegalArgumentException - If the arrays differ in length
+   */
+  public AnimationClip (BufferedImage [] frames, int [] delay)
+  {
+    this (frames.clone (), regionsOf (frames), null, 0, delay.clone (), null);
+  }
+
+  /**
+   * Creates a clip in which every frame shares the same delay.
+   *
+   * @param frames - The frames of the animation
+   * @param delay  - The delay of every frame, in milliseconds
+   */
+  public AnimationClip (BufferedImage [] frames, int delay)
+  {
+    this (frames.clone (), regionsOf (frames), null, 0,
+          filled (frames.length, delay), null);
+  }
+
+  /**
+   * Creates a clip whose frames lie within larger pages, such as those of a
+   * TextureAtlas. Both arrays are copied.
+   *
+   * @param regions - The regions holding the frames of the animation
+   * @param delay   - The delay of each frame, in milliseconds
+   *
+   * @throws IllegalArgumentException - If the arrays differ in length
+   */
+  public AnimationClip (AtlasRegion [] regions, int [] delay)
+  {
+    this (framesOf (regions), regions.clone (), null, 0, delay.clone (),
+          null);
+  }
+
+  /**
+   * Wraps the given arrays, which must not be modified afterwards.
+   *
+   * @param frames   - The frames of the animation, or null if lazy
+   * @param regions  - The region describing each frame, or null if lazy
+   * @param source   - The source of the frames if lazy, otherwise null
+   * @param sourceId - The cache id of the source, if lazy
+   * @param delay    - The delay of each frame, in milliseconds
+   * @param masks    - The collision masks of the frames, or null if none have
+   *                   been built
+   *
+   * @throws IllegalArgumentException - If the arrays differ in length
+   */
+  private AnimationClip (BufferedImage [] frames, AtlasRegion [] regions,
+                         FrameSource source, int sourceId, int [] delay,
+                         CollisionMask [] masks)
+  {
+    int length = source == null ? frames.length : source.length ();
+
+    if (length != delay.length)
+    {
+      throw new IllegalArgumentException ("Length of delay array does not " +
+                                          "match that of the frames.");
+    }
+
+    this.frames   = frames;
+    this.regions  = regions;
+    this.source   = source;
+    this.sourceId = sourceId;
+    this.delay    = delay;
+
+    timeline     = buildTimeline (delay);
+    duration     = timeline.length == 0 ? 0 : timeline [timeline.length - 1];
+    uniformDelay = uniformDelay (delay);
+
+    this.masks = masks == null ? new CollisionMask [length] : masks;
+  }
+
+  //Functions
+  /**
+   * Creates a lazy clip, which builds its frames from the given source only
+   * when they are needed.
+   *
+   * @param source - The source of the frames
+   * @param delay  - The delay of each frame, in milliseconds
+   * @return The new clip
+   *
+   * @throws IllegalArgumentException - If the delay array is not the same
+   *                                    length as the source
+   */
+  public static AnimationClip lazy (FrameSource source, int [] delay)
+  {
+    return new AnimationClip (null, null, source, FrameCache.newId (),
+                              delay.clone (), null);
+  }
+
+  /**
+   * Creates a lazy clip in which every frame shares the same delay.
+   *
+   * @param source - The source of the frames
+   * @param delay  - The delay of every frame, in milliseconds
+   * @return The new clip
+   */
+  public static AnimationClip lazy (FrameSource source, int delay)
+  {
+    return new AnimationClip (null, null, source, FrameCache.newId (),
+                              filled (source.length (), delay), null);
+  }
+
+  /**
+   * Cuts a template into the individual frames of a clip. In order for this
+   * method to function as expected, the frames that contain valid content
+   * must be arranged left to right, top to bottom.
+   *
+   * <br /> <br />
+   *
+   * Cells are placed by cellOrigin, as they are by SheetFrameSource and
+   * StreamedSheetSlicer, so all three cut the same frames from a template.
+   *
+   * @see {@link Sprite#setAnimation(Animations, BufferedImage, int, int, int)}
+   *
+   * @param i         - The Image that contains the frames of this animation
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @return The new clip
+   */
+  public static AnimationClip slice (BufferedImage i, int height, int width,
+                                     int numFrames, int framerate)
+  {
+    EngineEvents.Slice event = new EngineEvents.Slice ();
+    long start = System.nanoTime ();
+
+    event.begin ();
+
+    //Determine the dimensions of the image
+    int imgHeight = i.getHeight ();
+    int imgWidth  = i.getWidth  ();
+
+    //Determine the dimensions of each cell
+    int cellHeight = imgHeight / height;
+    int cellWidth  = imgWidth  / width;
+
+    BufferedImage [] frames = new BufferedImage [numFrames];
+
+    //split the Image into its individual frames
+    int framesCounted = 0;
+
+    for (int row = 0; row < height; row++)
+    {
+      int rowPos = cellOrigin (row, height, imgHeight);
+
+      for (int column = 0; column < width; column++)
+      {
+        frames [framesCounted] = i.getSubimage (cellOrigin (column, width,
+                                                            imgWidth),
+                                                rowPos, cellWidth,
+                                                cellHeight);
+
+        framesCounted++;
+
+        //Ensures that blank/unwanted frames will not be added
+        if (framesCounted == numFrames)
+        {
+          break;
+        }
+      }
+
+      if (framesCounted == numFrames)
+      {
+        break;
+      }
+    }
+
+    AnimationClip clip = new AnimationClip (frames, framerate);
+
+    event.frames     = numFrames;
+    event.cellWidth  = cellWidth;
+    event.cellHeight = cellHeight;
+    event.commit ();
+
+    MetricsRegistry.getShared ().record (MetricsRegistry.CLIP_SLICE,
+                                         System.nanoTime () - start);
+
+    return clip;
+  }
+
+  /**
+   * Cuts a template into the individual frames of a clip, as above, then
+   * trims each frame to its visible pixels and shares any frame identical to
+   * one already in the given pool.
+   *
+   * @see {@link FramePool#intern(AnimationClip)}
+   *
+   * @param i         - The Image that contains the frames of this animation
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @param pool      - The pool through which to trim and share the frames
+   * @return The new clip
+   */
+  public static AnimationClip slice (BufferedImage i, int height, int width,
+                                     int numFrames, int framerate,
+                                     FramePool pool)
+  {
+    return pool.intern (slice (i, height, width, numFrames, framerate));
+  }
+
+  /**
+   * Returns the number of frames in this clip.
+   *
+   * @return The number of frames
+   */
+  public int length ()
+  {
+    return delay.length;
+  }
+
+  /**
+   * Determines whether this clip builds its frames on demand.
+   *
+   * @return True if the clip is lazy
+   */
+  public boolean isLazy ()
+  {
+    return source != null;
+  }
+
+  /**
+   * Returns the given frame of the clip.
+   *
+   * @param frame - The index of the frame
+   * @return The frame
+   */
+  public BufferedImage getFrame (int frame)
+  {
+    return source == null ? frames [frame] : getRegion (frame).getPage ();
+  }
+
+  /**
+   * Returns the region holding the given frame of the clip. Drawing through
+   * the region rather than the frame avoids a separate image per frame once
+   * the clip has been packed into an atlas.
+   *
+   * <br /> <br />
+   *
+   * The frames of a lazy clip are built, or drawn from the FrameCache, as
+   * they are requested.
+   *
+   * @param frame - The index of the frame
+   * @return The region holding the frame
+   *
+   * @throws java.io.UncheckedIOException - If a lazy frame cannot be read
+   */
+  public AtlasRegion getRegion (int frame)
+  {
+    if (source == null)
+    {
+      return regions [frame];
+    }
+
+    if (frame < 0 || frame >= delay.length)
+    {
+      throw new ArrayIndexOutOfBoundsException (frame);
+    }
+
+    return FrameCache.getShared ().get (source, sourceId, frame);
+  }
+
+  /**
+   * Returns the collision mask of the given frame, building it the first time
+   * it is requested. The frames of a lazy clip are built, or drawn from the
+   * FrameCache, only for as long as their masks take to build.
+   *
+   * @see {@link CollisionMask}
+   *
+   * @param frame - The index of the frame
+   * @return The collision mask of the frame, which is empty if the frame is
+   *         missing
+   *
+   * @throws java.io.UncheckedIOException - If a lazy frame cannot be read
+   */
+  public CollisionMask getCollisionMask (int frame)
+  {
+    CollisionMask mask = masks [frame];
+
+    //Two threads may both build the same mask; either copy will do
+    if (mask == null)
+    {
+      AtlasRegion region = getRegion (frame);
+
+      mask = region == null ? CollisionMask.EMPTY : new CollisionMask (region);
+      masks [frame] = mask;
+    }
+
+    return mask;
+  }
+
+  /**
+   * Builds the collision mask of every frame now, rather than as each is
+   * first requested, so that no hit test pays for building one mid-game.
+   *
+   * @return This clip, so that the call may follow slice
+   *
+   * @throws java.io.UncheckedIOException - If a lazy frame cannot be read
+   */
+  public AnimationClip buildCollisionMasks ()
+  {
+    for (int frame = 0; frame < masks.length; frame++)
+    {
+      getCollisionMask (frame);
+    }
+
+    return this;
+  }
+
+  /**
+   * Returns the delay of the given frame of the clip.
+   *
+   * @param frame - The index of the frame
+   * @return The delay of the frame, in milliseconds
+   */
+  public int getDelay (int frame)
+  {
+    return delay [frame];
+  }
+
+  /**
+   * Returns the total length of the clip, the sum of every frame delay.
+   *
+   * @return The length of the clip, in nanoseconds
+   */
+  public long getDuration ()
+  {
+    return duration;
+  }
+
+  /**
+   * Returns the delay shared by every frame of the clip.
+   *
+   * @return The shared delay in nanoseconds, or 0 if the delays differ
+   */
+  long getUniformDelay ()
+  {
+    return uniformDelay;
+  }
+
+  /**
+   * Determines which frame is showing at the given time, honouring the delay
+   * of each frame. The clip is treated as looping, so times beyond the end of
+   * the clip wrap around to the start.
+   *
+   * <br /> <br />
+   *
+   * Uniform clips are resolved in constant time; all others by binary search
+   * of the precomputed timeline.
+   *
+   * @param timeNanos - The time since the clip started, in nanoseconds
+   * @return The index of the frame showing at that time
+   */
+  public int frameAt (long timeNanos)
+  {
+    if (duration <= 0)
+    {
+      return 0;
+    }
+
+    long t = Math.floorMod (timeNanos, duration);
+
+    if (uniformDelay > 0)
+    {
+      return (int) (t / uniformDelay);
+    }
+
+    //A frame ending exactly at t has finished, so the next frame is showing
+    int index = Arrays.binarySearch (timeline, t);
+    index = index >= 0 ? index + 1 : -index - 1;
+
+    //Skip over any zero-length frames that also end at t
+    while (timeline [index] <= t)
+    {
+      index++;
+    }
+
+    return index;
+  }
+
+  /**
+   * Returns a copy of the frames of this clip. Every frame of a lazy clip is
+   * built.
+   *
+   * @return The frames, in playback order
+   */
+  public BufferedImage [] getFrames ()
+  {
+    if (source == null)
+    {
+      return frames.clone ();
+    }
+
+    BufferedImage [] built = new BufferedImage [delay.length];
+
+    for (int frame = 0; frame < built.length; frame++)
+    {
+      built [frame] = getFrame (frame);
+    }
+
+    return built;
+  }
+
+  /**
+   * Returns a copy of the frame delays of this clip.
+   *
+   * @return The frame delays, in milliseconds
+   */
+  public int [] getDelays ()
+  {
+    return delay.clone ();
+  }
+
+  /**
+   * Returns a clip with the same frames as this one, but the given delays.
+   *
+   * @param newDelay - The new set of frame delay values
+   * @return The new clip
+   *
+   * @throws IllegalArgumentException - If the delay array is not the same
+   *                                    length as the clip
+   */
+  public AnimationClip withDelay (int [] newDelay)
+  {
+    return new AnimationClip (frames, regions, source, sourceId,
+                              newDelay.clone (), masks);
+  }
+
+  /**
+   * Returns a clip with the same frames and delays as this one, except for
+   * the delay of the given frame.
+   *
+   * @param frame    - The specific frame of the animation
+   * @param newDelay - The new frame delay value
+   * @return The new clip
+   */
+  public AnimationClip withDelay (int frame, int newDelay)
+  {
+    int [] altered = delay.clone ();
+    altered [frame] = newDelay;
+
+    return new AnimationClip (frames, regions, source, sourceId, altered,
+                              masks);
+  }
+
+  /**
+   * Returns a clip with the same delays as this one, but every frame flipped,
+   * turned and/or scaled by the given transform. Each variant is generated
+   * once and held by the shared VariantCache, so deriving the same clip again
+   * reuses the frames. The variants of a lazy clip are generated as their
+   * frames are built.
+   *
+   * <br /> <br />
+   *
+   * ie. AnimationClip left = right.derive (FrameTransform.FLIP_H);
+   *
+   * @param transform - The transform to apply to every frame
+   * @return The new clip
+   */
+  public AnimationClip derive (final FrameTransform transform)
+  {
+    if (source != null)
+    {
+      final FrameSource original = source;
+      final int originalId = sourceId;
+
+      return lazy (new FrameSource ()
+      {
+        @Override
+        public int length ()
+        {
+          return original.length ();
+        }
+
+        @Override
+        public BufferedImage load (int frame)
+        {
+          return loadRegion (frame).getPage ();
+        }
+
+        @Override
+        public AtlasRegion loadRegion (int frame)
+        {
+          return transform.apply (FrameCache.getShared ().get (original,
+                                                               originalId,
+                                                               frame));
+        }
+      }, delay);
+    }
+
+    AtlasRegion [] derived = new AtlasRegion [regions.length];
+
+    for (int frame = 0; frame < derived.length; frame++)
+    {
+      if (regions [frame] != null)
+      {
+        derived [frame] = VariantCache.getShared ().get (regions [frame],
+                                                         transform);
+      }
+    }
+
+    return new AnimationClip (derived, delay);
+  }
+
+  /**
+   * Describes each of the given frames by a region covering the whole frame.
+   *
+   * @param frames - The frames, any of which may be null
+   * @return The corresponding regions
+   */
+  private static AtlasRegion [] regionsOf (BufferedImage [] frames)
+  {
+    AtlasRegion [] regions = new AtlasRegion [frames.length];
+
+    for (int frame = 0; frame < frames.length; frame++)
+    {
+      if (frames [frame] != null)
+      {
+        regions [frame] = new AtlasRegion (frames [frame]);
+      }
+    }
+
+    return regions;
+  }
+
+  /**
+   * Cuts each of the given regions out of its page, for callers that still
+   * require a standalone image per frame. A region covering the whole of its
+   * page needs no cutting.
+   *
+   * @param regions - The regions, any of which may be null
+   * @return The corresponding frames
+   */
+  private static BufferedImage [] framesOf (AtlasRegion [] regions)
+  {
+    BufferedImage [] frames = new BufferedImage [regions.length];
+
+    for (int frame = 0; frame < regions.length; frame++)
+    {
+      AtlasRegion region = regions [frame];
+
+      if (region != null && region.coversPage ())
+      {
+        frames [frame] = region.getPage ();
+      }
+      else if (region != null)
+      {
+        frames [frame] = region.getPage ().getSubimage (region.getX (),
+                                                        region.getY (),
+                                                        region.getWidth (),
+                                                        region.getHeight ());
+      }
+    }
+
+    return frames;
+  }
+
+  /**
+   * Returns where a cell of a template begins along one axis. Cells are
+   * size / cells pixels long, and any pixels left over are spread between
+   * them rather than left at the end, so that the last cell always ends at
+   * or before the edge of the template.
+   *
+   * <br /> <br />
+   *
+   * ie. cellOrigin (3, 9, 112) = 37, for cells 12 pixels wide
+   *
+   * @param cell  - The index of the cell along the axis
+   * @param cells - The number of cells along the axis
+   * @param size  - The size of the template along the axis, in pixels
+   * @return The position of the cell, in pixels
+   */
+  static int cellOrigin (int cell, int cells, int size)
+  {
+    return (int) ((long) cell * size / cells);
+  }
+
+  /**
+   * Creates a delay array in which every frame has the same delay.
+   *
+   * @param length - The number of frames
+   * @param delay  - The delay of every frame, in milliseconds
+   * @return The delay array
+   */
+  static int [] filled (int length, int delay)
+  {
+    int [] filled = new int [length];
+
+    Arrays.fill (filled, delay);
+
+    return filled;
+  }
+
+  /**
+   * Builds the timeline of a set of frame delays.
+   *
+   * @param delay - The delay of each frame, in milliseconds
+   * @return The end time of each frame, in nanoseconds
+   */
+  private static long [] buildTimeline (int [] delay)
+  {
+    long [] timeline = new long [delay.length];
+    long end = 0;
+
+    for (int frame = 0; frame < delay.length; frame++)
+    {
+      end += Math.max (delay [frame], 0) * NANOS_PER_MILLI;
+      timeline [frame] = end;
+    }
+
+    return timeline;
+  }
+
+  /**
+   * Determines whether every frame shares the same, positive, delay.
+   *
+   * @param delay - The delay of each frame, in milliseconds
+   * @return The shared delay in nanoseconds, or 0 if the delays differ
+   */
+  private static long uniformDelay (int [] delay)
+  {
+    if (delay.length == 0 || delay [0] <= 0)
+    {
+      return 0;
+    }
+
+    for (int frame = 1; frame < delay.length; frame++)
+    {
+      if (delay [frame] != delay [0])
+      {
+        return 0;
+      }
+    }
+
+    return delay [0] * NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,145 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.image.*;
+import java.util.concurrent.*;
+
+/**
+ * A process-wide cache of clips and sets, keyed by name. Templates only need
+ * to be cut once; every later request for the same key returns the clip that
+ * was built the first time, so spawning any number of identical Sprites costs
+ * no further slicing.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip walk = AnimationLibrary.getClip ("enemy.walk", template,
+ *                                                   5, 6, 30, Sprite.FR_12FPS);
+ *
+ * <br /> <br />
+ *
+ * All methods are safe to call from any thread.
+ *
+ * @author Dominic Aquilina
+ */
+public final class AnimationLibrary
+{
+  //Members
+  /**
+   * The cached clips, by key.
+   */
+  private static final ConcurrentMap <String, AnimationClip> clips =
+    new ConcurrentHashMap <String, AnimationClip> ();
+
+  /**
+   * The cached sets, by key.
+   */
+  private static final ConcurrentMap <String, AnimationSet> sets =
+    new ConcurrentHashMap <String, AnimationSet> ();
+
+  //Constructors
+  /**
+   * Not instantiable.
+   */
+  private AnimationLibrary ()
+  {
+
+  }
+
+  //Functions
+  /**
+   * Returns the clip cached under the given key, slicing the template into a
+   * new clip if the key has not been seen before.
+   *
+   * @see {@link AnimationClip#slice(BufferedImage, int, int, int, int)}
+   *
+   * @param key       - The name of the clip
+   * @param i         - The Image that contains the frames of this animation
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @return The cached clip
+   */
+  public static AnimationClip getClip (String key, final BufferedImage i,
+                                       final int height, final int width,
+                                       final int numFrames,
+                                       final int framerate)
+  {
+    AnimationClip clip = clips.get (key);
+
+    if (clip == null)
+    {
+      clip = clips.computeIfAbsent (key, k -> AnimationClip.slice (i, height,
+                                                                   width,
+                                                                   numFrames,
+                                                                   framerate));
+    }
+
+    return clip;
+  }
+
+  /**
+   * Returns the clip cached under the given key.
+   *
+   * @param key - The name of the clip
+   * @return The cached clip, or null if there is none
+   */
+  public static AnimationClip getClip (String key)
+  {
+    return clips.get (key);
+  }
+
+  /**
+   * Caches the given clip under the given key, unless another clip has
+   * already been cached under that key.
+   *
+   * @param key  - The name of the clip
+   * @param clip - The clip to cache
+   * @return The clip that is cached under the key once this call returns
+   */
+  public static AnimationClip putClip (String key, AnimationClip clip)
+  {
+    AnimationClip existing = clips.putIfAbsent (key, clip);
+
+    return existing == null ? clip : existing;
+  }
+
+  /**
+   * Returns the set cached under the given key.
+   *
+   * @param key - The name of the set
+   * @return The cached set, or null if there is none
+   */
+  public static AnimationSet getSet (String key)
+  {
+    return sets.get (key);
+  }
+
+  /**
+   * Caches the given set under the given key, unless another set has already
+   * been cached under that key.
+   *
+   * @param key - The name of the set
+   * @param set - The set to cache
+   * @return The set that is cached under the key once this call returns
+   */
+  public static AnimationSet putSet (String key, AnimationSet set)
+  {
+    AnimationSet existing = sets.putIfAbsent (key, set);
+
+    return existing == null ? set : existing;
+  }
+
+  /**
+   * Removes every cached clip and set. Sprites that already reference them
+   * are unaffected.
+   */
+  public static void clear ()
+  {
+    clips.clear ();
+    sets.clear  ();
+  }
+}
@@ -0,0 +1,150 @@
+//Package
+package DAquilina;
+
+/**
+ * An immutable collection of clips, keyed by animation id. A single set is
+ * typically built once per character and then shared by every Sprite of that
+ * character, leaving each Sprite with nothing but its own playback state.
+ *
+ * <br /> <br />
+ *
+ * Sets are never modified; adding a clip returns a new set.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationSet enemy = new AnimationSet ()
+ *                            .with (Animations.IDLE1, idle)
+ *                            .with (Animations.MOVE, walk);
+ *
+ * <br /> <br />
+ *
+ * Only the clips actually present are stored, so a set may hold animations
+ * registered by the application alongside those of the Animations enum.
+ *
+ * @see {@link ClipRegistry}
+ *
+ * @author Dominic Aquilina
+ */
+public final class AnimationSet
+{
+  //Members
+  /**
+   * Holds the clips of this set, keyed by animation id.
+   *
+   * @see {@link ClipRegistry}
+   */
+  private final ClipMap clips;
+
+  //Constructors
+  /**
+   * Default Constructor. Creates a set containing no clips.
+   */
+  public AnimationSet ()
+  {
+    clips = new ClipMap ();
+  }
+
+  /**
+   * Wraps the given map, which must not be modified afterwards.
+   *
+   * @param clips - The clips, keyed by animation id
+   */
+  private AnimationSet (ClipMap clips)
+  {
+    this.clips = clips;
+  }
+
+  //Functions
+  /**
+   * Returns the clip for the given type of animation.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The clip, or null if this set contains no such animation
+   */
+  public AnimationClip getClip (Animations type)
+  {
+    return clips.get (type.value ());
+  }
+
+  /**
+   * Returns the clip with the given animation id.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return The clip, or null if this set contains no such animation
+   */
+  public AnimationClip getClip (int id)
+  {
+    return clips.get (id);
+  }
+
+  /**
+   * Determines whether this set contains a clip for the given type.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return True if the set holds the clip
+   */
+  public boolean contains (Animations type)
+  {
+    return clips.get (type.value ()) != null;
+  }
+
+  /**
+   * Determines whether this set contains a clip with the given id.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return True if the set holds the clip
+   */
+  public boolean contains (int id)
+  {
+    return clips.get (id) != null;
+  }
+
+  /**
+   * Returns the ids of every clip in this set.
+   *
+   * @return The ids, in ascending order
+   */
+  public int [] getIds ()
+  {
+    return clips.ids ();
+  }
+
+  /**
+   * Returns the number of clips in this set.
+   *
+   * @return The number of clips
+   */
+  public int size ()
+  {
+    return clips.size ();
+  }
+
+  /**
+   * Returns a set identical to this one, except that the given slot holds
+   * the given clip.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @param clip - The new clip, or null to remove the animation
+   * @return The new set
+   */
+  public AnimationSet with (Animations type, AnimationClip clip)
+  {
+    return with (type.value (), clip);
+  }
+
+  /**
+   * Returns a set identical to this one, except that the given id maps to
+   * the given clip.
+   *
+   * @param id   - The id of the animation, from the ClipRegistry
+   * @param clip - The new clip, or null to remove the animation
+   * @return The new set
+   */
+  public AnimationSet with (int id, AnimationClip clip)
+  {
+    ClipMap altered = clips.copy ();
+    altered.put (id, clip);
+
+    return new AnimationSet (altered);
+  }
+}
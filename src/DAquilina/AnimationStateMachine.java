@@ -0,0 +1,305 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+
+/**
+ * Describes how the animations of a Sprite are played and what follows each
+ * one: whether it loops, plays once or plays back and forth, and which
+ * animation, if any, starts once it completes. A Sprite evaluates its state
+ * machine as it is updated, so that user code need not re-decide the
+ * animation every frame.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationStateMachine rules = new AnimationStateMachine ()
+ *       .with (Animations.ATTACK1, PlayMode.ONCE)
+ *       .withTransition (Animations.ATTACK1, Animations.IDLE1);
+ *
+ * <br /> <br />
+ *
+ * State machines are never modified; adding a rule returns a new machine, so
+ * a single machine may be shared by any number of Sprites. Animations without
+ * a rule loop and have no transition.
+ *
+ * @see {@link Sprite#setStateMachine(AnimationStateMachine)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class AnimationStateMachine
+{
+  //Constants
+  /**
+   * The state machine of a Sprite unless changed: every animation loops, and
+   * none has a transition.
+   */
+  public static final AnimationStateMachine LOOPING =
+    new AnimationStateMachine ();
+
+  /**
+   * Marks an animation without a transition.
+   */
+  private static final int NONE = -1;
+
+  //Members
+  /**
+   * The play mode of each animation, by id. Ids beyond the end loop.
+   */
+  private final PlayMode [] modes;
+
+  /**
+   * The animation that follows each animation, by id, or NONE. Ids beyond
+   * the end have no transition.
+   */
+  private final int [] transitions;
+
+  //Constructors
+  /**
+   * Default Constructor. Creates a state machine without any rules.
+   */
+  public AnimationStateMachine ()
+  {
+    this (new PlayMode [0], new int [0]);
+  }
+
+  /**
+   * Wraps the given rules, which must not be modified afterwards.
+   *
+   * @param modes       - The play mode of each animation, by id
+   * @param transitions - The animation that follows each animation, by id
+   */
+  private AnimationStateMachine (PlayMode [] modes, int [] transitions)
+  {
+    this.modes       = modes;
+    this.transitions = transitions;
+  }
+
+  //Functions
+  /**
+   * Returns a state machine identical to this one, except that the given
+   * animation is played in the given mode.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @param mode - The play mode
+   * @return The new state machine
+   */
+  public AnimationStateMachine with (Animations type, PlayMode mode)
+  {
+    return with (type.value (), mode);
+  }
+
+  /**
+   * Returns a state machine identical to this one, except that the animation
+   * with the given id is played in the given mode.
+   *
+   * @param id   - The id of the animation, from the ClipRegistry
+   * @param mode - The play mode
+   * @return The new state machine
+   */
+  public AnimationStateMachine with (int id, PlayMode mode)
+  {
+    checkId (id);
+
+    if (mode == null)
+    {
+      throw new IllegalArgumentException ("Play mode may not be null.");
+    }
+
+    AnimationStateMachine altered = grow (Math.max (modes.length, id + 1));
+
+    altered.modes [id] = mode;
+
+    return altered;
+  }
+
+  /**
+   * Returns a state machine identical to this one, except that the target
+   * animation starts once the source animation completes.
+   *
+   * @param source - The animation that completes
+   * @param target - The animation that follows it, or null for none
+   * @return The new state machine
+   */
+  public AnimationStateMachine withTransition (Animations source,
+                                               Animations target)
+  {
+    return withTransition (source.value (),
+                           target == null ? NONE : target.value ());
+  }
+
+  /**
+   * Returns a state machine identical to this one, except that the target
+   * animation starts once the source animation completes.
+   *
+   * @param source - The id of the animation that completes
+   * @param target - The id of the animation that follows it, or -1 for none
+   * @return The new state machine
+   */
+  public AnimationStateMachine withTransition (int source, int target)
+  {
+    checkId (source);
+
+    if (target != NONE)
+    {
+      checkId (target);
+    }
+
+    AnimationStateMachine altered =
+      grow (Math.max (transitions.length, source + 1));
+
+    altered.transitions [source] = target;
+
+    return altered;
+  }
+
+  /**
+   * Returns the play mode of an animation.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return The play mode
+   */
+  public PlayMode getMode (int id)
+  {
+    return id >= 0 && id < modes.length ? modes [id] : PlayMode.LOOP;
+  }
+
+  /**
+   * Returns the animation that follows an animation once it completes.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return The id of the following animation, or -1 if it has none
+   */
+  public int getTransition (int id)
+  {
+    return id >= 0 && id < transitions.length ? transitions [id] : NONE;
+  }
+
+  /**
+   * Determines which frame of a clip is showing at the given time, according
+   * to the play mode of its animation.
+   *
+   * @param id        - The id of the animation, from the ClipRegistry
+   * @param clip      - The clip of that animation
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The index of the frame showing at that time
+   */
+  public int frameAt (int id, AnimationClip clip, long timeNanos)
+  {
+    long duration = clip.getDuration ();
+
+    if (duration <= 0)
+    {
+      return 0;
+    }
+
+    switch (getMode (id))
+    {
+      case ONCE:
+        return timeNanos >= duration ? clip.length () - 1
+                                     : clip.frameAt (timeNanos);
+
+      case PING_PONG:
+        long t = Math.floorMod (timeNanos, pingPongCycle (clip));
+
+        //The way back plays the inner frames in reverse, so that the first
+        //and last frames are not shown twice in a row
+        return clip.frameAt (t < duration ? t : duration * 2 - 1 - t -
+                                                lastDelay (clip));
+
+      default:
+        return clip.frameAt (timeNanos);
+    }
+  }
+
+  /**
+   * Returns the time taken by one pass of an animation.
+   *
+   * @param id   - The id of the animation
+   * @param clip - The clip of that animation
+   * @return The length of one pass, in nanoseconds
+   */
+  long cycleOf (int id, AnimationClip clip)
+  {
+    return getMode (id) == PlayMode.PING_PONG ? pingPongCycle (clip)
+                                              : clip.getDuration ();
+  }
+
+  /**
+   * Returns the time taken by one pass of a clip there and back: every frame
+   * on the way there, and every frame but the last and first on the way
+   * back.
+   *
+   * @param clip - The clip
+   * @return The length of one pass, in nanoseconds
+   */
+  private static long pingPongCycle (AnimationClip clip)
+  {
+    long duration = clip.getDuration ();
+    long inner = duration - lastDelay (clip) -
+                 Math.max (clip.getDelay (0), 0) *
+                 AnimationClip.NANOS_PER_MILLI;
+
+    return duration + Math.max (inner, 0);
+  }
+
+  /**
+   * Returns the delay of the last frame of a clip.
+   *
+   * @param clip - The clip, which has at least one frame
+   * @return The delay, in nanoseconds
+   */
+  private static long lastDelay (AnimationClip clip)
+  {
+    return Math.max (clip.getDelay (clip.length () - 1), 0) *
+           AnimationClip.NANOS_PER_MILLI;
+  }
+
+  /**
+   * Returns a copy of this state machine with room for the given number of
+   * ids.
+   */
+  private AnimationStateMachine grow (int length)
+  {
+    PlayMode [] grownModes = Arrays.copyOf (modes, length);
+    int [] grownTransitions = Arrays.copyOf (transitions, length);
+
+    for (int i = modes.length; i < length; i++)
+    {
+      grownModes [i] = PlayMode.LOOP;
+    }
+
+    Arrays.fill (grownTransitions, transitions.length, length, NONE);
+
+    return new AnimationStateMachine (grownModes, grownTransitions);
+  }
+
+  /**
+   * Ensures an animation id is within range.
+   */
+  private static void checkId (int id)
+  {
+    if (id < 0 || id >= ClipRegistry.MAX_IDS)
+    {
+      throw new IllegalArgumentException ("Invalid animation id: " + id);
+    }
+  }
+
+  /**
+   * Receives the completions of the animations of a Sprite. Called on the
+   * thread that updates the Sprite.
+   */
+  public interface Listener
+  {
+    /**
+     * Called each time an animation completes: when an animation played once
+     * reaches its end, or when a looping animation finishes a pass. A looping
+     * animation that finishes several passes within a single update is
+     * reported once.
+     *
+     * @param sprite - The Sprite whose animation completed
+     * @param id     - The id of the animation, from the ClipRegistry
+     */
+    void animationCompleted (Sprite sprite, int id);
+  }
+}
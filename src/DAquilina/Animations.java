@@ -4,7 +4,8 @@ package DAquilina;
 /**
  * Enumeration for generic sprite animations, specifying the different types of
  * animations a single sprite may contain. The commented numbers are the values
- * associated with each animation type via this.value ().
+ * associated with each animation type via this.value (). Animations beyond
+ * these may be defined through the ClipRegistry.
  * 
  * @author Dominic Aquilina
  */
@@ -41,68 +42,14 @@ public enum Animations
   ATTACK_WEAK;     //25
   
   /**
-   * Returns the Integer value associated with each animation type. Useful for
-   * array index access, etc.
+   * Returns the Integer value associated with each animation type, which is
+   * also its predefined id in the ClipRegistry. Useful for array index
+   * access, etc.
+   * 
+   * @see {@link ClipRegistry}
    */
-  //Note: Remember to update switch-case each time an enum filed is added or modified.
   int value ()
   {
-    switch (this)
-    {
-      case IDLE1:
-        return 0;
-      case IDLE2:
-        return 1;
-      case IDLE3:
-        return 2;
-      case MOVE:
-        return 3;
-      case JUMP1:
-        return 4;
-      case JUMP2:
-        return 5;
-      case CROUCH:
-        return 6;
-      case ATTACK1:
-        return 7;
-      case ATTACK2:
-        return 8;
-      case ATTACK3:
-        return 9;
-      case TAKE_DAMAGE:
-        return 10;
-      case DEATH1:
-        return 11;
-      case DEATH2:
-        return 12;
-      case MISC1:
-        return 13;
-      case MISC2:
-        return 14;
-      case MISC3:
-        return 15;
-      case MISC4:
-        return 16;
-      case MISC5:
-        return 17;
-      case MOVE_UP:
-        return 18;
-      case MOVE_DOWN:
-        return 19;
-      case MOVE_LEFT:
-        return 20;
-      case MOVE_RIGHT:
-        return 21;
-      case ATTACK_MELEE:
-        return 22;
-      case ATTACK_RANGED:
-        return 23;
-      case ATTACK_STRONG:
-        return 24;
-      case ATTACK_WEAK:
-        return 25;
-      default:
-        return -1;
-    }
+    return ordinal ();
   }
 }
@@ -0,0 +1,359 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.io.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Loads templates and slices them into clips on a pool of background
+ * threads, so that many templates are decoded at once and the calling thread
+ * (ie. the event dispatch thread) is never held up. Each request returns
+ * immediately with a future that completes once the asset is ready.
+ *
+ * <br /> <br />
+ *
+ * ie. AssetLoader loader = new AssetLoader ();                     <br /> &nbsp;
+ *     CompletableFuture &lt;AnimationClip&gt; walk =
+ *       loader.loadClip (new File ("walk.png"), 5, 6, 30, Sprite.FR_12FPS);
+ *                                                                  <br /> &nbsp;
+ *     mySprite.setAnimation (Animations.MOVE, walk.join ());       <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * A file requested more than once is only decoded once. Loaded templates are
+ * converted to the display-compatible format before slicing unless
+ * conversion is turned off.
+ *
+ * @see {@link ImageConverter}
+ *
+ * @author Dominic Aquilina
+ */
+public class AssetLoader implements AutoCloseable
+{
+  //Members
+  /**
+   * The pool that decodes and slices templates.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The decoded templates, by canonical file path.
+   */
+  private final ConcurrentMap <String, CompletableFuture <BufferedImage>>
+    images = new ConcurrentHashMap <String, CompletableFuture <BufferedImage>> ();
+
+  /**
+   * The requested assets that have not yet finished loading.
+   */
+  private final Set <CompletableFuture <?>> pending =
+    ConcurrentHashMap.newKeySet ();
+
+  /**
+   * The number of assets requested so far.
+   */
+  private final AtomicInteger requested = new AtomicInteger ();
+
+  /**
+   * The number of requested assets that have finished loading, successfully
+   * or otherwise.
+   */
+  private final AtomicInteger completed = new AtomicInteger ();
+
+  /**
+   * Told of each asset that finishes loading, if not null.
+   */
+  private volatile ProgressListener listener;
+
+  /**
+   * Whether templates are converted to the display-compatible format.
+   */
+  private volatile boolean convert = true;
+
+  //Constructors
+  /**
+   * Default Constructor. Uses one thread per available processor.
+   */
+  public AssetLoader ()
+  {
+    this (Runtime.getRuntime ().availableProcessors ());
+  }
+
+  /**
+   * Creates a loader with the given number of threads.
+   *
+   * @param threads - The largest number of templates decoded at once
+   */
+  public AssetLoader (int threads)
+  {
+    final AtomicInteger number = new AtomicInteger ();
+
+    executor = Executors.newFixedThreadPool (threads, new ThreadFactory ()
+    {
+      @Override
+      public Thread newThread (Runnable task)
+      {
+        Thread thread = new Thread (task, "AssetLoader-" +
+                                          number.incrementAndGet ());
+
+        thread.setDaemon (true);
+
+        return thread;
+      }
+    });
+  }
+
+  //Functions
+  /**
+   * Sets the listener told of each asset that finishes loading. The listener
+   * is called on a loader thread.
+   *
+   * @param listener - The listener, or null for none
+   */
+  public void setProgressListener (ProgressListener listener)
+  {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets whether templates are converted to the display-compatible format
+   * before slicing. On by default.
+   *
+   * @param convert - True to convert templates
+   */
+  public void setConvert (boolean convert)
+  {
+    this.convert = convert;
+  }
+
+  /**
+   * Returns the number of assets requested so far.
+   *
+   * @return The number of assets
+   */
+  public int getRequested ()
+  {
+    return requested.get ();
+  }
+
+  /**
+   * Returns the number of requested assets that have finished loading.
+   *
+   * @return The number of assets
+   */
+  public int getCompleted ()
+  {
+    return completed.get ();
+  }
+
+  /**
+   * Decodes an image in the background.
+   *
+   * @param file - The image file
+   * @return A future completing with the decoded (and possibly converted)
+   *         image
+   */
+  public CompletableFuture <BufferedImage> loadImage (File file)
+  {
+    return track (decode (file));
+  }
+
+  /**
+   * Decodes a template and slices it into a clip in the background.
+   *
+   * @see {@link AnimationClip#slice(BufferedImage, int, int, int, int)}
+   *
+   * @param file      - The template file
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @return A future completing with the clip
+   */
+  public CompletableFuture <AnimationClip> loadClip (File file,
+                                                     final int height,
+                                                     final int width,
+                                                     final int numFrames,
+                                                     final int framerate)
+  {
+    return track (decode (file).thenApplyAsync (
+      sheet -> AnimationClip.slice (sheet, height, width, numFrames,
+                                    framerate),
+      executor));
+  }
+
+  /**
+   * Decodes an animated GIF or APNG file into a clip in the background, with
+   * the delays given in the file. The clip is not cached; each call decodes
+   * the file again.
+   *
+   * @see {@link AnimatedImageLoader#load(File, FramePool)}
+   *
+   * @param file - The animated image file
+   * @param pool - The pool through which to trim and share the frames, or
+   *               null to keep every frame whole
+   * @return A future completing with the clip
+   */
+  public CompletableFuture <AnimationClip> loadAnimation (final File file,
+                                                          final FramePool pool)
+  {
+    return track (CompletableFuture.supplyAsync (() ->
+    {
+      try
+      {
+        return AnimatedImageLoader.load (file, pool);
+      }
+      catch (IOException e)
+      {
+        throw new CompletionException (e);
+      }
+    }, executor));
+  }
+
+  /**
+   * Returns a future that completes once every asset requested so far has
+   * finished loading.
+   *
+   * @return The future
+   */
+  public CompletableFuture <Void> whenIdle ()
+  {
+    return CompletableFuture.allOf (pending.toArray (
+      new CompletableFuture <?> [0]));
+  }
+
+  /**
+   * Stops the loader's threads. Assets already being loaded are finished.
+   */
+  @Override
+  public void close ()
+  {
+    executor.shutdown ();
+  }
+
+  /**
+   * Returns the future of the given file's decoded image, starting the
+   * decoding if the file has not been requested before.
+   *
+   * @param file - The image file
+   * @return The future of the decoded image
+   */
+  private CompletableFuture <BufferedImage> decode (final File file)
+  {
+    String key;
+
+    try
+    {
+      key = file.getCanonicalPath ();
+    }
+    catch (IOException e)
+    {
+      key = file.getAbsolutePath ();
+    }
+
+    CompletableFuture <BufferedImage> image = images.get (key);
+
+    if (image == null)
+    {
+      image = images.computeIfAbsent (key, k -> CompletableFuture.supplyAsync (
+        () -> read (file), executor));
+    }
+
+    return image;
+  }
+
+  /**
+   * Decodes, and possibly converts, a single image.
+   *
+   * @param file - The image file
+   * @return The image
+   *
+   * @throws CompletionException - If the file cannot be read
+   */
+  private BufferedImage read (File file)
+  {
+    EngineEvents.SheetLoad event = new EngineEvents.SheetLoad ();
+    long start = System.nanoTime ();
+    BufferedImage image;
+
+    event.begin ();
+
+    try
+    {
+      image = ImageIO.read (file);
+    }
+    catch (IOException e)
+    {
+      throw new CompletionException (e);
+    }
+
+    if (image == null)
+    {
+      throw new CompletionException (new IOException (
+        "No decoder found for " + file));
+    }
+
+    if (convert)
+    {
+      image = ImageConverter.toCompatible (image);
+    }
+
+    event.file   = file.getPath ();
+    event.width  = image.getWidth ();
+    event.height = image.getHeight ();
+    event.commit ();
+
+    MetricsRegistry.getShared ().record (MetricsRegistry.SHEET_LOAD,
+                                         System.nanoTime () - start);
+
+    return image;
+  }
+
+  /**
+   * Counts a request, and arranges for the listener to be told when it
+   * finishes.
+   *
+   * @param future - The future of the requested asset
+   * @return The same future
+   */
+  private <T> CompletableFuture <T> track (CompletableFuture <T> future)
+  {
+    requested.incrementAndGet ();
+    pending.add (future);
+
+    future.whenComplete ((result, failure) ->
+    {
+      pending.remove (future);
+
+      int done = completed.incrementAndGet ();
+      ProgressListener current = listener;
+
+      if (current != null)
+      {
+        current.progress (done, requested.get ());
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * Told each time an asset finishes loading.
+   */
+  public interface ProgressListener
+  {
+    /**
+     * Called each time an asset finishes loading, successfully or otherwise.
+     *
+     * @param completed - The number of assets that have finished loading
+     * @param requested - The number of assets requested so far
+     */
+    void progress (int completed, int requested);
+  }
+}
@@ -0,0 +1,345 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * A rectangle within a larger image (a page) that holds a single frame. Frames
+ * that have been packed into a TextureAtlas share a handful of pages, so
+ * drawing them through their regions touches far fewer distinct images than
+ * drawing each frame as an image of its own.
+ *
+ * <br /> <br />
+ *
+ * Frames that have not been packed are described by a region covering the
+ * whole of the frame.
+ *
+ * <br /> <br />
+ *
+ * A frame that has been trimmed of its transparent border keeps the size of
+ * the cell it was cut from, along with the offset of its opaque pixels within
+ * that cell. The offset is applied whenever the region is drawn, so a trimmed
+ * frame lands exactly where the untrimmed frame would have.
+ *
+ * @see {@link FramePool}
+ * @see {@link TextureAtlas}
+ *
+ * @author Dominic Aquilina
+ */
+public final class AtlasRegion
+{
+  //Constants
+  /**
+   * The number given to each page in use, so that every region on a page
+   * shares it. Pages are held weakly.
+   */
+  private static final Map <BufferedImage, Integer> pageIds =
+    new WeakHashMap <BufferedImage, Integer> ();
+
+  /**
+   * The number given to the next new page. Guarded by pageIds.
+   */
+  private static int nextPageId = 0;
+
+  //Members
+  /**
+   * The image that contains the frame.
+   */
+  private final BufferedImage page;
+
+  /**
+   * The number of the page, fixed for as long as the page exists.
+   */
+  private final int pageId;
+
+  /**
+   * The left edge of the frame within the page.
+   */
+  private final int x;
+
+  /**
+   * The top edge of the frame within the page.
+   */
+  private final int y;
+
+  /**
+   * The width of the frame.
+   */
+  private final int width;
+
+  /**
+   * The height of the frame.
+   */
+  private final int height;
+
+  /**
+   * The position of the frame within its untrimmed cell.
+   */
+  private final int offsetX;
+  private final int offsetY;
+
+  /**
+   * The size of the untrimmed cell.
+   */
+  private final int originalWidth;
+  private final int originalHeight;
+
+  //Constructors
+  /**
+   * Creates a region covering the whole of the given image.
+   *
+   * @param image - The frame
+   */
+  public AtlasRegion (BufferedImage image)
+  {
+    this (image, 0, 0, image.getWidth (), image.getHeight ());
+  }
+
+  /**
+   * Creates a region within the given page.
+   *
+   * @param page   - The image that contains the frame
+   * @param x      - The left edge of the frame within the page
+   * @param y      - The top edge of the frame within the page
+   * @param width  - The width of the frame
+   * @param height - The height of the frame
+   */
+  public AtlasRegion (BufferedImage page, int x, int y, int width, int height)
+  {
+    this (page, x, y, width, height, 0, 0, width, height);
+  }
+
+  /**
+   * Creates a region holding a trimmed frame.
+   *
+   * @param page           - The image that contains the frame
+   * @param x              - The left edge of the frame within the page
+   * @param y              - The top edge of the frame within the page
+   * @param width          - The width of the frame
+   * @param height         - The height of the frame
+   * @param offsetX        - The left edge of the frame within its cell
+   * @param offsetY        - The top edge of the frame within its cell
+   * @param originalWidth  - The width of the untrimmed cell
+   * @param originalHeight - The height of the untrimmed cell
+   */
+  public AtlasRegion (BufferedImage page, int x, int y, int width, int height,
+                      int offsetX, int offsetY, int originalWidth,
+                      int originalHeight)
+  {
+    this.page           = page;
+    this.pageId         = pageIdOf (page);
+    this.x              = x;
+    this.y              = y;
+    this.width          = width;
+    this.height         = height;
+    this.offsetX        = offsetX;
+    this.offsetY        = offsetY;
+    this.originalWidth  = originalWidth;
+    this.originalHeight = originalHeight;
+  }
+
+  //Functions
+  /**
+   * Returns the image that contains the frame.
+   *
+   * @return The page
+   */
+  public BufferedImage getPage ()
+  {
+    return page;
+  }
+
+  /**
+   * Returns the number of the image that contains the frame. Every region on
+   * a page has the same number, and a page keeps its number for as long as
+   * it exists.
+   *
+   * @return The number of the page
+   */
+  public int getPageId ()
+  {
+    return pageId;
+  }
+
+  /**
+   * Returns the left edge of the frame within the page.
+   *
+   * @return The x coordinate
+   */
+  public int getX ()
+  {
+    return x;
+  }
+
+  /**
+   * Returns the top edge of the frame within the page.
+   *
+   * @return The y coordinate
+   */
+  public int getY ()
+  {
+    return y;
+  }
+
+  /**
+   * Returns the width of the frame.
+   *
+   * @return The width, in pixels
+   */
+  public int getWidth ()
+  {
+    return width;
+  }
+
+  /**
+   * Returns the height of the frame.
+   *
+   * @return The height, in pixels
+   */
+  public int getHeight ()
+  {
+    return height;
+  }
+
+  /**
+   * Returns the left edge of the frame within its untrimmed cell.
+   *
+   * @return The x offset, 0 unless the frame was trimmed
+   */
+  public int getOffsetX ()
+  {
+    return offsetX;
+  }
+
+  /**
+   * Returns the top edge of the frame within its untrimmed cell.
+   *
+   * @return The y offset, 0 unless the frame was trimmed
+   */
+  public int getOffsetY ()
+  {
+    return offsetY;
+  }
+
+  /**
+   * Returns the width of the untrimmed cell.
+   *
+   * @return The width, in pixels
+   */
+  public int getOriginalWidth ()
+  {
+    return originalWidth;
+  }
+
+  /**
+   * Returns the height of the untrimmed cell.
+   *
+   * @return The height, in pixels
+   */
+  public int getOriginalHeight ()
+  {
+    return originalHeight;
+  }
+
+  /**
+   * Determines whether the region covers the whole of its page.
+   *
+   * @return True if the page holds nothing but this frame
+   */
+  public boolean coversPage ()
+  {
+    return x == 0 && y == 0 && width == page.getWidth () &&
+           height == page.getHeight ();
+  }
+
+  /**
+   * Returns a region holding the same frame, with the same offset, at a new
+   * position, ie. once the frame has been copied into an atlas.
+   *
+   * @param page - The image that now contains the frame
+   * @param x    - The left edge of the frame within the new page
+   * @param y    - The top edge of the frame within the new page
+   * @return The relocated region
+   */
+  public AtlasRegion relocate (BufferedImage page, int x, int y)
+  {
+    return new AtlasRegion (page, x, y, width, height, offsetX, offsetY,
+                            originalWidth, originalHeight);
+  }
+
+  /**
+   * Draws the frame as though its untrimmed cell had its top-left corner at
+   * the given position. Only the region is copied out of the page; no
+   * intermediate image is created.
+   *
+   * @param g  - The graphics context to draw to
+   * @param dx - The x position to draw at
+   * @param dy - The y position to draw at
+   */
+  public void draw (Graphics g, int dx, int dy)
+  {
+    dx += offsetX;
+    dy += offsetY;
+
+    g.drawImage (page, dx, dy, dx + width, dy + height,
+                 x, y, x + width, y + height, null);
+  }
+
+  /**
+   * Draws the part of the frame that falls within the given area, as though
+   * its untrimmed cell had its top-left corner at the given position. Unlike
+   * setting a clip on the graphics context, this allocates nothing.
+   *
+   * @param g    - The graphics context to draw to
+   * @param dx   - The x position to draw at
+   * @param dy   - The y position to draw at
+   * @param area - The area outside which nothing is drawn
+   * @return True if any of the frame fell within the area
+   */
+  boolean draw (Graphics g, int dx, int dy, Rectangle area)
+  {
+    dx += offsetX;
+    dy += offsetY;
+
+    int left   = Math.max (dx, area.x);
+    int top    = Math.max (dy, area.y);
+    int right  = Math.min (dx + width, area.x + area.width);
+    int bottom = Math.min (dy + height, area.y + area.height);
+
+    if (left >= right || top >= bottom)
+    {
+      return false;
+    }
+
+    g.drawImage (page, left, top, right, bottom,
+                 x + left - dx, y + top - dy, x + right - dx, y + bottom - dy,
+                 null);
+
+    return true;
+  }
+
+  /**
+   * Returns the number of the given page, numbering it if it has none yet.
+   *
+   * @param page - The page
+   * @return The number of the page
+   */
+  private static int pageIdOf (BufferedImage page)
+  {
+    synchronized (pageIds)
+    {
+      Integer id = pageIds.get (page);
+
+      if (id == null)
+      {
+        id = nextPageId++;
+        pageIds.put (page, id);
+      }
+
+      return id;
+    }
+  }
+}
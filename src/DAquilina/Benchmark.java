@@ -0,0 +1,698 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.io.*;
+import java.awt.*;
+import java.awt.image.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless micro-benchmarks for the engine: slicing templates at various grid
+ * sizes, frame lookup across many Sprites, blitting frames onto an offscreen
+ * image, and pixel-perfect hit tests between frames. Each benchmark is warmed
+ * up before it is measured, and reports the average time per operation.
+ *
+ * <br /> <br />
+ *
+ * Use:
+ *
+ * <br /> <br />
+ *
+ * java -Djava.awt.headless=true DAquilina.Benchmark [filter]
+ *
+ * <br /> <br />
+ *
+ * Only benchmarks whose names contain the filter are run. Templates found in
+ * the Resources folder are benchmarked alongside the synthetic ones.
+ *
+ * @author Dominic Aquilina
+ */
+public class Benchmark
+{
+  //Constants
+  /**
+   * The number of warm-up rounds run before measuring, so that the JIT has
+   * compiled the code under test.
+   */
+  private static final int WARMUP_ROUNDS = 5;
+
+  /**
+   * The number of measured rounds.
+   */
+  private static final int MEASURED_ROUNDS = 10;
+
+  /**
+   * The minimum duration of each round, in nanoseconds.
+   */
+  private static final long ROUND_NANOS = 200000000L;
+
+  //Members
+  /**
+   * Receives the results of the code under test so that the JIT cannot
+   * discard it as dead code.
+   */
+  static volatile int sink;
+
+  /**
+   * Only benchmarks whose names contain this are run.
+   */
+  private static String filter = "";
+
+  //Functions
+  public static void main (String [] args) throws Exception
+  {
+    System.setProperty ("java.awt.headless", "true");
+
+    if (args.length > 0)
+    {
+      filter = args [0];
+    }
+
+    benchmarkSlicing ();
+    benchmarkLookup ();
+    benchmarkBlitting ();
+    benchmarkBatch ();
+    benchmarkCollision ();
+    benchmarkPool ();
+    benchmarkAllocation ();
+  }
+
+  /**
+   * A single operation to be measured.
+   */
+  interface Task
+  {
+    /**
+     * Performs the operation once.
+     *
+     * @return Any value derived from the result, fed to the sink
+     */
+    int run () throws Exception;
+  }
+
+  /**
+   * Measures the average time of the given operation and prints the result.
+   *
+   * @param name - The name of the benchmark
+   * @param task - The operation to measure
+   */
+  static void measure (String name, Task task) throws Exception
+  {
+    if (!name.contains (filter))
+    {
+      return;
+    }
+
+    for (int round = 0; round < WARMUP_ROUNDS; round++)
+    {
+      runRound (task);
+    }
+
+    double best = Double.MAX_VALUE;
+    double total = 0;
+
+    for (int round = 0; round < MEASURED_ROUNDS; round++)
+    {
+      double nanosPerOp = runRound (task);
+
+      best   = Math.min (best, nanosPerOp);
+      total += nanosPerOp;
+    }
+
+    System.out.printf ("%-48s %14.1f ns/op (best %14.1f)%n", name,
+                       total / MEASURED_ROUNDS, best);
+  }
+
+  /**
+   * Runs the given operation repeatedly for at least one round's duration.
+   *
+   * @param task - The operation to run
+   * @return The average time per operation, in nanoseconds
+   */
+  private static double runRound (Task task) throws Exception
+  {
+    int result = 0;
+    long ops = 0;
+    long start = System.nanoTime ();
+    long elapsed;
+
+    do
+    {
+      result += task.run ();
+      ops++;
+
+      elapsed = System.nanoTime () - start;
+    }
+    while (elapsed < ROUND_NANOS);
+
+    sink += result;
+
+    return (double) elapsed / ops;
+  }
+
+  /**
+   * Benchmarks AnimationClip.slice on synthetic templates of increasingly
+   * fine grids, then on the demo templates.
+   */
+  private static void benchmarkSlicing () throws Exception
+  {
+    final BufferedImage sheet = syntheticSheet (1024, 1024);
+
+    for (final int grid : new int [] {1, 4, 8, 16, 32})
+    {
+      measure ("slice synthetic 1024x1024 " + grid + "x" + grid, new Task ()
+      {
+        @Override
+        public int run ()
+        {
+          return AnimationClip.slice (sheet, grid, grid, grid * grid,
+                                      Sprite.FR_12FPS).length ();
+        }
+      });
+    }
+
+    final BufferedImage walk = loadResource ("walksequence_left.png");
+
+    if (walk != null)
+    {
+      measure ("slice walksequence_left 5x6", new Task ()
+      {
+        @Override
+        public int run ()
+        {
+          return AnimationClip.slice (walk, 5, 6, 30,
+                                      Sprite.FR_12FPS).length ();
+        }
+      });
+    }
+  }
+
+  /**
+   * Benchmarks frame lookup for a crowd of Sprites sharing a single set, once
+   * through the original getFrame and once through the time-based methods.
+   * Each operation visits every Sprite once.
+   */
+  private static void benchmarkLookup () throws Exception
+  {
+    AnimationClip clip = AnimationClip.slice (syntheticSheet (512, 512), 8, 8,
+                                              64, Sprite.FR_12FPS);
+    AnimationClip uneven = clip.withDelay (0, Sprite.FR_12FPS * 3);
+    AnimationSet set = new AnimationSet ().with (Animations.IDLE1, clip)
+                                          .with (Animations.MOVE, uneven);
+
+    for (final int count : new int [] {1000, 10000, 100000})
+    {
+      final Sprite [] sprites = new Sprite [count];
+      for (int i = 0; i < count; i++)
+      {
+        sprites [i] = new Sprite (set);
+        sprites [i].play (i % 2 == 0 ? Animations.IDLE1 : Animations.MOVE);
+        sprites [i].update (i * 1000003L);
+      }
+
+      measure ("getFrame " + count + " sprites", new Task ()
+      {
+        @Override
+        public int run ()
+        {
+          int hash = 0;
+
+          for (Sprite sprite : sprites)
+          {
+            hash += sprite.getFrame (Animations.IDLE1,
+                                     sprite.FramePointer ()).getWidth ();
+          }
+
+          return hash;
+        }
+      });
+
+      measure ("update+getCurrentRegion " + count + " sprites", new Task ()
+      {
+        @Override
+        public int run ()
+        {
+          int hash = 0;
+
+          for (Sprite sprite : sprites)
+          {
+            sprite.update (16666667L);
+            hash += sprite.getCurrentRegion ().getWidth ();
+          }
+
+          return hash;
+        }
+      });
+    }
+  }
+
+  /**
+   * Benchmarks advancing a crowd of instances held in a SpritePool, for
+   * comparison with advancing the same number of Sprites above.
+   */
+  private static void benchmarkPool () throws Exception
+  {
+    AnimationClip clip = AnimationClip.slice (syntheticSheet (512, 512), 8, 8,
+                                              64, Sprite.FR_12FPS);
+    AnimationClip uneven = clip.withDelay (0, Sprite.FR_12FPS * 3);
+
+    for (final int count : new int [] {1000, 10000, 100000})
+    {
+      final SpritePool pool = new SpritePool (count);
+      int even = pool.registerClip (clip);
+      int odd  = pool.registerClip (uneven);
+
+      for (int i = 0; i < count; i++)
+      {
+        pool.allocate (i % 2 == 0 ? even : odd, i % 1920, i % 1080);
+      }
+
+      pool.update (1000003L);
+
+      measure ("SpritePool update+getRegion " + count + " instances",
+               new Task ()
+      {
+        @Override
+        public int run ()
+        {
+          int hash = 0;
+
+          pool.update (16666667L);
+
+          for (int i = 0; i < count; i++)
+          {
+            hash += pool.getFrame (i);
+          }
+
+          return hash;
+        }
+      });
+    }
+  }
+
+  /**
+   * Benchmarks drawing frames onto an offscreen image: frames sliced straight
+   * from a template (as by Sprite.setAnimation), the same frames packed into
+   * an atlas, and the same frames converted to the compatible format. Each is
+   * drawn both through Graphics.drawImage and through a RasterBlitter.
+   */
+  private static void benchmarkBlitting () throws Exception
+  {
+    BufferedImage template = loadResource ("walksequence_left.png");
+
+    if (template == null)
+    {
+      template = syntheticSheet (720, 740);
+    }
+
+    AnimationClip sliced = AnimationClip.slice (template, 5, 6, 30,
+                                                Sprite.FR_12FPS);
+    AnimationClip packed = new TextureAtlas ().pack (sliced) [0];
+    AnimationClip converted = new ImageConverter ().convert (sliced);
+
+    AnimationClip translucent = AnimationClip.slice (
+      syntheticSheet (720, 740), 5, 6, 30, Sprite.FR_12FPS);
+
+    measureBlits ("blit sliced", sliced);
+    measureBlits ("blit atlas", packed);
+    measureBlits ("blit converted", converted);
+    measureBlits ("blit translucent", translucent);
+
+    measureRasterBlits ("blit raster sliced", sliced);
+    measureRasterBlits ("blit raster atlas", packed);
+    measureRasterBlits ("blit raster converted", converted);
+    measureRasterBlits ("blit raster translucent", translucent);
+  }
+
+  /**
+   * Measures drawing 1000 frames of the given clip onto an offscreen image.
+   *
+   * @param name - The name of the benchmark
+   * @param clip - The clip whose frames are drawn
+   */
+  private static void measureBlits (String name, final AnimationClip clip)
+    throws Exception
+  {
+    final BufferedImage target = new BufferedImage (
+      1024, 1024, BufferedImage.TYPE_INT_ARGB_PRE);
+    final Graphics2D g = target.createGraphics ();
+
+    measure (name + " x1000", new Task ()
+    {
+      @Override
+      public int run ()
+      {
+        for (int i = 0; i < 1000; i++)
+        {
+          clip.getRegion (i % clip.length ()).draw (g, (i * 37) % 900,
+                                                    (i * 91) % 880);
+        }
+
+        return target.getRGB (0, 0);
+      }
+    });
+
+    g.dispose ();
+  }
+
+  /**
+   * Measures drawing 1000 frames of the given clip onto the same offscreen
+   * image as measureBlits, writing its pixels directly.
+   *
+   * @param name - The name of the benchmark
+   * @param clip - The clip whose frames are drawn
+   */
+  private static void measureRasterBlits (String name,
+                                          final AnimationClip clip)
+    throws Exception
+  {
+    final BufferedImage target = new BufferedImage (
+      1024, 1024, BufferedImage.TYPE_INT_ARGB_PRE);
+    final RasterBlitter blitter = new RasterBlitter ();
+
+    measure (name + " x1000", new Task ()
+    {
+      @Override
+      public int run ()
+      {
+        for (int i = 0; i < 1000; i++)
+        {
+          blitter.draw (target, clip.getRegion (i % clip.length ()),
+                        (i * 37) % 900, (i * 91) % 880);
+        }
+
+        return target.getRGB (0, 0);
+      }
+    });
+  }
+
+  /**
+   * Benchmarks 1000 pixel-perfect hit tests between the frames of a clip at
+   * varying positions: reading each pixel through getRGB, and ANDing the
+   * words of the frames' collision masks.
+   */
+  private static void benchmarkCollision () throws Exception
+  {
+    BufferedImage template = loadResource ("walksequence_left.png");
+
+    if (template == null)
+    {
+      template = syntheticSheet (720, 740);
+    }
+
+    final AnimationClip clip = AnimationClip.slice (template, 5, 6, 30,
+                                                    Sprite.FR_12FPS)
+                                            .buildCollisionMasks ();
+
+    measure ("collide getRGB x1000", new Task ()
+    {
+      @Override
+      public int run ()
+      {
+        int hits = 0;
+
+        for (int i = 0; i < 1000; i++)
+        {
+          BufferedImage a = clip.getFrame (i % clip.length ());
+          BufferedImage b = clip.getFrame ((i + 7) % clip.length ());
+          int dx = i % 97 - 48, dy = i % 89 - 44;
+
+          hits += collidesByPixel (a, b, dx, dy) ? 1 : 0;
+        }
+
+        return hits;
+      }
+    });
+
+    measure ("collide mask x1000", new Task ()
+    {
+      @Override
+      public int run ()
+      {
+        int hits = 0;
+
+        for (int i = 0; i < 1000; i++)
+        {
+          CollisionMask a = clip.getCollisionMask (i % clip.length ());
+          CollisionMask b = clip.getCollisionMask ((i + 7) % clip.length ());
+          int dx = i % 97 - 48, dy = i % 89 - 44;
+
+          hits += CollisionMask.collides (a, 0, 0, b, dx, dy) ? 1 : 0;
+        }
+
+        return hits;
+      }
+    });
+  }
+
+  /**
+   * Determines whether two frames share a pixel at least half opaque, the
+   * second offset from the first, by reading every pixel where they overlap.
+   *
+   * @param a  - The first frame
+   * @param b  - The second frame
+   * @param dx - The x offset of the second frame
+   * @param dy - The y offset of the second frame
+   * @return True if the frames overlap
+   */
+  private static boolean collidesByPixel (BufferedImage a, BufferedImage b,
+                                          int dx, int dy)
+  {
+    int right  = Math.min (a.getWidth (), dx + b.getWidth ());
+    int bottom = Math.min (a.getHeight (), dy + b.getHeight ());
+
+    for (int y = Math.max (0, dy); y < bottom; y++)
+    {
+      for (int x = Math.max (0, dx); x < right; x++)
+      {
+        if (a.getRGB (x, y) >>> 24 >= CollisionMask.DEFAULT_THRESHOLD &&
+            b.getRGB (x - dx, y - dy) >>> 24 >= CollisionMask.DEFAULT_THRESHOLD)
+        {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Benchmarks rendering a whole frame of animated Sprites, spread over four
+   * layers, through a SpriteBatch onto a 1920x1080 offscreen image.
+   */
+  private static void benchmarkBatch () throws Exception
+  {
+    AnimationClip walk = AnimationClip.slice (syntheticSheet (256, 256), 4, 4,
+                                              16, Sprite.FR_12FPS);
+    AnimationClip spin = AnimationClip.slice (syntheticSheet (128, 128), 4, 4,
+                                              16, Sprite.FR_100FPS);
+    AnimationClip [] packed = new TextureAtlas ().pack (walk, spin);
+    AnimationSet set = new AnimationSet ().with (Animations.IDLE1, packed [0])
+                                          .with (Animations.MOVE, packed [1]);
+
+    for (final int count : new int [] {1000, 10000})
+    {
+      final Sprite [] sprites = new Sprite [count];
+      for (int i = 0; i < count; i++)
+      {
+        sprites [i] = new Sprite (set);
+        sprites [i].play (i % 3 == 0 ? Animations.MOVE : Animations.IDLE1);
+      }
+
+      TileCompositor sequential = new TileCompositor ();
+      sequential.setParallel (false);
+
+      measureBatch ("batch render " + count + " sprites", sprites, null);
+      measureBatch ("batch tiled " + count + " sprites", sprites, sequential);
+      measureBatch ("batch tiled parallel " + count + " sprites", sprites,
+                    new TileCompositor ());
+    }
+  }
+
+  /**
+   * Measures rendering a frame of the given Sprites onto a 1920x1080
+   * TYPE_INT_ARGB image.
+   *
+   * @param name       - The name of the benchmark
+   * @param sprites    - The Sprites to draw
+   * @param compositor - The compositor to use, or null to use Graphics
+   */
+  private static void measureBatch (String name, final Sprite [] sprites,
+                                    TileCompositor compositor)
+    throws Exception
+  {
+    final SpriteBatch batch = new SpriteBatch ();
+    final BufferedImage target = new BufferedImage (
+      1920, 1080, BufferedImage.TYPE_INT_ARGB);
+
+    batch.setCompositor (compositor);
+
+    measure (name, new Task ()
+    {
+      @Override
+      public int run ()
+      {
+        for (int i = 0; i < sprites.length; i++)
+        {
+          sprites [i].update (16666667L);
+          batch.draw (sprites [i], (i * 37) % 1860, (i * 91) % 1020, i & 3);
+        }
+
+        batch.render (target);
+
+        return target.getRGB (0, 0);
+      }
+    });
+  }
+
+  /**
+   * Checks that rendering a frame of animated Sprites allocates nothing once
+   * warmed up, through Graphics and through the compositor, with and without
+   * dirty rectangles. Reports the bytes allocated per frame by the rendering
+   * thread, which should be 0.
+   */
+  private static void benchmarkAllocation () throws Exception
+  {
+    AnimationClip walk = AnimationClip.slice (syntheticSheet (256, 256), 4, 4,
+                                              16, Sprite.FR_12FPS);
+    AnimationSet set = new AnimationSet ().with (Animations.MOVE,
+                                                 new TextureAtlas ()
+                                                   .pack (walk) [0]);
+
+    Sprite [] sprites = new Sprite [1000];
+
+    for (int i = 0; i < sprites.length; i++)
+    {
+      sprites [i] = new Sprite (set);
+      sprites [i].play (Animations.MOVE);
+    }
+
+    TileCompositor sequential = new TileCompositor ();
+    sequential.setParallel (false);
+
+    measureAllocation ("alloc render 1000 sprites", sprites, null, false);
+    measureAllocation ("alloc render dirty 1000 sprites", sprites, null, true);
+    measureAllocation ("alloc tiled dirty 1000 sprites", sprites, sequential,
+                       true);
+  }
+
+  /**
+   * Renders frames of the given Sprites onto a 1920x1080 TYPE_INT_ARGB image
+   * and prints the bytes allocated per frame, once warmed up.
+   *
+   * @param name       - The name of the benchmark
+   * @param sprites    - The Sprites to draw
+   * @param compositor - The compositor to use, or null to use Graphics
+   * @param dirty      - Whether to redraw only the dirty rectangles
+   */
+  private static void measureAllocation (String name, Sprite [] sprites,
+                                         TileCompositor compositor,
+                                         boolean dirty)
+  {
+    if (!name.contains (filter))
+    {
+      return;
+    }
+
+    SpriteBatch batch = new SpriteBatch ();
+    DirtyRegionTracker tracker = new DirtyRegionTracker (1920, 1080);
+    RenderMetrics metrics = new RenderMetrics ();
+    BufferedImage target = new BufferedImage (1920, 1080,
+                                              BufferedImage.TYPE_INT_ARGB);
+
+    if (!metrics.isAllocationTracked ())
+    {
+      System.out.printf ("%-48s %s%n", name, "allocations not tracked");
+
+      return;
+    }
+
+    batch.setCompositor (compositor);
+    batch.setMetrics (metrics);
+
+    for (int frame = 0; frame < 2000; frame++)
+    {
+      //Discard the warm-up frames, during which the batch grows and the JIT
+      //compiles the code under test
+      if (frame == 1000)
+      {
+        metrics.reset ();
+      }
+
+      metrics.beginFrame ();
+
+      for (int i = 0; i < sprites.length; i++)
+      {
+        sprites [i].update (16666667L);
+        batch.draw (sprites [i], (i * 37 + frame) % 1860, (i * 91) % 1020,
+                    i & 3);
+      }
+
+      if (dirty)
+      {
+        batch.render (target, null, tracker.update (batch));
+      }
+      else
+      {
+        batch.render (target);
+      }
+
+      metrics.endFrame ();
+    }
+
+    batch.dispose ();
+
+    sink += target.getRGB (0, 0);
+
+    Histogram allocations = metrics.getAllocations ();
+
+    System.out.printf ("%-48s %14.1f bytes/frame (max %d), %d blits/frame%n",
+                       name, allocations.getMean (), allocations.getMax (),
+                       metrics.getBlits ().getPercentile (50));
+  }
+
+  /**
+   * Creates a translucent template with a distinct pattern in every pixel.
+   *
+   * @param width  - The width of the template
+   * @param height - The height of the template
+   * @return The template
+   */
+  static BufferedImage syntheticSheet (int width, int height)
+  {
+    BufferedImage sheet = new BufferedImage (width, height,
+                                             BufferedImage.TYPE_INT_ARGB);
+
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        int alpha = ((x ^ y) & 0x10) == 0 ? 0xFF : (x * 7 + y) & 0xFF;
+
+        sheet.setRGB (x, y, alpha << 24 | (x & 0xFF) << 16 |
+                            (y & 0xFF) << 8 | ((x + y) & 0xFF));
+      }
+    }
+
+    return sheet;
+  }
+
+  /**
+   * Loads an image from the Resources folder.
+   *
+   * @param name - The file name of the image
+   * @return The image, or null if it could not be loaded
+   */
+  static BufferedImage loadResource (String name)
+  {
+    try
+    {
+      return ImageIO.read (new File ("Resources", name));
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+
+/**
+ * A compact map from animation ids to clips, using open addressing over a
+ * pair of parallel arrays. A character that uses three animations pays for a
+ * table of four entries, rather than a slot for every animation there is.
+ *
+ * <br /> <br />
+ *
+ * Lookups involve no boxing and, for the handful of clips a character
+ * typically has, usually touch a single entry.
+ *
+ * @see {@link AnimationSet}
+ *
+ * @author Dominic Aquilina
+ */
+final class ClipMap
+{
+  //Constants
+  /**
+   * Marks an empty entry.
+   */
+  private static final int EMPTY = -1;
+
+  /**
+   * Spreads consecutive ids across the table (Fibonacci hashing).
+   */
+  private static final int SPREAD = 0x9E3779B9;
+
+  //Members
+  /**
+   * The id held by each entry, or EMPTY.
+   */
+  private int [] keys;
+
+  /**
+   * The clip held by each entry.
+   */
+  private AnimationClip [] values;
+
+  /**
+   * The number of clips held.
+   */
+  private int size = 0;
+
+  /**
+   * The number of bits of the hash used to index the table.
+   */
+  private int bits;
+
+  //Constructors
+  /**
+   * Creates an empty map.
+   */
+  ClipMap ()
+  {
+    this (2);
+  }
+
+  /**
+   * Creates an empty map with a table of 2^bits entries.
+   *
+   * @param bits - The size of the table, as a power of 2
+   */
+  private ClipMap (int bits)
+  {
+    this.bits = bits;
+    keys   = new int [1 << bits];
+    values = new AnimationClip [1 << bits];
+
+    Arrays.fill (keys, EMPTY);
+  }
+
+  //Functions
+  /**
+   * Returns the clip with the given id.
+   *
+   * @param id - The id of the animation
+   * @return The clip, or null if the map holds no such clip
+   */
+  AnimationClip get (int id)
+  {
+    int mask = keys.length - 1;
+
+    for (int i = slot (id); ; i = (i + 1) & mask)
+    {
+      int key = keys [i];
+
+      if (key == id)
+      {
+        return values [i];
+      }
+
+      if (key == EMPTY)
+      {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Sets the clip with the given id, replacing any existing clip.
+   *
+   * @param id   - The id of the animation, from 0
+   * @param clip - The clip, or null to remove it
+   */
+  void put (int id, AnimationClip clip)
+  {
+    if (id < 0)
+    {
+      throw new IllegalArgumentException ("Invalid animation id: " + id);
+    }
+
+    if (clip == null)
+    {
+      remove (id);
+
+      return;
+    }
+
+    //Keep the table at most half full, so probes stay short
+    if ((size + 1) * 2 > keys.length)
+    {
+      resize (bits + 1);
+    }
+
+    int mask = keys.length - 1;
+    int i = slot (id);
+
+    while (keys [i] != EMPTY && keys [i] != id)
+    {
+      i = (i + 1) & mask;
+    }
+
+    if (keys [i] == EMPTY)
+    {
+      keys [i] = id;
+      size++;
+    }
+
+    values [i] = clip;
+  }
+
+  /**
+   * Removes the clip with the given id, if any.
+   *
+   * @param id - The id of the animation
+   */
+  void remove (int id)
+  {
+    int mask = keys.length - 1;
+    int i = slot (id);
+
+    while (keys [i] != id)
+    {
+      if (keys [i] == EMPTY)
+      {
+        return;
+      }
+
+      i = (i + 1) & mask;
+    }
+
+    //Shift later entries of the same run back, so no probe is broken
+    for (int j = (i + 1) & mask; keys [j] != EMPTY; j = (j + 1) & mask)
+    {
+      int home = slot (keys [j]);
+
+      if (((j - home) & mask) >= ((j - i) & mask))
+      {
+        keys   [i] = keys   [j];
+        values [i] = values [j];
+        i = j;
+      }
+    }
+
+    keys   [i] = EMPTY;
+    values [i] = null;
+    size--;
+  }
+
+  /**
+   * Returns the number of clips held.
+   *
+   * @return The number of clips
+   */
+  int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the ids of every clip held, in ascending order.
+   *
+   * @return The ids
+   */
+  int [] ids ()
+  {
+    int [] ids = new int [size];
+    int count = 0;
+
+    for (int key : keys)
+    {
+      if (key != EMPTY)
+      {
+        ids [count++] = key;
+      }
+    }
+
+    Arrays.sort (ids);
+
+    return ids;
+  }
+
+  /**
+   * Returns an independent copy of this map.
+   *
+   * @return The copy
+   */
+  ClipMap copy ()
+  {
+    ClipMap copy = new ClipMap (bits);
+
+    copy.keys   = keys.clone ();
+    copy.values = values.clone ();
+    copy.size   = size;
+
+    return copy;
+  }
+
+  /**
+   * Returns the entry at which the probe for an id begins.
+   */
+  private int slot (int id)
+  {
+    return (id * SPREAD) >>> (32 - bits);
+  }
+
+  /**
+   * Rebuilds the table with 2^bits entries.
+   */
+  private void resize (int bits)
+  {
+    int [] oldKeys = keys;
+    AnimationClip [] oldValues = values;
+
+    this.bits = bits;
+    keys   = new int [1 << bits];
+    values = new AnimationClip [1 << bits];
+    size   = 0;
+
+    Arrays.fill (keys, EMPTY);
+
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      if (oldKeys [i] != EMPTY)
+      {
+        put (oldKeys [i], oldValues [i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Assigns each named animation a small, dense integer id. The animations of
+ * the Animations enum are predefined, with ids equal to their ordinals;
+ * applications may register any number of animations of their own, which
+ * receive the following ids in order of registration.
+ *
+ * <br /> <br />
+ *
+ * ie. final int CAST_SPELL = ClipRegistry.register ("CAST_SPELL");  <br /> &nbsp;
+ *     mySprite.setAnimation (CAST_SPELL, spellClip);                <br /> &nbsp;
+ *     mySprite.play (CAST_SPELL);                                   <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Ids are assigned per process, so anything written to disk (ie. a
+ * SpriteBundle) records the name of each animation rather than its id.
+ *
+ * @author Dominic Aquilina
+ */
+public final class ClipRegistry
+{
+  //Constants
+  /**
+   * The largest number of animations that may be registered.
+   */
+  public static final int MAX_IDS = 1 << 16;
+
+  /**
+   * The number of predefined ids, one for each value of the Animations enum.
+   */
+  public static final int PREDEFINED = Animations.values ().length;
+
+  /**
+   * Every predefined animation, by id.
+   */
+  private static final Animations [] TYPES = Animations.values ();
+
+  //Members
+  /**
+   * The id of each registered name.
+   */
+  private static final ConcurrentMap <String, Integer> ids =
+    new ConcurrentHashMap <String, Integer> ();
+
+  /**
+   * The name of each id, in order of registration.
+   */
+  private static volatile String [] names = new String [0];
+
+  static
+  {
+    for (Animations type : Animations.values ())
+    {
+      register (type.name ());
+    }
+  }
+
+  //Constructors
+  /**
+   * The registry is never instantiated.
+   */
+  private ClipRegistry ()
+  {
+  }
+
+  //Functions
+  /**
+   * Returns the id of the given name, registering the name first if need be.
+   * Registering a name again returns the id it was first given.
+   *
+   * @param name - The name of the animation
+   * @return The id of the animation
+   *
+   * @throws IllegalStateException - If MAX_IDS names have been registered
+   */
+  public static int register (String name)
+  {
+    Integer id = ids.get (name);
+
+    if (id != null)
+    {
+      return id;
+    }
+
+    synchronized (ClipRegistry.class)
+    {
+      id = ids.get (name);
+
+      if (id == null)
+      {
+        if (names.length == MAX_IDS)
+        {
+          throw new IllegalStateException ("Too many animations registered.");
+        }
+
+        String [] grown = Arrays.copyOf (names, names.length + 1);
+        grown [names.length] = name;
+
+        id = names.length;
+        names = grown;
+        ids.put (name, id);
+      }
+
+      return id;
+    }
+  }
+
+  /**
+   * Returns the id of the given predefined animation.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The id of the animation, its ordinal
+   */
+  public static int idOf (Animations type)
+  {
+    return type.value ();
+  }
+
+  /**
+   * Returns the id of a registered name.
+   *
+   * @param name - The name of the animation
+   * @return The id, or -1 if the name has not been registered
+   */
+  public static int idOf (String name)
+  {
+    Integer id = ids.get (name);
+
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the name of a registered id.
+   *
+   * @param id - The id of the animation
+   * @return The name it was registered under
+   *
+   * @throws IndexOutOfBoundsException - If the id has not been assigned
+   */
+  public static String nameOf (int id)
+  {
+    return names [id];
+  }
+
+  /**
+   * Returns the predefined animation with the given id.
+   *
+   * @param id - The id of the animation
+   * @return The animation, or null if the id was registered by the
+   *         application
+   */
+  public static Animations typeOf (int id)
+  {
+    return id >= 0 && id < PREDEFINED ? TYPES [id] : null;
+  }
+
+  /**
+   * Returns the number of ids assigned so far, predefined ones included.
+   *
+   * @return The number of ids
+   */
+  public static int size ()
+  {
+    return names.length;
+  }
+}
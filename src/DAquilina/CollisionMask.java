@@ -0,0 +1,518 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * The solid pixels of a single frame, packed one bit per pixel so that two
+ * frames may be tested for overlap without reading a pixel of either. Each
+ * row of the mask is a run of long words, so a single AND compares 64 pixels
+ * at once.
+ *
+ * <br /> <br />
+ *
+ * ie. CollisionMask sword = attacker.getCollisionMask ();     <br /> &nbsp;
+ *     CollisionMask body  = defender.getCollisionMask ();     <br /> &nbsp;
+ *     if (CollisionMask.collides (sword, ax, ay, body, dx, dy)) ...
+ *
+ * <br /> <br />
+ *
+ * A pixel is solid if its alpha is at least the threshold, half opaque by
+ * default, so the faint edges of an anti-aliased frame do not count. Only
+ * the tight bounds of the solid pixels are stored, and frames that do not
+ * even share bounds are rejected before a single word is compared.
+ *
+ * <br /> <br />
+ *
+ * Positions are those of the whole, untrimmed frame, as drawn by
+ * AtlasRegion.draw, so a mask lines up with its frame however the frame was
+ * trimmed or packed. Masks never change once built, and may be shared
+ * between threads.
+ *
+ * @see {@link AnimationClip#getCollisionMask(int)}
+ * @see {@link Sprite#collides(Sprite, int, int, Sprite, int, int)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class CollisionMask
+{
+  //Constants
+  /**
+   * The least alpha of a solid pixel, unless given otherwise.
+   */
+  public static final int DEFAULT_THRESHOLD = 0x80;
+
+  /**
+   * The mask of a missing frame, which collides with nothing.
+   */
+  static final CollisionMask EMPTY = new CollisionMask ();
+
+  //Members
+  /**
+   * The tight bounds of the solid pixels, relative to the top-left corner of
+   * the frame. Empty if no pixel is solid.
+   */
+  private final int left;
+  private final int top;
+  private final int width;
+  private final int height;
+
+  /**
+   * The number of words in each row of the mask.
+   */
+  private final int words;
+
+  /**
+   * The rows of the mask, each its own run of words. Within a word the first
+   * pixel is the most significant bit.
+   */
+  private final long [] bits;
+
+  /**
+   * The corners of the convex hull, built when first requested.
+   */
+  private volatile int [] hull;
+
+  //Constructors
+  /**
+   * Creates a mask with no solid pixels.
+   */
+  private CollisionMask ()
+  {
+    left = top = width = height = words = 0;
+    bits = new long [0];
+  }
+
+  /**
+   * Builds the mask of a frame, counting any pixel at least half opaque as
+   * solid.
+   *
+   * @param region - The region holding the frame
+   */
+  public CollisionMask (AtlasRegion region)
+  {
+    this (region, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Builds the mask of a frame.
+   *
+   * @param region    - The region holding the frame
+   * @param threshold - The least alpha of a solid pixel, from 1 to 255
+   *
+   * @throws IllegalArgumentException - If the threshold is out of range
+   */
+  public CollisionMask (AtlasRegion region, int threshold)
+  {
+    if (threshold < 1 || threshold > 0xFF)
+    {
+      throw new IllegalArgumentException ("The threshold must be from 1 to " +
+                                          "255.");
+    }
+
+    int w = region.getWidth ();
+    int h = region.getHeight ();
+    int [] alpha = alphaOf (region);
+
+    //Find the tight bounds of the solid pixels
+    int minX = w, minY = h, maxX = -1, maxY = -1;
+
+    for (int y = 0; y < h; y++)
+    {
+      for (int x = 0, i = y * w; x < w; x++, i++)
+      {
+        if (alpha [i] >= threshold)
+        {
+          minX = Math.min (minX, x);
+          maxX = Math.max (maxX, x);
+          minY = Math.min (minY, y);
+          maxY = y;
+        }
+      }
+    }
+
+    if (maxX < 0)
+    {
+      left = top = width = height = words = 0;
+      bits = new long [0];
+
+      return;
+    }
+
+    left   = region.getOffsetX () + minX;
+    top    = region.getOffsetY () + minY;
+    width  = maxX - minX + 1;
+    height = maxY - minY + 1;
+    words  = (width + 63) >>> 6;
+    bits   = new long [words * height];
+
+    for (int row = 0; row < height; row++)
+    {
+      int i = (minY + row) * w + minX;
+
+      for (int column = 0; column < width; column++)
+      {
+        if (alpha [i + column] >= threshold)
+        {
+          bits [row * words + (column >>> 6)] |= Long.MIN_VALUE >>> column;
+        }
+      }
+    }
+  }
+
+  //Functions
+  /**
+   * Returns the tight bounds of the solid pixels.
+   *
+   * @return The bounds, relative to the top-left corner of the frame; empty
+   *         if no pixel is solid
+   */
+  public Rectangle getBounds ()
+  {
+    return new Rectangle (left, top, width, height);
+  }
+
+  /**
+   * Determines whether no pixel of the frame is solid.
+   *
+   * @return True if the mask can collide with nothing
+   */
+  public boolean isEmpty ()
+  {
+    return width == 0;
+  }
+
+  /**
+   * Determines whether the given pixel of the frame is solid.
+   *
+   * @param x - The x position, relative to the top-left corner of the frame
+   * @param y - The y position, relative to the top-left corner of the frame
+   * @return True if the pixel is solid
+   */
+  public boolean contains (int x, int y)
+  {
+    int column = x - left;
+    int row    = y - top;
+
+    if (column < 0 || column >= width || row < 0 || row >= height)
+    {
+      return false;
+    }
+
+    return (bits [row * words + (column >>> 6)] << column) < 0;
+  }
+
+  /**
+   * Determines whether any solid pixel of the frame, drawn at the given
+   * position, lies within the given area, ie. an attack's hit box.
+   *
+   * @param x    - The x position the frame is drawn at
+   * @param y    - The y position the frame is drawn at
+   * @param area - The area, in the same coordinates as the position
+   * @return True if a solid pixel lies within the area
+   */
+  public boolean intersects (int x, int y, Rectangle area)
+  {
+    int x0 = Math.max (x + left, area.x);
+    int y0 = Math.max (y + top, area.y);
+    int x1 = Math.min (x + left + width, area.x + area.width);
+    int y1 = Math.min (y + top + height, area.y + area.height);
+
+    if (x0 >= x1 || y0 >= y1)
+    {
+      return false;
+    }
+
+    int first = x0 - x - left;
+    int last  = x1 - x - left - 1;
+
+    for (int row = y0 - y - top, end = y1 - y - top; row < end; row++)
+    {
+      for (int k = first >>> 6; k <= last >>> 6; k++)
+      {
+        if (clip (bits [row * words + k], k, first, last) != 0)
+        {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Determines whether two frames, drawn at the given positions, have a
+   * solid pixel in common. Only the rows and words where their bounds
+   * overlap are compared; the words of the second mask are shifted into line
+   * with those of the first, and the two ANDed together.
+   *
+   * @param a  - The mask of the first frame
+   * @param ax - The x position the first frame is drawn at
+   * @param ay - The y position the first frame is drawn at
+   * @param b  - The mask of the second frame
+   * @param bx - The x position the second frame is drawn at
+   * @param by - The y position the second frame is drawn at
+   * @return True if the frames overlap
+   */
+  public static boolean collides (CollisionMask a, int ax, int ay,
+                                  CollisionMask b, int bx, int by)
+  {
+    int aLeft = ax + a.left, aTop = ay + a.top;
+    int bLeft = bx + b.left, bTop = by + b.top;
+
+    int x0 = Math.max (aLeft, bLeft);
+    int y0 = Math.max (aTop, bTop);
+    int x1 = Math.min (aLeft + a.width, bLeft + b.width);
+    int y1 = Math.min (aTop + a.height, bTop + b.height);
+
+    if (x0 >= x1 || y0 >= y1)
+    {
+      return false;
+    }
+
+    //The overlap, in the columns of the first mask
+    int first = x0 - aLeft;
+    int last  = x1 - aLeft - 1;
+    int shift = aLeft - bLeft;
+
+    for (int y = y0; y < y1; y++)
+    {
+      int aRow = (y - aTop) * a.words;
+      int bRow = y - bTop;
+
+      for (int k = first >>> 6; k <= last >>> 6; k++)
+      {
+        long word = clip (a.bits [aRow + k], k, first, last);
+
+        if (word != 0 && (word & b.window (bRow, (k << 6) + shift)) != 0)
+        {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the convex hull of the solid pixels, for games that would rather
+   * test shapes than pixels, ie. with a physics library. The hull is built
+   * once, the first time it is requested, and encloses every solid pixel
+   * whole.
+   *
+   * @return The corners of the hull, clockwise on screen, relative to the
+   *         top-left corner of the frame; empty if no pixel is solid
+   */
+  public Polygon getHull ()
+  {
+    int [] corners = hull;
+
+    if (corners == null)
+    {
+      corners = buildHull ();
+      hull = corners;
+    }
+
+    int n = corners.length / 2;
+
+    return new Polygon (Arrays.copyOfRange (corners, 0, n),
+                        Arrays.copyOfRange (corners, n, corners.length), n);
+  }
+
+  /**
+   * Returns 64 pixels of a row of the mask, starting at any column. Columns
+   * outside the mask are empty.
+   *
+   * @param row    - The row of the mask
+   * @param column - The first column, which may lie outside the mask
+   * @return The pixels, the first as the most significant bit
+   */
+  private long window (int row, int column)
+  {
+    int k     = column >> 6;
+    int start = row * words;
+    long high = k >= 0 && k < words ? bits [start + k] : 0;
+    long low  = k + 1 >= 0 && k + 1 < words ? bits [start + k + 1] : 0;
+    int skip  = column & 63;
+
+    return skip == 0 ? high : high << skip | low >>> (64 - skip);
+  }
+
+  /**
+   * Clears the pixels of a word lying outside the given columns.
+   *
+   * @param word  - The word
+   * @param k     - The index of the word within its row
+   * @param first - The first column to keep
+   * @param last  - The last column to keep
+   * @return The word, holding only the given columns
+   */
+  private static long clip (long word, int k, int first, int last)
+  {
+    if (k == first >>> 6)
+    {
+      word &= -1L >>> (first & 63);
+    }
+
+    if (k == last >>> 6)
+    {
+      word &= Long.MIN_VALUE >> (last & 63);
+    }
+
+    return word;
+  }
+
+  /**
+   * Builds the convex hull of the solid pixels from the outer corners of
+   * the first and last solid pixel of each row (Andrew's monotone chain).
+   *
+   * @return The x positions of the corners, followed by the y positions
+   */
+  private int [] buildHull ()
+  {
+    long [] points = new long [height * 4];
+    int count = 0;
+
+    for (int row = 0; row < height; row++)
+    {
+      int first = -1, last = -1;
+
+      for (int k = 0; k < words; k++)
+      {
+        long word = bits [row * words + k];
+
+        if (word != 0)
+        {
+          if (first < 0)
+          {
+            first = (k << 6) + Long.numberOfLeadingZeros (word);
+          }
+
+          last = (k << 6) + 63 - Long.numberOfTrailingZeros (word);
+        }
+      }
+
+      if (first >= 0)
+      {
+        //Sorted by x, then y, once packed
+        int x0 = left + first, x1 = left + last + 1, y = top + row;
+
+        points [count++] = (long) x0 << 32 | y;
+        points [count++] = (long) x0 << 32 | (y + 1);
+        points [count++] = (long) x1 << 32 | y;
+        points [count++] = (long) x1 << 32 | (y + 1);
+      }
+    }
+
+    Arrays.sort (points, 0, count);
+
+    long [] chain = new long [count + 1];
+    int size = 0;
+
+    //The lower chain, then the upper chain, each turning the same way
+    for (int i = 0; i < count; i++)
+    {
+      while (size >= 2 && cross (chain [size - 2], chain [size - 1],
+                                 points [i]) <= 0)
+      {
+        size--;
+      }
+
+      chain [size++] = points [i];
+    }
+
+    for (int i = count - 2, lower = size + 1; i >= 0; i--)
+    {
+      while (size >= lower && cross (chain [size - 2], chain [size - 1],
+                                     points [i]) <= 0)
+      {
+        size--;
+      }
+
+      chain [size++] = points [i];
+    }
+
+    //The last corner closes the chain back onto the first
+    int n = Math.max (size - 1, 0);
+    int [] corners = new int [n * 2];
+
+    for (int i = 0; i < n; i++)
+    {
+      corners [i]     = (int) (chain [i] >>> 32);
+      corners [n + i] = (int) chain [i];
+    }
+
+    return corners;
+  }
+
+  /**
+   * Returns the cross product of the turn from o through a to b.
+   *
+   * @param o - The first point, packed as in buildHull
+   * @param a - The second point
+   * @param b - The third point
+   * @return Positive if the turn is counter-clockwise in y-up coordinates
+   */
+  private static long cross (long o, long a, long b)
+  {
+    long ox = o >>> 32, oy = (int) o;
+
+    return ((a >>> 32) - ox) * ((int) b - oy) -
+           ((int) a - oy) * ((b >>> 32) - ox);
+  }
+
+  /**
+   * Reads the alpha of every pixel of a frame, row by row.
+   *
+   * @param region - The region holding the frame
+   * @return The alpha of each pixel, from 0 to 255
+   */
+  private static int [] alphaOf (AtlasRegion region)
+  {
+    int w = region.getWidth ();
+    int h = region.getHeight ();
+    int [] alpha = new int [w * h];
+    BufferedImage page = region.getPage ();
+    WritableRaster raster = page.getAlphaRaster ();
+
+    if (alpha.length == 0)
+    {
+      return alpha;
+    }
+
+    if (!page.getColorModel ().hasAlpha ())
+    {
+      Arrays.fill (alpha, 0xFF);
+    }
+    else if (raster == null)
+    {
+      //Indexed frames keep their alpha in the palette
+      page.getRGB (region.getX (), region.getY (), w, h, alpha, 0, w);
+
+      for (int i = 0; i < alpha.length; i++)
+      {
+        alpha [i] >>>= 24;
+      }
+    }
+    else
+    {
+      raster.getSamples (region.getX (), region.getY (), w, h, 0, alpha);
+
+      //Alpha stored in fewer bits, ie. a bitmask, is scaled to 0-255
+      int max = (1 << raster.getSampleModel ().getSampleSize (0)) - 1;
+
+      if (max != 0xFF)
+      {
+        for (int i = 0; i < alpha.length; i++)
+        {
+          alpha [i] = alpha [i] * 0xFF / max;
+        }
+      }
+    }
+
+    return alpha;
+  }
+}
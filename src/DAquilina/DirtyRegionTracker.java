@@ -0,0 +1,496 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Works out which parts of the screen have changed since the previous frame.
+ * Each frame the tracker is shown the commands of a SpriteBatch; any command
+ * whose frame, position or layer differs from the frame before, that is now
+ * drawn before a command it used to be drawn after, that appears, or that
+ * disappears makes both its old and new bounds dirty. Nearby dirty
+ * rectangles are then merged into a short list, and only those areas need to
+ * be recomposited and presented.
+ *
+ * <br /> <br />
+ *
+ * ie. List &lt;Rectangle&gt; dirty = tracker.update (batch);     <br /> &nbsp;
+ *     batch.render (buffer, background, dirty);                  <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Commands are matched between frames by the Sprite that submitted them.
+ * Commands submitted directly as regions have no Sprite, and are matched by
+ * the order in which they were submitted instead.
+ *
+ * @author Dominic Aquilina
+ */
+public class DirtyRegionTracker
+{
+  //Constants
+  /**
+   * Rectangles closer than this many pixels are merged, since redrawing the
+   * narrow gap is cheaper than drawing each rectangle separately.
+   */
+  private static final int MERGE_DISTANCE = 8;
+
+  /**
+   * Beyond this many rectangles, the whole of the dirty area is redrawn as a
+   * single rectangle.
+   */
+  private static final int MAX_REGIONS = 32;
+
+  /**
+   * Beyond this many rectangles before merging, so many things have changed
+   * that merging them would cost more than it saves, and the whole of the
+   * dirty area is redrawn as a single rectangle straight away.
+   */
+  private static final int MAX_UNMERGED = MAX_REGIONS * 8;
+
+  //Members
+  /**
+   * The bounds of the screen; dirty rectangles never extend beyond it.
+   */
+  private final Rectangle bounds;
+
+  /**
+   * What each Sprite drew most recently.
+   */
+  private final Map <Object, Entry> owned =
+    new IdentityHashMap <Object, Entry> ();
+
+  /**
+   * The entries of the Sprites drawn in the previous frame, and of those
+   * drawn so far in the current frame. Walked by index, rather than through
+   * the map, so that no iterator is allocated.
+   */
+  private ArrayList <Entry> drawnBefore = new ArrayList <Entry> ();
+  private ArrayList <Entry> drawnNow = new ArrayList <Entry> ();
+
+  /**
+   * The number of the current frame, stamped on the entry of each Sprite
+   * drawn in it.
+   */
+  private long frame = 0;
+
+  /**
+   * What each unowned command drew in the previous frame, in submission
+   * order.
+   */
+  private final List <Entry> anonymous = new ArrayList <Entry> ();
+
+  /**
+   * The entry of each command of the current frame, in submission order.
+   */
+  private Entry [] commands = new Entry [0];
+
+  /**
+   * Entries no longer in use, kept to be reused.
+   */
+  private final ArrayDeque <Entry> spare = new ArrayDeque <Entry> ();
+
+  /**
+   * The dirty rectangles of the most recent frame.
+   */
+  private final List <Rectangle> dirty = new ArrayList <Rectangle> ();
+
+  /**
+   * Rectangles no longer in use, kept to be reused.
+   */
+  private final ArrayDeque <Rectangle> spareRectangles =
+    new ArrayDeque <Rectangle> ();
+
+  /**
+   * Whether the whole screen must be redrawn on the next frame.
+   */
+  private boolean invalid = true;
+
+  //Constructors
+  /**
+   * Creates a tracker for a screen of the given size. The first frame is
+   * always entirely dirty.
+   *
+   * @param width  - The width of the screen
+   * @param height - The height of the screen
+   */
+  public DirtyRegionTracker (int width, int height)
+  {
+    bounds = new Rectangle (0, 0, width, height);
+  }
+
+  //Functions
+  /**
+   * Marks the whole screen as dirty on the next frame, ie. after the window
+   * has been uncovered or the background has changed.
+   */
+  public void invalidate ()
+  {
+    invalid = true;
+  }
+
+  /**
+   * Returns the dirty rectangles of the most recent frame.
+   *
+   * @return The rectangles, which are reused by the next update and must
+   *         not be kept beyond it
+   */
+  public List <Rectangle> getDirtyRegions ()
+  {
+    return dirty;
+  }
+
+  /**
+   * Compares the commands waiting in the given batch with those of the
+   * previous frame, and determines which areas of the screen have changed.
+   * Must be called before the batch is rendered.
+   *
+   * @param batch - The batch holding this frame's commands
+   * @return The merged dirty rectangles, which are reused by the next
+   *         update and must not be kept beyond it
+   */
+  public List <Rectangle> update (SpriteBatch batch)
+  {
+    recycle ();
+    frame++;
+
+    int unowned = 0;
+
+    if (commands.length < batch.size ())
+    {
+      commands = new Entry [Math.max (batch.size (), commands.length * 2)];
+    }
+
+    for (int command = 0; command < batch.size (); command++)
+    {
+      Object owner = batch.ownerOf (command);
+      AtlasRegion region = batch.regionOf (command);
+      int x = batch.xOf (command);
+      int y = batch.yOf (command);
+
+      Entry entry;
+
+      if (owner == null)
+      {
+        if (unowned == anonymous.size ())
+        {
+          anonymous.add (null);
+        }
+
+        entry = anonymous.get (unowned);
+
+        if (entry == null)
+        {
+          entry = obtain ();
+          anonymous.set (unowned, entry);
+          markDirty (region, x, y);
+        }
+        else if (entry.changed (region, x, y))
+        {
+          markDirty (entry.region, entry.x, entry.y);
+          markDirty (region, x, y);
+        }
+
+        unowned++;
+      }
+      else
+      {
+        entry = owned.get (owner);
+
+        if (entry == null)
+        {
+          entry = obtain ();
+          entry.owner = owner;
+          owned.put (owner, entry);
+          markDirty (region, x, y);
+        }
+        else if (entry.frame == frame)
+        {
+          //A Sprite drawn twice in one frame keeps only its last command
+          markDirty (entry.region, entry.x, entry.y);
+          markDirty (region, x, y);
+        }
+        else if (entry.changed (region, x, y))
+        {
+          markDirty (entry.region, entry.x, entry.y);
+          markDirty (region, x, y);
+        }
+
+        if (entry.frame != frame)
+        {
+          entry.frame = frame;
+          drawnNow.add (entry);
+        }
+      }
+
+      entry.set (region, x, y);
+      commands [command] = entry;
+    }
+
+    reorder (batch);
+
+    //Anything left over was not drawn this frame, so its area must be cleared
+    for (int i = 0; i < drawnBefore.size (); i++)
+    {
+      Entry gone = drawnBefore.get (i);
+
+      if (gone.frame != frame)
+      {
+        markDirty (gone.region, gone.x, gone.y);
+        owned.remove (gone.owner);
+        gone.owner = null;
+        spare.add (gone);
+      }
+    }
+
+    while (anonymous.size () > unowned)
+    {
+      Entry gone = anonymous.remove (anonymous.size () - 1);
+
+      markDirty (gone.region, gone.x, gone.y);
+      spare.add (gone);
+    }
+
+    drawnBefore.clear ();
+
+    ArrayList <Entry> swap = drawnBefore;
+    drawnBefore = drawnNow;
+    drawnNow    = swap;
+
+    if (invalid)
+    {
+      recycle ();
+
+      Rectangle whole = obtainRectangle ();
+      whole.setBounds (bounds);
+      dirty.add (whole);
+
+      invalid = false;
+    }
+    else
+    {
+      merge ();
+    }
+
+    return dirty;
+  }
+
+  /**
+   * Marks the commands whose place in the drawing order changed since the
+   * previous frame. Ranks of the previous frame are walked in this frame's
+   * order; a command ranked below one drawn before it has swapped places
+   * with it, and is redrawn. Commands that appear or disappear shift the
+   * ranks of the rest without changing their order, and so mark nothing
+   * more than themselves.
+   *
+   * @param batch - The batch holding this frame's commands
+   */
+  private void reorder (SpriteBatch batch)
+  {
+    batch.sort ();
+
+    int latest = -1;
+
+    for (int order = 0; order < batch.size (); order++)
+    {
+      Entry entry = commands [batch.commandAt (order)];
+      int layer = batch.layerAt (order);
+
+      //Any change of frame or position has already been marked
+      if (entry.rank >= 0 && (entry.rank < latest || entry.layer != layer))
+      {
+        markDirty (entry.region, entry.x, entry.y);
+      }
+
+      latest = Math.max (latest, entry.rank);
+
+      entry.rank  = order;
+      entry.layer = layer;
+    }
+  }
+
+  /**
+   * Adds the clipped bounds of a frame to the dirty list.
+   *
+   * @param region - The frame
+   * @param x      - The x position of the frame
+   * @param y      - The y position of the frame
+   */
+  private void markDirty (AtlasRegion region, int x, int y)
+  {
+    int left   = Math.max (x + region.getOffsetX (), bounds.x);
+    int top    = Math.max (y + region.getOffsetY (), bounds.y);
+    int right  = Math.min (x + region.getOffsetX () + region.getWidth (),
+                           bounds.x + bounds.width);
+    int bottom = Math.min (y + region.getOffsetY () + region.getHeight (),
+                           bounds.y + bounds.height);
+
+    if (left < right && top < bottom)
+    {
+      Rectangle rectangle = obtainRectangle ();
+      rectangle.setBounds (left, top, right - left, bottom - top);
+
+      dirty.add (rectangle);
+    }
+  }
+
+  /**
+   * Merges overlapping and nearby dirty rectangles, collapsing them all into
+   * one if too many remain.
+   */
+  private void merge ()
+  {
+    if (dirty.size () > MAX_UNMERGED)
+    {
+      collapse ();
+
+      return;
+    }
+
+    boolean merged = true;
+
+    while (merged)
+    {
+      merged = false;
+
+      for (int i = 0; i < dirty.size (); i++)
+      {
+        Rectangle a = dirty.get (i);
+
+        for (int j = dirty.size () - 1; j > i; j--)
+        {
+          Rectangle b = dirty.get (j);
+
+          if (a.x - MERGE_DISTANCE < b.x + b.width &&
+              b.x - MERGE_DISTANCE < a.x + a.width &&
+              a.y - MERGE_DISTANCE < b.y + b.height &&
+              b.y - MERGE_DISTANCE < a.y + a.height)
+          {
+            a.add (b);
+            spareRectangles.add (b);
+            merged = true;
+
+            //Order does not matter, so the last fills the gap
+            Rectangle last = dirty.remove (dirty.size () - 1);
+
+            if (j < dirty.size ())
+            {
+              dirty.set (j, last);
+            }
+          }
+        }
+      }
+    }
+
+    if (dirty.size () > MAX_REGIONS)
+    {
+      collapse ();
+    }
+  }
+
+  /**
+   * Replaces every dirty rectangle with their union.
+   */
+  private void collapse ()
+  {
+    Rectangle union = dirty.get (0);
+
+    while (dirty.size () > 1)
+    {
+      Rectangle rectangle = dirty.remove (dirty.size () - 1);
+
+      union.add (rectangle);
+      spareRectangles.add (rectangle);
+    }
+  }
+
+  /**
+   * Returns every dirty rectangle to the spares, emptying the dirty list.
+   */
+  private void recycle ()
+  {
+    for (int i = 0; i < dirty.size (); i++)
+    {
+      spareRectangles.add (dirty.get (i));
+    }
+
+    dirty.clear ();
+  }
+
+  /**
+   * Returns a spare rectangle, or a new one if there are none.
+   *
+   * @return A rectangle
+   */
+  private Rectangle obtainRectangle ()
+  {
+    Rectangle rectangle = spareRectangles.poll ();
+
+    return rectangle == null ? new Rectangle () : rectangle;
+  }
+
+  /**
+   * Returns a spare entry, or a new one if there are none.
+   *
+   * @return An entry
+   */
+  private Entry obtain ()
+  {
+    Entry entry = spare.poll ();
+
+    if (entry == null)
+    {
+      entry = new Entry ();
+    }
+
+    //Not yet drawn, so not yet ordered against anything
+    entry.rank = -1;
+
+    return entry;
+  }
+
+  /**
+   * What a single command drew.
+   */
+  private static final class Entry
+  {
+    //Members
+    AtlasRegion region;
+    int x;
+    int y;
+
+    /**
+     * The layer it was drawn on, and its position in the drawing order, or
+     * -1 if it has not been drawn yet.
+     */
+    int layer;
+    int rank;
+
+    /**
+     * The Sprite that drew it, or null, and the last frame it was drawn in.
+     */
+    Object owner;
+    long frame;
+
+    //Functions
+    /**
+     * Determines whether the command drew something different this frame.
+     */
+    boolean changed (AtlasRegion region, int x, int y)
+    {
+      return this.region != region || this.x != x || this.y != y;
+    }
+
+    /**
+     * Records what the command drew this frame.
+     */
+    void set (AtlasRegion region, int x, int y)
+    {
+      this.region = region;
+      this.x = x;
+      this.y = y;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import jdk.jfr.*;
+
+/**
+ * The JDK Flight Recorder events emitted by the engine, so that a recording
+ * shows where the time of a slow frame went alongside the rest of the JVM's
+ * activity (ie. garbage collection or JIT compilation).
+ *
+ * <br /> <br />
+ *
+ * ie. java -XX:StartFlightRecording=filename=game.jfr DAquilina.TEST
+ *
+ * <br /> <br />
+ *
+ * Every event belongs to the "DAquilina" category. While Flight Recorder is
+ * not recording them, the events of the per-frame paths are not even
+ * created, so those paths still allocate nothing.
+ *
+ * @see {@link MetricsRegistry}
+ *
+ * @author Dominic Aquilina
+ */
+final class EngineEvents
+{
+  //Constants
+  /**
+   * The types of the events emitted every frame or step, consulted before
+   * creating one.
+   */
+  private static final EventType UPDATE = EventType.getEventType (Update.class);
+  private static final EventType RENDER = EventType.getEventType (Render.class);
+
+  //Constructors
+  /**
+   * The holder is never instantiated.
+   */
+  private EngineEvents ()
+  {
+  }
+
+  //Functions
+  /**
+   * Begins an Update event, if Flight Recorder is recording them.
+   *
+   * @return The event, or null if it would not be recorded
+   */
+  static Update beginUpdate ()
+  {
+    if (!UPDATE.isEnabled ())
+    {
+      return null;
+    }
+
+    Update event = new Update ();
+    event.begin ();
+
+    return event;
+  }
+
+  /**
+   * Begins a Render event, if Flight Recorder is recording them.
+   *
+   * @return The event, or null if it would not be recorded
+   */
+  static Render beginRender ()
+  {
+    if (!RENDER.isEnabled ())
+    {
+      return null;
+    }
+
+    Render event = new Render ();
+    event.begin ();
+
+    return event;
+  }
+
+  /**
+   * A template decoded by an AssetLoader.
+   */
+  @Name ("DAquilina.SheetLoad")
+  @Label ("Sheet Load")
+  @Category ("DAquilina")
+  @Description ("Decoding, and possibly converting, a template")
+  static final class SheetLoad extends Event
+  {
+    @Label ("File")
+    String file;
+
+    @Label ("Width")
+    int width;
+
+    @Label ("Height")
+    int height;
+  }
+
+  /**
+   * A template sliced into a clip.
+   */
+  @Name ("DAquilina.Slice")
+  @Label ("Slice")
+  @Category ("DAquilina")
+  @Description ("Cutting a template into the frames of a clip")
+  static final class Slice extends Event
+  {
+    @Label ("Frames")
+    int frames;
+
+    @Label ("Cell Width")
+    int cellWidth;
+
+    @Label ("Cell Height")
+    int cellHeight;
+  }
+
+  /**
+   * A single fixed step of a GameLoop.
+   */
+  @Name ("DAquilina.Update")
+  @Label ("Update")
+  @Category ("DAquilina")
+  @Description ("Advancing the Sprites and the game by one fixed step")
+  static final class Update extends Event
+  {
+    @Label ("Sprites")
+    int sprites;
+  }
+
+  /**
+   * A batch rendered onto an image.
+   */
+  @Name ("DAquilina.Render")
+  @Label ("Render")
+  @Category ("DAquilina")
+  @Description ("Drawing the commands of a SpriteBatch")
+  static final class Render extends Event
+  {
+    @Label ("Commands")
+    int commands;
+
+    @Label ("Blits")
+    int blits;
+
+    @Label ("Tiled")
+    boolean tiled;
+  }
+}
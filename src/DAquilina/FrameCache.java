@@ -0,0 +1,527 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Holds the frames of lazy clips once they have been built, up to a budget of
+ * memory. When the budget is exceeded, the frames that have gone unused the
+ * longest are dropped, and are simply built again from their source should
+ * they be needed later.
+ *
+ * <br /> <br />
+ *
+ * ie. FrameCache.getShared ().setBudget (64L &lt;&lt; 20);  <br /> &nbsp;
+ *     System.out.println (FrameCache.getShared ());           <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Every lazy clip draws from the shared cache, so a single budget covers the
+ * whole process no matter how many characters are loaded.
+ *
+ * <br /> <br />
+ *
+ * Frames already cached are found without locking or allocating, since they
+ * are fetched on the render path, possibly from several threads at once. A
+ * hit merely marks its frame as used; when room must be made, marked frames
+ * are given a second chance and only unmarked frames are dropped, which
+ * approximates dropping the least recently used without reordering anything
+ * on a hit.
+ *
+ * @see {@link AnimationClip#lazy(FrameSource, int[])}
+ *
+ * @author Dominic Aquilina
+ */
+public final class FrameCache
+{
+  //Constants
+  /**
+   * The budget of the shared cache unless changed: 256MB.
+   */
+  public static final long DEFAULT_BUDGET = 256L << 20;
+
+  /**
+   * The cache used by every lazy clip.
+   */
+  private static final FrameCache SHARED = new FrameCache (DEFAULT_BUDGET);
+
+  /**
+   * Hands out the ids that distinguish one source's frames from another's.
+   */
+  private static final AtomicInteger nextId = new AtomicInteger ();
+
+  /**
+   * Spreads neighbouring keys across the table (Fibonacci hashing).
+   */
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+  /**
+   * The size of an empty table.
+   */
+  private static final int INITIAL_CAPACITY = 256;
+
+  //Members
+  /**
+   * The cached frames, keyed by (source id << 32 | frame), in an
+   * open-addressed table. Read without locking; only changed, or replaced
+   * when grown, while holding the lock.
+   */
+  private volatile Node [] table = new Node [INITIAL_CAPACITY];
+
+  /**
+   * The number of frames in the table.
+   */
+  private int used = 0;
+
+  /**
+   * The cached frames, from least to most recently added or given a second
+   * chance, as a circular list through this sentinel.
+   */
+  private final Node order = new Node (0, null, 0);
+
+  /**
+   * The frame added most recently, which is never evicted.
+   */
+  private Node latest;
+
+  /**
+   * The most memory, in bytes, the cached frames may occupy.
+   */
+  private long budget;
+
+  /**
+   * The memory, in bytes, the cached frames currently occupy.
+   */
+  private long size = 0;
+
+  private final LongAdder hits = new LongAdder ();
+  private long misses = 0;
+  private long evictions = 0;
+
+  //Constructors
+  /**
+   * Creates a cache with the given budget.
+   *
+   * @param budget - The most memory, in bytes, the cached frames may occupy
+   */
+  public FrameCache (long budget)
+  {
+    this.budget = budget;
+
+    order.previous = order.next = order;
+  }
+
+  //Functions
+  /**
+   * Returns the cache used by every lazy clip.
+   *
+   * @return The shared cache
+   */
+  public static FrameCache getShared ()
+  {
+    return SHARED;
+  }
+
+  /**
+   * Returns a new id with which to key the frames of a source.
+   *
+   * @return The id
+   */
+  static int newId ()
+  {
+    return nextId.getAndIncrement ();
+  }
+
+  /**
+   * Returns the given frame of a source, building it if it is not cached.
+   *
+   * @param source - The source of the frame
+   * @param id     - The id of the source
+   * @param frame  - The index of the frame
+   * @return The region covering the frame
+   *
+   * @throws UncheckedIOException - If the frame cannot be read
+   */
+  public AtlasRegion get (FrameSource source, int id, int frame)
+  {
+    long key = ((long) id << 32) | (frame & 0xFFFFFFFFL);
+    Node node = find (table, key);
+
+    if (node != null)
+    {
+      node.used = true;
+      hits.increment ();
+
+      return node.region;
+    }
+
+    synchronized (this)
+    {
+      //A frame being moved within the table may be missed without the lock
+      node = find (table, key);
+
+      if (node != null)
+      {
+        hits.increment ();
+
+        return node.region;
+      }
+
+      misses++;
+    }
+
+    //Build the frame without holding the lock, so that other threads may
+    //keep drawing from the cache in the meantime
+    AtlasRegion region;
+
+    try
+    {
+      region = source.loadRegion (frame);
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException (e);
+    }
+
+    synchronized (this)
+    {
+      //Another thread may have built the same frame meanwhile
+      Node existing = find (table, key);
+
+      if (existing != null)
+      {
+        return existing.region;
+      }
+
+      node = new Node (key, region, sizeOf (region));
+
+      insert (node);
+      size += node.bytes;
+
+      trim ();
+    }
+
+    return region;
+  }
+
+  /**
+   * Changes the budget, evicting frames at once if the cache is now over it.
+   *
+   * @param budget - The most memory, in bytes, the cached frames may occupy
+   */
+  public synchronized void setBudget (long budget)
+  {
+    this.budget = budget;
+
+    trim ();
+  }
+
+  /**
+   * Returns the budget of this cache.
+   *
+   * @return The budget, in bytes
+   */
+  public synchronized long getBudget ()
+  {
+    return budget;
+  }
+
+  /**
+   * Returns the memory the cached frames currently occupy.
+   *
+   * @return The size, in bytes
+   */
+  public synchronized long getSize ()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the number of frames currently cached.
+   *
+   * @return The number of frames
+   */
+  public synchronized int getFrameCount ()
+  {
+    return used;
+  }
+
+  /**
+   * Returns the number of requests answered from the cache.
+   *
+   * @return The number of hits
+   */
+  public long getHits ()
+  {
+    return hits.sum ();
+  }
+
+  /**
+   * Returns the number of requests that had to build their frame.
+   *
+   * @return The number of misses
+   */
+  public synchronized long getMisses ()
+  {
+    return misses;
+  }
+
+  /**
+   * Returns the number of frames dropped to stay within the budget.
+   *
+   * @return The number of evictions
+   */
+  public synchronized long getEvictions ()
+  {
+    return evictions;
+  }
+
+  /**
+   * Drops every cached frame and resets the counters.
+   */
+  public synchronized void clear ()
+  {
+    table = new Node [INITIAL_CAPACITY];
+    used = 0;
+    order.previous = order.next = order;
+    latest = null;
+
+    hits.reset ();
+    size = misses = evictions = 0;
+  }
+
+  /**
+   * Describes the state of the cache, ie. for logging.
+   *
+   * @return A one line summary
+   */
+  @Override
+  public synchronized String toString ()
+  {
+    return "FrameCache: " + used + " frames, " + (size >> 10) + "KB of " +
+           (budget >> 10) + "KB, " + hits.sum () + " hits, " + misses +
+           " misses, " + evictions + " evictions";
+  }
+
+  /**
+   * Evicts frames until the cache is within its budget, starting from the
+   * eldest; a frame used since it was last passed over is given a second
+   * chance instead. The most recent frame is always kept, however large.
+   */
+  private void trim ()
+  {
+    while (size > budget && used > 1)
+    {
+      Node eldest = order.next;
+
+      unlink (eldest);
+
+      if (eldest.used || eldest == latest)
+      {
+        eldest.used = false;
+        append (eldest);
+
+        continue;
+      }
+
+      delete (eldest.key);
+      size -= eldest.bytes;
+      evictions++;
+    }
+  }
+
+  /**
+   * Adds a frame to the table and to the end of the order. The caller must
+   * hold the lock.
+   *
+   * @param node - The frame, not yet in the table
+   */
+  private void insert (Node node)
+  {
+    Node [] nodes = table;
+
+    //Kept at most half full, so that probes stay short
+    if ((used + 1) * 2 > nodes.length)
+    {
+      Node [] grown = new Node [nodes.length * 2];
+
+      for (Node old : nodes)
+      {
+        if (old != null)
+        {
+          place (grown, old);
+        }
+      }
+
+      //Readers see either the old table or the whole of the new one
+      table = nodes = grown;
+    }
+
+    place (nodes, node);
+    append (node);
+    latest = node;
+    used++;
+  }
+
+  /**
+   * Removes a frame from the table, shifting later frames of the same run
+   * back so that no probe is broken. The caller must hold the lock.
+   *
+   * @param key - The key of the frame
+   */
+  private void delete (long key)
+  {
+    Node [] nodes = table;
+    int mask = nodes.length - 1;
+    int i = slot (nodes, key);
+
+    while (nodes [i] != null && nodes [i].key != key)
+    {
+      i = (i + 1) & mask;
+    }
+
+    if (nodes [i] == null)
+    {
+      return;
+    }
+
+    for (int j = (i + 1) & mask; nodes [j] != null; j = (j + 1) & mask)
+    {
+      int home = slot (nodes, nodes [j].key);
+
+      if (((j - home) & mask) >= ((j - i) & mask))
+      {
+        nodes [i] = nodes [j];
+        i = j;
+      }
+    }
+
+    nodes [i] = null;
+    used--;
+  }
+
+  /**
+   * Finds a frame in the table.
+   *
+   * @param nodes - The table
+   * @param key   - The key of the frame
+   * @return The frame, or null if it is not found
+   */
+  private static Node find (Node [] nodes, long key)
+  {
+    int mask = nodes.length - 1;
+
+    //Bounded, since a reader racing a writer may see no empty slot
+    for (int i = slot (nodes, key), probes = 0; probes < nodes.length;
+         i = (i + 1) & mask, probes++)
+    {
+      Node node = nodes [i];
+
+      if (node == null || node.key == key)
+      {
+        return node;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Puts a frame in the first free slot of its run.
+   *
+   * @param nodes - The table, which has room
+   * @param node  - The frame
+   */
+  private static void place (Node [] nodes, Node node)
+  {
+    int mask = nodes.length - 1;
+    int i = slot (nodes, node.key);
+
+    while (nodes [i] != null)
+    {
+      i = (i + 1) & mask;
+    }
+
+    nodes [i] = node;
+  }
+
+  /**
+   * Returns the slot of a table at which the search for a key begins.
+   *
+   * @param nodes - The table, whose length is a power of two
+   * @param key   - The key
+   * @return The slot
+   */
+  private static int slot (Node [] nodes, long key)
+  {
+    return (int) ((key * GOLDEN) >>>
+                  (64 - Integer.numberOfTrailingZeros (nodes.length)));
+  }
+
+  /**
+   * Adds a frame to the end of the order.
+   */
+  private void append (Node node)
+  {
+    node.previous = order.previous;
+    node.next = order;
+    order.previous.next = node;
+    order.previous = node;
+  }
+
+  /**
+   * Removes a frame from the order.
+   */
+  private static void unlink (Node node)
+  {
+    node.previous.next = node.next;
+    node.next.previous = node.previous;
+  }
+
+  /**
+   * Estimates the memory occupied by the pixels of a frame. Only the frame
+   * itself is counted, not the rest of the page it lies within.
+   *
+   * @param region - The frame
+   * @return The size, in bytes
+   */
+  static long sizeOf (AtlasRegion region)
+  {
+    int bits = region.getPage ().getColorModel ().getPixelSize ();
+
+    return (long) region.getWidth () * region.getHeight () * ((bits + 7) / 8);
+  }
+
+  /**
+   * A cached frame.
+   */
+  private static final class Node
+  {
+    //Members
+    final long key;
+    final AtlasRegion region;
+    final long bytes;
+
+    /**
+     * Whether the frame has been fetched since it was last passed over for
+     * eviction. Set without locking; a lost mark merely costs the frame its
+     * second chance.
+     */
+    boolean used;
+
+    /**
+     * The neighbours of the frame in the order. Guarded by the cache.
+     */
+    Node previous, next;
+
+    //Constructors
+    Node (long key, AtlasRegion region, long bytes)
+    {
+      this.key    = key;
+      this.region = region;
+      this.bytes  = bytes;
+    }
+  }
+}
@@ -0,0 +1,483 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.image.*;
+import java.lang.ref.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Shrinks freshly sliced frames and shares identical ones. Each frame passed
+ * through the pool is trimmed to the bounding box of its visible pixels,
+ * keeping the offset of that box within the original cell, and is then
+ * compared by content against every pooled frame still in use. A frame
+ * identical to an earlier one (ie. a held pose, or an idle loop that repeats
+ * itself) reuses the earlier frame rather than keeping a copy of its own.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip walk = AnimationClip.slice (myWalkTemplate, 5, 6, 30,
+ *                                               Sprite.FR_12FPS,
+ *                                               FramePool.getShared ());
+ *
+ * <br /> <br />
+ *
+ * Since frames are shared through a single pool, duplicates are found across
+ * clips and across Sprites. Trimmed frames must be drawn through their
+ * regions (ie. Sprite.draw, or a SpriteBatch), which apply the offset; the
+ * bare images returned by getFrame no longer include the transparent border.
+ *
+ * <br /> <br />
+ *
+ * The pool holds its frames weakly, so it never keeps a frame alive by
+ * itself: once no clip uses a frame any longer, the frame is dropped from the
+ * pool as well, and the shared pool can be used freely alongside a
+ * FrameCache.
+ *
+ * @see {@link AtlasRegion#getOffsetX()}
+ *
+ * @author Dominic Aquilina
+ */
+public final class FramePool
+{
+  //Constants
+  /**
+   * The pool used unless another is given.
+   */
+  private static final FramePool SHARED = new FramePool (true);
+
+  //Members
+  /**
+   * Whether frames are trimmed as well as shared.
+   */
+  private final boolean trim;
+
+  /**
+   * The regions handed out and still in use, by hash of the content of their
+   * trimmed images. Identical frames share a single image, and identical
+   * frames at identical offsets a single region as well.
+   */
+  private final Map <Integer, List <Entry>> regions =
+    new HashMap <Integer, List <Entry>> ();
+
+  /**
+   * Receives the entries of regions no longer in use.
+   */
+  private final ReferenceQueue <AtlasRegion> unused =
+    new ReferenceQueue <AtlasRegion> ();
+
+  private long framesSeen = 0;
+  private long framesShared = 0;
+  private long pixelsIn = 0;
+  private long pixelsKept = 0;
+
+  //Constructors
+  /**
+   * Creates an empty pool.
+   *
+   * @param trim - True to trim the transparent border of each frame, false to
+   *               only share identical frames
+   */
+  public FramePool (boolean trim)
+  {
+    this.trim = trim;
+  }
+
+  //Functions
+  /**
+   * Returns the pool shared by the whole process, which trims frames. The
+   * pool only holds its frames weakly, so frames of clips no longer in use
+   * are not kept alive by it.
+   *
+   * @return The shared pool
+   */
+  public static FramePool getShared ()
+  {
+    return SHARED;
+  }
+
+  /**
+   * Trims and shares every frame of a clip. Lazy clips are returned as they
+   * are.
+   *
+   * @param clip - The clip
+   * @return A clip with the same delays, drawing from pooled frames
+   */
+  public AnimationClip intern (AnimationClip clip)
+  {
+    if (clip.isLazy ())
+    {
+      return clip;
+    }
+
+    AtlasRegion [] pooled = new AtlasRegion [clip.length ()];
+
+    for (int frame = 0; frame < pooled.length; frame++)
+    {
+      BufferedImage image = clip.getFrame (frame);
+
+      if (image != null)
+      {
+        pooled [frame] = intern (image);
+      }
+    }
+
+    return new AnimationClip (pooled, clip.getDelays ());
+  }
+
+  /**
+   * Trims a single frame and shares it with any identical frame already in
+   * the pool. Frames are read, trimmed, hashed and copied outside the pool's
+   * lock, so frames may be interned from several threads at once.
+   *
+   * @param frame - The untrimmed frame
+   * @return The region of the pooled frame, offset within the frame's cell
+   */
+  public AtlasRegion intern (BufferedImage frame)
+  {
+    int width  = frame.getWidth ();
+    int height = frame.getHeight ();
+    int [] argb = frame.getRGB (0, 0, width, height, null, 0, width);
+
+    //Find the bounding box of the visible pixels
+    int left = 0, top = 0, right = width, bottom = height;
+
+    if (trim)
+    {
+      left = width;
+      top  = height;
+      right = bottom = 0;
+
+      for (int y = 0, i = 0; y < height; y++)
+      {
+        for (int x = 0; x < width; x++, i++)
+        {
+          if ((argb [i] >>> 24) != 0)
+          {
+            left   = Math.min (left, x);
+            right  = Math.max (right, x + 1);
+            top    = Math.min (top, y);
+            bottom = Math.max (bottom, y + 1);
+          }
+        }
+      }
+
+      //A wholly transparent frame keeps a single pixel, since an image may
+      //not be empty
+      if (right <= left)
+      {
+        left = top = 0;
+        right = bottom = 1;
+      }
+    }
+
+    int trimmedWidth  = right - left;
+    int trimmedHeight = bottom - top;
+    int hash = hash (argb, width, left, top, trimmedWidth, trimmedHeight);
+
+    synchronized (this)
+    {
+      framesSeen++;
+      pixelsIn += (long) width * height;
+
+      expunge ();
+
+      AtlasRegion region = find (hash, argb, width, height, left, top,
+                                 trimmedWidth, trimmedHeight);
+
+      if (region != null)
+      {
+        return region;
+      }
+    }
+
+    BufferedImage image = copy (frame, left, top, trimmedWidth, trimmedHeight);
+
+    synchronized (this)
+    {
+      //Another thread may have pooled the same frame in the meantime
+      AtlasRegion region = find (hash, argb, width, height, left, top,
+                                 trimmedWidth, trimmedHeight);
+
+      if (region != null)
+      {
+        return region;
+      }
+
+      pixelsKept += (long) trimmedWidth * trimmedHeight;
+
+      return add (hash, image, left, top, width, height);
+    }
+  }
+
+  /**
+   * Returns the number of frames passed through the pool.
+   *
+   * @return The number of frames
+   */
+  public synchronized long getFramesSeen ()
+  {
+    return framesSeen;
+  }
+
+  /**
+   * Returns the number of frames that were found to duplicate an earlier
+   * frame.
+   *
+   * @return The number of shared frames
+   */
+  public synchronized long getFramesShared ()
+  {
+    return framesShared;
+  }
+
+  /**
+   * Returns the number of pixels in the frames passed through the pool,
+   * before trimming and sharing.
+   *
+   * @return The number of pixels
+   */
+  public synchronized long getPixelsIn ()
+  {
+    return pixelsIn;
+  }
+
+  /**
+   * Returns the number of pixels the pool actually holds.
+   *
+   * @return The number of pixels
+   */
+  public synchronized long getPixelsKept ()
+  {
+    return pixelsKept;
+  }
+
+  /**
+   * Forgets every frame seen so far and resets the counters. Frames already
+   * handed out are unaffected.
+   */
+  public synchronized void clear ()
+  {
+    for (List <Entry> candidates : regions.values ())
+    {
+      for (Entry entry : candidates)
+      {
+        //Cleared references are never enqueued
+        entry.clear ();
+      }
+    }
+
+    regions.clear ();
+    framesSeen = framesShared = pixelsIn = pixelsKept = 0;
+  }
+
+  /**
+   * Describes the savings of the pool, ie. for logging.
+   *
+   * @return A one line summary
+   */
+  @Override
+  public synchronized String toString ()
+  {
+    return "FramePool: " + framesSeen + " frames, " + framesShared +
+           " shared, " + pixelsKept + " of " + pixelsIn + " pixels kept";
+  }
+
+  /**
+   * Looks for an earlier frame with the same visible pixels. The caller must
+   * hold the pool's lock.
+   *
+   * @param hash          - The hash of the frame's visible pixels
+   * @param argb          - The pixels of the untrimmed frame
+   * @param width         - The width of the untrimmed frame
+   * @param height        - The height of the untrimmed frame
+   * @param left          - The left edge of the visible pixels
+   * @param top           - The top edge of the visible pixels
+   * @param trimmedWidth  - The width of the visible pixels
+   * @param trimmedHeight - The height of the visible pixels
+   * @return The region of the earlier frame, or a new region on its image if
+   *         it lay elsewhere in its cell, or null if there is none
+   */
+  private AtlasRegion find (int hash, int [] argb, int width, int height,
+                            int left, int top, int trimmedWidth,
+                            int trimmedHeight)
+  {
+    List <Entry> candidates = regions.get (hash);
+    BufferedImage image = null;
+
+    if (candidates == null)
+    {
+      return null;
+    }
+
+    for (Entry candidate : candidates)
+    {
+      AtlasRegion region = candidate.get ();
+
+      if (region == null)
+      {
+        continue;
+      }
+
+      if (image == null)
+      {
+        if (!matches (region.getPage (), argb, width, left, top, trimmedWidth,
+                      trimmedHeight))
+        {
+          continue;
+        }
+
+        image = region.getPage ();
+        framesShared++;
+      }
+      else if (region.getPage () != image)
+      {
+        continue;
+      }
+
+      if (region.getOffsetX () == left && region.getOffsetY () == top &&
+          region.getOriginalWidth () == width &&
+          region.getOriginalHeight () == height)
+      {
+        return region;
+      }
+    }
+
+    return image == null ? null : add (hash, image, left, top, width, height);
+  }
+
+  /**
+   * Creates a region covering the whole of a pooled image, and adds it to the
+   * pool. The caller must hold the pool's lock.
+   *
+   * @param hash   - The hash of the image's pixels
+   * @param image  - The trimmed image
+   * @param left   - The left edge of the image within its cell
+   * @param top    - The top edge of the image within its cell
+   * @param width  - The width of the untrimmed cell
+   * @param height - The height of the untrimmed cell
+   * @return The new region
+   */
+  private AtlasRegion add (int hash, BufferedImage image, int left, int top,
+                           int width, int height)
+  {
+    AtlasRegion region = new AtlasRegion (image, 0, 0, image.getWidth (),
+                                          image.getHeight (), left, top, width,
+                                          height);
+    List <Entry> candidates = regions.get (hash);
+
+    if (candidates == null)
+    {
+      candidates = new ArrayList <Entry> (1);
+      regions.put (hash, candidates);
+    }
+
+    candidates.add (new Entry (region, hash, unused));
+
+    return region;
+  }
+
+  /**
+   * Forgets the regions no longer in use, along with any hash left without
+   * a region.
+   */
+  private void expunge ()
+  {
+    for (Reference <? extends AtlasRegion> gone = unused.poll (); gone != null;
+         gone = unused.poll ())
+    {
+      int hash = ((Entry) gone).hash;
+      List <Entry> candidates = regions.get (hash);
+
+      if (candidates != null && candidates.remove (gone) &&
+          candidates.isEmpty ())
+      {
+        regions.remove (hash);
+      }
+    }
+  }
+
+  /**
+   * Hashes the visible pixels of a frame, along with their dimensions.
+   */
+  private static int hash (int [] argb, int stride, int left, int top,
+                           int width, int height)
+  {
+    int hash = 31 * width + height;
+
+    for (int y = top; y < top + height; y++)
+    {
+      for (int i = y * stride + left, end = i + width; i < end; i++)
+      {
+        hash = 31 * hash + argb [i];
+      }
+    }
+
+    return hash;
+  }
+
+  /**
+   * Compares the visible pixels of a frame against a pooled image.
+   */
+  private static boolean matches (BufferedImage candidate, int [] argb,
+                                  int stride, int left, int top, int width,
+                                  int height)
+  {
+    if (candidate.getWidth () != width || candidate.getHeight () != height)
+    {
+      return false;
+    }
+
+    int [] pixels = candidate.getRGB (0, 0, width, height, null, 0, width);
+
+    for (int y = 0; y < height; y++)
+    {
+      if (!Arrays.equals (pixels, y * width, (y + 1) * width,
+                          argb, (top + y) * stride + left,
+                          (top + y) * stride + left + width))
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Copies part of a frame into an image of its own, of the same type, so
+   * that the frame no longer holds on to the whole of its template.
+   */
+  private static BufferedImage copy (BufferedImage frame, int left, int top,
+                                     int width, int height)
+  {
+    ColorModel model = frame.getColorModel ();
+    WritableRaster raster = model.createCompatibleWritableRaster (width,
+                                                                  height);
+
+    frame.getSubimage (left, top, width, height).copyData (raster);
+
+    return new BufferedImage (model, raster, model.isAlphaPremultiplied (),
+                              null);
+  }
+
+  /**
+   * A region handed out by the pool, held weakly.
+   */
+  private static final class Entry extends WeakReference <AtlasRegion>
+  {
+    //Members
+    /**
+     * The hash of the content of the region's image.
+     */
+    final int hash;
+
+    //Constructors
+    Entry (AtlasRegion region, int hash, ReferenceQueue <AtlasRegion> queue)
+    {
+      super (region, queue);
+
+      this.hash = hash;
+    }
+  }
+}
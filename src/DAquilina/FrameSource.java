@@ -0,0 +1,51 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * Supplies the frames of a lazy clip on demand. A source holds only a compact
+ * reference to its frames (ie. the compressed bytes of a template, or a
+ * mapped SpriteBundle) and builds a frame only when asked for it.
+ *
+ * @see {@link AnimationClip#lazy(FrameSource, int[])}
+ * @see {@link FrameCache}
+ *
+ * @author Dominic Aquilina
+ */
+public interface FrameSource
+{
+  /**
+   * Returns the number of frames this source supplies.
+   *
+   * @return The number of frames
+   */
+  int length ();
+
+  /**
+   * Builds a single frame. May be called on any thread, and may be called
+   * again for the same frame once the cached copy has been evicted.
+   *
+   * @param frame - The index of the frame
+   * @return The frame
+   *
+   * @throws IOException - If the frame cannot be read
+   */
+  BufferedImage load (int frame) throws IOException;
+
+  /**
+   * Builds a single frame along with the region describing it. Sources whose
+   * frames have been trimmed override this to supply the trim offset.
+   *
+   * @param frame - The index of the frame
+   * @return The region covering the frame
+   *
+   * @throws IOException - If the frame cannot be read
+   */
+  default AtlasRegion loadRegion (int frame) throws IOException
+  {
+    return new AtlasRegion (load (frame));
+  }
+}
@@ -0,0 +1,243 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+
+/**
+ * A flip, quarter-turn and/or scale applied to a frame. Rather than applying
+ * the transform every time a frame is drawn (ie. through Graphics2D, which
+ * is slow), the transformed frame is generated once and then drawn with a
+ * plain blit like any other.
+ *
+ * <br /> <br />
+ *
+ * ie. AnimationClip left = right.derive (FrameTransform.FLIP_H);
+ *     AnimationClip big  = right.derive (FrameTransform.IDENTITY.scaled (2));
+ *
+ * <br /> <br />
+ *
+ * The orientation is applied before the scale. A trimmed frame is
+ * transformed within its untrimmed cell, so the result still lines up with
+ * other frames transformed the same way.
+ *
+ * @see {@link VariantCache}
+ *
+ * @author Dominic Aquilina
+ */
+public final class FrameTransform
+{
+  //Constants
+  /**
+   * Leaves the frame as it is.
+   */
+  public static final FrameTransform IDENTITY   = new FrameTransform (0, 1);
+
+  /**
+   * Mirrors the frame left to right.
+   */
+  public static final FrameTransform FLIP_H     = new FrameTransform (1, 1);
+
+  /**
+   * Mirrors the frame top to bottom.
+   */
+  public static final FrameTransform FLIP_V     = new FrameTransform (2, 1);
+
+  /**
+   * Turns the frame a quarter turn clockwise.
+   */
+  public static final FrameTransform ROTATE_90  = new FrameTransform (3, 1);
+
+  /**
+   * Turns the frame a half turn.
+   */
+  public static final FrameTransform ROTATE_180 = new FrameTransform (4, 1);
+
+  /**
+   * Turns the frame a quarter turn anticlockwise.
+   */
+  public static final FrameTransform ROTATE_270 = new FrameTransform (5, 1);
+
+  //Members
+  /**
+   * Which of the orientations above is applied.
+   */
+  private final int orientation;
+
+  /**
+   * The factor by which the frame is scaled.
+   */
+  private final double scale;
+
+  //Constructors
+  /**
+   * Creates a transform.
+   *
+   * @param orientation - The orientation, as numbered above
+   * @param scale       - The scale factor
+   */
+  private FrameTransform (int orientation, double scale)
+  {
+    if (!(scale > 0) || Double.isInfinite (scale))
+    {
+      throw new IllegalArgumentException ("Scale must be positive: " + scale);
+    }
+
+    this.orientation = orientation;
+    this.scale       = scale;
+  }
+
+  //Functions
+  /**
+   * Returns a transform with the same orientation as this one, but the given
+   * scale.
+   *
+   * @param scale - The scale factor, ie. 2 to double the size of the frame
+   * @return The new transform
+   *
+   * @throws IllegalArgumentException - If the scale is not positive
+   */
+  public FrameTransform scaled (double scale)
+  {
+    return new FrameTransform (orientation, scale);
+  }
+
+  /**
+   * Returns the scale factor of this transform.
+   *
+   * @return The scale factor
+   */
+  public double getScale ()
+  {
+    return scale;
+  }
+
+  /**
+   * Determines whether the transform swaps the width and height of a frame.
+   *
+   * @return True for quarter turns
+   */
+  public boolean isQuarterTurn ()
+  {
+    return orientation == 3 || orientation == 5;
+  }
+
+  /**
+   * Generates the transformed copy of a frame. This is relatively expensive;
+   * callers drawing the same variant repeatedly should go through a
+   * VariantCache, or derive a clip once.
+   *
+   * @param region - The frame
+   * @return The region covering the new, transformed frame
+   */
+  public AtlasRegion apply (AtlasRegion region)
+  {
+    int w = region.getWidth ();
+    int h = region.getHeight ();
+    int cellWidth  = region.getOriginalWidth ();
+    int cellHeight = region.getOriginalHeight ();
+    int ox = region.getOffsetX ();
+    int oy = region.getOffsetY ();
+
+    //Place the trimmed box within the reoriented cell
+    int x, y;
+
+    switch (orientation)
+    {
+      case 1:  x = cellWidth - (ox + w);   y = oy;                      break;
+      case 2:  x = ox;                     y = cellHeight - (oy + h);   break;
+      case 3:  x = cellHeight - (oy + h);  y = ox;                      break;
+      case 4:  x = cellWidth - (ox + w);   y = cellHeight - (oy + h);   break;
+      case 5:  x = oy;                     y = cellWidth - (ox + w);    break;
+      default: x = ox;                     y = oy;                      break;
+    }
+
+    if (isQuarterTurn ())
+    {
+      int swap = w;
+      w = h;
+      h = swap;
+
+      swap = cellWidth;
+      cellWidth  = cellHeight;
+      cellHeight = swap;
+    }
+
+    //Then scale the box and the cell, keeping the box's edges on whole pixels
+    int left   = (int) Math.round (x * scale);
+    int top    = (int) Math.round (y * scale);
+    int width  = Math.max (1, (int) Math.round ((x + w) * scale) - left);
+    int height = Math.max (1, (int) Math.round ((y + h) * scale) - top);
+
+    BufferedImage image = ImageConverter.createCompatible (
+      width, height, Transparency.TRANSLUCENT);
+    Graphics2D g = image.createGraphics ();
+
+    //Map the source box onto the new image: scale, then reorient
+    AffineTransform transform = AffineTransform.getScaleInstance (
+      (double) width / w, (double) height / h);
+    transform.concatenate (orient (region.getWidth (), region.getHeight ()));
+
+    g.setComposite (AlphaComposite.Src);
+    g.setRenderingHint (RenderingHints.KEY_INTERPOLATION, scale == 1
+      ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+      : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.transform (transform);
+    g.drawImage (region.getPage (), 0, 0, region.getWidth (),
+                 region.getHeight (), region.getX (), region.getY (),
+                 region.getX () + region.getWidth (),
+                 region.getY () + region.getHeight (), null);
+    g.dispose ();
+
+    return new AtlasRegion (image, 0, 0, width, height, left, top,
+                            Math.max (1, (int) Math.round (cellWidth * scale)),
+                            Math.max (1, (int) Math.round (cellHeight * scale)));
+  }
+
+  /**
+   * Builds the transform that reorients a box of the given size in place, so
+   * that it again has its top-left corner at the origin.
+   *
+   * @param w - The width of the box
+   * @param h - The height of the box
+   * @return The transform
+   */
+  private AffineTransform orient (int w, int h)
+  {
+    switch (orientation)
+    {
+      case 1:  return new AffineTransform (-1,  0,  0,  1, w, 0);
+      case 2:  return new AffineTransform ( 1,  0,  0, -1, 0, h);
+      case 3:  return new AffineTransform ( 0,  1, -1,  0, h, 0);
+      case 4:  return new AffineTransform (-1,  0,  0, -1, w, h);
+      case 5:  return new AffineTransform ( 0, -1,  1,  0, 0, w);
+      default: return new AffineTransform ();
+    }
+  }
+
+  @Override
+  public boolean equals (Object other)
+  {
+    return other instanceof FrameTransform &&
+           ((FrameTransform) other).orientation == orientation &&
+           ((FrameTransform) other).scale == scale;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return orientation * 31 + Double.hashCode (scale);
+  }
+
+  @Override
+  public String toString ()
+  {
+    String [] names = {"IDENTITY", "FLIP_H", "FLIP_V", "ROTATE_90",
+                       "ROTATE_180", "ROTATE_270"};
+
+    return scale == 1 ? names [orientation]
+                      : names [orientation] + " x" + scale;
+  }
+}
@@ -0,0 +1,489 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Drives an application on a thread of its own, separating game logic from
+ * drawing. Logic is advanced in fixed steps (ie. exactly 1/100th of a second
+ * each), as many as are needed to catch up with real time, while frames are
+ * drawn as often as the frame rate allows. Between frames the thread parks
+ * rather than spinning, so an idle game uses next to no CPU.
+ *
+ * <br /> <br />
+ *
+ * ie. GameLoop loop = new GameLoop (100, myListener);     <br /> &nbsp;
+ *     loop.add (mySprite);                                <br /> &nbsp;
+ *     loop.setBufferStrategy (myFrame.getBufferStrategy ()); <br /> &nbsp;
+ *     loop.start ();                                      <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Every Sprite added to the loop is advanced by one step per update. Since
+ * frames fall between updates, the listener is told how far the current
+ * frame lies between the last update and the next (alpha), so that movement
+ * can be interpolated smoothly.
+ *
+ * <br /> <br />
+ *
+ * Given a SpatialGrid and a viewport, the loop also advances the Sprites of
+ * the grid that lie within the viewport. Sprites out of view are left alone,
+ * and catch up on the time they missed in a single update once they come
+ * back into view. Sprites in the grid need not be added to the loop; those
+ * that are added are advanced wherever they are.
+ *
+ * @author Dominic Aquilina
+ */
+public class GameLoop implements Runnable
+{
+  //Constants
+  /**
+   * The longest stretch of time the loop will try to catch up on at once.
+   * Beyond this (ie. after the process was suspended), the lost time is
+   * dropped rather than run as a burst of updates.
+   */
+  private static final long MAX_CATCH_UP = 250000000L;
+
+  /**
+   * The histograms of the shared MetricsRegistry recorded into by every loop.
+   */
+  private static final Histogram UPDATE_TIMES =
+    MetricsRegistry.getShared ().histogram (MetricsRegistry.LOOP_UPDATE);
+  private static final Histogram FRAME_TIMES =
+    MetricsRegistry.getShared ().histogram (MetricsRegistry.LOOP_FRAME);
+
+  //Members
+  /**
+   * The length of each update step, in nanoseconds.
+   */
+  private final long stepNanos;
+
+  /**
+   * The shortest time between frames, in nanoseconds.
+   */
+  private volatile long frameNanos;
+
+  /**
+   * Receives each update and frame.
+   */
+  private final Listener listener;
+
+  /**
+   * The Sprites advanced by each update.
+   */
+  private final List <Sprite> sprites = new CopyOnWriteArrayList <Sprite> ();
+
+  /**
+   * The grid whose visible Sprites are advanced by each update, or null.
+   */
+  private volatile SpatialGrid grid;
+
+  /**
+   * The area of the grid in view, in world coordinates.
+   */
+  private volatile Rectangle viewport = new Rectangle ();
+
+  /**
+   * The visible Sprites of the grid, found afresh by each update. Used only
+   * by the loop's own thread.
+   */
+  private final List <Sprite> visible = new ArrayList <Sprite> ();
+
+  /**
+   * The time the Sprites have been advanced to, in nanoseconds. Advances by
+   * exactly one step per update.
+   */
+  private volatile long time = System.nanoTime ();
+
+  /**
+   * Draws each frame actively, if not null.
+   */
+  private volatile BufferStrategy strategy;
+
+  /**
+   * Measures each frame, if not null.
+   */
+  private volatile RenderMetrics metrics;
+
+  /**
+   * The thread running the loop, while it is running.
+   */
+  private volatile Thread thread;
+
+  /**
+   * The number of updates run so far.
+   */
+  private volatile long updates = 0;
+
+  /**
+   * The number of frames drawn so far.
+   */
+  private volatile long frames = 0;
+
+  //Constructors
+  /**
+   * Creates a loop that runs the given number of updates per second, and
+   * draws at the same rate.
+   *
+   * @param updatesPerSecond - The number of fixed steps per second
+   * @param listener         - Receives each update and frame
+   */
+  public GameLoop (int updatesPerSecond, Listener listener)
+  {
+    this.stepNanos  = 1000000000L / updatesPerSecond;
+    this.frameNanos = stepNanos;
+    this.listener   = listener;
+  }
+
+  //Functions
+  /**
+   * Adds a Sprite to be advanced by each update.
+   *
+   * @param sprite - The Sprite
+   */
+  public void add (Sprite sprite)
+  {
+    sprite.advanceTo (time);
+    sprites.add (sprite);
+  }
+
+  /**
+   * Stops a Sprite from being advanced.
+   *
+   * @param sprite - The Sprite
+   */
+  public void remove (Sprite sprite)
+  {
+    sprites.remove (sprite);
+  }
+
+  /**
+   * Advances only those Sprites of the given grid that lie within the
+   * viewport, in addition to the Sprites added to the loop.
+   *
+   * @see {@link Sprite#advanceTo(long)}
+   *
+   * @param grid     - The grid, or null to stop culling
+   * @param viewport - The area in view, in world coordinates
+   */
+  public void setCulling (SpatialGrid grid, Rectangle viewport)
+  {
+    this.viewport = new Rectangle (viewport);
+    this.grid     = grid;
+  }
+
+  /**
+   * Moves the viewport of the grid, ie. as the camera follows the player.
+   *
+   * @param viewport - The area in view, in world coordinates
+   */
+  public void setViewport (Rectangle viewport)
+  {
+    this.viewport = new Rectangle (viewport);
+  }
+
+  /**
+   * Returns the area of the grid in view.
+   *
+   * @return A copy of the viewport, in world coordinates
+   */
+  public Rectangle getViewport ()
+  {
+    return new Rectangle (viewport);
+  }
+
+  /**
+   * Returns the length of each update step.
+   *
+   * @return The step length, in nanoseconds
+   */
+  public long getStepNanos ()
+  {
+    return stepNanos;
+  }
+
+  /**
+   * Limits the number of frames drawn per second.
+   *
+   * @param framesPerSecond - The maximum frame rate, or 0 to draw as often
+   *                          as possible
+   */
+  public void setFrameRate (int framesPerSecond)
+  {
+    frameNanos = framesPerSecond <= 0 ? 0 : 1000000000L / framesPerSecond;
+  }
+
+  /**
+   * Sets the strategy used to draw each frame actively. When set, the
+   * listener is handed the strategy's graphics each frame, and the strategy
+   * is shown once the frame is drawn.
+   *
+   * @param strategy - The strategy, or null to leave drawing to the listener
+   */
+  public void setBufferStrategy (BufferStrategy strategy)
+  {
+    this.strategy = strategy;
+  }
+
+  /**
+   * Returns the metrics each frame is measured by.
+   *
+   * @return The metrics, or null if frames are not measured
+   */
+  public RenderMetrics getMetrics ()
+  {
+    return metrics;
+  }
+
+  /**
+   * Sets the metrics each frame is measured by. Only the listener's drawing
+   * is measured; obtaining and presenting the BufferStrategy's graphics is
+   * left to the platform, which allocates as it sees fit.
+   *
+   * @param metrics - The metrics, or null to stop measuring
+   */
+  public void setMetrics (RenderMetrics metrics)
+  {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the number of updates run so far.
+   *
+   * @return The number of updates
+   */
+  public long getUpdateCount ()
+  {
+    return updates;
+  }
+
+  /**
+   * Returns the number of frames drawn so far.
+   *
+   * @return The number of frames
+   */
+  public long getFrameCount ()
+  {
+    return frames;
+  }
+
+  /**
+   * Starts the loop on a new thread, unless it is already running.
+   */
+  public synchronized void start ()
+  {
+    if (thread == null)
+    {
+      thread = new Thread (this, "GameLoop");
+      thread.start ();
+    }
+  }
+
+  /**
+   * Stops the loop and waits for its thread to finish.
+   *
+   * @throws InterruptedException - If interrupted while waiting
+   */
+  public void stop () throws InterruptedException
+  {
+    Thread running;
+
+    synchronized (this)
+    {
+      running = thread;
+      thread  = null;
+    }
+
+    if (running != null && running != Thread.currentThread ())
+    {
+      LockSupport.unpark (running);
+      running.join ();
+    }
+  }
+
+  /**
+   * Runs the loop until stopped. Called by the loop's own thread.
+   */
+  @Override
+  public void run ()
+  {
+    Thread self = Thread.currentThread ();
+    long previous = System.nanoTime ();
+    long lag = 0;
+
+    while (thread == self)
+    {
+      long frameStart = System.nanoTime ();
+
+      lag += Math.min (frameStart - previous, MAX_CATCH_UP);
+      previous = frameStart;
+
+      //Run as many fixed steps as real time has allowed
+      while (lag >= stepNanos)
+      {
+        EngineEvents.Update event = EngineEvents.beginUpdate ();
+        long stepStart = System.nanoTime ();
+
+        long now = time + stepNanos;
+        int advanced = sprites.size ();
+
+        for (Sprite sprite : sprites)
+        {
+          sprite.advanceTo (now);
+        }
+
+        SpatialGrid grid = this.grid;
+
+        if (grid != null)
+        {
+          advanced += grid.query (viewport, visible);
+
+          for (int i = 0; i < visible.size (); i++)
+          {
+            visible.get (i).advanceTo (now);
+          }
+
+          visible.clear ();
+        }
+
+        time = now;
+
+        listener.update (stepNanos);
+
+        if (event != null)
+        {
+          event.sprites = advanced;
+          event.commit ();
+        }
+
+        MetricsRegistry.getShared ().record (UPDATE_TIMES,
+                                             System.nanoTime () - stepStart);
+
+        updates++;
+        lag -= stepNanos;
+      }
+
+      long renderStart = System.nanoTime ();
+
+      render ((double) lag / stepNanos);
+
+      MetricsRegistry.getShared ().record (FRAME_TIMES,
+                                           System.nanoTime () - renderStart);
+
+      frames++;
+
+      //Sleep off whatever remains of this frame
+      long remaining;
+
+      while ((remaining = frameStart + frameNanos - System.nanoTime ()) > 0 &&
+             thread == self)
+      {
+        LockSupport.parkNanos (this, remaining);
+      }
+    }
+  }
+
+  /**
+   * Draws a single frame.
+   *
+   * @param alpha - How far the frame lies between the last update and the
+   *                next, from 0 to 1
+   */
+  private void render (double alpha)
+  {
+    BufferStrategy active = strategy;
+
+    if (active == null)
+    {
+      renderMeasured (null, alpha);
+
+      return;
+    }
+
+    //The strategy's buffers may be lost at any time, ie. when the display
+    //mode changes, in which case the frame must be drawn again
+    do
+    {
+      do
+      {
+        Graphics2D g = (Graphics2D) active.getDrawGraphics ();
+
+        try
+        {
+          renderMeasured (g, alpha);
+        }
+        finally
+        {
+          g.dispose ();
+        }
+      }
+      while (active.contentsRestored ());
+
+      active.show ();
+    }
+    while (active.contentsLost ());
+
+    Toolkit.getDefaultToolkit ().sync ();
+  }
+
+  /**
+   * Has the listener draw a frame, measuring it if metrics have been set.
+   *
+   * @param g     - The graphics to draw with, or null
+   * @param alpha - How far the frame lies between the last update and the
+   *                next, from 0 to 1
+   */
+  private void renderMeasured (Graphics2D g, double alpha)
+  {
+    RenderMetrics measure = metrics;
+
+    if (measure == null)
+    {
+      listener.render (g, alpha);
+
+      return;
+    }
+
+    measure.beginFrame ();
+
+    try
+    {
+      listener.render (g, alpha);
+    }
+    finally
+    {
+      measure.endFrame ();
+    }
+  }
+
+  /**
+   * Receives the updates and frames of a GameLoop. Both methods are called
+   * on the loop's thread.
+   */
+  public interface Listener
+  {
+    /**
+     * Advances the game by one fixed step. Any Sprites added to the loop have
+     * already been advanced.
+     *
+     * @param stepNanos - The length of the step, in nanoseconds
+     */
+    void update (long stepNanos);
+
+    /**
+     * Draws a frame.
+     *
+     * @param g     - The graphics of the loop's BufferStrategy, or null if
+     *                the loop has none
+     * @param alpha - How far the frame lies between the last update and the
+     *                next, from 0 to 1
+     */
+    void render (Graphics2D g, double alpha);
+  }
+}
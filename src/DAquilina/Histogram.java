@@ -0,0 +1,233 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+
+/**
+ * Records the distribution of a series of non-negative values, ie. frame
+ * times or bytes allocated per frame, in a fixed set of buckets. Each power
+ * of two is divided into eight buckets, so any recorded value is known to
+ * within an eighth (12.5%) of itself while the whole histogram occupies a
+ * few kilobytes, however many values it records.
+ *
+ * <br /> <br />
+ *
+ * ie. histogram.record (System.nanoTime () - frameStart);          <br /> &nbsp;
+ *     long worst = histogram.getPercentile (99.9);                 <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Recording neither allocates nor takes longer as values accumulate. Values
+ * may be recorded on one thread while being read on another.
+ *
+ * @see {@link RenderMetrics}
+ *
+ * @author Dominic Aquilina
+ */
+public final class Histogram
+{
+  //Constants
+  /**
+   * The number of buckets into which each power of two is divided, as a
+   * power of two.
+   */
+  private static final int SUB_BITS = 3;
+
+  /**
+   * The number of buckets into which each power of two is divided.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /**
+   * The number of buckets needed to cover every non-negative long.
+   */
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  //Members
+  /**
+   * The number of values recorded in each bucket.
+   */
+  private final long [] counts = new long [BUCKETS];
+
+  private long count = 0;
+  private long sum = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = 0;
+
+  //Functions
+  /**
+   * Records a single value. Negative values are recorded as 0.
+   *
+   * @param value - The value
+   */
+  public synchronized void record (long value)
+  {
+    value = Math.max (value, 0);
+
+    counts [bucketOf (value)]++;
+    count++;
+    sum += value;
+    min = Math.min (min, value);
+    max = Math.max (max, value);
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return The number of values
+   */
+  public synchronized long getCount ()
+  {
+    return count;
+  }
+
+  /**
+   * Returns the smallest value recorded.
+   *
+   * @return The smallest value, or 0 if none have been recorded
+   */
+  public synchronized long getMin ()
+  {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return The largest value, or 0 if none have been recorded
+   */
+  public synchronized long getMax ()
+  {
+    return max;
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   *
+   * @return The mean, or 0 if none have been recorded
+   */
+  public synchronized double getMean ()
+  {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Returns the value below which the given percentage of recorded values
+   * lie, to within the precision of the buckets.
+   *
+   * <br /> <br />
+   *
+   * ie. histogram.getPercentile (50) is the median.
+   *
+   * @param percentile - The percentage, from 0 to 100
+   * @return The value at that percentile, or 0 if none have been recorded
+   */
+  public synchronized long getPercentile (double percentile)
+  {
+    if (count == 0)
+    {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil (count * Math.min (Math.max (percentile, 0),
+                                                    100) / 100);
+    long seen = 0;
+
+    for (int bucket = 0; bucket < BUCKETS; bucket++)
+    {
+      seen += counts [bucket];
+
+      if (seen >= Math.max (rank, 1))
+      {
+        return Math.min (Math.max (highestOf (bucket), min), max);
+      }
+    }
+
+    return max;
+  }
+
+  /**
+   * Discards every recorded value.
+   */
+  public synchronized void reset ()
+  {
+    Arrays.fill (counts, 0);
+    count = sum = max = 0;
+    min = Long.MAX_VALUE;
+  }
+
+  @Override
+  public synchronized String toString ()
+  {
+    return "count=" + count + " min=" + getMin () + " mean=" +
+           Math.round (getMean ()) + " p50=" + getPercentile (50) + " p90=" +
+           getPercentile (90) + " p99=" + getPercentile (99) + " max=" + max;
+  }
+
+  /**
+   * Appends a consistent snapshot of this histogram to JSON text, as an
+   * object holding its count, min, mean, max and the given percentiles.
+   *
+   * @param json        - The JSON text
+   * @param percentiles - The percentiles to include, from 0 to 100
+   */
+  synchronized void appendJson (StringBuilder json, double [] percentiles)
+  {
+    json.append ("{\"count\": ").append (count)
+        .append (", \"min\": ").append (getMin ())
+        .append (", \"mean\": ").append (Math.round (getMean ()))
+        .append (", \"max\": ").append (max);
+
+    for (double percentile : percentiles)
+    {
+      String label = percentile == Math.rint (percentile)
+                     ? Long.toString ((long) percentile)
+                     : Double.toString (percentile);
+
+      json.append (", \"p").append (label).append ("\": ")
+          .append (getPercentile (percentile));
+    }
+
+    json.append ('}');
+  }
+
+  /**
+   * Returns the bucket holding the given value.
+   *
+   * @param value - A non-negative value
+   * @return The index of the bucket
+   */
+  static int bucketOf (long value)
+  {
+    if (value < SUB_BUCKETS)
+    {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros (value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Returns the largest value held by the given bucket.
+   *
+   * @param bucket - The index of the bucket
+   * @return The largest value of the bucket
+   */
+  static long highestOf (int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+    {
+      return bucket;
+    }
+
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) <<
+                  (exponent - SUB_BITS);
+
+    return lowest + (1L << (exponent - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,388 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Converts frames to the image format that draws fastest on the current
+ * display. Images decoded by ImageIO are frequently indexed or of a custom
+ * type, and each time such an image is drawn onto the back buffer Java2D must
+ * convert it pixel by pixel. Converting once at load time avoids this.
+ *
+ * <br /> <br />
+ *
+ * When running headless there is no display to match, so frames are
+ * converted to premultiplied ARGB, which blends onto any integer raster
+ * without conversion.
+ *
+ * <br /> <br />
+ *
+ * ie. ImageConverter converter = new ImageConverter ();     <br /> &nbsp;
+ *     converter.convert (manSprite, ballSprite);            <br /> &nbsp;
+ *     System.out.println (converter.getReport ());          <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Pages shared by several frames (ie. those of a TextureAtlas) are converted
+ * only once per converter.
+ *
+ * @author Dominic Aquilina
+ */
+public final class ImageConverter
+{
+  //Members
+  /**
+   * The pages already converted by this converter, and their replacements.
+   * Pages that needed no conversion map to themselves.
+   */
+  private final Map <BufferedImage, BufferedImage> converted =
+    new IdentityHashMap <BufferedImage, BufferedImage> ();
+
+  /**
+   * The record of every frame examined by this converter.
+   */
+  private final Report report = new Report ();
+
+  //Functions
+  /**
+   * Returns the record of the frames examined so far by this converter.
+   *
+   * @return The report
+   */
+  public Report getReport ()
+  {
+    return report;
+  }
+
+  /**
+   * Converts the animations of each of the given Sprites, and points each
+   * Sprite at its converted set.
+   *
+   * @param sprites - The Sprites to convert
+   */
+  public void convert (Sprite... sprites)
+  {
+    for (Sprite sprite : sprites)
+    {
+      sprite.setAnimations (convert (sprite.getAnimations ()));
+    }
+  }
+
+  /**
+   * Converts every clip of the given set.
+   *
+   * @param set - The set to convert
+   * @return A set holding the converted clips
+   */
+  public AnimationSet convert (AnimationSet set)
+  {
+    AnimationSet result = set;
+
+    for (int id : set.getIds ())
+    {
+      AnimationClip clip = set.getClip (id);
+
+      result = result.with (id, convert (clip, ClipRegistry.nameOf (id)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Converts every frame of the given clip.
+   *
+   * @param clip - The clip to convert
+   * @return The converted clip, or the same clip if no frame needed
+   *         conversion
+   */
+  public AnimationClip convert (AnimationClip clip)
+  {
+    return convert (clip, "clip");
+  }
+
+  /**
+   * Converts every frame of the given clip, recording each frame in the
+   * report under the given name.
+   *
+   * @param clip - The clip to convert
+   * @param name - The name of the clip, for the report
+   * @return The converted clip, or the same clip if no frame needed
+   *         conversion
+   */
+  private AnimationClip convert (AnimationClip clip, String name)
+  {
+    //Lazy frames are converted, if at all, by their source as they are built
+    if (clip.isLazy ())
+    {
+      return clip;
+    }
+
+    AtlasRegion [] regions = new AtlasRegion [clip.length ()];
+    boolean changed = false;
+
+    for (int frame = 0; frame < regions.length; frame++)
+    {
+      AtlasRegion region = clip.getRegion (frame);
+
+      if (region == null)
+      {
+        continue;
+      }
+
+      BufferedImage page = region.getPage ();
+      BufferedImage compatible = converted.get (page);
+
+      if (compatible == null)
+      {
+        compatible = needsConversion (page) ? toCompatible (page) : page;
+        converted.put (page, compatible);
+      }
+
+      report.record (name, frame, page, compatible);
+
+      if (compatible == page)
+      {
+        regions [frame] = region;
+      }
+      else
+      {
+        regions [frame] = region.relocate (compatible, region.getX (),
+                                           region.getY ());
+        changed = true;
+      }
+    }
+
+    return changed ? new AnimationClip (regions, clip.getDelays ()) : clip;
+  }
+
+  /**
+   * Determines whether the given image would need to be converted when drawn
+   * onto a display-compatible image.
+   *
+   * @param image - The image to examine
+   * @return True if the image is not already in the compatible format
+   */
+  public static boolean needsConversion (BufferedImage image)
+  {
+    if (GraphicsEnvironment.isHeadless ())
+    {
+      return image.getType () != BufferedImage.TYPE_INT_ARGB_PRE;
+    }
+
+    ColorModel target = getConfiguration ().getColorModel (
+      image.getTransparency ());
+
+    return !target.equals (image.getColorModel ());
+  }
+
+  /**
+   * Copies the given image into a new image of the display-compatible
+   * format, or premultiplied ARGB when running headless.
+   *
+   * @param image - The image to convert
+   * @return The converted copy
+   */
+  public static BufferedImage toCompatible (BufferedImage image)
+  {
+    return createCompatible (image.getWidth (), image.getHeight (),
+                             image.getTransparency (), image);
+  }
+
+  /**
+   * Creates a blank image of the display-compatible format, suitable for use
+   * as a back buffer.
+   *
+   * @param width        - The width of the image
+   * @param height       - The height of the image
+   * @param transparency - One of the Transparency constants
+   * @return The new image
+   */
+  public static BufferedImage createCompatible (int width, int height,
+                                                int transparency)
+  {
+    return createCompatible (width, height, transparency, null);
+  }
+
+  /**
+   * Creates an image of the display-compatible format, optionally filled
+   * with a copy of the given source.
+   *
+   * @param width        - The width of the image
+   * @param height       - The height of the image
+   * @param transparency - One of the Transparency constants
+   * @param source       - The image to copy, or null
+   * @return The new image
+   */
+  private static BufferedImage createCompatible (int width, int height,
+                                                 int transparency,
+                                                 BufferedImage source)
+  {
+    BufferedImage image;
+
+    if (GraphicsEnvironment.isHeadless ())
+    {
+      image = new BufferedImage (width, height,
+                                 BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+    else
+    {
+      image = getConfiguration ().createCompatibleImage (width, height,
+                                                         transparency);
+    }
+
+    if (source != null)
+    {
+      Graphics2D g = image.createGraphics ();
+
+      g.setComposite (AlphaComposite.Src);
+      g.drawImage (source, 0, 0, null);
+      g.dispose ();
+    }
+
+    return image;
+  }
+
+  /**
+   * Returns the configuration of the default screen.
+   *
+   * @return The default graphics configuration
+   */
+  private static GraphicsConfiguration getConfiguration ()
+  {
+    return GraphicsEnvironment.getLocalGraphicsEnvironment ()
+                              .getDefaultScreenDevice ()
+                              .getDefaultConfiguration ();
+  }
+
+  /**
+   * Returns a readable name for the given BufferedImage type.
+   *
+   * @param type - One of the BufferedImage TYPE_ constants
+   * @return The name of the type
+   */
+  static String typeName (int type)
+  {
+    switch (type)
+    {
+      case BufferedImage.TYPE_INT_RGB:
+        return "TYPE_INT_RGB";
+      case BufferedImage.TYPE_INT_ARGB:
+        return "TYPE_INT_ARGB";
+      case BufferedImage.TYPE_INT_ARGB_PRE:
+        return "TYPE_INT_ARGB_PRE";
+      case BufferedImage.TYPE_INT_BGR:
+        return "TYPE_INT_BGR";
+      case BufferedImage.TYPE_3BYTE_BGR:
+        return "TYPE_3BYTE_BGR";
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        return "TYPE_4BYTE_ABGR";
+      case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+        return "TYPE_4BYTE_ABGR_PRE";
+      case BufferedImage.TYPE_USHORT_565_RGB:
+        return "TYPE_USHORT_565_RGB";
+      case BufferedImage.TYPE_USHORT_555_RGB:
+        return "TYPE_USHORT_555_RGB";
+      case BufferedImage.TYPE_BYTE_GRAY:
+        return "TYPE_BYTE_GRAY";
+      case BufferedImage.TYPE_USHORT_GRAY:
+        return "TYPE_USHORT_GRAY";
+      case BufferedImage.TYPE_BYTE_BINARY:
+        return "TYPE_BYTE_BINARY";
+      case BufferedImage.TYPE_BYTE_INDEXED:
+        return "TYPE_BYTE_INDEXED";
+      default:
+        return "TYPE_CUSTOM";
+    }
+  }
+
+  /**
+   * A record of which frames a converter examined, and which of those had to
+   * be converted.
+   */
+  public static final class Report
+  {
+    //Members
+    /**
+     * The number of frames examined.
+     */
+    private int examined = 0;
+
+    /**
+     * A description of each frame that was converted.
+     */
+    private final List <String> conversions = new ArrayList <String> ();
+
+    //Functions
+    /**
+     * Returns the number of frames examined.
+     *
+     * @return The number of frames
+     */
+    public int getFramesExamined ()
+    {
+      return examined;
+    }
+
+    /**
+     * Returns the number of frames that needed conversion.
+     *
+     * @return The number of frames
+     */
+    public int getFramesConverted ()
+    {
+      return conversions.size ();
+    }
+
+    /**
+     * Describes each frame that was converted, ie.
+     * "MOVE_LEFT frame 3: TYPE_CUSTOM -> TYPE_INT_ARGB_PRE".
+     *
+     * @return An unmodifiable list of descriptions
+     */
+    public List <String> getConversions ()
+    {
+      return Collections.unmodifiableList (conversions);
+    }
+
+    /**
+     * Records the examination of a single frame.
+     *
+     * @param name   - The name of the clip
+     * @param frame  - The index of the frame
+     * @param before - The page holding the frame before conversion
+     * @param after  - The page holding the frame after conversion
+     */
+    void record (String name, int frame, BufferedImage before,
+                 BufferedImage after)
+    {
+      examined++;
+
+      if (before != after)
+      {
+        conversions.add (name + " frame " + frame + ": " +
+                         typeName (before.getType ()) + " -> " +
+                         typeName (after.getType ()));
+      }
+    }
+
+    @Override
+    public String toString ()
+    {
+      StringBuilder text = new StringBuilder ();
+
+      text.append (getFramesConverted ()).append (" of ").append (examined)
+          .append (" frames converted");
+
+      for (String conversion : conversions)
+      {
+        text.append ("\n  ").append (conversion);
+      }
+
+      return text.toString ();
+    }
+  }
+}
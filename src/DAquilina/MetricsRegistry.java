@@ -0,0 +1,273 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Gathers the timings and counts of the engine in one place, so that they
+ * can be exported while the game runs (ie. served to a monitoring system, or
+ * written out when a frame spike is noticed) without attaching a profiler.
+ *
+ * <br /> <br />
+ *
+ * ie. String json = MetricsRegistry.getShared ().toJson ();
+ *
+ * <br /> <br />
+ *
+ * The engine records into the shared registry:
+ *
+ * <br /> <br />
+ *
+ * sheet.load.nanos     - Decoding a template in an AssetLoader       <br /> &nbsp;
+ * clip.slice.nanos     - Slicing a template into a clip              <br /> &nbsp;
+ * loop.update.nanos    - Each fixed step of a GameLoop               <br /> &nbsp;
+ * loop.frame.nanos     - Each frame drawn by a GameLoop              <br /> &nbsp;
+ * batch.render.nanos   - Each render of a SpriteBatch                <br /> &nbsp;
+ * sprites.created      - The number of Sprites created (a gauge)     <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Applications may record their own histograms and gauges alongside these.
+ * Recording takes no longer and allocates nothing however many values have
+ * been recorded.
+ *
+ * @see {@link Histogram}
+ * @see {@link EngineEvents}
+ *
+ * @author Dominic Aquilina
+ */
+public final class MetricsRegistry
+{
+  //Constants
+  /**
+   * The names of the histograms the engine records into, in nanoseconds.
+   */
+  public static final String SHEET_LOAD   = "sheet.load.nanos";
+  public static final String CLIP_SLICE   = "clip.slice.nanos";
+  public static final String LOOP_UPDATE  = "loop.update.nanos";
+  public static final String LOOP_FRAME   = "loop.frame.nanos";
+  public static final String BATCH_RENDER = "batch.render.nanos";
+
+  /**
+   * The percentiles exported for each histogram.
+   */
+  private static final double [] PERCENTILES = {50, 90, 99, 99.9};
+
+  /**
+   * The registry the engine records into.
+   */
+  private static final MetricsRegistry SHARED = new MetricsRegistry ();
+
+  static
+  {
+    SHARED.registerGauge ("sprites.created", Sprite::Count);
+  }
+
+  //Members
+  /**
+   * The histograms, by name.
+   */
+  private final ConcurrentMap <String, Histogram> histograms =
+    new ConcurrentSkipListMap <String, Histogram> ();
+
+  /**
+   * The gauges, by name.
+   */
+  private final ConcurrentMap <String, LongSupplier> gauges =
+    new ConcurrentSkipListMap <String, LongSupplier> ();
+
+  /**
+   * Whether values are recorded.
+   */
+  private volatile boolean enabled = true;
+
+  //Functions
+  /**
+   * Returns the registry the engine records into.
+   *
+   * @return The shared registry
+   */
+  public static MetricsRegistry getShared ()
+  {
+    return SHARED;
+  }
+
+  /**
+   * Determines whether values are recorded.
+   *
+   * @return True if values are recorded
+   */
+  public boolean isEnabled ()
+  {
+    return enabled;
+  }
+
+  /**
+   * Sets whether values are recorded. While disabled, record does nothing.
+   *
+   * @param enabled - True to record values
+   */
+  public void setEnabled (boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns the histogram with the given name, creating it if need be. The
+   * histogram may be kept and recorded into directly.
+   *
+   * @param name - The name of the histogram
+   * @return The histogram
+   */
+  public Histogram histogram (String name)
+  {
+    Histogram histogram = histograms.get (name);
+
+    return histogram != null ? histogram :
+           histograms.computeIfAbsent (name, key -> new Histogram ());
+  }
+
+  /**
+   * Records a value into the given histogram, if recording is enabled.
+   *
+   * @param histogram - The histogram, from this registry
+   * @param value     - The value
+   */
+  public void record (Histogram histogram, long value)
+  {
+    if (enabled)
+    {
+      histogram.record (value);
+    }
+  }
+
+  /**
+   * Records a value into the histogram with the given name, if recording is
+   * enabled.
+   *
+   * @param name  - The name of the histogram
+   * @param value - The value
+   */
+  public void record (String name, long value)
+  {
+    if (enabled)
+    {
+      histogram (name).record (value);
+    }
+  }
+
+  /**
+   * Registers a gauge, whose value is read each time the registry is
+   * exported. Replaces any gauge of the same name.
+   *
+   * @param name  - The name of the gauge
+   * @param gauge - Supplies the current value
+   */
+  public void registerGauge (String name, LongSupplier gauge)
+  {
+    gauges.put (name, gauge);
+  }
+
+  /**
+   * Removes a gauge.
+   *
+   * @param name - The name of the gauge
+   */
+  public void removeGauge (String name)
+  {
+    gauges.remove (name);
+  }
+
+  /**
+   * Discards every value recorded so far. Histograms and gauges remain
+   * registered.
+   */
+  public void reset ()
+  {
+    for (Histogram histogram : histograms.values ())
+    {
+      histogram.reset ();
+    }
+  }
+
+  /**
+   * Exports every histogram and gauge as a JSON object.
+   *
+   * <br /> <br />
+   *
+   * ie. {"histograms": {"loop.update.nanos": {"count": 6000, "min": 41000,
+   *       "mean": 52311, "max": 901119, "p50": 49151, "p90": 57343,
+   *       "p99": 98303, "p99.9": 770047}}, "gauges": {"sprites.created": 2}}
+   *
+   * @return The JSON text
+   */
+  public String toJson ()
+  {
+    StringBuilder json = new StringBuilder ("{\"histograms\": {");
+    String separator = "";
+
+    for (Map.Entry <String, Histogram> entry : histograms.entrySet ())
+    {
+      json.append (separator);
+      appendString (json, entry.getKey ());
+      json.append (": ");
+      entry.getValue ().appendJson (json, PERCENTILES);
+
+      separator = ", ";
+    }
+
+    json.append ("}, \"gauges\": {");
+    separator = "";
+
+    for (Map.Entry <String, LongSupplier> entry : gauges.entrySet ())
+    {
+      json.append (separator);
+      appendString (json, entry.getKey ());
+      json.append (": ").append (entry.getValue ().getAsLong ());
+
+      separator = ", ";
+    }
+
+    return json.append ("}}").toString ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return toJson ();
+  }
+
+  /**
+   * Appends a string to JSON text, quoted and escaped.
+   *
+   * @param json - The JSON text
+   * @param text - The string
+   */
+  private static void appendString (StringBuilder json, String text)
+  {
+    json.append ('"');
+
+    for (int i = 0; i < text.length (); i++)
+    {
+      char c = text.charAt (i);
+
+      if (c == '"' || c == '\\')
+      {
+        json.append ('\\').append (c);
+      }
+      else if (c < 0x20)
+      {
+        json.append (String.format ("\\u%04x", (int) c));
+      }
+      else
+      {
+        json.append (c);
+      }
+    }
+
+    json.append ('"');
+  }
+}
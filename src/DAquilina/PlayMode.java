@@ -0,0 +1,31 @@
+//Package
+package DAquilina;
+
+/**
+ * Enumeration of the ways in which an animation may be played. The play mode
+ * of each animation is given by the AnimationStateMachine of a Sprite.
+ *
+ * @see {@link AnimationStateMachine}
+ *
+ * @author Dominic Aquilina
+ */
+public enum PlayMode
+{
+  /**
+   * Plays the animation from start to end repeatedly. Each pass counts as a
+   * completion.
+   */
+  LOOP,
+
+  /**
+   * Plays the animation once, then holds its last frame.
+   */
+  ONCE,
+
+  /**
+   * Plays the animation forwards and then backwards repeatedly, showing the
+   * first and last frames once per turn (ie. 0 1 2 3 2 1 0 1 ...). Each pass
+   * there and back counts as a completion.
+   */
+  PING_PONG;
+}
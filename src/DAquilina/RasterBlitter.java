@@ -0,0 +1,707 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Draws frames by writing straight into the int pixels of an image, rather
+ * than through Graphics.drawImage, whose software loops for translucent
+ * sources cannot be tuned. Each frame is examined once, the first time it is
+ * drawn, and drawn thereafter by the cheapest means its pixels allow:
+ *
+ * <br /> <br />
+ *
+ * Opaque frames          - Each row is copied with System.arraycopy <br /> &nbsp;
+ * Bitmask frames         - Each run of opaque pixels is copied, and the
+ *                          transparent pixels between runs skipped <br /> &nbsp;
+ * Translucent frames     - Each pixel is blended over the image (SrcOver)
+ *
+ * <br /> <br />
+ *
+ * ie. RasterBlitter blitter = new RasterBlitter ();           <br /> &nbsp;
+ *     batch.setBlitter (blitter);                             <br /> &nbsp;
+ *     batch.render (buffer);
+ *
+ * <br /> <br />
+ *
+ * Images of TYPE_INT_RGB, TYPE_INT_ARGB and TYPE_INT_ARGB_PRE may be drawn
+ * onto. Reading or writing the pixels of an image directly stops Java2D from
+ * keeping a copy of it in video memory, so the blitter suits images that are
+ * rendered in software anyway (ie. offscreen buffers, or a headless server).
+ *
+ * @see {@link SpriteBatch#setBlitter(RasterBlitter)}
+ * @see {@link TileCompositor}
+ *
+ * @author Dominic Aquilina
+ */
+public final class RasterBlitter
+{
+  //Constants
+  /**
+   * The kinds of frame, by the alpha of their pixels.
+   */
+  static final int OPAQUE      = 0;
+  static final int BITMASK     = 1;
+  static final int TRANSLUCENT = 2;
+
+  /**
+   * The shortest run of opaque pixels copied with System.arraycopy. Shorter
+   * runs (ie. specks within an anti-aliased edge) cost less to blend along
+   * with their neighbours.
+   */
+  private static final int MIN_COPY = 8;
+
+  //Members
+  /**
+   * The plan for drawing each frame examined so far. Weak, so that frames
+   * dropped by a FrameCache are not kept alive by the blitter.
+   */
+  private final Map <AtlasRegion, Plan> plans =
+    new WeakHashMap <AtlasRegion, Plan> ();
+
+  //Functions
+  /**
+   * Determines whether the given image can be drawn onto directly.
+   *
+   * @param target - The image to draw onto
+   * @return True if the image holds one int per pixel in a supported format
+   */
+  public boolean supports (BufferedImage target)
+  {
+    switch (target.getType ())
+    {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_ARGB_PRE:
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Draws the current frame of a Sprite onto an image.
+   *
+   * @param target - The image to draw onto
+   * @param sprite - The Sprite
+   * @param x      - The x position to draw at
+   * @param y      - The y position to draw at
+   *
+   * @throws IllegalArgumentException - If the image is not supported
+   */
+  public void draw (BufferedImage target, Sprite sprite, int x, int y)
+  {
+    draw (target, sprite.getCurrentRegion (), x, y, null);
+  }
+
+  /**
+   * Draws a frame onto an image, as though its untrimmed cell had its
+   * top-left corner at the given position.
+   *
+   * @param target - The image to draw onto
+   * @param region - The frame
+   * @param x      - The x position to draw at
+   * @param y      - The y position to draw at
+   *
+   * @throws IllegalArgumentException - If the image is not supported
+   */
+  public void draw (BufferedImage target, AtlasRegion region, int x, int y)
+  {
+    draw (target, region, x, y, null);
+  }
+
+  /**
+   * Draws the part of a frame that falls within the given area onto an
+   * image, as though its untrimmed cell had its top-left corner at the given
+   * position.
+   *
+   * @param target - The image to draw onto
+   * @param region - The frame
+   * @param x      - The x position to draw at
+   * @param y      - The y position to draw at
+   * @param area   - The area outside which nothing is drawn, or null
+   * @return True if any of the frame fell within the area and the image
+   *
+   * @throws IllegalArgumentException - If the image is not supported
+   */
+  public boolean draw (BufferedImage target, AtlasRegion region, int x, int y,
+                       Rectangle area)
+  {
+    int type = target.getType ();
+
+    if (!supports (target))
+    {
+      throw new IllegalArgumentException ("Target must be TYPE_INT_RGB, " +
+                                          "TYPE_INT_ARGB or TYPE_INT_ARGB_PRE");
+    }
+
+    x += region.getOffsetX ();
+    y += region.getOffsetY ();
+
+    int left   = Math.max (x, 0);
+    int top    = Math.max (y, 0);
+    int right  = Math.min (x + region.getWidth (), target.getWidth ());
+    int bottom = Math.min (y + region.getHeight (), target.getHeight ());
+
+    if (area != null)
+    {
+      left   = Math.max (left, area.x);
+      top    = Math.max (top, area.y);
+      right  = Math.min (right, area.x + area.width);
+      bottom = Math.min (bottom, area.y + area.height);
+    }
+
+    if (left >= right || top >= bottom)
+    {
+      return false;
+    }
+
+    Plan plan = planFor (region);
+    WritableRaster raster = target.getRaster ();
+    int [] pixels = ((DataBufferInt) raster.getDataBuffer ()).getData ();
+    int stride = scanlineStride (raster);
+    int origin = originOf (raster, stride);
+
+    switch (plan.kind)
+    {
+      case OPAQUE:
+        for (int row = top; row < bottom; row++)
+        {
+          System.arraycopy (plan.pixels,
+                            plan.indexOf (left - x, row - y),
+                            pixels, origin + row * stride + left,
+                            right - left);
+        }
+        break;
+
+      default:
+        drawRuns (plan, pixels, origin, stride, type, x, y, left, top, right,
+                  bottom);
+    }
+
+    return true;
+  }
+
+  /**
+   * Copies an area of a background onto an image, if the two share the same
+   * format.
+   *
+   * @param target     - The image to draw onto
+   * @param background - The image to copy from, or null to clear to
+   *                     transparent
+   * @param area       - The area to copy, or null for the whole image
+   * @return True if the area was copied; false if the background is of a
+   *         different format, and must be copied some other way
+   */
+  public boolean restore (BufferedImage target, BufferedImage background,
+                          Rectangle area)
+  {
+    if (!supports (target) ||
+        background != null && background.getType () != target.getType ())
+    {
+      return false;
+    }
+
+    int left   = 0;
+    int top    = 0;
+    int right  = target.getWidth ();
+    int bottom = target.getHeight ();
+
+    if (background != null)
+    {
+      right  = Math.min (right, background.getWidth ());
+      bottom = Math.min (bottom, background.getHeight ());
+    }
+
+    if (area != null)
+    {
+      left   = Math.max (left, area.x);
+      top    = Math.max (top, area.y);
+      right  = Math.min (right, area.x + area.width);
+      bottom = Math.min (bottom, area.y + area.height);
+    }
+
+    if (left >= right)
+    {
+      return true;
+    }
+
+    WritableRaster raster = target.getRaster ();
+    int [] pixels = ((DataBufferInt) raster.getDataBuffer ()).getData ();
+    int stride = scanlineStride (raster);
+    int origin = originOf (raster, stride);
+
+    if (background == null)
+    {
+      for (int row = top; row < bottom; row++)
+      {
+        int d = origin + row * stride;
+
+        Arrays.fill (pixels, d + left, d + right, 0);
+      }
+
+      return true;
+    }
+
+    Raster source = background.getRaster ();
+    int [] sourcePixels = ((DataBufferInt) source.getDataBuffer ()).getData ();
+    int sourceStride = scanlineStride (source);
+    int sourceOrigin = originOf (source, sourceStride);
+
+    for (int row = top; row < bottom; row++)
+    {
+      System.arraycopy (sourcePixels, sourceOrigin + row * sourceStride + left,
+                        pixels, origin + row * stride + left, right - left);
+    }
+
+    return true;
+  }
+
+  /**
+   * Forgets every frame examined so far, ie. after the pixels of a page
+   * have been changed.
+   */
+  public synchronized void clear ()
+  {
+    plans.clear ();
+  }
+
+  /**
+   * Returns the kind of the given frame, examining it if need be.
+   *
+   * @param region - The frame
+   * @return OPAQUE, BITMASK or TRANSLUCENT
+   */
+  int kindOf (AtlasRegion region)
+  {
+    return planFor (region).kind;
+  }
+
+  /**
+   * Draws the runs of a bitmask or translucent frame, cut to the given
+   * bounds: opaque runs are copied, translucent runs blended, and the
+   * transparent pixels between them skipped.
+   */
+  private static void drawRuns (Plan plan, int [] pixels, int origin,
+                                int stride, int type, int x, int y, int left,
+                                int top, int right, int bottom)
+  {
+    int [] runs = plan.runs;
+    int clipLeft  = left - x;
+    int clipRight = right - x;
+
+    for (int row = top; row < bottom; row++)
+    {
+      int line = row - y;
+      int d = origin + row * stride + x;
+      int s = plan.indexOf (0, line);
+
+      for (int r = plan.rowRuns [line]; r < plan.rowRuns [line + 1]; r += 2)
+      {
+        int length = runs [r + 1];
+        int start  = Math.max (runs [r], clipLeft);
+        int end    = Math.min (runs [r] + Math.abs (length), clipRight);
+
+        if (start >= end)
+        {
+          continue;
+        }
+
+        if (length > 0)
+        {
+          System.arraycopy (plan.pixels, s + start, pixels, d + start,
+                            end - start);
+        }
+        else
+        {
+          blend (plan.pixels, s + start, pixels, d + start, end - start,
+                 type);
+        }
+      }
+    }
+  }
+
+  /**
+   * Blends a span of source pixels over the image (SrcOver).
+   *
+   * @param source - The pixels of the frame, unpremultiplied
+   * @param s      - The index of the first source pixel
+   * @param pixels - The pixels of the image
+   * @param d      - The index of the first image pixel
+   * @param length - The number of pixels
+   * @param type   - The type of the image
+   */
+  private static void blend (int [] source, int s, int [] pixels, int d,
+                             int length, int type)
+  {
+    int end = d + length;
+
+    //The loop is chosen once per span, not once per pixel
+    switch (type)
+    {
+      case BufferedImage.TYPE_INT_ARGB:
+        for (; d < end; s++, d++)
+        {
+          int src = source [s];
+
+          if (src >>> 24 == 0xFF)
+          {
+            pixels [d] = src;
+          }
+          else if (src >>> 24 != 0)
+          {
+            int dst = pixels [d];
+
+            pixels [d] = dst >>> 24 == 0xFF ? blendOpaque (src, dst)
+                                            : TileCompositor.blend (src, dst);
+          }
+        }
+        break;
+
+      case BufferedImage.TYPE_INT_RGB:
+        for (; d < end; s++, d++)
+        {
+          int src = source [s];
+
+          if (src >>> 24 == 0xFF)
+          {
+            pixels [d] = src;
+          }
+          else if (src >>> 24 != 0)
+          {
+            pixels [d] = blendOpaque (src, pixels [d]);
+          }
+        }
+        break;
+
+      default:
+        for (; d < end; s++, d++)
+        {
+          int src = source [s];
+
+          if (src >>> 24 == 0xFF)
+          {
+            pixels [d] = src;
+          }
+          else if (src >>> 24 != 0)
+          {
+            pixels [d] = blendPremultiplied (src, pixels [d]);
+          }
+        }
+    }
+  }
+
+  /**
+   * Blends a non-premultiplied source pixel over an opaque destination
+   * pixel.
+   *
+   * @param src - The source pixel
+   * @param dst - The destination pixel
+   * @return The blended pixel, which is opaque
+   */
+  static int blendOpaque (int src, int dst)
+  {
+    int sa = src >>> 24;
+    int ia = 0xFF - sa;
+
+    //Red and blue, then alpha and green, are blended two to an int
+    int rb = (src & 0x00FF00FF) * sa + (dst & 0x00FF00FF) * ia;
+    int ag = (0x00FF0000 | (src >>> 8) & 0xFF) * sa +
+             (0x00FF0000 | (dst >>> 8) & 0xFF) * ia;
+
+    return divide255 (ag) << 8 | divide255 (rb);
+  }
+
+  /**
+   * Blends a non-premultiplied source pixel over a premultiplied destination
+   * pixel.
+   *
+   * @param src - The source pixel
+   * @param dst - The destination pixel
+   * @return The blended pixel, premultiplied
+   */
+  static int blendPremultiplied (int src, int dst)
+  {
+    int sa = src >>> 24;
+    int ia = 0xFF - sa;
+
+    int rb = (src & 0x00FF00FF) * sa + (dst & 0x00FF00FF) * ia;
+    int ag = (0x00FF0000 | (src >>> 8) & 0xFF) * sa +
+             ((dst >>> 8) & 0x00FF00FF) * ia;
+
+    return divide255 (ag) << 8 | divide255 (rb);
+  }
+
+  /**
+   * Divides the two 16 bit halves of an int by 255, rounding to nearest.
+   *
+   * @param pair - Two values of up to 255 * 255, in bits 0-15 and 16-31
+   * @return The two quotients, in bits 0-7 and 16-23
+   */
+  private static int divide255 (int pair)
+  {
+    pair += 0x00800080;
+
+    return ((pair + ((pair >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF;
+  }
+
+  /**
+   * Returns the plan for drawing the given frame, examining the frame the
+   * first time it is seen.
+   *
+   * @param region - The frame
+   * @return The plan
+   */
+  private synchronized Plan planFor (AtlasRegion region)
+  {
+    Plan plan = plans.get (region);
+
+    if (plan == null)
+    {
+      plan = new Plan (region);
+      plans.put (region, plan);
+    }
+
+    return plan;
+  }
+
+  /**
+   * Returns the number of ints between the starts of successive rows of a
+   * raster.
+   */
+  private static int scanlineStride (Raster raster)
+  {
+    return ((SinglePixelPackedSampleModel) raster.getSampleModel ())
+             .getScanlineStride ();
+  }
+
+  /**
+   * Returns the index of the raster's top-left pixel within its data, which
+   * is not 0 for a raster shared with a larger image (ie. by getSubimage).
+   */
+  private static int originOf (Raster raster, int stride)
+  {
+    return raster.getDataBuffer ().getOffset () -
+           raster.getSampleModelTranslateX () -
+           raster.getSampleModelTranslateY () * stride;
+  }
+
+  /**
+   * How a single frame is drawn: its kind, where its non-premultiplied
+   * pixels are, and for a bitmask frame, the runs of opaque pixels in each
+   * row.
+   */
+  private static final class Plan
+  {
+    //Members
+    final int kind;
+
+    /**
+     * The pixels of the frame, the index of its top-left pixel, and the
+     * distance between its rows. Either the page itself or a copy of the
+     * frame.
+     */
+    final int [] pixels;
+    final int origin;
+    final int stride;
+
+    /**
+     * For a frame that is not opaque, the start and length of each run of
+     * pixels to draw, and the index of the first run of each row (with one
+     * more entry marking the end of the last row). The length of a run to be
+     * blended is negated; the length of a run to be copied is not.
+     */
+    final int [] runs;
+    final int [] rowRuns;
+
+    //Constructors
+    Plan (AtlasRegion region)
+    {
+      BufferedImage page = region.getPage ();
+      int type   = page.getType ();
+      int width  = region.getWidth ();
+      int height = region.getHeight ();
+
+      int [] data;
+      int start, step;
+
+      //Opaque and transparent pixels read the same whether premultiplied or
+      //not, so int pages are examined in place
+      if (type == BufferedImage.TYPE_INT_ARGB ||
+          type == BufferedImage.TYPE_INT_ARGB_PRE)
+      {
+        Raster raster = page.getRaster ();
+
+        data  = ((DataBufferInt) raster.getDataBuffer ()).getData ();
+        step  = scanlineStride (raster);
+        start = originOf (raster, step) + region.getY () * step +
+                region.getX ();
+      }
+      else
+      {
+        data  = copyOf (region);
+        step  = width;
+        start = 0;
+      }
+
+      boolean opaque = true;
+      boolean bitmask = true;
+
+      for (int row = 0; row < height && bitmask; row++)
+      {
+        for (int column = 0, s = start + row * step; column < width;
+             column++, s++)
+        {
+          int alpha = data [s] >>> 24;
+
+          opaque  &= alpha == 0xFF;
+          bitmask &= alpha == 0 || alpha == 0xFF;
+        }
+      }
+
+      //Translucent pixels are blended unpremultiplied
+      if (!bitmask && type == BufferedImage.TYPE_INT_ARGB_PRE)
+      {
+        data  = copyOf (region);
+        step  = width;
+        start = 0;
+      }
+
+      pixels = data;
+      origin = start;
+      stride = step;
+      kind   = opaque ? OPAQUE : bitmask ? BITMASK : TRANSLUCENT;
+
+      if (opaque)
+      {
+        runs = rowRuns = null;
+
+        return;
+      }
+
+      int [] found = new int [height * 4];
+      int r = 0;
+
+      rowRuns = new int [height + 1];
+
+      for (int row = 0; row < height; row++)
+      {
+        rowRuns [row] = r;
+
+        for (int column = 0; column < width; )
+        {
+          if (alphaAt (column, row) == 0)
+          {
+            column++;
+
+            continue;
+          }
+
+          int first = column;
+          int length = opaqueRun (column, row, width);
+
+          if (length < MIN_COPY)
+          {
+            //Blend up to the next opaque run long enough to be copied
+            int last = column;
+
+            while (column < width)
+            {
+              length = opaqueRun (column, row, width);
+
+              if (length >= MIN_COPY)
+              {
+                break;
+              }
+
+              if (length > 0)
+              {
+                column += length;
+                last = column;
+              }
+              else
+              {
+                last = alphaAt (column, row) == 0 ? last : column + 1;
+                column++;
+              }
+            }
+
+            length = -(last - first);
+          }
+          else
+          {
+            column += length;
+          }
+
+          if (r + 2 > found.length)
+          {
+            found = Arrays.copyOf (found, found.length * 2);
+          }
+
+          found [r++] = first;
+          found [r++] = length;
+        }
+      }
+
+      rowRuns [height] = r;
+      runs = Arrays.copyOf (found, r);
+    }
+
+    //Functions
+    /**
+     * Returns the alpha of a pixel of the frame.
+     */
+    private int alphaAt (int column, int row)
+    {
+      return pixels [indexOf (column, row)] >>> 24;
+    }
+
+    /**
+     * Returns the number of opaque pixels in a row starting at the given
+     * column.
+     */
+    private int opaqueRun (int column, int row, int width)
+    {
+      int end = column;
+
+      for (int s = indexOf (column, row); end < width &&
+           pixels [s] >>> 24 == 0xFF; s++)
+      {
+        end++;
+      }
+
+      return end - column;
+    }
+
+    /**
+     * Copies the pixels of a frame out of its page, unpremultiplied.
+     *
+     * @param region - The frame
+     * @return The pixels, one row after another
+     */
+    private static int [] copyOf (AtlasRegion region)
+    {
+      int width = region.getWidth ();
+
+      return region.getPage ().getRGB (region.getX (), region.getY (), width,
+                                       region.getHeight (), null, 0,
+                                       Math.max (width, 1));
+    }
+
+    /**
+     * Returns the index of a pixel of the frame.
+     *
+     * @param column - The column within the frame
+     * @param row    - The row within the frame
+     * @return The index of the pixel within the pixels array
+     */
+    int indexOf (int column, int row)
+    {
+      return origin + row * stride + column;
+    }
+  }
+}
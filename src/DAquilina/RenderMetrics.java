@@ -0,0 +1,215 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.lang.management.*;
+
+/**
+ * Measures the frames drawn by a render loop: how long each frame took, how
+ * many bytes the rendering thread allocated while drawing it, and how many
+ * blits it took. Each measure is kept as a Histogram, so the figures may be
+ * read (ie. scraped by a monitoring thread) at any time while frames are
+ * being drawn.
+ *
+ * <br /> <br />
+ *
+ * ie. RenderMetrics metrics = new RenderMetrics ();            <br /> &nbsp;
+ *     loop.setMetrics (metrics);                               <br /> &nbsp;
+ *     batch.setMetrics (metrics);                              <br /> &nbsp;
+ *     ...                                                      <br /> &nbsp;
+ *     System.out.println (metrics);                            <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * A render loop that has reached its steady state should report 0 bytes
+ * allocated per frame. Allocations are counted through the JVM's
+ * com.sun.management.ThreadMXBean; on JVMs without it, allocations are not
+ * recorded and isAllocationTracked returns false.
+ *
+ * @see {@link GameLoop#setMetrics(RenderMetrics)}
+ * @see {@link SpriteBatch#setMetrics(RenderMetrics)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class RenderMetrics
+{
+  //Members
+  /**
+   * Counts the bytes allocated by each thread, or null if unavailable.
+   */
+  private final com.sun.management.ThreadMXBean threads;
+
+  /**
+   * The time taken by each frame, in nanoseconds.
+   */
+  private final Histogram frameTimes = new Histogram ();
+
+  /**
+   * The bytes allocated while drawing each frame.
+   */
+  private final Histogram allocations = new Histogram ();
+
+  /**
+   * The number of blits taken to draw each frame.
+   */
+  private final Histogram blits = new Histogram ();
+
+  /**
+   * When the current frame started, and the bytes allocated by the
+   * rendering thread at that point.
+   */
+  private long frameStart;
+  private long allocatedAtStart;
+
+  /**
+   * The blits counted so far in the current frame.
+   */
+  private int frameBlits;
+
+  /**
+   * The bytes allocated while drawing the most recent frame, or -1.
+   */
+  private volatile long lastAllocated = -1;
+
+  //Constructors
+  /**
+   * Default Constructor.
+   */
+  public RenderMetrics ()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean ();
+
+    if (bean instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean) bean)
+          .isThreadAllocatedMemorySupported ())
+    {
+      threads = (com.sun.management.ThreadMXBean) bean;
+      threads.setThreadAllocatedMemoryEnabled (true);
+    }
+    else
+    {
+      threads = null;
+    }
+  }
+
+  //Functions
+  /**
+   * Determines whether the bytes allocated per frame are recorded.
+   *
+   * @return True if the JVM counts the bytes allocated by each thread
+   */
+  public boolean isAllocationTracked ()
+  {
+    return threads != null;
+  }
+
+  /**
+   * Marks the start of a frame. Must be called on the thread that draws it.
+   */
+  public void beginFrame ()
+  {
+    frameBlits = 0;
+    allocatedAtStart = threads == null ? 0 :
+                       threads.getCurrentThreadAllocatedBytes ();
+    frameStart = System.nanoTime ();
+  }
+
+  /**
+   * Counts blits towards the current frame.
+   *
+   * @param count - The number of blits
+   */
+  public void addBlits (int count)
+  {
+    frameBlits += count;
+  }
+
+  /**
+   * Marks the end of a frame begun on the same thread, and records it.
+   */
+  public void endFrame ()
+  {
+    long elapsed = System.nanoTime () - frameStart;
+
+    if (threads != null)
+    {
+      lastAllocated = threads.getCurrentThreadAllocatedBytes () -
+                      allocatedAtStart;
+      allocations.record (lastAllocated);
+    }
+
+    frameTimes.record (elapsed);
+    blits.record (frameBlits);
+  }
+
+  /**
+   * Returns the number of frames recorded.
+   *
+   * @return The number of frames
+   */
+  public long getFrameCount ()
+  {
+    return frameTimes.getCount ();
+  }
+
+  /**
+   * Returns the time taken by each frame.
+   *
+   * @return The histogram of frame times, in nanoseconds
+   */
+  public Histogram getFrameTimes ()
+  {
+    return frameTimes;
+  }
+
+  /**
+   * Returns the bytes allocated while drawing each frame.
+   *
+   * @return The histogram of bytes allocated per frame, which is empty if
+   *         allocations are not tracked
+   */
+  public Histogram getAllocations ()
+  {
+    return allocations;
+  }
+
+  /**
+   * Returns the bytes allocated while drawing the most recent frame.
+   *
+   * @return The number of bytes, or -1 if allocations are not tracked
+   */
+  public long getLastAllocated ()
+  {
+    return lastAllocated;
+  }
+
+  /**
+   * Returns the number of blits taken to draw each frame.
+   *
+   * @return The histogram of blits per frame
+   */
+  public Histogram getBlits ()
+  {
+    return blits;
+  }
+
+  /**
+   * Discards every recorded frame, ie. once the loop has warmed up.
+   */
+  public void reset ()
+  {
+    frameTimes.reset ();
+    allocations.reset ();
+    blits.reset ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "RenderMetrics: " + getFrameCount () + " frames" +
+           "\n  frame time (ns):      " + frameTimes +
+           "\n  allocated (bytes):    " + (threads == null ? "not tracked"
+                                                           : allocations) +
+           "\n  blits per frame:      " + blits;
+  }
+}
@@ -0,0 +1,234 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+/**
+ * Supplies the frames of a template that is kept in its compressed form. Only
+ * the encoded bytes of the file are held in memory; each frame is decoded on
+ * its own, by reading just the frame's cell of the template, when it is
+ * first needed.
+ *
+ * <br /> <br />
+ *
+ * ie. FrameSource source = new SheetFrameSource (new File ("death.png"), 4, 5,
+ *                                                20);             <br /> &nbsp;
+ *     mySprite.setAnimation (Animations.DEATH2,
+ *                            AnimationClip.lazy (source, Sprite.FR_12FPS));
+ *
+ * <br /> <br />
+ *
+ * Cells are placed by AnimationClip.cellOrigin, so a lazy clip holds the
+ * same frames AnimationClip.slice would cut from the template.
+ *
+ * @see {@link AnimationClip#slice(BufferedImage, int, int, int, int)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class SheetFrameSource implements FrameSource
+{
+  //Members
+  /**
+   * The encoded contents of the template file.
+   */
+  private final byte [] data;
+
+  /**
+   * The number of frames that make up the width of the template.
+   */
+  private final int width;
+
+  /**
+   * The number of frames that make up the height of the template.
+   */
+  private final int height;
+
+  /**
+   * The number of frames in the template.
+   */
+  private final int numFrames;
+
+  /**
+   * The dimensions of the template, in pixels.
+   */
+  private final int imgWidth;
+  private final int imgHeight;
+
+  /**
+   * Whether decoded frames are converted to the display-compatible format.
+   */
+  private final boolean convert;
+
+  /**
+   * The dimensions of each cell, in pixels.
+   */
+  private final int cellWidth;
+  private final int cellHeight;
+
+  //Constructors
+  /**
+   * Reads a template file into memory, without decoding it.
+   *
+   * @param file      - The template file
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   *
+   * @throws IOException - If the file cannot be read or has no decoder
+   */
+  public SheetFrameSource (File file, int height, int width, int numFrames)
+    throws IOException
+  {
+    this (Files.readAllBytes (file.toPath ()), height, width, numFrames, true);
+  }
+
+  /**
+   * Wraps the encoded contents of a template.
+   *
+   * @param data      - The encoded contents of the template, which must not
+   *                    be modified afterwards
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param convert   - True to convert each decoded frame to the
+   *                    display-compatible format
+   *
+   * @throws IOException - If the data has no decoder
+   */
+  public SheetFrameSource (byte [] data, int height, int width, int numFrames,
+                           boolean convert) throws IOException
+  {
+    if (numFrames > height * width)
+    {
+      throw new IllegalArgumentException ("The template holds at most " +
+                                          height * width + " frames.");
+    }
+
+    this.data      = data;
+    this.width     = width;
+    this.height    = height;
+    this.numFrames = numFrames;
+    this.convert   = convert;
+
+    //Only the header is read to find the dimensions of the template
+    ImageReader reader = openReader ();
+
+    try
+    {
+      imgWidth  = reader.getWidth  (0);
+      imgHeight = reader.getHeight (0);
+    }
+    finally
+    {
+      dispose (reader);
+    }
+
+    cellWidth  = imgWidth  / width;
+    cellHeight = imgHeight / height;
+  }
+
+  //Functions
+  @Override
+  public int length ()
+  {
+    return numFrames;
+  }
+
+  /**
+   * Decodes the cell of the template holding the given frame.
+   *
+   * @param frame - The index of the frame
+   * @return The frame
+   *
+   * @throws IOException - If the template cannot be decoded
+   */
+  @Override
+  public BufferedImage load (int frame) throws IOException
+  {
+    if (frame < 0 || frame >= numFrames)
+    {
+      throw new IndexOutOfBoundsException ("Frame " + frame + " of " +
+                                           numFrames);
+    }
+
+    int x = AnimationClip.cellOrigin (frame % width, width, imgWidth);
+    int y = AnimationClip.cellOrigin (frame / width, height, imgHeight);
+
+    ImageReader reader = openReader ();
+    BufferedImage image;
+
+    try
+    {
+      ImageReadParam param = reader.getDefaultReadParam ();
+      param.setSourceRegion (new Rectangle (x, y, cellWidth, cellHeight));
+
+      image = reader.read (0, param);
+    }
+    finally
+    {
+      dispose (reader);
+    }
+
+    return convert ? ImageConverter.toCompatible (image) : image;
+  }
+
+  /**
+   * Returns the number of bytes of encoded data held by this source.
+   *
+   * @return The size of the data, in bytes
+   */
+  public int getEncodedSize ()
+  {
+    return data.length;
+  }
+
+  /**
+   * Disposes of a reader, along with the stream it was reading.
+   *
+   * @param reader - The reader
+   */
+  private static void dispose (ImageReader reader) throws IOException
+  {
+    ImageInputStream input = (ImageInputStream) reader.getInput ();
+
+    reader.dispose ();
+    input.close ();
+  }
+
+  /**
+   * Opens a reader over the encoded data.
+   *
+   * @return The reader, which the caller must dispose of
+   *
+   * @throws IOException - If the data has no decoder
+   */
+  private ImageReader openReader () throws IOException
+  {
+    ImageInputStream input = ImageIO.createImageInputStream (
+      new ByteArrayInputStream (data));
+    Iterator <ImageReader> readers = ImageIO.getImageReaders (input);
+
+    if (!readers.hasNext ())
+    {
+      input.close ();
+
+      throw new IOException ("No decoder found for template");
+    }
+
+    ImageReader reader = readers.next ();
+    reader.setInput (input, true, true);
+
+    return reader;
+  }
+}
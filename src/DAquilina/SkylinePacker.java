@@ -0,0 +1,229 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+
+/**
+ * Places rectangles within a single fixed-size page using the skyline
+ * bottom-left heuristic. The packer tracks the upper outline (the skyline) of
+ * everything placed so far, and puts each new rectangle wherever its top edge
+ * would end up lowest.
+ *
+ * <br /> <br />
+ *
+ * Rectangles should be offered tallest first for the tightest packing.
+ *
+ * @see {@link TextureAtlas}
+ *
+ * @author Dominic Aquilina
+ */
+class SkylinePacker
+{
+  //Members
+  /**
+   * The width of the page.
+   */
+  private final int pageWidth;
+
+  /**
+   * The height of the page.
+   */
+  private final int pageHeight;
+
+  /**
+   * The segments of the skyline, left to right. Each segment is stored as
+   * {x, y, width}.
+   */
+  private final List <int []> skyline = new ArrayList <int []> ();
+
+  /**
+   * The right-most edge of any rectangle placed so far.
+   */
+  private int usedWidth = 0;
+
+  /**
+   * The bottom-most edge of any rectangle placed so far.
+   */
+  private int usedHeight = 0;
+
+  //Constructors
+  /**
+   * Creates an empty page.
+   *
+   * @param pageWidth  - The width of the page
+   * @param pageHeight - The height of the page
+   */
+  SkylinePacker (int pageWidth, int pageHeight)
+  {
+    this.pageWidth  = pageWidth;
+    this.pageHeight = pageHeight;
+
+    skyline.add (new int [] {0, 0, pageWidth});
+  }
+
+  //Functions
+  /**
+   * Returns the width actually covered by the rectangles placed so far.
+   *
+   * @return The used width
+   */
+  int usedWidth ()
+  {
+    return usedWidth;
+  }
+
+  /**
+   * Returns the height actually covered by the rectangles placed so far.
+   *
+   * @return The used height
+   */
+  int usedHeight ()
+  {
+    return usedHeight;
+  }
+
+  /**
+   * Finds a place for a rectangle of the given size, and reserves it.
+   *
+   * @param width  - The width of the rectangle
+   * @param height - The height of the rectangle
+   * @return The {x, y} position of the rectangle, or null if the page has no
+   *         room left for it
+   */
+  int [] insert (int width, int height)
+  {
+    int bestIndex  = -1;
+    int bestX      = 0;
+    int bestY      = 0;
+    int bestBottom = Integer.MAX_VALUE;
+    int bestWidth  = Integer.MAX_VALUE;
+
+    for (int i = 0; i < skyline.size (); i++)
+    {
+      int [] segment = skyline.get (i);
+      int y = fit (i, width, height);
+
+      if (y < 0)
+      {
+        continue;
+      }
+
+      //Prefer the lowest top edge, then the narrowest segment
+      if (y + height < bestBottom ||
+          (y + height == bestBottom && segment [2] < bestWidth))
+      {
+        bestIndex  = i;
+        bestX      = segment [0];
+        bestY      = y;
+        bestBottom = y + height;
+        bestWidth  = segment [2];
+      }
+    }
+
+    if (bestIndex < 0)
+    {
+      return null;
+    }
+
+    raise (bestIndex, bestX, bestY + height, width);
+
+    usedWidth  = Math.max (usedWidth, bestX + width);
+    usedHeight = Math.max (usedHeight, bestY + height);
+
+    return new int [] {bestX, bestY};
+  }
+
+  /**
+   * Determines how low a rectangle can sit if its left edge is placed at the
+   * start of the given segment.
+   *
+   * @param index  - The index of the segment
+   * @param width  - The width of the rectangle
+   * @param height - The height of the rectangle
+   * @return The y position of the rectangle, or -1 if it does not fit
+   */
+  private int fit (int index, int width, int height)
+  {
+    int x = skyline.get (index) [0];
+
+    if (x + width > pageWidth)
+    {
+      return -1;
+    }
+
+    int remaining = width;
+    int y = 0;
+
+    //The rectangle must clear every segment it spans
+    for (int i = index; remaining > 0; i++)
+    {
+      int [] segment = skyline.get (i);
+
+      y = Math.max (y, segment [1]);
+
+      if (y + height > pageHeight)
+      {
+        return -1;
+      }
+
+      remaining -= segment [2];
+    }
+
+    return y;
+  }
+
+  /**
+   * Adds a new segment to the skyline for a newly placed rectangle, and
+   * shortens or removes the segments it now covers.
+   *
+   * @param index - The index of the segment the rectangle starts on
+   * @param x     - The left edge of the rectangle
+   * @param y     - The top of the new segment (the rectangle's bottom edge)
+   * @param width - The width of the rectangle
+   */
+  private void raise (int index, int x, int y, int width)
+  {
+    skyline.add (index, new int [] {x, y, width});
+
+    int right = x + width;
+
+    while (index + 1 < skyline.size ())
+    {
+      int [] next = skyline.get (index + 1);
+
+      if (next [0] >= right)
+      {
+        break;
+      }
+
+      int overlap = right - next [0];
+
+      if (overlap >= next [2])
+      {
+        skyline.remove (index + 1);
+      }
+      else
+      {
+        next [0] += overlap;
+        next [2] -= overlap;
+
+        break;
+      }
+    }
+
+    //Merge neighbouring segments of equal height
+    for (int i = 0; i + 1 < skyline.size (); i++)
+    {
+      int [] a = skyline.get (i);
+      int [] b = skyline.get (i + 1);
+
+      if (a [1] == b [1])
+      {
+        a [2] += b [2];
+        skyline.remove (i + 1);
+        i--;
+      }
+    }
+  }
+}
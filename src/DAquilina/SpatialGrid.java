@@ -0,0 +1,728 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Indexes the positions of Sprites in a world far larger than the screen,
+ * so that only those within view need be drawn or advanced. The world is
+ * divided into square cells, and each Sprite is listed in every cell its
+ * bounds overlap; a query visits only the cells overlapping the area asked
+ * about, however many Sprites lie elsewhere.
+ *
+ * <br /> <br />
+ *
+ * ie. grid.put (enemySprite, enemyX, enemyY, 64, 64, 1);       <br /> &nbsp;
+ *     loop.setCulling (grid, camera);                          <br /> &nbsp;
+ *     ...                                                      <br /> &nbsp;
+ *     batch.drawVisible (grid, camera);
+ *
+ * <br /> <br />
+ *
+ * Positions are in world coordinates. Moving a Sprite within the same cells
+ * only updates its position, so a Sprite moved every step costs little
+ * more than the assignment. Cells are created as Sprites enter them and
+ * freed as the last Sprite leaves, so a Sprite travelling across the world
+ * leaves nothing behind; freed cells are kept aside to be reused, so queries
+ * and moves allocate nothing once the Sprites have settled.
+ *
+ * <br /> <br />
+ *
+ * The grid also serves as the broad phase of collision tests: only Sprites
+ * sharing a cell are compared, and only those whose bounds overlap have
+ * their collision masks compared.
+ *
+ * <br /> <br />
+ *
+ * ie. for (Sprite hit : grid.collisions (swordSprite, hits)) ...
+ *
+ * <br /> <br />
+ *
+ * Every function is synchronized, so the grid may be moved on the update
+ * thread while it is drawn on the render thread.
+ *
+ * @see {@link GameLoop#setCulling(SpatialGrid, Rectangle)}
+ * @see {@link SpriteBatch#drawVisible(SpatialGrid, Rectangle)}
+ *
+ * @author Dominic Aquilina
+ */
+public final class SpatialGrid
+{
+  //Constants
+  /**
+   * The width and height of each cell in a grid of the default size.
+   */
+  public static final int DEFAULT_CELL_SIZE = 128;
+
+  /**
+   * Spreads neighbouring cells across the table (Fibonacci hashing).
+   */
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+  /**
+   * The most freed cells kept aside to be reused.
+   */
+  private static final int MAX_SPARE_CELLS = 64;
+
+  //Members
+  /**
+   * The width and height of each cell, in pixels.
+   */
+  private final int cellSize;
+
+  /**
+   * The entry of each Sprite in the grid.
+   */
+  private final Map <Sprite, Entry> entries =
+    new IdentityHashMap <Sprite, Entry> ();
+
+  /**
+   * The cells created so far, and their coordinates packed into a key, in an
+   * open-addressed table.
+   */
+  private long [] keys = new long [64];
+  private Cell [] cells = new Cell [64];
+  private int bits = 6;
+  private int used = 0;
+
+  /**
+   * Cells freed since they last held a Sprite, kept to be reused.
+   */
+  private final Cell [] spareCells = new Cell [MAX_SPARE_CELLS];
+  private int spare = 0;
+
+  /**
+   * Marks the entries already visited by the current query, so that Sprites
+   * spanning several cells are visited once.
+   */
+  private int stamp = 0;
+
+  /**
+   * The number given to the next Sprite put in the grid. Sprites are drawn
+   * in the order of their numbers, so that overlapping Sprites on the same
+   * layer keep their order however they move between cells.
+   */
+  private int sequence = 0;
+
+  /**
+   * The entries found by the current draw, and their numbers packed with
+   * their index among them, kept to be reused.
+   */
+  private Entry [] found = new Entry [64];
+  private long [] order = new long [64];
+
+  //Constructors
+  /**
+   * Creates a grid of the default cell size.
+   */
+  public SpatialGrid ()
+  {
+    this (DEFAULT_CELL_SIZE);
+  }
+
+  /**
+   * Creates a grid with cells of the given size. Cells roughly the size of
+   * the largest Sprites, or a fraction of the screen, work best.
+   *
+   * @param cellSize - The width and height of each cell, in pixels
+   */
+  public SpatialGrid (int cellSize)
+  {
+    if (cellSize <= 0)
+    {
+      throw new IllegalArgumentException ("The cell size must be positive.");
+    }
+
+    this.cellSize = cellSize;
+  }
+
+  //Functions
+  /**
+   * Returns the width and height of each cell.
+   *
+   * @return The cell size, in pixels
+   */
+  public int getCellSize ()
+  {
+    return cellSize;
+  }
+
+  /**
+   * Returns the number of Sprites in the grid.
+   *
+   * @return The number of Sprites
+   */
+  public synchronized int size ()
+  {
+    return entries.size ();
+  }
+
+  /**
+   * Determines whether a Sprite is in the grid.
+   *
+   * @param sprite - The Sprite
+   * @return True if the Sprite has been put in the grid and not removed
+   */
+  public synchronized boolean contains (Sprite sprite)
+  {
+    return entries.containsKey (sprite);
+  }
+
+  /**
+   * Places a Sprite on layer 0, or moves it there if already in the grid.
+   *
+   * @param sprite - The Sprite
+   * @param x      - The x position of the Sprite in the world
+   * @param y      - The y position of the Sprite in the world
+   * @param width  - The width of the Sprite's bounds
+   * @param height - The height of the Sprite's bounds
+   */
+  public void put (Sprite sprite, int x, int y, int width, int height)
+  {
+    put (sprite, x, y, width, height, 0);
+  }
+
+  /**
+   * Places a Sprite, or moves it if already in the grid. The bounds should
+   * cover every frame of the Sprite, or else a Sprite partly in view may be
+   * missed.
+   *
+   * @param sprite - The Sprite
+   * @param x      - The x position of the Sprite in the world
+   * @param y      - The y position of the Sprite in the world
+   * @param width  - The width of the Sprite's bounds
+   * @param height - The height of the Sprite's bounds
+   * @param layer  - The layer the Sprite is drawn on
+   */
+  public synchronized void put (Sprite sprite, int x, int y, int width,
+                                int height, int layer)
+  {
+    int left   = Math.floorDiv (x, cellSize);
+    int top    = Math.floorDiv (y, cellSize);
+    int right  = Math.floorDiv (x + Math.max (width, 1) - 1, cellSize);
+    int bottom = Math.floorDiv (y + Math.max (height, 1) - 1, cellSize);
+
+    Entry entry = entries.get (sprite);
+
+    if (entry == null)
+    {
+      entry = new Entry (sprite, sequence++);
+      entries.put (sprite, entry);
+    }
+    else if (entry.left != left || entry.top != top ||
+             entry.right != right || entry.bottom != bottom)
+    {
+      unlink (entry);
+    }
+    else
+    {
+      entry.set (x, y, width, height, layer);
+
+      return;
+    }
+
+    entry.set (x, y, width, height, layer);
+    entry.left   = left;
+    entry.top    = top;
+    entry.right  = right;
+    entry.bottom = bottom;
+
+    for (int row = top; row <= bottom; row++)
+    {
+      for (int column = left; column <= right; column++)
+      {
+        cellAt (column, row, true).add (entry);
+      }
+    }
+  }
+
+  /**
+   * Removes a Sprite from the grid.
+   *
+   * @param sprite - The Sprite
+   * @return True if the Sprite was in the grid
+   */
+  public synchronized boolean remove (Sprite sprite)
+  {
+    Entry entry = entries.remove (sprite);
+
+    if (entry == null)
+    {
+      return false;
+    }
+
+    unlink (entry);
+
+    return true;
+  }
+
+  /**
+   * Removes every Sprite from the grid.
+   */
+  public synchronized void clear ()
+  {
+    entries.clear ();
+    Arrays.fill (keys, 0);
+    Arrays.fill (cells, null);
+    used = 0;
+  }
+
+  /**
+   * Finds every Sprite whose bounds overlap the given area.
+   *
+   * @param area    - The area, in world coordinates
+   * @param results - Receives the Sprites, each once, in no particular order
+   * @return The number of Sprites found
+   */
+  public synchronized int query (Rectangle area, List <Sprite> results)
+  {
+    int found = 0;
+    int visit = nextStamp ();
+
+    for (int row = Math.floorDiv (area.y, cellSize),
+             bottom = Math.floorDiv (area.y + area.height - 1, cellSize);
+         row <= bottom; row++)
+    {
+      for (int column = Math.floorDiv (area.x, cellSize),
+               right = Math.floorDiv (area.x + area.width - 1, cellSize);
+           column <= right; column++)
+      {
+        Cell cell = cellAt (column, row, false);
+
+        for (int i = 0; cell != null && i < cell.count; i++)
+        {
+          Entry entry = cell.entries [i];
+
+          if (entry.stamp != visit && entry.overlaps (area))
+          {
+            entry.stamp = visit;
+            results.add (entry.sprite);
+            found++;
+          }
+        }
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Determines whether a Sprite's bounds overlap the given area.
+   *
+   * @param sprite - The Sprite
+   * @param area   - The area, in world coordinates
+   * @return True if the Sprite is in the grid and overlaps the area
+   */
+  public synchronized boolean isVisible (Sprite sprite, Rectangle area)
+  {
+    Entry entry = entries.get (sprite);
+
+    return entry != null && entry.overlaps (area);
+  }
+
+  /**
+   * Determines whether the current frames of two Sprites overlap by at least
+   * one solid pixel, at their positions in the grid.
+   *
+   * @see {@link Sprite#collides(Sprite, int, int, Sprite, int, int)}
+   *
+   * @param a - The first Sprite
+   * @param b - The second Sprite
+   * @return True if both Sprites are in the grid and overlap
+   */
+  public synchronized boolean collides (Sprite a, Sprite b)
+  {
+    Entry first  = entries.get (a);
+    Entry second = entries.get (b);
+
+    return first != null && second != null && first.overlaps (second) &&
+           CollisionMask.collides (a.getCollisionMask (), first.x, first.y,
+                                   b.getCollisionMask (), second.x, second.y);
+  }
+
+  /**
+   * Finds every other Sprite whose current frame overlaps that of the given
+   * Sprite by at least one solid pixel, at their positions in the grid.
+   *
+   * @param sprite  - The Sprite, ie. an attack
+   * @param results - Receives the Sprites, each once, in no particular order
+   * @return The results, so that the call may head a loop
+   */
+  public synchronized List <Sprite> collisions (Sprite sprite,
+                                                List <Sprite> results)
+  {
+    Entry entry = entries.get (sprite);
+
+    if (entry == null)
+    {
+      return results;
+    }
+
+    CollisionMask mask = sprite.getCollisionMask ();
+    int visit = nextStamp ();
+
+    entry.stamp = visit;
+
+    for (int row = entry.top; row <= entry.bottom; row++)
+    {
+      for (int column = entry.left; column <= entry.right; column++)
+      {
+        Cell cell = cellAt (column, row, false);
+
+        for (int i = 0; cell != null && i < cell.count; i++)
+        {
+          Entry other = cell.entries [i];
+
+          if (other.stamp != visit && entry.overlaps (other))
+          {
+            other.stamp = visit;
+
+            if (CollisionMask.collides (mask, entry.x, entry.y,
+                                        other.sprite.getCollisionMask (),
+                                        other.x, other.y))
+            {
+              results.add (other.sprite);
+            }
+          }
+        }
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Queues every Sprite overlapping the given area to be drawn, at its
+   * position relative to the area. Sprites are queued in the order in which
+   * they were first put in the grid.
+   *
+   * @param batch - The batch to draw into
+   * @param area  - The area, in world coordinates
+   * @return The number of Sprites queued
+   */
+  synchronized int draw (SpriteBatch batch, Rectangle area)
+  {
+    int drawn = 0;
+    int visit = nextStamp ();
+
+    for (int row = Math.floorDiv (area.y, cellSize),
+             bottom = Math.floorDiv (area.y + area.height - 1, cellSize);
+         row <= bottom; row++)
+    {
+      for (int column = Math.floorDiv (area.x, cellSize),
+               right = Math.floorDiv (area.x + area.width - 1, cellSize);
+           column <= right; column++)
+      {
+        Cell cell = cellAt (column, row, false);
+
+        for (int i = 0; cell != null && i < cell.count; i++)
+        {
+          Entry entry = cell.entries [i];
+
+          if (entry.stamp != visit && entry.overlaps (area))
+          {
+            entry.stamp = visit;
+
+            if (drawn == found.length)
+            {
+              found = Arrays.copyOf (found, drawn * 2);
+              order = Arrays.copyOf (order, drawn * 2);
+            }
+
+            found [drawn] = entry;
+            order [drawn] = (entry.sequence & 0xFFFFFFFFL) << 32 | drawn;
+            drawn++;
+          }
+        }
+      }
+    }
+
+    //Cells are visited in hash order, so the order of insertion is restored
+    Arrays.sort (order, 0, drawn);
+
+    for (int i = 0; i < drawn; i++)
+    {
+      Entry entry = found [(int) order [i]];
+
+      batch.draw (entry.sprite, entry.x - area.x, entry.y - area.y,
+                  entry.layer);
+    }
+
+    Arrays.fill (found, 0, drawn, null);
+
+    return drawn;
+  }
+
+  /**
+   * Begins a new query, clearing the marks of the last one.
+   *
+   * @return The mark of the new query
+   */
+  private int nextStamp ()
+  {
+    //Entries still bearing a mark from before the wrap would be skipped
+    if (++stamp == 0)
+    {
+      for (Entry entry : entries.values ())
+      {
+        entry.stamp = 0;
+      }
+
+      stamp = 1;
+    }
+
+    return stamp;
+  }
+
+  /**
+   * Removes an entry from every cell it is listed in.
+   *
+   * @param entry - The entry
+   */
+  private void unlink (Entry entry)
+  {
+    for (int row = entry.top; row <= entry.bottom; row++)
+    {
+      for (int column = entry.left; column <= entry.right; column++)
+      {
+        Cell cell = cellAt (column, row, false);
+
+        if (cell != null)
+        {
+          cell.remove (entry);
+
+          if (cell.count == 0)
+          {
+            release (column, row);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the cell at the given coordinates.
+   *
+   * @param column - The column of the cell
+   * @param row    - The row of the cell
+   * @param create - True to create the cell if it does not yet exist
+   * @return The cell, or null if it does not exist and was not created
+   */
+  private Cell cellAt (int column, int row, boolean create)
+  {
+    long key = ((long) column << 32) | (row & 0xFFFFFFFFL);
+    int mask = cells.length - 1;
+
+    for (int i = slot (key); ;
+         i = (i + 1) & mask)
+    {
+      Cell cell = cells [i];
+
+      if (cell == null)
+      {
+        if (!create)
+        {
+          return null;
+        }
+
+        cell = spare > 0 ? spareCells [--spare] : new Cell ();
+        keys [i] = key;
+        cells [i] = cell;
+
+        //Kept at most half full, so that probes stay short
+        if (++used * 2 > cells.length)
+        {
+          grow ();
+        }
+
+        return cell;
+      }
+
+      if (keys [i] == key)
+      {
+        return cell;
+      }
+    }
+  }
+
+  /**
+   * Frees the empty cell at the given coordinates, keeping it aside to be
+   * reused.
+   *
+   * @param column - The column of the cell
+   * @param row    - The row of the cell
+   */
+  private void release (int column, int row)
+  {
+    long key = ((long) column << 32) | (row & 0xFFFFFFFFL);
+    int mask = cells.length - 1;
+    int i = slot (key);
+
+    while (cells [i] != null && keys [i] != key)
+    {
+      i = (i + 1) & mask;
+    }
+
+    if (cells [i] == null)
+    {
+      return;
+    }
+
+    if (spare < MAX_SPARE_CELLS)
+    {
+      spareCells [spare++] = cells [i];
+    }
+
+    //Shift later cells of the same run back, so no probe is broken
+    for (int j = (i + 1) & mask; cells [j] != null; j = (j + 1) & mask)
+    {
+      int home = slot (keys [j]);
+
+      if (((j - home) & mask) >= ((j - i) & mask))
+      {
+        keys  [i] = keys  [j];
+        cells [i] = cells [j];
+        i = j;
+      }
+    }
+
+    keys  [i] = 0;
+    cells [i] = null;
+    used--;
+  }
+
+  /**
+   * Returns the slot of the table at which the search for a cell begins.
+   *
+   * @param key - The coordinates of the cell, packed
+   * @return The slot
+   */
+  private int slot (long key)
+  {
+    return (int) ((key * GOLDEN) >>> (64 - bits));
+  }
+
+  /**
+   * Doubles the size of the cell table.
+   */
+  private void grow ()
+  {
+    long [] oldKeys = keys;
+    Cell [] oldCells = cells;
+
+    bits++;
+    keys  = new long [1 << bits];
+    cells = new Cell [1 << bits];
+
+    int mask = cells.length - 1;
+
+    for (int j = 0; j < oldCells.length; j++)
+    {
+      if (oldCells [j] != null)
+      {
+        int i = slot (oldKeys [j]);
+
+        while (cells [i] != null)
+        {
+          i = (i + 1) & mask;
+        }
+
+        keys [i]  = oldKeys [j];
+        cells [i] = oldCells [j];
+      }
+    }
+  }
+
+  /**
+   * A Sprite's place in the grid.
+   */
+  private static final class Entry
+  {
+    //Members
+    final Sprite sprite;
+    int x, y, width, height, layer;
+
+    /**
+     * The order in which the Sprite was put in the grid.
+     */
+    final int sequence;
+
+    /**
+     * The range of cells the entry is listed in.
+     */
+    int left, top, right, bottom;
+
+    /**
+     * The mark of the last query to visit the entry.
+     */
+    int stamp;
+
+    //Constructors
+    Entry (Sprite sprite, int sequence)
+    {
+      this.sprite   = sprite;
+      this.sequence = sequence;
+    }
+
+    //Functions
+    void set (int x, int y, int width, int height, int layer)
+    {
+      this.x      = x;
+      this.y      = y;
+      this.width  = width;
+      this.height = height;
+      this.layer  = layer;
+    }
+
+    boolean overlaps (Rectangle area)
+    {
+      return x < area.x + area.width && area.x < x + width &&
+             y < area.y + area.height && area.y < y + height;
+    }
+
+    boolean overlaps (Entry other)
+    {
+      return x < other.x + other.width && other.x < x + width &&
+             y < other.y + other.height && other.y < y + height;
+    }
+  }
+
+  /**
+   * The entries listed in a single cell.
+   */
+  private static final class Cell
+  {
+    //Members
+    Entry [] entries = new Entry [4];
+    int count;
+
+    //Functions
+    void add (Entry entry)
+    {
+      if (count == entries.length)
+      {
+        entries = Arrays.copyOf (entries, count * 2);
+      }
+
+      entries [count++] = entry;
+    }
+
+    void remove (Entry entry)
+    {
+      for (int i = 0; i < count; i++)
+      {
+        if (entries [i] == entry)
+        {
+          //Order within a cell does not matter, so the last fills the gap
+          entries [i] = entries [--count];
+          entries [count] = null;
+
+          return;
+        }
+      }
+    }
+  }
+}
@@ -49,6 +49,31 @@
 //              has finished
 //            - Refined getFrame logic to account for various issues
 // 2013/05/25 - Package name changed and project added to GitHub
+// 2026/10/17 - Moved frames and delays into shared, immutable AnimationClip
+//              and AnimationSet objects; a Sprite now holds only its
+//              playback state and a reference to its set
+//            - Added time-based playback (play, update, getFrameAt) which
+//              honours the delay of each frame
+//            - Added draw, which blits the current frame straight out of its
+//              TextureAtlas page
+//            - Added optional trimming and sharing of frames while slicing
+//            - Added deriveAnimation and transformed drawing, so that mirrored,
+//              turned or scaled frames are generated once rather than drawn
+//              through an AffineTransform
+//            - Made playback safe to share between an update thread and a
+//              render thread; the animation and its playing time are
+//              published together as a single atomic value
+//            - Sprites are now counted with a LongAdder, and no longer print
+//              a debug message when created
+//            - Animations may now be addressed by ClipRegistry id, so that
+//              applications can define animations beyond the Animations enum
+//            - Added an AnimationStateMachine for one-shot and ping-pong
+//              animations and transitions between them, along with queued
+//              animations and completion events
+//            - Added advanceTo, so that a Sprite left alone while off-screen
+//              catches up on the time it missed in a single update
+//            - Added getCollisionMask and collides, for pixel-perfect hit
+//              tests against precomputed masks rather than getRGB
 // 
 // ************************************************************************* //
 
@@ -58,7 +83,8 @@ package DAquilina;
 //Imported Packages
 import java.awt.*;
 import java.awt.image.*;
-import javax.swing.*;
+import java.lang.invoke.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Use this object to handle Sprites. Each sprite contains slots for each type
@@ -112,6 +138,14 @@ import javax.swing.*;
  * 
  * <br /> <br />
  * 
+ * The time-based methods may be used from more than one thread at once, ie.
+ * with update called on a game loop thread while the event dispatch thread
+ * draws. The animation being played and its playing time are published
+ * together as one atomic value, so a reader always sees a consistent pair
+ * and never waits on the writer.
+ * 
+ * <br /> <br />
+ * 
  * --------------------------------
  * 
  * @author Dominic Aquilina
@@ -130,50 +164,55 @@ public class Sprite
    */
   public static final int FR_100FPS = 10;
   
+  /**
+   * The number of low bits of the playback state that hold the playing time.
+   */
+  private static final int TIME_BITS = 48;
+  
+  /**
+   * Masks the playing time out of the playback state.
+   */
+  private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+  
+  /**
+   * Accesses the playback state with acquire/release semantics.
+   */
+  private static final VarHandle STATE;
+  
+  /**
+   * Accesses the clock of advanceTo.
+   */
+  private static final VarHandle CLOCK;
+  
+  /**
+   * The clock of a Sprite that has never been advanced to a time.
+   */
+  private static final long UNSET = Long.MIN_VALUE;
+  
+  static
+  {
+    try
+    {
+      STATE = MethodHandles.lookup ().findVarHandle (Sprite.class, "state",
+                                                     long.class);
+      CLOCK = MethodHandles.lookup ().findVarHandle (Sprite.class, "clock",
+                                                     long.class);
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new ExceptionInInitializerError (e);
+    }
+  }
+  
   //Members
   /**
-   * Holds the various animations this Sprite can perform.
+   * Holds the various animations this Sprite can perform. The set is
+   * immutable and may be shared with any number of other Sprites; altering
+   * an animation of this Sprite replaces the reference with a new set.
    * 
-   * <br /> <br />
-   * 
-   * 0  - IDLE1              <br />
-   * 1  - IDLE2              <br />
-   * 2  - IDLE3,             <br />
-   * 3  - MOVE,              <br />
-   * 4  - JUMP1,             <br />
-   * 5  - JUMP2,             <br />
-   * 6  - CROUCH,            <br />
-   * 7  - ATTACK1,           <br />
-   * 8  - ATTACK2,           <br />
-   * 9  - ATTACK3,           <br />
-   * 10 - TAKE_DAMAGE,       <br />
-   * 11 - DEATH1,            <br />
-   * 12 - DEATH2,            <br />
-   * 13 - MISC1,             <br />
-   * 14 - MISC2,             <br />
-   * 15 - MISC3,             <br />
-   * 16 - MISC4,             <br />
-   * 17 - MISC5,             <br />
-   *                         <br />
-   * May be specified:       <br />
-   * 18 - MOVE_UP,           <br />
-   * 19 - MOVE_DOWN,         <br />
-   * 20 - MOVE_LEFT,         <br />
-   * 21 - MOVE_RIGHT,        <br />
-   *                         <br />
-   * 22 - ATTACK_MELEE,      <br />
-   * 23 - ATTACK_RANGED;     <br />
-   * 24 - ATTACK_STRONG;     <br />
-   * 25 - ATTACK_WEAK;       <br />
-   */
-  private BufferedImage [] [] animations = new BufferedImage [26] [];
-  
-  /**
-   * The delay between each frame in the corresponding animations cell.
-   * 
-   * @see {@link #animations}
-   */
-  private int [] [] delay = new int [26] [];
+   * @see {@link AnimationSet}
+   */
+  private volatile AnimationSet animations;
   
   /**
    * Constant determining the framerate of the average animation. Newly-
@@ -198,10 +237,57 @@ public class Sprite
    */
   private Animations prevType;
   
+  /**
+   * The playback state of the time-based methods: the id of the animation
+   * being played in the high bits, and the time in nanoseconds for which it
+   * has been playing in the low TIME_BITS bits. Held in a single long so that
+   * both are always read and written together.
+   * 
+   * @see {@link #play(Animations)}
+   * @see {@link #update(long)}
+   */
+  private volatile long state = pack (Animations.IDLE1.value (), 0);
+  
+  /**
+   * Determines how each animation is played and what follows it.
+   * 
+   * @see {@link #setStateMachine(AnimationStateMachine)}
+   */
+  private volatile AnimationStateMachine machine =
+    AnimationStateMachine.LOOPING;
+  
+  /**
+   * Receives the completion of each animation, or null.
+   */
+  private volatile AnimationStateMachine.Listener listener;
+  
+  /**
+   * The animations waiting to play once the current one completes, as a
+   * ring buffer starting at queueHead, or null until the first animation is
+   * queued. Guarded by this Sprite.
+   * 
+   * @see {@link #queue(int)}
+   */
+  private int [] queue;
+  private int queueHead = 0;
+  
+  /**
+   * The number of animations waiting in the queue. Volatile, so that update
+   * can tell without locking whether it need consult the queue.
+   */
+  private volatile int queued = 0;
+  
+  /**
+   * The time this Sprite was last advanced to, in nanoseconds, or UNSET.
+   * 
+   * @see {@link #advanceTo(long)}
+   */
+  private volatile long clock = UNSET;
+  
   /**
    * Counts the number of Sprites created by the application.
    */
-  private static int numSprites = 0;
+  private static final LongAdder numSprites = new LongAdder ();
   
   //Constructors
   /**
@@ -209,10 +295,24 @@ public class Sprite
    */
   public Sprite ()
   {
-    numSprites++;
+    this (new AnimationSet ());
+  }
+  
+  /**
+   * Creates a Sprite that plays the animations of a shared set. No frames are
+   * copied, so this is the preferred way of spawning many identical Sprites.
+   * 
+   * <br /> <br />
+   * 
+   * ie. Sprite enemy = new Sprite (AnimationLibrary.getSet ("enemy"));
+   * 
+   * @param animations - The set of animations this Sprite can perform
+   */
+  public Sprite (AnimationSet animations)
+  {
+    this.animations = animations;
     
-    //Debug
-    System.out.println ("Sprite number " + numSprites + " created");
+    numSprites.increment ();
   }
   
   //Functions
@@ -223,7 +323,7 @@ public class Sprite
    */
   public static int Count ()
   {
-    return numSprites;
+    return numSprites.intValue ();
   }
   
   /**
@@ -231,11 +331,185 @@ public class Sprite
    * 
    * @return The frame index at which the animation is currently pointer.
    */
-  public int FramePointer ()
+  public synchronized int FramePointer ()
   {
     return framePointer;
   }
   
+  /**
+   * Accessor method for the animation currently being played.
+   * 
+   * @return The type of animation being played by the time-based methods,
+   *         or null if it is one registered by the application
+   */
+  public Animations getAnimation ()
+  {
+    return ClipRegistry.typeOf (getAnimationId ());
+  }
+  
+  /**
+   * Accessor method for the id of the animation currently being played.
+   * 
+   * @return The ClipRegistry id of the animation being played by the
+   *         time-based methods
+   */
+  public int getAnimationId ()
+  {
+    return typeOf ((long) STATE.getAcquire (this));
+  }
+  
+  /**
+   * Accessor method for the playing time of the current animation.
+   * 
+   * @return The time, in nanoseconds, since the current animation started
+   */
+  public long getAnimationTime ()
+  {
+    return timeOf ((long) STATE.getAcquire (this));
+  }
+  
+  /**
+   * Returns the set of animations this Sprite can perform.
+   * 
+   * @return The (shared) set of animations
+   */
+  public AnimationSet getAnimations ()
+  {
+    return animations;
+  }
+  
+  /**
+   * Replaces every animation of this Sprite with those of the given set.
+   * 
+   * @param animations - The new set of animations
+   */
+  public synchronized void setAnimations (AnimationSet animations)
+  {
+    this.animations = animations;
+  }
+  
+  /**
+   * Returns the state machine that determines how each animation is played.
+   * 
+   * @return The (shared) state machine
+   */
+  public AnimationStateMachine getStateMachine ()
+  {
+    return machine;
+  }
+  
+  /**
+   * Replaces the state machine that determines how each animation is played
+   * and which animation follows it. Like an AnimationSet, a state machine is
+   * immutable and may be shared with any number of other Sprites.
+   * 
+   * <br /> <br />
+   * 
+   * ie. mySprite.setStateMachine (new AnimationStateMachine ()
+   *       .with (Animations.ATTACK1, PlayMode.ONCE)
+   *       .withTransition (Animations.ATTACK1, Animations.IDLE1));
+   * 
+   * <br /> <br />
+   * 
+   * Once set, mySprite.play (Animations.ATTACK1) is all that is needed; the
+   * Sprite returns to IDLE1 by itself as it is updated.
+   * 
+   * @param machine - The new state machine
+   */
+  public void setStateMachine (AnimationStateMachine machine)
+  {
+    if (machine == null)
+    {
+      throw new IllegalArgumentException ("State machine may not be null.");
+    }
+    
+    this.machine = machine;
+  }
+  
+  /**
+   * Sets the listener told of each animation that completes, replacing any
+   * previous listener. The listener is called by update, on its thread.
+   * 
+   * @see {@link AnimationStateMachine.Listener}
+   * 
+   * @param listener - The listener, or null for none
+   */
+  public void setCompletionListener (AnimationStateMachine.Listener listener)
+  {
+    this.listener = listener;
+  }
+  
+  /**
+   * Queues an animation to play once the current animation completes. Queued
+   * animations take precedence over the transitions of the state machine,
+   * and play in the order in which they were queued.
+   * 
+   * ie. mySprite.play (Animations.JUMP1);         <br /> &nbsp;
+   *     mySprite.queue (Animations.JUMP2);        <br /> &nbsp;
+   *     mySprite.queue (Animations.IDLE1);        <br /> &nbsp;
+   * 
+   * @param type - The type of animation, based on the Animations enum
+   */
+  public void queue (Animations type)
+  {
+    queue (type.value ());
+  }
+  
+  /**
+   * Queues the animation with the given id to play once the current
+   * animation completes.
+   * 
+   * @see {@link #queue(Animations)}
+   * 
+   * @param id - The id of the animation, from the ClipRegistry
+   */
+  public synchronized void queue (int id)
+  {
+    if (id < 0 || id >= ClipRegistry.MAX_IDS)
+    {
+      throw new IllegalArgumentException ("Invalid animation id: " + id);
+    }
+    
+    if (queue == null)
+    {
+      queue = new int [4];
+    }
+    else if (queued == queue.length)
+    {
+      int [] grown = new int [queue.length * 2];
+      
+      for (int i = 0; i < queued; i++)
+      {
+        grown [i] = queue [(queueHead + i) % queue.length];
+      }
+      
+      queue = grown;
+      queueHead = 0;
+    }
+    
+    queue [(queueHead + queued) % queue.length] = id;
+    queued++;
+  }
+  
+  /**
+   * Returns the number of animations waiting in the queue.
+   * 
+   * @return The number of queued animations
+   */
+  public int getQueued ()
+  {
+    return queued;
+  }
+  
+  /**
+   * Discards every queued animation. The current animation is unaffected.
+   */
+  public synchronized void clearQueue ()
+  {
+    queueHead = 0;
+    queued = 0;
+  }
+  
   /**
    * Sets up a specific animation (ie. MOVE, ATTACK). In order for this method
    * to function as expected, the frames that contain valid content must be 
@@ -254,6 +528,13 @@ public class Sprite
    * In the above example, frames 8 and 9 do not contain content. The number
    * of frames is therefore 7. Height and Width would both be 3.
    * 
+   * <br /> <br />
+   * 
+   * The template is sliced for this Sprite alone. Where many Sprites share
+   * the same template, slice it once through the AnimationLibrary instead.
+   * 
+   * @see {@link AnimationLibrary#getClip(String, BufferedImage, int, int, int, int)}
+   * 
    * @param type      - The type of animation, based on the Animations enum
    * @param i         - The Image that contains the frames of this animation
    * @param height    - The number of frames that make up the height of the
@@ -265,56 +546,40 @@ public class Sprite
   public void setAnimation (Animations type, BufferedImage i, int height, 
                             int width, int numFrames)
   {
-    int index = type.value ();
-    
-    //Determine the dimensions of the image
-    ImageIcon image = new ImageIcon (i);
-    double imgHeight = image.getIconHeight ();
-    double imgWidth  = image.getIconWidth  ();
-    
-    //Determine the dimensions of each cell
-    double cellHeight = imgHeight / height;
-    double cellWidth  = imgWidth  / width;
-    
-    //Allocate space for the new animation
-    animations [index] = new BufferedImage [numFrames];
-    delay [index] = new int [numFrames];
-    
-    //split the Image into its individual frames, fill animation and frame delay
-    int framesCounted = 0;
-    
-    for (double rowPos = 0; rowPos < imgHeight; rowPos += cellHeight)
-    {
-      for (double colPos = 0; colPos < imgWidth; colPos += cellWidth)
-      { 
-        animations [index] [framesCounted] = i.getSubimage (((int) colPos), 
-                                                            ((int) rowPos), 
-                                                            ((int) cellWidth),
-                                                            ((int) cellHeight));
-        delay [index] [framesCounted] = framerate;
-        
-        framesCounted++;
-        
-        //Ensures that blank/unwanted frames will not be added
-        if (framesCounted == numFrames)
-        {
-          break;
-        }
-      }
-      
-      //The unwanted frames should be on the last row of the image anyway,
-      //but in the case of a template larger than the intended number of 
-      //frames, this block is required to ensure that only the desired frames 
-      //are added
-      if (framesCounted == numFrames)
-      {
-        break;
-      }
-    }
+    setAnimation (type, AnimationClip.slice (i, height, width, numFrames, 
+                                             framerate));
+  }
+  
+  /**
+   * Sets the specified animation, slicing the template as above and then
+   * trimming and sharing its frames through the given pool. Trimmed frames
+   * are drawn at the same position as untrimmed ones, but only through draw
+   * or a SpriteBatch.
+   * 
+   * ie. mySprite.setAnimation (Animations.IDLE1, myIdleTemplate, 1, 8, 8,
+   *                            FramePool.getShared ());
+   * 
+   * @see {@link FramePool}
+   * 
+   * @param type      - The type of animation, based on the Animations enum
+   * @param i         - The Image that contains the frames of this animation
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param pool      - The pool through which to trim and share the frames
+   */
+  public void setAnimation (Animations type, BufferedImage i, int height, 
+                            int width, int numFrames, FramePool pool)
+  {
+    setAnimation (type, AnimationClip.slice (i, height, width, numFrames, 
+                                             framerate, pool));
   }
   
   /**
    * Sets the specified animation to a previously defined sprite animation.
+   * Every frame is given the default framerate as its delay.
    * 
    * @see {@link #setAnimation(Animations, Image, int, int, int)}
    * 
@@ -323,7 +588,60 @@ public class Sprite
    */
   public void setAnimation (Animations type, BufferedImage [] newAnimation)
   {
-    animations [type.value ()] = newAnimation;
+    setAnimation (type, new AnimationClip (newAnimation, framerate));
+  }
+  
+  /**
+   * Sets the specified animation to a previously built, possibly shared,
+   * clip.
+   * 
+   * @param type - The type of animation, based on the Animations enum
+   * @param clip - The new animation
+   */
+  public void setAnimation (Animations type, AnimationClip clip)
+  {
+    setAnimation (type.value (), clip);
+  }
+  
+  /**
+   * Sets the animation with the given id to a previously built, possibly
+   * shared, clip.
+   * 
+   * ie. mySprite.setAnimation (ClipRegistry.register ("CAST_SPELL"), spell);
+   * 
+   * @param id   - The id of the animation, from the ClipRegistry
+   * @param clip - The new animation
+   */
+  public synchronized void setAnimation (int id, AnimationClip clip)
+  {
+    animations = animations.with (id, clip);
+  }
+  
+  /**
+   * Sets the specified animation to a transformed copy of another, ie. to
+   * walk left using a mirror image of the walk right animation. The two
+   * animations share delays, and only the transformed frames are stored.
+   * 
+   * ie. mySprite.deriveAnimation (Animations.MOVE_LEFT,
+   *                               Animations.MOVE_RIGHT, FrameTransform.FLIP_H);
+   * 
+   * @param type      - The animation to set, based on the Animations enum
+   * @param source    - The animation to derive it from
+   * @param transform - The transform to apply to every frame
+   * 
+   * @throws IllegalArgumentException - If the source animation is not set
+   */
+  public synchronized void deriveAnimation (Animations type, Animations source,
+                                            FrameTransform transform)
+  {
+    AnimationClip clip = animations.getClip (source);
+    
+    if (clip == null)
+    {
+      throw new IllegalArgumentException ("No animation set for " + source);
+    }
+    
+    setAnimation (type, clip.derive (transform));
   }
   
   /**
@@ -336,11 +654,14 @@ public class Sprite
    * @throws Exception - If the specified set of values does not have the
    *                     same length as the given animation.
    */
-  public void setDelay (Animations type, int [] newDelay) throws Exception
+  public synchronized void setDelay (Animations type, int [] newDelay)
+    throws Exception
   {
-    if (animations [type.value ()].length == newDelay.length)
+    AnimationClip clip = animations.getClip (type);
+    
+    if (clip.length () == newDelay.length)
     {
-      delay [type.value ()] = newDelay;
+      setAnimation (type, clip.withDelay (newDelay));
     }
     else
     {
@@ -360,11 +681,14 @@ public class Sprite
    * @throws Exception - If the specified frame lies outside the frame delay
    *                     array for the given animation
    */
-  public void setDelay (Animations type, int frame, int newDelay) throws Exception
+  public synchronized void setDelay (Animations type, int frame, int newDelay)
+    throws Exception
   {
-    if (frame < delay [type.value ()].length)
+    AnimationClip clip = animations.getClip (type);
+    
+    if (frame < clip.length ())
     {
-      delay [type.value ()] [frame] = newDelay;
+      setAnimation (type, clip.withDelay (frame, newDelay));
     }
     else
     {
@@ -395,14 +719,20 @@ public class Sprite
    * the method detects that the desired frame is not the current frame, and
    * will re-adjust the framePointer to match the desired Frame.
    * 
+   * <br /> <br />
+   * 
+   * Since every call moves the shared pointer, calls are serialized; the
+   * time-based methods should be preferred where more than one thread is
+   * involved.
+   * 
    * @param type  - The type of animation, based on the Animations enum
    * @param frame - The current frame at which the animation is pointing
    * @return The desired frame of the given animation, or the first frame of
    *         the IDLE1 animation if the frame is out of scope.
    */
-  public BufferedImage getFrame (Animations type, int frame)
+  public synchronized BufferedImage getFrame (Animations type, int frame)
   {
-    int index = type.value ();
+    AnimationClip clip = animations.getClip (type);
     
     //Reset pointer if the animation type has changed
     if (prevType != type)
@@ -414,15 +744,15 @@ public class Sprite
     
     //Return IDLE1 animation if the specified frame is outside the frames
     //contained in that animation
-    if (frame >= animations [index].length)
+    if (frame >= clip.length ())
     {
       framePointer = 0;
       
-      return animations [Animations.IDLE1.value ()] [0];
+      return animations.getClip (Animations.IDLE1).getFrame (0);
     }
     
     //Prepare the target frame
-    BufferedImage targetFrame = animations [index] [framePointer];
+    BufferedImage targetFrame = clip.getFrame (framePointer);
     
     //Accounts for frames not specified by calling FramePointer ()
     //  -- Updates the framePointer to point at the proper object
@@ -436,7 +766,7 @@ public class Sprite
     }
     
     //resets the counter once the last frame of the animation is reached
-    if (framePointer >= animations [index].length)
+    if (framePointer >= clip.length ())
     {
       framePointer = 0;
       
@@ -445,4 +775,528 @@ public class Sprite
     
     return targetFrame;
   }
+  
+  /**
+   * Starts playing the given animation from its first frame. If the given
+   * animation is already playing, it simply continues.
+   * 
+   * <br /> <br />
+   * 
+   * Unlike getFrame, the time-based methods do not need to be called once per
+   * frame; they determine the frame from the elapsed time and the delay of
+   * each frame, so the animation runs at the same speed regardless of how
+   * often the Sprite is drawn.
+   * 
+   * <br /> <br />
+   * 
+   * ie. mySprite.play (Animations.MOVE);         <br /> &nbsp;
+   *     mySprite.update (elapsedNanos);          <br /> &nbsp;
+   *     MyImage = mySprite.getCurrentFrame ();   <br /> &nbsp;
+   * 
+   * <br /> <br />
+   * 
+   * Any queued animations remain queued, and follow the new animation once
+   * it completes.
+   * 
+   * @param type - The type of animation, based on the Animations enum
+   */
+  public void play (Animations type)
+  {
+    play (type.value ());
+  }
+  
+  /**
+   * Starts playing the animation with the given id from its first frame. If
+   * that animation is already playing, it simply continues, unless it is
+   * played once and has finished, in which case it plays again.
+   * 
+   * @see {@link #play(Animations)}
+   * 
+   * @param id - The id of the animation, from the ClipRegistry
+   */
+  public void play (int id)
+  {
+    if (id < 0 || id >= ClipRegistry.MAX_IDS)
+    {
+      throw new IllegalArgumentException ("Invalid animation id: " + id);
+    }
+    
+    long current;
+    
+    do
+    {
+      current = (long) STATE.getAcquire (this);
+      
+      if (typeOf (current) == id && !isFinished (id, timeOf (current)))
+      {
+        return;
+      }
+    }
+    while (!STATE.compareAndSet (this, current, pack (id, 0)));
+  }
+  
+  /**
+   * Determines whether an animation played once has reached its end, and is
+   * holding its last frame.
+   * 
+   * @param id   - The id of the animation
+   * @param time - The time it has played for, in nanoseconds
+   * @return True if the animation has finished
+   */
+  private boolean isFinished (int id, long time)
+  {
+    AnimationStateMachine machine = this.machine;
+    AnimationClip clip = animations.getClip (id);
+    
+    if (clip == null || machine.getMode (id) != PlayMode.ONCE)
+    {
+      return false;
+    }
+    
+    long cycle = machine.cycleOf (id, clip);
+    
+    return cycle > 0 && time >= cycle;
+  }
+  
+  /**
+   * Advances the current animation by the given amount of time, following
+   * the state machine and the queue whenever the animation completes.
+   * 
+   * <br /> <br />
+   * 
+   * Updates during which no animation completes, by far the most common,
+   * neither lock nor allocate.
+   * 
+   * @see {@link #setStateMachine(AnimationStateMachine)}
+   * 
+   * @param elapsedNanos - The time elapsed since the last update, in
+   *                       nanoseconds
+   */
+  public void update (long elapsedNanos)
+  {
+    long current, next;
+    
+    do
+    {
+      current = (long) STATE.getAcquire (this);
+      
+      AnimationStateMachine machine = this.machine;
+      int id = typeOf (current);
+      long played = timeOf (current);
+      long time = played + elapsedNanos;
+      
+      AnimationClip clip = animations.getClip (id);
+      long cycle = clip == null ? 0 : machine.cycleOf (id, clip);
+      
+      if (cycle > 0)
+      {
+        if (time < 0)
+        {
+          time = Math.floorMod (time, cycle);
+        }
+        else if (time >= cycle)
+        {
+          PlayMode mode = machine.getMode (id);
+          
+          //A one-shot animation that has finished holds its last frame
+          if (mode == PlayMode.ONCE && played >= cycle && queued == 0)
+          {
+            return;
+          }
+          
+          if (mode == PlayMode.ONCE || queued > 0 || listener != null ||
+              machine.getTransition (id) >= 0)
+          {
+            complete (elapsedNanos);
+            
+            return;
+          }
+          
+          //Looping animations wrap, so the time always fits its bits
+          time %= cycle;
+        }
+      }
+      
+      next = pack (id, Math.max (0, Math.min (time, TIME_MASK)));
+    }
+    while (!STATE.compareAndSet (this, current, next));
+  }
+  
+  /**
+   * Advances the current animation to the given time, by however much time
+   * has passed since the last call. The first call only starts the clock.
+   * 
+   * <br /> <br />
+   * 
+   * A Sprite that is not advanced for a while (ie. because it is off-screen)
+   * catches up on all the time it missed in a single update the next time it
+   * is advanced, rather than being stepped through every frame of it.
+   * Advancing twice to the same time does nothing, so a Sprite reached by
+   * more than one route in the same step is only advanced once.
+   * 
+   * @see {@link GameLoop#setCulling(SpatialGrid, Rectangle)}
+   * 
+   * @param nowNanos - The current time, in nanoseconds, on the same clock as
+   *                   every earlier call (ie. System.nanoTime)
+   */
+  public void advanceTo (long nowNanos)
+  {
+    while (true)
+    {
+      long then = (long) CLOCK.getAcquire (this);
+      
+      if (then != UNSET && nowNanos <= then)
+      {
+        return;
+      }
+      
+      if (CLOCK.compareAndSet (this, then, nowNanos))
+      {
+        if (then != UNSET)
+        {
+          update (nowNanos - then);
+        }
+        
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Returns the time this Sprite was last advanced to.
+   * 
+   * @return The time, in nanoseconds, or Long.MIN_VALUE if advanceTo has
+   *         never been called
+   */
+  public long getClock ()
+  {
+    return clock;
+  }
+  
+  /**
+   * Advances the current animation by the given amount of time, one
+   * completion at a time: each completed animation gives way to the next
+   * queued animation, or failing that to its transition, and is reported to
+   * the listener.
+   * 
+   * @param elapsedNanos - The time elapsed since the last update, in
+   *                       nanoseconds
+   */
+  private synchronized void complete (long elapsedNanos)
+  {
+    while (true)
+    {
+      long current = (long) STATE.getAcquire (this);
+      
+      AnimationStateMachine machine = this.machine;
+      int id = typeOf (current);
+      long played = timeOf (current);
+      long time = played + elapsedNanos;
+      
+      AnimationClip clip = animations.getClip (id);
+      long cycle = clip == null ? 0 : machine.cycleOf (id, clip);
+      
+      if (cycle > 0 && time < 0)
+      {
+        time = Math.floorMod (time, cycle);
+      }
+      
+      if (cycle <= 0 || time < cycle)
+      {
+        if (STATE.compareAndSet (this, current,
+                                 pack (id, Math.max (0, Math.min (time,
+                                                                  TIME_MASK)))))
+        {
+          return;
+        }
+        
+        continue;
+      }
+      
+      PlayMode mode = machine.getMode (id);
+      boolean held = mode == PlayMode.ONCE && played >= cycle;
+      
+      if (held && queued == 0)
+      {
+        return;
+      }
+      
+      boolean fromQueue = queued > 0;
+      int target = fromQueue ? queue [queueHead] : machine.getTransition (id);
+      long rest = held ? 0 : time - cycle;
+      long next;
+      
+      if (target >= 0)
+      {
+        next = pack (target, Math.min (rest, TIME_MASK));
+      }
+      else if (mode == PlayMode.ONCE)
+      {
+        next = pack (id, cycle);
+      }
+      else
+      {
+        next = pack (id, rest % cycle);
+      }
+      
+      //Lost a race with play; start again from the new state
+      if (!STATE.compareAndSet (this, current, next))
+      {
+        continue;
+      }
+      
+      if (fromQueue)
+      {
+        queueHead = (queueHead + 1) % queue.length;
+        queued--;
+      }
+      
+      AnimationStateMachine.Listener listener = this.listener;
+      
+      if (!held && listener != null)
+      {
+        listener.animationCompleted (this, id);
+      }
+      
+      //The remaining time, if any, now belongs to the new state
+      elapsedNanos = 0;
+    }
+  }
+  
+  /**
+   * Returns the frame of the current animation that is showing at the current
+   * playing time.
+   * 
+   * @return The current frame, or the first frame of the IDLE1 animation if
+   *         the current animation has not been set.
+   */
+  public BufferedImage getCurrentFrame ()
+  {
+    long current = (long) STATE.getAcquire (this);
+    
+    return getFrameAt (typeOf (current), timeOf (current));
+  }
+  
+  /**
+   * Returns the frame of the current animation that is showing at the given
+   * time. The playing time of the Sprite is not altered.
+   * 
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The frame at that time, or the first frame of the IDLE1 animation
+   *         if the current animation has not been set.
+   */
+  public BufferedImage getFrameAt (long timeNanos)
+  {
+    return getFrameAt (getAnimationId (), timeNanos);
+  }
+  
+  /**
+   * Returns the frame of the given animation that is showing at the given
+   * time, according to its play mode. The playing state of the Sprite is not
+   * altered.
+   * 
+   * @param type      - The type of animation, based on the Animations enum
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The frame at that time, or the first frame of the IDLE1 animation
+   *         if the given animation has not been set.
+   */
+  public BufferedImage getFrameAt (Animations type, long timeNanos)
+  {
+    return getFrameAt (type.value (), timeNanos);
+  }
+  
+  /**
+   * Returns the frame of the animation with the given id that is showing at
+   * the given time.
+   * 
+   * @see {@link #getFrameAt(Animations, long)}
+   * 
+   * @param id        - The id of the animation, from the ClipRegistry
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The frame at that time, or the first frame of the IDLE1 animation
+   *         if the given animation has not been set.
+   */
+  public BufferedImage getFrameAt (int id, long timeNanos)
+  {
+    AnimationSet animations = this.animations;
+    AnimationClip clip = animations.getClip (id);
+    
+    if (clip == null || clip.length () == 0)
+    {
+      return animations.getClip (Animations.IDLE1).getFrame (0);
+    }
+    
+    return clip.getFrame (machine.frameAt (id, clip, timeNanos));
+  }
+  
+  /**
+   * Returns the region holding the frame of the current animation that is
+   * showing at the current playing time.
+   * 
+   * @see {@link #getCurrentFrame()}
+   * 
+   * @return The region of the current frame, or that of the first frame of
+   *         the IDLE1 animation if the current animation has not been set.
+   */
+  public AtlasRegion getCurrentRegion ()
+  {
+    long current = (long) STATE.getAcquire (this);
+    
+    return getRegionAt (typeOf (current), timeOf (current));
+  }
+  
+  /**
+   * Returns the region holding the frame of the given animation that is
+   * showing at the given time.
+   * 
+   * @see {@link #getFrameAt(Animations, long)}
+   * 
+   * @param type      - The type of animation, based on the Animations enum
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The region of the frame at that time, or that of the first frame
+   *         of the IDLE1 animation if the given animation has not been set.
+   */
+  public AtlasRegion getRegionAt (Animations type, long timeNanos)
+  {
+    return getRegionAt (type.value (), timeNanos);
+  }
+  
+  /**
+   * Returns the region holding the frame of the animation with the given id
+   * that is showing at the given time.
+   * 
+   * @see {@link #getRegionAt(Animations, long)}
+   * 
+   * @param id        - The id of the animation, from the ClipRegistry
+   * @param timeNanos - The time since the animation started, in nanoseconds
+   * @return The region of the frame at that time, or that of the first frame
+   *         of the IDLE1 animation if the given animation has not been set.
+   */
+  public AtlasRegion getRegionAt (int id, long timeNanos)
+  {
+    AnimationSet animations = this.animations;
+    AnimationClip clip = animations.getClip (id);
+    
+    if (clip == null || clip.length () == 0)
+    {
+      return animations.getClip (Animations.IDLE1).getRegion (0);
+    }
+    
+    return clip.getRegion (machine.frameAt (id, clip, timeNanos));
+  }
+  
+  /**
+   * Returns the collision mask of the frame of the current animation that is
+   * showing at the current playing time.
+   * 
+   * @see {@link AnimationClip#getCollisionMask(int)}
+   * 
+   * @return The mask of the current frame, or that of the first frame of the
+   *         IDLE1 animation if the current animation has not been set.
+   */
+  public CollisionMask getCollisionMask ()
+  {
+    long current = (long) STATE.getAcquire (this);
+    int id = typeOf (current);
+    
+    AnimationSet animations = this.animations;
+    AnimationClip clip = animations.getClip (id);
+    
+    if (clip == null || clip.length () == 0)
+    {
+      return animations.getClip (Animations.IDLE1).getCollisionMask (0);
+    }
+    
+    return clip.getCollisionMask (machine.frameAt (id, clip,
+                                                   timeOf (current)));
+  }
+  
+  /**
+   * Determines whether the current frames of two Sprites, drawn at the given
+   * positions, overlap by at least one solid pixel.
+   * 
+   * <br /> <br />
+   * 
+   * ie. if (Sprite.collides (hero, heroX, heroY, bat, batX, batY)) ...
+   * 
+   * @see {@link CollisionMask#collides(CollisionMask, int, int, CollisionMask,
+   *      int, int)}
+   * 
+   * @param a  - The first Sprite
+   * @param ax - The x position the first Sprite is drawn at
+   * @param ay - The y position the first Sprite is drawn at
+   * @param b  - The second Sprite
+   * @param bx - The x position the second Sprite is drawn at
+   * @param by - The y position the second Sprite is drawn at
+   * @return True if the Sprites overlap
+   */
+  public static boolean collides (Sprite a, int ax, int ay,
+                                  Sprite b, int bx, int by)
+  {
+    return CollisionMask.collides (a.getCollisionMask (), ax, ay,
+                                   b.getCollisionMask (), bx, by);
+  }
+  
+  /**
+   * Draws the current frame with its top-left corner at the given position.
+   * Once the Sprite has been packed into a TextureAtlas, this copies the
+   * frame directly out of the atlas page.
+   * 
+   * @see {@link TextureAtlas#pack(Sprite...)}
+   * 
+   * @param g - The graphics context to draw to
+   * @param x - The x position to draw at
+   * @param y - The y position to draw at
+   */
+  public void draw (Graphics g, int x, int y)
+  {
+    getCurrentRegion ().draw (g, x, y);
+  }
+  
+  /**
+   * Draws a transformed copy of the current frame, as though its untrimmed
+   * cell had its top-left corner at the given position. The copy is generated
+   * on first use and then held by the shared VariantCache, so each draw is a
+   * plain blit.
+   * 
+   * ie. mySprite.draw (g, xPos, yPos, FrameTransform.IDENTITY.scaled (2));
+   * 
+   * @param g         - The graphics context to draw to
+   * @param x         - The x position to draw at
+   * @param y         - The y position to draw at
+   * @param transform - The transform to apply to the frame
+   */
+  public void draw (Graphics g, int x, int y, FrameTransform transform)
+  {
+    VariantCache.getShared ().get (getCurrentRegion (), transform)
+                .draw (g, x, y);
+  }
+  
+  /**
+   * Packs an animation id and playing time into a playback state.
+   * 
+   * @param id   - The id of the animation
+   * @param time - The playing time, in nanoseconds, from 0 to TIME_MASK
+   * @return The playback state
+   */
+  private static long pack (int id, long time)
+  {
+    return ((long) id << TIME_BITS) | time;
+  }
+  
+  /**
+   * Extracts the animation id from a playback state.
+   */
+  private static int typeOf (long state)
+  {
+    return (int) (state >>> TIME_BITS);
+  }
+  
+  /**
+   * Extracts the playing time from a playback state.
+   */
+  private static long timeOf (long state)
+  {
+    return state & TIME_MASK;
+  }
 }
@@ -0,0 +1,755 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Collects draw commands for a frame, then draws them all at once. Commands
+ * are sorted by layer, and within each layer by the image their frame lies
+ * on, so that consecutive blits read from the same page wherever possible.
+ * Nothing here depends on a window, so a batch renders just as well with
+ * java.awt.headless=true.
+ *
+ * <br /> <br />
+ *
+ * ie. batch.draw (groundSprite, 0, 0, 0);        <br /> &nbsp;
+ *     batch.draw (manSprite, xPos, yPos, 1);     <br /> &nbsp;
+ *     batch.render (buffer);                     <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Lower layers are drawn first. Commands on the same layer and page are drawn
+ * in the order they were submitted. Layers must lie within the range of a
+ * short, from -32768 to 32767.
+ *
+ * <br /> <br />
+ *
+ * The command arrays grow as needed and are kept between frames, so a batch
+ * that is reused every frame soon stops allocating.
+ *
+ * <br /> <br />
+ *
+ * Given a TileCompositor, a batch renders onto TYPE_INT_ARGB images by
+ * compositing tiles of the image in parallel instead of through Graphics.
+ *
+ * <br /> <br />
+ *
+ * Given a RasterBlitter, a batch renders onto int images by writing their
+ * pixels directly, copying opaque rows and runs whole.
+ *
+ * <br /> <br />
+ *
+ * Given the dirty rectangles found by a DirtyRegionTracker, a batch restores
+ * and redraws only those areas of the image, leaving the rest untouched.
+ *
+ * <br /> <br />
+ *
+ * The graphics context of the image last rendered onto is kept for the next
+ * render, so that rendering onto the same image every frame allocates
+ * nothing once the batch has reached its working size. Call dispose once the
+ * batch is no longer needed.
+ *
+ * @author Dominic Aquilina
+ */
+public class SpriteBatch
+{
+  //Constants
+  /**
+   * The number of commands a new batch has room for.
+   */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The colour areas are cleared to when there is no background.
+   */
+  private static final Color TRANSPARENT = new Color (0, true);
+
+  /**
+   * The histogram of the shared MetricsRegistry recorded into by every
+   * render.
+   */
+  private static final Histogram RENDER_TIMES =
+    MetricsRegistry.getShared ().histogram (MetricsRegistry.BATCH_RENDER);
+
+  //Members
+  /**
+   * The region drawn by each command.
+   */
+  private AtlasRegion [] regions = new AtlasRegion [INITIAL_CAPACITY];
+
+  /**
+   * The Sprite that submitted each command, or null.
+   */
+  private Object [] owners = new Object [INITIAL_CAPACITY];
+
+  /**
+   * The x position of each command.
+   */
+  private int [] xs = new int [INITIAL_CAPACITY];
+
+  /**
+   * The y position of each command.
+   */
+  private int [] ys = new int [INITIAL_CAPACITY];
+
+  /**
+   * The sort key of each command: layer, then page, then submission order.
+   */
+  private long [] keys = new long [INITIAL_CAPACITY];
+
+  /**
+   * The number of commands submitted since the last render.
+   */
+  private int count = 0;
+
+  /**
+   * Whether the keys are in drawing order, ie. the batch has been sorted
+   * since the last command was submitted.
+   */
+  private boolean sorted = true;
+
+  /**
+   * Composites onto supported images in place of Graphics, if not null.
+   */
+  private TileCompositor compositor;
+
+  /**
+   * Draws onto supported images in place of Graphics, if not null and the
+   * compositor does not support the image.
+   */
+  private RasterBlitter blitter;
+
+  /**
+   * The image last rendered onto through Graphics, and its graphics context,
+   * kept for the next render.
+   */
+  private BufferedImage graphicsTarget;
+  private Graphics2D graphics;
+
+  /**
+   * Receives the number of blits of each render, if not null.
+   */
+  private RenderMetrics metrics;
+
+  //Functions
+  /**
+   * Returns the number of commands waiting to be rendered.
+   *
+   * @return The number of commands
+   */
+  public int size ()
+  {
+    return count;
+  }
+
+  /**
+   * Returns the compositor used for supported images.
+   *
+   * @return The compositor, or null if every image is drawn through Graphics
+   */
+  public TileCompositor getCompositor ()
+  {
+    return compositor;
+  }
+
+  /**
+   * Sets the compositor used to render onto the images it supports. Other
+   * images continue to be drawn through Graphics.
+   *
+   * @param compositor - The compositor, or null to always use Graphics
+   */
+  public void setCompositor (TileCompositor compositor)
+  {
+    this.compositor = compositor;
+  }
+
+  /**
+   * Returns the blitter used for supported images.
+   *
+   * @return The blitter, or null if images are drawn through Graphics
+   */
+  public RasterBlitter getBlitter ()
+  {
+    return blitter;
+  }
+
+  /**
+   * Sets the blitter used to render onto the images it supports, where the
+   * compositor (if any) does not. Other images continue to be drawn through
+   * Graphics.
+   *
+   * @param blitter - The blitter, or null to use Graphics
+   */
+  public void setBlitter (RasterBlitter blitter)
+  {
+    this.blitter = blitter;
+  }
+
+  /**
+   * Returns the metrics the blits of each render are counted towards.
+   *
+   * @return The metrics, or null if blits are not counted
+   */
+  public RenderMetrics getMetrics ()
+  {
+    return metrics;
+  }
+
+  /**
+   * Sets the metrics the blits of each render are counted towards.
+   *
+   * @param metrics - The metrics, or null to stop counting
+   */
+  public void setMetrics (RenderMetrics metrics)
+  {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Releases the graphics context kept for the image last rendered onto. The
+   * batch may still be used afterwards; the next render simply creates a new
+   * context.
+   */
+  public void dispose ()
+  {
+    if (graphics != null)
+    {
+      graphics.dispose ();
+    }
+
+    graphics = null;
+    graphicsTarget = null;
+  }
+
+  /**
+   * Discards every waiting command.
+   */
+  public void clear ()
+  {
+    Arrays.fill (regions, 0, count, null);
+    Arrays.fill (owners, 0, count, null);
+    count = 0;
+    sorted = true;
+  }
+
+  /**
+   * Queues the current frame of the given Sprite to be drawn.
+   *
+   * @param sprite - The Sprite to draw
+   * @param x      - The x position to draw at
+   * @param y      - The y position to draw at
+   * @param layer  - The layer to draw on; lower layers are drawn first
+   *
+   * @throws IllegalArgumentException - If the layer does not fit in a short
+   */
+  public void draw (Sprite sprite, int x, int y, int layer)
+  {
+    draw (sprite.getCurrentRegion (), x, y, layer);
+
+    owners [count - 1] = sprite;
+  }
+
+  /**
+   * Queues the given frame to be drawn.
+   *
+   * @param region - The frame to draw
+   * @param x      - The x position to draw at
+   * @param y      - The y position to draw at
+   * @param layer  - The layer to draw on; lower layers are drawn first
+   *
+   * @throws IllegalArgumentException - If the layer does not fit in a short
+   */
+  public void draw (AtlasRegion region, int x, int y, int layer)
+  {
+    if (layer != (short) layer)
+    {
+      throw new IllegalArgumentException ("Layer " + layer + " lies outside " +
+                                          "the range of a short");
+    }
+
+    if (count == keys.length)
+    {
+      grow ();
+    }
+
+    regions [count] = region;
+    xs [count] = x;
+    ys [count] = y;
+    //Page numbers only group commands, so any that share 16 bits are harmless
+    keys [count] = ((long) layer << 48) |
+                   ((long) (region.getPageId () & 0xFFFF) << 32) |
+                   count;
+
+    count++;
+    sorted = false;
+  }
+
+  /**
+   * Queues every Sprite of the given grid that lies within the viewport, on
+   * its own layer, at its position relative to the viewport. Sprites out of
+   * view are never visited.
+   *
+   * <br /> <br />
+   *
+   * ie. batch.drawVisible (world, camera);      <br /> &nbsp;
+   *     batch.render (buffer);                  <br /> &nbsp;
+   *
+   * @param grid     - The grid
+   * @param viewport - The area in view, in world coordinates
+   * @return The number of Sprites queued
+   */
+  public int drawVisible (SpatialGrid grid, Rectangle viewport)
+  {
+    return grid.draw (this, viewport);
+  }
+
+  /**
+   * Draws every waiting command onto the given image, then clears the batch.
+   *
+   * @param target - The image to draw onto
+   */
+  public void render (BufferedImage target)
+  {
+    EngineEvents.Render event = EngineEvents.beginRender ();
+    long start = System.nanoTime ();
+    int commands = count;
+    boolean tiled = compositor != null && compositor.supports (target);
+    int blits;
+
+    if (tiled)
+    {
+      compositor.composite (this, target);
+      blits = compositor.getLastBlits ();
+    }
+    else if (blitter != null && blitter.supports (target))
+    {
+      sort ();
+      blits = blitAll (target, null);
+    }
+    else
+    {
+      blits = drawAll (graphicsFor (target));
+    }
+
+    finish (event, start, commands, blits, tiled);
+  }
+
+  /**
+   * Restores the given areas of the image from the background, then redraws
+   * every waiting command that overlaps them, and clears the batch. Nothing
+   * outside those areas is touched.
+   *
+   * @see {@link DirtyRegionTracker#update(SpriteBatch)}
+   *
+   * @param target     - The image to draw onto
+   * @param background - The image to restore from, the same size as the
+   *                     target, or null to restore to transparent
+   * @param dirty      - The areas to redraw, or null to redraw everything
+   */
+  public void render (BufferedImage target, BufferedImage background,
+                      List <Rectangle> dirty)
+  {
+    EngineEvents.Render event = EngineEvents.beginRender ();
+    long start = System.nanoTime ();
+    int commands = count;
+    boolean tiled = compositor != null && compositor.supports (target);
+    int blits;
+
+    if (tiled)
+    {
+      compositor.composite (this, target, background, dirty);
+      blits = compositor.getLastBlits ();
+    }
+    else if (blitter != null && blitter.supports (target))
+    {
+      blits = blitDirty (target, background, dirty);
+    }
+    else if (dirty == null)
+    {
+      Graphics2D g = graphicsFor (target);
+
+      restore (g, background, 0, 0, target.getWidth (), target.getHeight ());
+      blits = drawAll (g);
+    }
+    else
+    {
+      blits = drawDirty (graphicsFor (target), background, dirty);
+    }
+
+    finish (event, start, commands, blits, tiled);
+  }
+
+  /**
+   * Draws every waiting command with the given graphics context, then clears
+   * the batch.
+   *
+   * @param g - The graphics context to draw with
+   */
+  public void render (Graphics g)
+  {
+    EngineEvents.Render event = EngineEvents.beginRender ();
+    long start = System.nanoTime ();
+    int commands = count;
+
+    finish (event, start, commands, drawAll (g), false);
+  }
+
+  /**
+   * Draws every waiting command with the given graphics context.
+   *
+   * @param g - The graphics context to draw with
+   * @return The number of blits
+   */
+  private int drawAll (Graphics g)
+  {
+    sort ();
+
+    for (int i = 0; i < count; i++)
+    {
+      int command = (int) keys [i];
+
+      regions [command].draw (g, xs [command], ys [command]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Draws every waiting command, or the part of each within the given area,
+   * with the blitter. The batch must already be sorted.
+   *
+   * @param target - The image to draw onto
+   * @param area   - The area outside which nothing is drawn, or null
+   * @return The number of blits
+   */
+  private int blitAll (BufferedImage target, Rectangle area)
+  {
+    int blits = 0;
+
+    for (int i = 0; i < count; i++)
+    {
+      int command = (int) keys [i];
+
+      if (blitter.draw (target, regions [command], xs [command], ys [command],
+                        area))
+      {
+        blits++;
+      }
+    }
+
+    return blits;
+  }
+
+  /**
+   * Restores each of the given areas from the background, then redraws the
+   * part of every waiting command that overlaps it, with the blitter.
+   *
+   * @param target     - The image to draw onto
+   * @param background - The background, or null to restore to transparent
+   * @param dirty      - The areas to redraw, or null for the whole image
+   * @return The number of blits
+   */
+  private int blitDirty (BufferedImage target, BufferedImage background,
+                         List <Rectangle> dirty)
+  {
+    sort ();
+
+    if (dirty == null)
+    {
+      restoreBlitted (target, background, null);
+
+      return blitAll (target, null);
+    }
+
+    int blits = 0;
+
+    for (int d = 0; d < dirty.size (); d++)
+    {
+      Rectangle area = dirty.get (d);
+
+      restoreBlitted (target, background, area);
+      blits += blitAll (target, area);
+    }
+
+    return blits;
+  }
+
+  /**
+   * Restores an area from the background, copying the pixels directly where
+   * the two images share a format and through Graphics otherwise.
+   *
+   * @param target     - The image to draw onto
+   * @param background - The background, or null to restore to transparent
+   * @param area       - The area to restore, or null for the whole image
+   */
+  private void restoreBlitted (BufferedImage target, BufferedImage background,
+                               Rectangle area)
+  {
+    if (!blitter.restore (target, background, area))
+    {
+      if (area == null)
+      {
+        restore (graphicsFor (target), background, 0, 0, target.getWidth (),
+                 target.getHeight ());
+      }
+      else
+      {
+        restore (graphicsFor (target), background, area.x, area.y, area.width,
+                 area.height);
+      }
+    }
+  }
+
+  /**
+   * Restores each of the given areas from the background, then redraws the
+   * part of every waiting command that overlaps it.
+   *
+   * @param g          - The graphics context of the target
+   * @param background - The background, or null to restore to transparent
+   * @param dirty      - The areas to redraw
+   * @return The number of blits
+   */
+  private int drawDirty (Graphics2D g, BufferedImage background,
+                         List <Rectangle> dirty)
+  {
+    sort ();
+
+    int blits = 0;
+
+    //Indexed rather than iterated, so that no iterator is allocated
+    for (int d = 0; d < dirty.size (); d++)
+    {
+      Rectangle area = dirty.get (d);
+
+      restore (g, background, area.x, area.y, area.width, area.height);
+
+      //Each frame is cut to the area itself; a clip would be allocated anew
+      for (int i = 0; i < count; i++)
+      {
+        int command = (int) keys [i];
+
+        if (regions [command].draw (g, xs [command], ys [command], area))
+        {
+          blits++;
+        }
+      }
+    }
+
+    return blits;
+  }
+
+  /**
+   * Completes a render: counts its blits towards the metrics, records it in
+   * the shared MetricsRegistry and Flight Recorder, and clears the batch.
+   *
+   * @param event    - The Flight Recorder event begun with the render, or
+   *                   null
+   * @param start    - When the render began, from System.nanoTime
+   * @param commands - The number of commands rendered
+   * @param blits    - The number of blits taken
+   * @param tiled    - Whether the compositor was used
+   */
+  private void finish (EngineEvents.Render event, long start, int commands,
+                       int blits, boolean tiled)
+  {
+    if (metrics != null)
+    {
+      metrics.addBlits (blits);
+    }
+
+    clear ();
+
+    if (event != null)
+    {
+      event.commands = commands;
+      event.blits    = blits;
+      event.tiled    = tiled;
+      event.commit ();
+    }
+
+    MetricsRegistry.getShared ().record (RENDER_TIMES,
+                                         System.nanoTime () - start);
+  }
+
+  /**
+   * Returns the graphics context of the given image, reusing the one kept
+   * from the previous render if it was of the same image.
+   *
+   * @param target - The image to draw onto
+   * @return The graphics context, with no clip and the default composite
+   */
+  private Graphics2D graphicsFor (BufferedImage target)
+  {
+    if (graphicsTarget != target)
+    {
+      dispose ();
+
+      graphics = target.createGraphics ();
+      graphicsTarget = target;
+    }
+
+    return graphics;
+  }
+
+  /**
+   * Copies an area of the background onto the target.
+   *
+   * @param g          - The graphics context of the target
+   * @param background - The background, or null to clear to transparent
+   * @param x          - The left edge of the area
+   * @param y          - The top edge of the area
+   * @param width      - The width of the area
+   * @param height     - The height of the area
+   */
+  private static void restore (Graphics2D g, BufferedImage background, int x,
+                               int y, int width, int height)
+  {
+    Composite previous = g.getComposite ();
+
+    g.setComposite (AlphaComposite.Src);
+
+    if (background == null)
+    {
+      g.setColor (TRANSPARENT);
+      g.fillRect (x, y, width, height);
+    }
+    else
+    {
+      g.drawImage (background, x, y, x + width, y + height,
+                   x, y, x + width, y + height, null);
+    }
+
+    g.setComposite (previous);
+  }
+
+  /**
+   * Sorts the commands into drawing order. Only the keys are sorted; the low
+   * half of each key is the index of its command.
+   */
+  void sort ()
+  {
+    if (!sorted)
+    {
+      Arrays.sort (keys, 0, count);
+      sorted = true;
+    }
+  }
+
+  /**
+   * Returns the position of a command in submission order, once the batch
+   * has been sorted.
+   *
+   * @param order - The position of the command in drawing order
+   * @return The position of the command in submission order
+   */
+  int commandAt (int order)
+  {
+    return (int) keys [order];
+  }
+
+  /**
+   * Returns the layer of a command, once the batch has been sorted.
+   *
+   * @param order - The position of the command in drawing order
+   * @return The layer of the command
+   */
+  int layerAt (int order)
+  {
+    return (int) (keys [order] >> 48);
+  }
+
+  /**
+   * Returns the region of a command, once the batch has been sorted.
+   *
+   * @param order - The position of the command in drawing order
+   * @return The region drawn by the command
+   */
+  AtlasRegion regionAt (int order)
+  {
+    return regions [(int) keys [order]];
+  }
+
+  /**
+   * Returns the x position of a command, once the batch has been sorted.
+   *
+   * @param order - The position of the command in drawing order
+   * @return The x position of the command
+   */
+  int xAt (int order)
+  {
+    return xs [(int) keys [order]];
+  }
+
+  /**
+   * Returns the y position of a command, once the batch has been sorted.
+   *
+   * @param order - The position of the command in drawing order
+   * @return The y position of the command
+   */
+  int yAt (int order)
+  {
+    return ys [(int) keys [order]];
+  }
+
+  /**
+   * Returns the Sprite that submitted a command.
+   *
+   * @param command - The position of the command in submission order
+   * @return The Sprite, or null if the command was submitted as a region
+   */
+  Object ownerOf (int command)
+  {
+    return owners [command];
+  }
+
+  /**
+   * Returns the region of a command.
+   *
+   * @param command - The position of the command in submission order
+   * @return The region drawn by the command
+   */
+  AtlasRegion regionOf (int command)
+  {
+    return regions [command];
+  }
+
+  /**
+   * Returns the x position of a command.
+   *
+   * @param command - The position of the command in submission order
+   * @return The x position of the command
+   */
+  int xOf (int command)
+  {
+    return xs [command];
+  }
+
+  /**
+   * Returns the y position of a command.
+   *
+   * @param command - The position of the command in submission order
+   * @return The y position of the command
+   */
+  int yOf (int command)
+  {
+    return ys [command];
+  }
+
+  /**
+   * Doubles the room available for commands.
+   */
+  private void grow ()
+  {
+    int capacity = keys.length * 2;
+
+    regions = Arrays.copyOf (regions, capacity);
+    owners  = Arrays.copyOf (owners, capacity);
+    xs      = Arrays.copyOf (xs, capacity);
+    ys      = Arrays.copyOf (ys, capacity);
+    keys    = Arrays.copyOf (keys, capacity);
+  }
+}
@@ -0,0 +1,813 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.io.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * A file of clips that have already been sliced, stored as raw premultiplied
+ * pixels. Opening a bundle maps the file into memory rather than reading it,
+ * and a clip's frames are only built the first time the clip is requested,
+ * so loading a bundle involves no image decoding at all.
+ *
+ * <br /> <br />
+ *
+ * Bundles are meant to be generated at build time from the original
+ * templates:
+ *
+ * <br /> <br />
+ *
+ * java DAquilina.SpriteBundle man.dasb IDLE1=walksequence_idle.png:1:1:1
+ *   MOVE_LEFT=walksequence_left.png:5:6:30 MOVE_RIGHT=walksequence_right.png:5:6:30
+ *
+ * <br /> <br />
+ *
+ * and then opened at runtime:
+ *
+ * <br /> <br />
+ *
+ * ie. SpriteBundle bundle = SpriteBundle.open (new File ("man.dasb"));
+ *     manSprite.setAnimations (bundle.getSet ());
+ *
+ * <br /> <br />
+ *
+ * Clips that are rarely played may instead be opened lazily, in which case
+ * each frame is only copied out of the mapping when it is drawn, and may be
+ * dropped again by the FrameCache.
+ *
+ * <br /> <br />
+ *
+ * ie. manSprite.setAnimation (Animations.DEATH2,
+ *                             bundle.getLazyClip (Animations.DEATH2));
+ *
+ * <br /> <br />
+ *
+ * File layout (all values big-endian):
+ *
+ * <br /> <br />
+ *
+ * Header:     int magic ('DASB'), short version, short clip count  <br />
+ * Clip table: for each clip; short name length, name (UTF-8), short rows,
+ *             short columns, int frame count, then for each frame; int
+ *             delay, int width, int height, long pixel offset, short x
+ *             offset, short y offset, short untrimmed width, short untrimmed
+ *             height                                               <br />
+ *             (Versions 1 and 2 hold short slot (Animations.value ()), short
+ *             rows, short columns, short reserved, int frame count in place
+ *             of the name; version 1 lacks the last four values of each
+ *             frame)
+ *                                                                  <br />
+ * Pixels:     for each frame, width * height ints of premultiplied ARGB,
+ *             row by row, each block aligned to 8 bytes
+ *
+ * <br /> <br />
+ *
+ * Every short is unsigned, from 0 to 65535. A bundle is mapped in one piece,
+ * so it may be no larger than MAX_SIZE.
+ *
+ * @author Dominic Aquilina
+ */
+public final class SpriteBundle
+{
+  //Constants
+  /**
+   * Identifies a bundle file: 'DASB'.
+   */
+  static final int MAGIC = 0x44415342;
+
+  /**
+   * Constant: The largest bundle that can be mapped, in bytes (2GB - 1).
+   */
+  public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+  /**
+   * The current version of the file layout.
+   */
+  static final short VERSION = 3;
+
+  //Members
+  /**
+   * The mapped contents of the file.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The table entry of each clip, by animation id, in the order of the file.
+   */
+  private final Map <Integer, ClipEntry> entries =
+    new LinkedHashMap <Integer, ClipEntry> ();
+
+  /**
+   * The clips built so far, by animation id.
+   */
+  private final Map <Integer, AnimationClip> clips =
+    new HashMap <Integer, AnimationClip> ();
+
+  /**
+   * The frames built so far, by pixel offset, so that a frame written once
+   * and shared by several clips is also built only once.
+   */
+  private final Map <Long, AtlasRegion> built = new HashMap <Long, AtlasRegion> ();
+
+  //Constructors
+  /**
+   * Reads the clip table of a mapped bundle.
+   *
+   * @param buffer - The mapped contents of the file
+   *
+   * @throws IOException - If the buffer does not hold a valid bundle
+   */
+  private SpriteBundle (ByteBuffer buffer) throws IOException
+  {
+    this.buffer = buffer;
+
+    try
+    {
+      if (buffer.getInt (0) != MAGIC)
+      {
+        throw new IOException ("Not a sprite bundle");
+      }
+
+      int version = buffer.getShort (4);
+
+      if (version < 1 || version > VERSION)
+      {
+        throw new IOException ("Unsupported sprite bundle version " +
+                               version);
+      }
+
+      int clipCount = buffer.getShort (6) & 0xFFFF;
+      int position = 8;
+
+      for (int clip = 0; clip < clipCount; clip++)
+      {
+        ClipEntry entry = new ClipEntry ();
+        int id, frames;
+
+        if (version >= 3)
+        {
+          byte [] name = new byte [buffer.getShort (position) & 0xFFFF];
+
+          for (int i = 0; i < name.length; i++)
+          {
+            name [i] = buffer.get (position + 2 + i);
+          }
+
+          position += 2 + name.length;
+
+          id = ClipRegistry.register (new String (name,
+                                                  StandardCharsets.UTF_8));
+          entry.rows    = buffer.getShort (position) & 0xFFFF;
+          entry.columns = buffer.getShort (position + 2) & 0xFFFF;
+          frames        = buffer.getInt (position + 4);
+
+          position += 8;
+        }
+        else
+        {
+          id = buffer.getShort (position);
+          entry.rows    = buffer.getShort (position + 2) & 0xFFFF;
+          entry.columns = buffer.getShort (position + 4) & 0xFFFF;
+          frames        = buffer.getInt (position + 8);
+
+          position += 12;
+        }
+
+        entry.delay   = new int  [frames];
+        entry.widths  = new int  [frames];
+        entry.heights = new int  [frames];
+        entry.offsets = new long [frames];
+        entry.offsetX = new int  [frames];
+        entry.offsetY = new int  [frames];
+        entry.originalWidths  = new int [frames];
+        entry.originalHeights = new int [frames];
+
+        for (int frame = 0; frame < frames; frame++)
+        {
+          entry.delay   [frame] = buffer.getInt  (position);
+          entry.widths  [frame] = buffer.getInt  (position + 4);
+          entry.heights [frame] = buffer.getInt  (position + 8);
+          entry.offsets [frame] = buffer.getLong (position + 12);
+
+          long end = entry.offsets [frame] +
+                     4L * entry.widths [frame] * entry.heights [frame];
+
+          if (end > buffer.capacity ())
+          {
+            throw new IOException ("Sprite bundle is truncated");
+          }
+
+          if (version > 1)
+          {
+            entry.offsetX [frame] = buffer.getShort (position + 20) & 0xFFFF;
+            entry.offsetY [frame] = buffer.getShort (position + 22) & 0xFFFF;
+            entry.originalWidths  [frame] =
+              buffer.getShort (position + 24) & 0xFFFF;
+            entry.originalHeights [frame] =
+              buffer.getShort (position + 26) & 0xFFFF;
+
+            position += 28;
+          }
+          else
+          {
+            entry.originalWidths  [frame] = entry.widths  [frame];
+            entry.originalHeights [frame] = entry.heights [frame];
+
+            position += 20;
+          }
+        }
+
+        entries.put (id, entry);
+      }
+    }
+    catch (IndexOutOfBoundsException e)
+    {
+      throw new IOException ("Sprite bundle is truncated", e);
+    }
+  }
+
+  //Functions
+  /**
+   * Maps a bundle file into memory and reads its clip table. No frames are
+   * built until their clip is requested.
+   *
+   * @param file - The bundle file
+   * @return The bundle
+   *
+   * @throws IOException - If the file cannot be read, is not a bundle, or is
+   *                       larger than MAX_SIZE
+   */
+  public static SpriteBundle open (File file) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open (file.toPath (),
+                                                 StandardOpenOption.READ))
+    {
+      if (channel.size () > MAX_SIZE)
+      {
+        throw new IOException ("Sprite bundle is larger than " + MAX_SIZE +
+                               " bytes");
+      }
+
+      //The mapping remains valid once the channel is closed
+      return new SpriteBundle (channel.map (FileChannel.MapMode.READ_ONLY, 0,
+                                            channel.size ()));
+    }
+  }
+
+  /**
+   * Determines whether the bundle holds a clip for the given type.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return True if the bundle holds the clip
+   */
+  public boolean contains (Animations type)
+  {
+    return contains (type.value ());
+  }
+
+  /**
+   * Determines whether the bundle holds a clip with the given id.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return True if the bundle holds the clip
+   */
+  public boolean contains (int id)
+  {
+    return entries.containsKey (id);
+  }
+
+  /**
+   * Returns the number of rows of the template the given clip was cut from.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The number of rows, or 0 if the bundle holds no such clip
+   */
+  public int getRows (Animations type)
+  {
+    ClipEntry entry = entries.get (type.value ());
+
+    return entry == null ? 0 : entry.rows;
+  }
+
+  /**
+   * Returns the number of columns of the template the given clip was cut
+   * from.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The number of columns, or 0 if the bundle holds no such clip
+   */
+  public int getColumns (Animations type)
+  {
+    ClipEntry entry = entries.get (type.value ());
+
+    return entry == null ? 0 : entry.columns;
+  }
+
+  /**
+   * Returns the given clip, building its frames from the mapped pixels the
+   * first time it is requested.
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The clip, or null if the bundle holds no such clip
+   */
+  public AnimationClip getClip (Animations type)
+  {
+    return getClip (type.value ());
+  }
+
+  /**
+   * Returns the clip with the given id, building its frames from the mapped
+   * pixels the first time it is requested.
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return The clip, or null if the bundle holds no such clip
+   */
+  public synchronized AnimationClip getClip (int id)
+  {
+    AnimationClip clip = clips.get (id);
+    ClipEntry entry = entries.get (id);
+
+    if (clip == null && entry != null)
+    {
+      clip = buildClip (entry);
+      clips.put (id, clip);
+    }
+
+    return clip;
+  }
+
+  /**
+   * Returns a lazy clip whose frames are copied out of the mapping only when
+   * they are needed.
+   *
+   * @see {@link AnimationClip#lazy(FrameSource, int[])}
+   *
+   * @param type - The type of animation, based on the Animations enum
+   * @return The clip, or null if the bundle holds no such clip
+   */
+  public AnimationClip getLazyClip (Animations type)
+  {
+    return getLazyClip (type.value ());
+  }
+
+  /**
+   * Returns a lazy clip with the given id.
+   *
+   * @see {@link #getLazyClip(Animations)}
+   *
+   * @param id - The id of the animation, from the ClipRegistry
+   * @return The clip, or null if the bundle holds no such clip
+   */
+  public AnimationClip getLazyClip (int id)
+  {
+    ClipEntry entry = entries.get (id);
+
+    return entry == null ? null
+                         : AnimationClip.lazy (new BundleSource (entry),
+                                               entry.delay);
+  }
+
+  /**
+   * Returns a set holding every clip in the bundle, building any that have
+   * not yet been built.
+   *
+   * @return The set
+   */
+  public AnimationSet getSet ()
+  {
+    AnimationSet set = new AnimationSet ();
+
+    for (int id : entries.keySet ())
+    {
+      set = set.with (id, getClip (id));
+    }
+
+    return set;
+  }
+
+  /**
+   * Builds the frames of a clip from the mapped pixels.
+   *
+   * @param entry - The table entry of the clip
+   * @return The clip
+   */
+  private AnimationClip buildClip (ClipEntry entry)
+  {
+    AtlasRegion [] regions = new AtlasRegion [entry.delay.length];
+
+    for (int frame = 0; frame < regions.length; frame++)
+    {
+      regions [frame] = built.get (entry.offsets [frame]);
+
+      if (regions [frame] == null)
+      {
+        regions [frame] = readRegion (entry, frame);
+        built.put (entry.offsets [frame], regions [frame]);
+      }
+    }
+
+    return new AnimationClip (regions, entry.delay);
+  }
+
+  /**
+   * Copies a single frame of a clip out of the mapping.
+   *
+   * @param entry - The table entry of the clip
+   * @param frame - The index of the frame
+   * @return The region covering the new frame, with its trim offset
+   */
+  private AtlasRegion readRegion (ClipEntry entry, int frame)
+  {
+    int width  = entry.widths  [frame];
+    int height = entry.heights [frame];
+
+    return new AtlasRegion (readFrame (entry.offsets [frame], width, height),
+                            0, 0, width, height, entry.offsetX [frame],
+                            entry.offsetY [frame],
+                            entry.originalWidths  [frame],
+                            entry.originalHeights [frame]);
+  }
+
+  /**
+   * Copies a block of mapped pixels into a new image.
+   *
+   * @param offset - The position of the block within the file
+   * @param width  - The width of the frame
+   * @param height - The height of the frame
+   * @return The frame, of TYPE_INT_ARGB_PRE
+   */
+  BufferedImage readFrame (long offset, int width, int height)
+  {
+    BufferedImage image = new BufferedImage (width, height,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+    int [] pixels = ((DataBufferInt) image.getRaster ().getDataBuffer ())
+                      .getData ();
+
+    ByteBuffer block = buffer.duplicate ();
+    block.position ((int) offset);
+    block.asIntBuffer ().get (pixels);
+
+    return image;
+  }
+
+  /**
+   * Generates a bundle from a list of templates. Each argument after the
+   * output file names a clip, as NAME=file:rows:columns:frames[:delay],
+   * where NAME is either one of the Animations or a name of the
+   * application's own.
+   *
+   * @param args - The output file, then one argument per clip
+   */
+  public static void main (String [] args) throws Exception
+  {
+    if (args.length < 2)
+    {
+      System.out.println ("Use: SpriteBundle output.dasb " +
+                          "NAME=file:rows:columns:frames[:delay] ...");
+
+      return;
+    }
+
+    Writer writer = new Writer ();
+
+    for (int i = 1; i < args.length; i++)
+    {
+      String [] clip  = args [i].split ("=", 2);
+      String [] parts = clip [1].split (":");
+
+      int id = ClipRegistry.register (clip [0]);
+      BufferedImage template = ImageIO.read (new File (parts [0]));
+      int rows    = Integer.parseInt (parts [1]);
+      int columns = Integer.parseInt (parts [2]);
+      int frames  = Integer.parseInt (parts [3]);
+      int delay   = parts.length > 4 ? Integer.parseInt (parts [4])
+                                     : Sprite.FR_12FPS;
+
+      if (template == null)
+      {
+        throw new IOException ("No decoder found for " + parts [0]);
+      }
+
+      writer.add (id, AnimationClip.slice (template, rows, columns, frames,
+                                           delay),
+                  rows, columns);
+    }
+
+    writer.write (new File (args [0]));
+  }
+
+  /**
+   * The table entry of a single clip.
+   */
+  private static final class ClipEntry
+  {
+    //Members
+    int rows;
+    int columns;
+    int [] delay;
+    int [] widths;
+    int [] heights;
+    long [] offsets;
+    int [] offsetX;
+    int [] offsetY;
+    int [] originalWidths;
+    int [] originalHeights;
+  }
+
+  /**
+   * Supplies the frames of a single clip straight from the mapping.
+   */
+  private final class BundleSource implements FrameSource
+  {
+    //Members
+    private final ClipEntry entry;
+
+    //Constructors
+    BundleSource (ClipEntry entry)
+    {
+      this.entry = entry;
+    }
+
+    //Functions
+    @Override
+    public int length ()
+    {
+      return entry.delay.length;
+    }
+
+    @Override
+    public BufferedImage load (int frame)
+    {
+      return readFrame (entry.offsets [frame], entry.widths [frame],
+                        entry.heights [frame]);
+    }
+
+    @Override
+    public AtlasRegion loadRegion (int frame)
+    {
+      return readRegion (entry, frame);
+    }
+  }
+
+  /**
+   * Collects clips and writes them out as a bundle.
+   *
+   * <br /> <br />
+   *
+   * ie. SpriteBundle.Writer writer = new SpriteBundle.Writer ();  <br /> &nbsp;
+   *     writer.add (Animations.MOVE, walk, 5, 6);                 <br /> &nbsp;
+   *     writer.write (new File ("man.dasb"));                     <br /> &nbsp;
+   */
+  public static final class Writer
+  {
+    //Members
+    private final List <Integer> ids = new ArrayList <Integer> ();
+    private final List <AnimationClip> clips = new ArrayList <AnimationClip> ();
+    private final List <int []> grids = new ArrayList <int []> ();
+
+    //Functions
+    /**
+     * Adds a clip to the bundle.
+     *
+     * @param type    - The slot of the clip, based on the Animations enum
+     * @param clip    - The clip
+     * @param rows    - The number of rows of the clip's template
+     * @param columns - The number of columns of the clip's template
+     */
+    public void add (Animations type, AnimationClip clip, int rows,
+                     int columns)
+    {
+      add (type.value (), clip, rows, columns);
+    }
+
+    /**
+     * Adds a clip to the bundle under an animation id.
+     *
+     * @param id      - The id of the clip, from the ClipRegistry
+     * @param clip    - The clip
+     * @param rows    - The number of rows of the clip's template
+     * @param columns - The number of columns of the clip's template
+     */
+    public void add (int id, AnimationClip clip, int rows, int columns)
+    {
+      ids.add (id);
+      clips.add (clip);
+      grids.add (new int [] {rows, columns});
+    }
+
+    /**
+     * Adds a clip to the bundle, recording it as a single row of frames.
+     *
+     * @param type - The slot of the clip, based on the Animations enum
+     * @param clip - The clip
+     */
+    public void add (Animations type, AnimationClip clip)
+    {
+      add (type, clip, 1, clip.length ());
+    }
+
+    /**
+     * Adds every clip of a set to the bundle.
+     *
+     * @param set - The set
+     */
+    public void add (AnimationSet set)
+    {
+      for (int id : set.getIds ())
+      {
+        AnimationClip clip = set.getClip (id);
+
+        add (id, clip, 1, clip.length ());
+      }
+    }
+
+    /**
+     * Writes the bundle to the given file, replacing it if it exists.
+     *
+     * @param file - The bundle file
+     *
+     * @throws IOException - If the file cannot be written, a value does not
+     *                       fit its field, or the bundle would be larger
+     *                       than MAX_SIZE
+     */
+    public void write (File file) throws IOException
+    {
+      //Lay out the table first, so that every pixel offset is known
+      long tableSize = 8;
+      byte [] [] names = new byte [clips.size ()] [];
+
+      for (int i = 0; i < clips.size (); i++)
+      {
+        names [i] = ClipRegistry.nameOf (ids.get (i))
+                                .getBytes (StandardCharsets.UTF_8);
+        tableSize += 10 + names [i].length + 28L * clips.get (i).length ();
+      }
+
+      //A region shared by several frames is written only once
+      Map <AtlasRegion, Long> written =
+        new IdentityHashMap <AtlasRegion, Long> ();
+      List <AtlasRegion> blocks = new ArrayList <AtlasRegion> ();
+      long offset = align (tableSize);
+
+      if (offset > MAX_SIZE)
+      {
+        throw new IOException ("Sprite bundle table would be " + tableSize +
+                               " bytes, larger than " + MAX_SIZE);
+      }
+
+      ByteBuffer table = ByteBuffer.allocate ((int) tableSize);
+
+      table.putInt (MAGIC);
+      table.putShort (VERSION);
+      table.putShort (unsigned (clips.size (), "Clip count"));
+
+      for (int i = 0; i < clips.size (); i++)
+      {
+        AnimationClip clip = clips.get (i);
+
+        table.putShort (unsigned (names [i].length, "Clip name length"));
+        table.put (names [i]);
+        table.putShort (unsigned (grids.get (i) [0], "Rows"));
+        table.putShort (unsigned (grids.get (i) [1], "Columns"));
+        table.putInt (clip.length ());
+
+        for (int frame = 0; frame < clip.length (); frame++)
+        {
+          AtlasRegion region = clip.getRegion (frame);
+          Long position = written.get (region);
+
+          if (position == null)
+          {
+            position = offset;
+            written.put (region, position);
+            blocks.add (region);
+
+            offset = align (offset + 4L * region.getWidth () *
+                                     region.getHeight ());
+          }
+
+          table.putInt (clip.getDelay (frame));
+          table.putInt (region.getWidth ());
+          table.putInt (region.getHeight ());
+          table.putLong (position);
+          table.putShort (unsigned (region.getOffsetX (), "X offset"));
+          table.putShort (unsigned (region.getOffsetY (), "Y offset"));
+          table.putShort (unsigned (region.getOriginalWidth (),
+                                    "Untrimmed width"));
+          table.putShort (unsigned (region.getOriginalHeight (),
+                                    "Untrimmed height"));
+        }
+      }
+
+      //Checked before the file is touched, so no partial bundle is left
+      if (offset > MAX_SIZE)
+      {
+        throw new IOException ("Sprite bundle would be " + offset +
+                               " bytes, larger than " + MAX_SIZE);
+      }
+
+      table.flip ();
+
+      try (FileChannel channel = FileChannel.open (
+             file.toPath (), StandardOpenOption.CREATE,
+             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+        writeFully (channel, table);
+
+        for (AtlasRegion region : blocks)
+        {
+          writeFully (channel, written.get (region), pixelsOf (region));
+        }
+      }
+    }
+
+    /**
+     * Renders a frame, without its trim offset, into premultiplied ARGB
+     * pixels.
+     *
+     * @param region - The frame
+     * @return The pixels, ready to be written
+     */
+    private static ByteBuffer pixelsOf (AtlasRegion region)
+    {
+      BufferedImage image = new BufferedImage (region.getWidth (),
+                                               region.getHeight (),
+                                               BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = image.createGraphics ();
+
+      g.setComposite (AlphaComposite.Src);
+      g.drawImage (region.getPage (), 0, 0, region.getWidth (),
+                   region.getHeight (), region.getX (), region.getY (),
+                   region.getX () + region.getWidth (),
+                   region.getY () + region.getHeight (), null);
+      g.dispose ();
+
+      int [] pixels = ((DataBufferInt) image.getRaster ().getDataBuffer ())
+                        .getData ();
+      ByteBuffer bytes = ByteBuffer.allocate (pixels.length * 4);
+
+      bytes.asIntBuffer ().put (pixels);
+
+      return bytes;
+    }
+
+    /**
+     * Writes the whole of a buffer at the channel's current position.
+     */
+    private static void writeFully (FileChannel channel, ByteBuffer bytes)
+      throws IOException
+    {
+      while (bytes.hasRemaining ())
+      {
+        channel.write (bytes);
+      }
+    }
+
+    /**
+     * Writes the whole of a buffer at the given position.
+     */
+    private static void writeFully (FileChannel channel, long position,
+                                    ByteBuffer bytes) throws IOException
+    {
+      channel.position (position);
+      writeFully (channel, bytes);
+    }
+
+    /**
+     * Narrows a value to an unsigned short field.
+     *
+     * @param value - The value
+     * @param field - The name of the field, for the error message
+     * @return The value, as a short
+     *
+     * @throws IOException - If the value lies outside 0 to 65535
+     */
+    private static short unsigned (int value, String field) throws IOException
+    {
+      if (value < 0 || value > 0xFFFF)
+      {
+        throw new IOException (field + " " + value + " does not fit in a " +
+                               "sprite bundle (0 to 65535)");
+      }
+
+      return (short) value;
+    }
+
+    /**
+     * Rounds a file position up to the next multiple of 8.
+     */
+    private static long align (long position)
+    {
+      return (position + 7) & ~7L;
+    }
+  }
+}
@@ -0,0 +1,411 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.util.*;
+
+/**
+ * Animates very large numbers of identical-looking instances (ie. a crowd)
+ * without a Sprite object per instance. The playback state of every instance
+ * lives in parallel primitive arrays, indexed by a plain int handle, so that
+ * a crowd of 100,000 costs a handful of arrays rather than 100,000 objects,
+ * and advancing the crowd is a single pass over contiguous memory.
+ *
+ * <br /> <br />
+ *
+ * ie. SpritePool crowd = new SpritePool ();                          <br /> &nbsp;
+ *     int walk = crowd.registerClip (walkClip);                      <br /> &nbsp;
+ *     int handle = crowd.allocate (walk, xPos, yPos);                <br /> &nbsp;
+ *     ...                                                            <br /> &nbsp;
+ *     crowd.update (stepNanos);                                      <br /> &nbsp;
+ *     crowd.submit (batch, 0);                                       <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Freed slots are kept on a free list and handed out again by the next
+ * allocation, so a pool that has reached its working size allocates nothing
+ * further. A handle must not be used once it has been freed.
+ *
+ * @see {@link SpriteBatch}
+ *
+ * @author Dominic Aquilina
+ */
+public final class SpritePool
+{
+  //Constants
+  /**
+   * The number of slots a pool starts with unless told otherwise.
+   */
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * Marks a slot that is not in use.
+   */
+  private static final int FREE = -1;
+
+  //Members
+  /**
+   * The clips registered with the pool, by clip id.
+   */
+  private AnimationClip [] clips = new AnimationClip [8];
+
+  /**
+   * The length of each registered clip, in nanoseconds.
+   */
+  private long [] durations = new long [8];
+
+  /**
+   * The shared frame delay of each registered clip in nanoseconds, or 0 if
+   * its delays differ.
+   */
+  private long [] uniformDelays = new long [8];
+
+  /**
+   * The number of clips registered.
+   */
+  private int clipCount = 0;
+
+  /**
+   * The clip id of each slot, or FREE.
+   */
+  private int [] clipIds;
+
+  /**
+   * The frame showing in each slot.
+   */
+  private int [] frames;
+
+  /**
+   * The time each slot has spent in its current clip, in nanoseconds.
+   */
+  private long [] times;
+
+  /**
+   * The position of each slot.
+   */
+  private int [] xs;
+  private int [] ys;
+
+  /**
+   * The slots below this index have been used at some point; every slot at
+   * or above it is unused, so loops stop here.
+   */
+  private int highWater = 0;
+
+  /**
+   * The freed slots waiting to be reused, as a stack.
+   */
+  private int [] freeSlots;
+  private int freeCount = 0;
+
+  /**
+   * The number of slots in use.
+   */
+  private int live = 0;
+
+  //Constructors
+  /**
+   * Default Constructor.
+   */
+  public SpritePool ()
+  {
+    this (DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a pool with room for the given number of instances before it
+   * needs to grow.
+   *
+   * @param capacity - The initial number of slots
+   */
+  public SpritePool (int capacity)
+  {
+    capacity  = Math.max (capacity, 1);
+    clipIds   = new int  [capacity];
+    frames    = new int  [capacity];
+    times     = new long [capacity];
+    xs        = new int  [capacity];
+    ys        = new int  [capacity];
+    freeSlots = new int  [capacity];
+
+    Arrays.fill (clipIds, FREE);
+  }
+
+  //Functions
+  /**
+   * Registers a clip for instances of this pool to play.
+   *
+   * @param clip - The clip
+   * @return The id by which instances refer to the clip
+   */
+  public int registerClip (AnimationClip clip)
+  {
+    if (clipCount == clips.length)
+    {
+      clips         = Arrays.copyOf (clips, clipCount * 2);
+      durations     = Arrays.copyOf (durations, clipCount * 2);
+      uniformDelays = Arrays.copyOf (uniformDelays, clipCount * 2);
+    }
+
+    clips         [clipCount] = clip;
+    durations     [clipCount] = clip.getDuration ();
+    uniformDelays [clipCount] = clip.getUniformDelay ();
+
+    return clipCount++;
+  }
+
+  /**
+   * Returns a registered clip.
+   *
+   * @param clipId - The id of the clip
+   * @return The clip
+   */
+  public AnimationClip getClip (int clipId)
+  {
+    return clips [clipId];
+  }
+
+  /**
+   * Takes a slot for a new instance, starting the given clip from its first
+   * frame.
+   *
+   * @param clipId - The id of the clip to play
+   * @param x      - The x position of the instance
+   * @param y      - The y position of the instance
+   * @return The handle of the instance
+   */
+  public int allocate (int clipId, int x, int y)
+  {
+    checkClip (clipId);
+
+    int handle;
+
+    if (freeCount > 0)
+    {
+      handle = freeSlots [--freeCount];
+    }
+    else
+    {
+      if (highWater == clipIds.length)
+      {
+        grow ();
+      }
+
+      handle = highWater++;
+    }
+
+    clipIds [handle] = clipId;
+    frames  [handle] = 0;
+    times   [handle] = 0;
+    xs      [handle] = x;
+    ys      [handle] = y;
+
+    live++;
+
+    return handle;
+  }
+
+  /**
+   * Returns a slot to the pool.
+   *
+   * @param handle - The handle of the instance, which must not be used again
+   */
+  public void free (int handle)
+  {
+    if (clipIds [handle] == FREE)
+    {
+      throw new IllegalArgumentException ("Slot " + handle +
+                                          " is already free.");
+    }
+
+    clipIds [handle] = FREE;
+    freeSlots [freeCount++] = handle;
+
+    live--;
+  }
+
+  /**
+   * Returns the number of instances in use.
+   *
+   * @return The number of instances
+   */
+  public int size ()
+  {
+    return live;
+  }
+
+  /**
+   * Switches an instance to another clip, starting from its first frame.
+   *
+   * @param handle - The handle of the instance
+   * @param clipId - The id of the clip to play
+   */
+  public void play (int handle, int clipId)
+  {
+    checkClip (clipId);
+
+    if (clipIds [handle] != clipId)
+    {
+      clipIds [handle] = clipId;
+      frames  [handle] = 0;
+      times   [handle] = 0;
+    }
+  }
+
+  /**
+   * Moves an instance.
+   *
+   * @param handle - The handle of the instance
+   * @param x      - The new x position
+   * @param y      - The new y position
+   */
+  public void setPosition (int handle, int x, int y)
+  {
+    xs [handle] = x;
+    ys [handle] = y;
+  }
+
+  /**
+   * Returns the x position of an instance.
+   *
+   * @param handle - The handle of the instance
+   * @return The x position
+   */
+  public int getX (int handle)
+  {
+    return xs [handle];
+  }
+
+  /**
+   * Returns the y position of an instance.
+   *
+   * @param handle - The handle of the instance
+   * @return The y position
+   */
+  public int getY (int handle)
+  {
+    return ys [handle];
+  }
+
+  /**
+   * Returns the frame showing in an instance.
+   *
+   * @param handle - The handle of the instance
+   * @return The index of the frame within the instance's clip
+   */
+  public int getFrame (int handle)
+  {
+    return frames [handle];
+  }
+
+  /**
+   * Returns the region of the frame showing in an instance.
+   *
+   * @param handle - The handle of the instance
+   * @return The region of the current frame
+   */
+  public AtlasRegion getRegion (int handle)
+  {
+    return clips [clipIds [handle]].getRegion (frames [handle]);
+  }
+
+  /**
+   * Advances every instance by the given amount of time.
+   *
+   * @param elapsedNanos - The time elapsed since the last update
+   */
+  public void update (long elapsedNanos)
+  {
+    final int count = highWater;
+    final long [] times = this.times;
+
+    //Free slots are advanced too; it costs nothing and keeps this loop free
+    //of branches, so the JIT can vectorize it
+    for (int i = 0; i < count; i++)
+    {
+      times [i] += elapsedNanos;
+    }
+
+    final int [] clipIds = this.clipIds;
+    final int [] frames = this.frames;
+
+    for (int i = 0; i < count; i++)
+    {
+      int clip = clipIds [i];
+
+      if (clip == FREE)
+      {
+        continue;
+      }
+
+      long duration = durations [clip];
+
+      if (duration <= 0)
+      {
+        frames [i] = 0;
+        continue;
+      }
+
+      //Keep the time within the clip, so it never grows without bound
+      long t = times [i];
+
+      if (t >= duration || t < 0)
+      {
+        t = Math.floorMod (t, duration);
+        times [i] = t;
+      }
+
+      long uniform = uniformDelays [clip];
+
+      frames [i] = uniform > 0 ? (int) (t / uniform) : clips [clip].frameAt (t);
+    }
+  }
+
+  /**
+   * Submits the current frame of every instance to a batch.
+   *
+   * @param batch - The batch to draw to
+   * @param layer - The layer of every instance
+   */
+  public void submit (SpriteBatch batch, int layer)
+  {
+    for (int i = 0; i < highWater; i++)
+    {
+      int clip = clipIds [i];
+
+      if (clip != FREE)
+      {
+        batch.draw (clips [clip].getRegion (frames [i]), xs [i], ys [i],
+                    layer);
+      }
+    }
+  }
+
+  /**
+   * Doubles the number of slots.
+   */
+  private void grow ()
+  {
+    int capacity = clipIds.length * 2;
+
+    clipIds   = Arrays.copyOf (clipIds, capacity);
+    frames    = Arrays.copyOf (frames, capacity);
+    times     = Arrays.copyOf (times, capacity);
+    xs        = Arrays.copyOf (xs, capacity);
+    ys        = Arrays.copyOf (ys, capacity);
+    freeSlots = Arrays.copyOf (freeSlots, capacity);
+
+    Arrays.fill (clipIds, highWater, capacity, FREE);
+  }
+
+  /**
+   * Ensures a clip id has been registered.
+   */
+  private void checkClip (int clipId)
+  {
+    if (clipId < 0 || clipId >= clipCount)
+    {
+      throw new IllegalArgumentException ("Unknown clip id: " + clipId);
+    }
+  }
+}
@@ -0,0 +1,440 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+/**
+ * Slices a template straight from its file, one band at a time, without ever
+ * decoding the whole template. Each band is a single row of cells, decoded
+ * on its own by reading just that region of the file, so however large the
+ * template, no more than one band per thread is held beyond the frames
+ * themselves.
+ *
+ * <br /> <br />
+ *
+ * ie. StreamedSheetSlicer slicer = new StreamedSheetSlicer (
+ *       new File ("crowd.png"), 64, 64, 4096);                   <br /> &nbsp;
+ *     AnimationClip crowd = slicer.slice (Sprite.FR_12FPS, pool);
+ *
+ * <br /> <br />
+ *
+ * The dimensions of the template are read from its header alone. Cells are
+ * placed by AnimationClip.cellOrigin, so the frames are those
+ * AnimationClip.slice would cut from the template. Given a FramePool,
+ * each frame is trimmed and shared as soon as its band is decoded, and the
+ * band itself is then discarded.
+ *
+ * <br /> <br />
+ *
+ * Formats that cannot seek to a row (ie. PNG) must still inflate the rows
+ * above each band, so banded decoding trades some time for memory. Decoding
+ * the bands in parallel wins that time back where there are cores to spare,
+ * at the cost of one band held per thread.
+ *
+ * @see {@link AnimationClip#slice(BufferedImage, int, int, int, int)}
+ * @see {@link SheetFrameSource}
+ *
+ * @author Dominic Aquilina
+ */
+public final class StreamedSheetSlicer
+{
+  //Members
+  /**
+   * The template file.
+   */
+  private final File file;
+
+  /**
+   * The number of frames that make up the width of the template.
+   */
+  private final int width;
+
+  /**
+   * The number of frames that make up the height of the template.
+   */
+  private final int height;
+
+  /**
+   * The number of frames in the template.
+   */
+  private final int numFrames;
+
+  /**
+   * The dimensions of the template, in pixels.
+   */
+  private final int imgWidth;
+  private final int imgHeight;
+
+  /**
+   * The dimensions of each cell, in pixels.
+   */
+  private final int cellWidth;
+  private final int cellHeight;
+
+  /**
+   * The pool that decodes bands in parallel.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Whether bands are decoded in parallel.
+   */
+  private volatile boolean parallel = false;
+
+  /**
+   * Whether decoded bands are converted to the display-compatible format.
+   */
+  private volatile boolean convert = true;
+
+  /**
+   * Whether the collision mask of each frame is built while slicing.
+   */
+  private volatile boolean collisionMasks = false;
+
+  //Constructors
+  /**
+   * Reads the dimensions of a template from its header. Bands are decoded in
+   * parallel on the common pool, once enabled.
+   *
+   * @param file      - The template file
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   *
+   * @throws IOException - If the file cannot be read or has no decoder
+   */
+  public StreamedSheetSlicer (File file, int height, int width, int numFrames)
+    throws IOException
+  {
+    this (file, height, width, numFrames, ForkJoinPool.commonPool ());
+  }
+
+  /**
+   * Reads the dimensions of a template from its header.
+   *
+   * @param file      - The template file
+   * @param height    - The number of frames that make up the height of the
+   *                    animation.
+   * @param width     - The number of frames that make up the width of the
+   *                    animation
+   * @param numFrames - The total number of frames contained in this animation
+   * @param pool      - The pool that decodes bands in parallel
+   *
+   * @throws IOException - If the file cannot be read or has no decoder
+   */
+  public StreamedSheetSlicer (File file, int height, int width, int numFrames,
+                              ForkJoinPool pool) throws IOException
+  {
+    if (numFrames > height * width)
+    {
+      throw new IllegalArgumentException ("The template holds at most " +
+                                          height * width + " frames.");
+    }
+
+    this.file      = file;
+    this.width     = width;
+    this.height    = height;
+    this.numFrames = numFrames;
+    this.pool      = pool;
+
+    ImageReader reader = openReader ();
+
+    try
+    {
+      imgWidth  = reader.getWidth  (0);
+      imgHeight = reader.getHeight (0);
+    }
+    finally
+    {
+      dispose (reader);
+    }
+
+    cellWidth  = imgWidth  / width;
+    cellHeight = imgHeight / height;
+  }
+
+  //Functions
+  /**
+   * Returns the width of the template, as given by its header.
+   *
+   * @return The width, in pixels
+   */
+  public int getImageWidth ()
+  {
+    return imgWidth;
+  }
+
+  /**
+   * Returns the height of the template, as given by its header.
+   *
+   * @return The height, in pixels
+   */
+  public int getImageHeight ()
+  {
+    return imgHeight;
+  }
+
+  /**
+   * Returns the number of bands the template is decoded in.
+   *
+   * @return The number of rows of cells that hold frames
+   */
+  public int getBandCount ()
+  {
+    return (numFrames + width - 1) / width;
+  }
+
+  /**
+   * Determines whether bands are decoded in parallel.
+   *
+   * @return True if bands are spread across the pool
+   */
+  public boolean isParallel ()
+  {
+    return parallel;
+  }
+
+  /**
+   * Sets whether bands are decoded in parallel, or one after another on the
+   * calling thread. Off by default, to keep only one band in memory.
+   *
+   * @param parallel - True to spread bands across the pool
+   */
+  public void setParallel (boolean parallel)
+  {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Sets whether decoded bands are converted to the display-compatible
+   * format. On by default.
+   *
+   * @param convert - True to convert each band
+   */
+  public void setConvert (boolean convert)
+  {
+    this.convert = convert;
+  }
+
+  /**
+   * Sets whether the collision mask of every frame is built while slicing,
+   * rather than as each is first requested. Off by default.
+   *
+   * @see {@link AnimationClip#buildCollisionMasks()}
+   *
+   * @param collisionMasks - True to build the masks while slicing
+   */
+  public void setCollisionMasks (boolean collisionMasks)
+  {
+    this.collisionMasks = collisionMasks;
+  }
+
+  /**
+   * Slices the template into a clip, keeping every frame whole.
+   *
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @return The new clip
+   *
+   * @throws IOException - If the template cannot be decoded
+   */
+  public AnimationClip slice (int framerate) throws IOException
+  {
+    return slice (framerate, null);
+  }
+
+  /**
+   * Slices the template into a clip, trimming and sharing each frame through
+   * the given pool as its band is decoded.
+   *
+   * @param framerate - The delay assigned to every frame, in milliseconds
+   * @param frames    - The pool through which to trim and share the frames,
+   *                    or null to keep every frame whole
+   * @return The new clip
+   *
+   * @throws IOException - If the template cannot be decoded
+   */
+  public AnimationClip slice (int framerate, final FramePool frames)
+    throws IOException
+  {
+    EngineEvents.Slice event = new EngineEvents.Slice ();
+    long start = System.nanoTime ();
+
+    event.begin ();
+
+    final BufferedImage [] images = frames == null
+                                    ? new BufferedImage [numFrames] : null;
+    final AtlasRegion [] regions = frames == null
+                                   ? null : new AtlasRegion [numFrames];
+    int bands = getBandCount ();
+
+    if (parallel && bands > 1)
+    {
+      List <Callable <Void>> tasks = new ArrayList <Callable <Void>> (bands);
+
+      for (int band = 0; band < bands; band++)
+      {
+        final int row = band;
+
+        tasks.add (() ->
+        {
+          sliceBand (row, images, regions, frames);
+          return null;
+        });
+      }
+
+      for (Future <Void> task : pool.invokeAll (tasks))
+      {
+        try
+        {
+          task.get ();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread ().interrupt ();
+
+          throw new InterruptedIOException ("Slicing interrupted");
+        }
+        catch (ExecutionException e)
+        {
+          if (e.getCause () instanceof IOException)
+          {
+            throw (IOException) e.getCause ();
+          }
+
+          throw new IOException ("Could not decode template", e.getCause ());
+        }
+      }
+    }
+    else
+    {
+      for (int band = 0; band < bands; band++)
+      {
+        sliceBand (band, images, regions, frames);
+      }
+    }
+
+    AnimationClip clip = frames == null
+      ? new AnimationClip (images, framerate)
+      : new AnimationClip (regions, AnimationClip.filled (numFrames,
+                                                          framerate));
+
+    if (collisionMasks)
+    {
+      clip.buildCollisionMasks ();
+    }
+
+    event.frames     = numFrames;
+    event.cellWidth  = cellWidth;
+    event.cellHeight = cellHeight;
+    event.commit ();
+
+    MetricsRegistry.getShared ().record (MetricsRegistry.CLIP_SLICE,
+                                         System.nanoTime () - start);
+
+    return clip;
+  }
+
+  /**
+   * Decodes a single row of cells and cuts it into frames.
+   *
+   * @param row     - The row of cells
+   * @param images  - Receives the frames, if they are kept whole
+   * @param regions - Receives the frames, if they are pooled
+   * @param frames  - The pool for the frames, or null
+   */
+  private void sliceBand (int row, BufferedImage [] images,
+                          AtlasRegion [] regions, FramePool frames)
+    throws IOException
+  {
+    int first   = row * width;
+    int columns = Math.min (width, numFrames - first);
+    int y       = AnimationClip.cellOrigin (row, height, imgHeight);
+    int right   = AnimationClip.cellOrigin (columns - 1, width, imgWidth) +
+                  cellWidth;
+
+    ImageReader reader = openReader ();
+    BufferedImage band;
+
+    try
+    {
+      ImageReadParam param = reader.getDefaultReadParam ();
+      param.setSourceRegion (new Rectangle (0, y, right, cellHeight));
+
+      band = reader.read (0, param);
+    }
+    finally
+    {
+      dispose (reader);
+    }
+
+    if (convert)
+    {
+      band = ImageConverter.toCompatible (band);
+    }
+
+    for (int column = 0; column < columns; column++)
+    {
+      BufferedImage frame = band.getSubimage (
+        AnimationClip.cellOrigin (column, width, imgWidth), 0, cellWidth,
+        band.getHeight ());
+
+      if (frames == null)
+      {
+        images [first + column] = frame;
+      }
+      else
+      {
+        regions [first + column] = frames.intern (frame);
+      }
+    }
+  }
+
+  /**
+   * Disposes of a reader, along with the stream it was reading.
+   *
+   * @param reader - The reader
+   */
+  private static void dispose (ImageReader reader) throws IOException
+  {
+    ImageInputStream input = (ImageInputStream) reader.getInput ();
+
+    reader.dispose ();
+    input.close ();
+  }
+
+  /**
+   * Opens a reader over the template file. The file is read as the reader
+   * needs it, rather than loaded whole.
+   *
+   * @return The reader, which the caller must dispose of
+   *
+   * @throws IOException - If the file cannot be read or has no decoder
+   */
+  private ImageReader openReader () throws IOException
+  {
+    ImageInputStream input = new FileImageInputStream (file);
+    Iterator <ImageReader> readers = ImageIO.getImageReaders (input);
+
+    if (!readers.hasNext ())
+    {
+      input.close ();
+
+      throw new IOException ("No decoder found for " + file);
+    }
+
+    ImageReader reader = readers.next ();
+    reader.setInput (input, true, true);
+
+    return reader;
+  }
+}
@@ -6,38 +6,54 @@ import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
+import java.util.List;
+import java.util.concurrent.*;
 import javax.swing.*;
-import javax.imageio.ImageIO;
 
 @SuppressWarnings ({ "serial" })
-public class TEST extends JFrame implements KeyListener
+public class TEST extends JFrame implements KeyListener, GameLoop.Listener
 {
-  static BufferedImage bg, man, manRight, manLeft, buffer, robot;
+  static BufferedImage bg, buffer;
   
   static Sprite manSprite = new Sprite ();
   
   static Sprite ballSprite = new Sprite ();
   
-  static Animations animType;
+  static SpriteBatch batch = new SpriteBatch ();
+  
+  static DirtyRegionTracker tracker = new DirtyRegionTracker (400, 400);
+  
+  static SpatialGrid grid = new SpatialGrid ();
+  
+  static Rectangle viewport = new Rectangle (0, 0, 400, 400);
+  
+  static RenderMetrics metrics = new RenderMetrics ();
+  
+  static volatile Animations animType;
+  
+  static GameLoop loop;
   
   static int xPos = 20;
   static int yPos = 20;
   
-  static boolean left;
-  static boolean right;
-  static boolean up;
-  static boolean down;
+  static volatile boolean left;
+  static volatile boolean right;
+  static volatile boolean up;
+  static volatile boolean down;
   
   public TEST ()
   {
-    buffer = new BufferedImage (400, 400, BufferedImage.TYPE_INT_RGB);
+    buffer = ImageConverter.createCompatible (400, 400, Transparency.OPAQUE);
+    bg = ImageConverter.toCompatible (bg);
     
-    manSprite.setAnimation (Animations.IDLE1, man, 1, 1, 1);
-    manSprite.setAnimation (Animations.MOVE_LEFT, manLeft, 5, 6, 30);
-    manSprite.setAnimation (Animations.MOVE_RIGHT, manRight, 5, 6, 30);
+    new TextureAtlas ().pack (manSprite, ballSprite);
     
-    ballSprite.setAnimation (Animations.IDLE1, robot, 2, 2, 4);
+    ImageConverter converter = new ImageConverter ();
+    converter.convert (manSprite, ballSprite);
     
+    System.out.println (converter.getReport ());
+    
+    setIgnoreRepaint (true);
     setVisible (true);
     setSize (400, 400);
     addKeyListener (this);
@@ -46,53 +62,81 @@ public class TEST extends JFrame implements KeyListener
     
     animType = Animations.IDLE1;
     
-    repaint();
+    createBufferStrategy (2);
+    
+    //Only the Sprites within the viewport are advanced and drawn
+    AtlasRegion ball = ballSprite.getCurrentRegion ();
+    grid.put (ballSprite, 50, 50, ball.getOriginalWidth (),
+              ball.getOriginalHeight (), 0);
+    placeMan ();
+    
+    loop = new GameLoop (100, this);
+    loop.setCulling (grid, viewport);
+    loop.setBufferStrategy (getBufferStrategy ());
+    loop.setMetrics (metrics);
+    batch.setMetrics (metrics);
+    loop.start ();
+    
+    Runtime.getRuntime ().addShutdownHook (new Thread (() ->
+    {
+      System.out.println (metrics);
+      System.out.println (MetricsRegistry.getShared ().toJson ());
+    }));
   }
   
   public static void main (String [] args)
   {
-	  String path = new File ("Resources").getAbsolutePath ();
+	  File path = new File ("Resources").getAbsoluteFile ();
 	  
 	  System.out.println (path);
 	
+    //Decode and slice every template in parallel
+    AssetLoader loader = new AssetLoader ();
+    
+    loader.setProgressListener ((completed, requested) ->
+      System.out.println ("Loaded " + completed + " of " + requested));
+    
+    CompletableFuture <BufferedImage> grass = 
+      loader.loadImage (new File (path, "grass.png"));
+    
+    CompletableFuture <AnimationClip> idle = loader.loadClip 
+      (new File (path, "walksequence_idle.png"), 1, 1, 1, Sprite.FR_12FPS);
+    
+    CompletableFuture <AnimationClip> walkLeft = loader.loadClip 
+      (new File (path, "walksequence_left.png"), 5, 6, 30, Sprite.FR_12FPS);
+    
+    CompletableFuture <AnimationClip> walkRight = loader.loadClip 
+      (new File (path, "walksequence_right.png"), 5, 6, 30, Sprite.FR_12FPS);
+    
+    CompletableFuture <AnimationClip> ball = loader.loadClip 
+      (new File (path, "Spinning_ball.gif"), 2, 2, 4, Sprite.FR_12FPS);
+    
     try
     {
-      bg = ImageIO.read (new File 
-       (path + "\\grass.png"));
-      
-      System.out.println ("A");
-      
-      man = ImageIO.read (new File 
-       (path + "\\walksequence_idle.png"));
-      
-      System.out.println ("B");
-      
-      manLeft = ImageIO.read (new File 
-       (path + "\\walksequence_left.png"));
+      bg = grass.join ();
       
-      System.out.println ("C");
+      manSprite.setAnimation (Animations.IDLE1, idle.join ());
+      manSprite.setAnimation (Animations.MOVE_LEFT, walkLeft.join ());
+      manSprite.setAnimation (Animations.MOVE_RIGHT, walkRight.join ());
       
-      manRight = ImageIO.read (new File 
-       (path + "\\walksequence_right.png"));
-      
-      System.out.println ("D");
-      
-      robot = ImageIO.read (new File 
-       (path + "\\spinning_ball.gif"));
-      
-      System.out.println ("E");
+      ballSprite.setAnimation (Animations.IDLE1, ball.join ());
     }
-    catch (Exception e)
+    catch (CompletionException e)
     {
-      System.out.println (e);
+      System.out.println (e.getCause ());
       
       return;
     }
+    finally
+    {
+      loader.close ();
+    }
     
     new TEST ();
   }
   
-  public void paint (Graphics g)
+  @Override
+  public void update (long stepNanos)
   {
     if (left)
     {
@@ -118,29 +162,30 @@ public class TEST extends JFrame implements KeyListener
       animType = Animations.MOVE_LEFT;
     }
     
-    Graphics gi = buffer.createGraphics ();
-    
-    gi.drawImage (bg, 0, 0, this);
-    
-    gi.drawImage (manSprite.getFrame (animType, manSprite.FramePointer ()),
-                  xPos, yPos, this);
+    manSprite.play (animType);
+    placeMan ();
+  }
+  
+  static void placeMan ()
+  {
+    AtlasRegion man = manSprite.getCurrentRegion ();
     
-    gi.drawImage (ballSprite.getFrame (Animations.IDLE1, ballSprite.FramePointer ()),
-                  50, 50, this);
+    grid.put (manSprite, xPos, yPos, man.getOriginalWidth (),
+              man.getOriginalHeight (), 1);
+  }
+  
+  @Override
+  public void render (Graphics2D g, double alpha)
+  {
+    batch.drawVisible (grid, viewport);
     
-    Graphics2D g2= (Graphics2D) g;
-    g2.drawImage (buffer, null, 0, 0);
+    List <Rectangle> dirty = tracker.update (batch);
     
-    try
-    {
-      Thread.sleep (10);
-    }
-    catch (Exception e)
-    {
-      
-    }
+    batch.render (buffer, bg, dirty);
     
-    repaint();
+    //The back buffer's contents are undefined after a flip, so the whole
+    //buffer is presented; only the dirty areas of it were recomposited
+    g.drawImage (buffer, 0, 0, null);
   }
 
   @Override
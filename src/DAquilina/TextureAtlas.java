@@ -0,0 +1,366 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Packs the frames of any number of animations into a few large images
+ * (pages), each a power of two on either side. Each packed frame is then
+ * described by a rectangle within its page, so that drawing an entire scene
+ * touches only a handful of images rather than one per frame.
+ *
+ * <br /> <br />
+ *
+ * ie. TextureAtlas atlas = new TextureAtlas ();            <br /> &nbsp;
+ *     atlas.pack (manSprite, ballSprite);                  <br /> &nbsp;
+ *     manSprite.draw (g, xPos, yPos);                      <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Frames that appear more than once (ie. the same clip shared by two sets) are
+ * only packed once.
+ *
+ * @see {@link AtlasRegion}
+ *
+ * @author Dominic Aquilina
+ */
+public final class TextureAtlas
+{
+  //Constants
+  /**
+   * Constant: The default maximum size of each side of a page
+   */
+  public static final int DEFAULT_PAGE_SIZE = 2048;
+
+  /**
+   * The transparent gap left around each frame, so that filtered or scaled
+   * drawing never samples a neighbouring frame.
+   */
+  private static final int PADDING = 1;
+
+  //Members
+  /**
+   * The maximum size of each side of a page.
+   */
+  private final int maxPageSize;
+
+  /**
+   * The pages created so far.
+   */
+  private final List <BufferedImage> pages = new ArrayList <BufferedImage> ();
+
+  //Constructors
+  /**
+   * Default Constructor. Pages will be at most DEFAULT_PAGE_SIZE square.
+   */
+  public TextureAtlas ()
+  {
+    this (DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * Creates an atlas with pages no larger than the given size. Frames larger
+   * than this are given a page of their own.
+   *
+   * @param maxPageSize - The maximum size of each side of a page, which
+   *                      should be a power of two
+   */
+  public TextureAtlas (int maxPageSize)
+  {
+    this.maxPageSize = maxPageSize;
+  }
+
+  //Functions
+  /**
+   * Returns the pages created so far by this atlas.
+   *
+   * @return An unmodifiable list of the pages
+   */
+  public List <BufferedImage> getPages ()
+  {
+    return Collections.unmodifiableList (pages);
+  }
+
+  /**
+   * Packs the animations of each of the given Sprites, and points each Sprite
+   * at its packed set. Sprites sharing the same set continue to share it.
+   *
+   * @param sprites - The Sprites to pack
+   */
+  public void pack (Sprite... sprites)
+  {
+    AnimationSet [] sets = new AnimationSet [sprites.length];
+
+    for (int i = 0; i < sprites.length; i++)
+    {
+      sets [i] = sprites [i].getAnimations ();
+    }
+
+    AnimationSet [] packed = pack (sets);
+
+    for (int i = 0; i < sprites.length; i++)
+    {
+      sprites [i].setAnimations (packed [i]);
+    }
+  }
+
+  /**
+   * Packs every frame of every clip in the given sets into the pages of this
+   * atlas.
+   *
+   * @param sets - The sets to pack
+   * @return The packed sets, in the same order, with identical clips and
+   *         delays but frames drawn from the atlas pages
+   */
+  public AnimationSet [] pack (AnimationSet... sets)
+  {
+    Map <AnimationClip, AnimationClip> packedClips =
+      new IdentityHashMap <AnimationClip, AnimationClip> ();
+    List <AnimationClip> clips = new ArrayList <AnimationClip> ();
+
+    for (AnimationSet set : sets)
+    {
+      for (int id : set.getIds ())
+      {
+        AnimationClip clip = set.getClip (id);
+
+        if (!packedClips.containsKey (clip))
+        {
+          packedClips.put (clip, null);
+          clips.add (clip);
+        }
+      }
+    }
+
+    AnimationClip [] packed = pack (clips.toArray (new AnimationClip [0]));
+
+    for (int i = 0; i < packed.length; i++)
+    {
+      packedClips.put (clips.get (i), packed [i]);
+    }
+
+    //Rebuild each set from its packed clips, keeping shared sets shared
+    Map <AnimationSet, AnimationSet> packedSets =
+      new IdentityHashMap <AnimationSet, AnimationSet> ();
+    AnimationSet [] result = new AnimationSet [sets.length];
+
+    for (int i = 0; i < sets.length; i++)
+    {
+      AnimationSet set = packedSets.get (sets [i]);
+
+      if (set == null)
+      {
+        set = new AnimationSet ();
+
+        for (int id : sets [i].getIds ())
+        {
+          set = set.with (id, packedClips.get (sets [i].getClip (id)));
+        }
+
+        packedSets.put (sets [i], set);
+      }
+
+      result [i] = set;
+    }
+
+    return result;
+  }
+
+  /**
+   * Packs every frame of the given clips into the pages of this atlas. Lazy
+   * clips are left as they are, since packing them would build every frame.
+   *
+   * @param clips - The clips to pack
+   * @return The packed clips, in the same order
+   */
+  public AnimationClip [] pack (AnimationClip... clips)
+  {
+    //Gather each distinct frame once
+    Map <BufferedImage, AtlasRegion> placed =
+      new IdentityHashMap <BufferedImage, AtlasRegion> ();
+    List <BufferedImage> frames = new ArrayList <BufferedImage> ();
+
+    for (AnimationClip clip : clips)
+    {
+      if (clip.isLazy ())
+      {
+        continue;
+      }
+
+      for (int frame = 0; frame < clip.length (); frame++)
+      {
+        BufferedImage image = clip.getFrame (frame);
+
+        if (image != null && !placed.containsKey (image))
+        {
+          placed.put (image, null);
+          frames.add (image);
+        }
+      }
+    }
+
+    //Tallest first gives the skyline the flattest outline to build on
+    Collections.sort (frames, new Comparator <BufferedImage> ()
+    {
+      @Override
+      public int compare (BufferedImage a, BufferedImage b)
+      {
+        if (a.getHeight () != b.getHeight ())
+        {
+          return b.getHeight () - a.getHeight ();
+        }
+
+        return b.getWidth () - a.getWidth ();
+      }
+    });
+
+    placeFrames (frames, placed);
+
+    //Rebuild the clips from the placed regions, carrying over the offset of
+    //any trimmed frame; regions shared before packing stay shared
+    AnimationClip [] packed = new AnimationClip [clips.length];
+    Map <AtlasRegion, AtlasRegion> relocated =
+      new IdentityHashMap <AtlasRegion, AtlasRegion> ();
+
+    for (int i = 0; i < clips.length; i++)
+    {
+      if (clips [i].isLazy ())
+      {
+        packed [i] = clips [i];
+
+        continue;
+      }
+
+      AtlasRegion [] regions = new AtlasRegion [clips [i].length ()];
+
+      for (int frame = 0; frame < regions.length; frame++)
+      {
+        BufferedImage image = clips [i].getFrame (frame);
+
+        if (image != null)
+        {
+          AtlasRegion original = clips [i].getRegion (frame);
+          AtlasRegion region = relocated.get (original);
+
+          if (region == null)
+          {
+            AtlasRegion place = placed.get (image);
+
+            region = original.relocate (place.getPage (), place.getX (),
+                                        place.getY ());
+            relocated.put (original, region);
+          }
+
+          regions [frame] = region;
+        }
+      }
+
+      packed [i] = new AnimationClip (regions, clips [i].getDelays ());
+    }
+
+    return packed;
+  }
+
+  /**
+   * Places each frame on a page, opening new pages as existing ones fill up,
+   * then copies the frames onto their pages.
+   *
+   * @param frames - The frames to place, tallest first
+   * @param placed - Receives the region of each frame
+   */
+  private void placeFrames (List <BufferedImage> frames,
+                            Map <BufferedImage, AtlasRegion> placed)
+  {
+    List <SkylinePacker> packers = new ArrayList <SkylinePacker> ();
+    List <int []> positions = new ArrayList <int []> ();
+    Map <BufferedImage, Integer> pageOf =
+      new IdentityHashMap <BufferedImage, Integer> ();
+
+    for (BufferedImage frame : frames)
+    {
+      int width  = frame.getWidth ()  + PADDING * 2;
+      int height = frame.getHeight () + PADDING * 2;
+      int [] position = null;
+      int page;
+
+      //Try each open page in turn
+      for (page = 0; page < packers.size (); page++)
+      {
+        position = packers.get (page).insert (width, height);
+
+        if (position != null)
+        {
+          break;
+        }
+      }
+
+      if (position == null)
+      {
+        //Oversized frames are given a page of their own
+        SkylinePacker packer = new SkylinePacker (
+          Math.max (maxPageSize, powerOfTwo (width)),
+          Math.max (maxPageSize, powerOfTwo (height)));
+
+        packers.add (packer);
+
+        page     = packers.size () - 1;
+        position = packer.insert (width, height);
+      }
+
+      positions.add (position);
+      pageOf.put (frame, page);
+    }
+
+    //Trim each page to the smallest power of two that holds its frames
+    BufferedImage [] images = new BufferedImage [packers.size ()];
+    Graphics2D [] graphics = new Graphics2D [packers.size ()];
+
+    for (int page = 0; page < packers.size (); page++)
+    {
+      SkylinePacker packer = packers.get (page);
+
+      images [page] = new BufferedImage (powerOfTwo (packer.usedWidth ()),
+                                         powerOfTwo (packer.usedHeight ()),
+                                         BufferedImage.TYPE_INT_ARGB_PRE);
+
+      graphics [page] = images [page].createGraphics ();
+      graphics [page].setComposite (AlphaComposite.Src);
+
+      pages.add (images [page]);
+    }
+
+    for (int i = 0; i < frames.size (); i++)
+    {
+      BufferedImage frame = frames.get (i);
+      int page = pageOf.get (frame);
+      int x = positions.get (i) [0] + PADDING;
+      int y = positions.get (i) [1] + PADDING;
+
+      graphics [page].drawImage (frame, x, y, null);
+
+      placed.put (frame, new AtlasRegion (images [page], x, y,
+                                          frame.getWidth (),
+                                          frame.getHeight ()));
+    }
+
+    for (Graphics2D g : graphics)
+    {
+      g.dispose ();
+    }
+  }
+
+  /**
+   * Rounds the given size up to the nearest power of two.
+   *
+   * @param size - The size, which must be positive
+   * @return The smallest power of two no smaller than size
+   */
+  private static int powerOfTwo (int size)
+  {
+    return size <= 1 ? 1 : Integer.highestOneBit (size - 1) << 1;
+  }
+}
@@ -0,0 +1,838 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Composites the commands of a SpriteBatch directly into the pixel array of a
+ * TYPE_INT_ARGB image, dividing the image into square tiles that are
+ * composited independently. Each command is binned into every tile it
+ * overlaps, and since no two tiles share a pixel, the tiles can be spread
+ * across every core without any locking.
+ *
+ * <br /> <br />
+ *
+ * ie. batch.setCompositor (new TileCompositor ());   <br /> &nbsp;
+ *     batch.render (argbBuffer);                     <br /> &nbsp;
+ *
+ * <br /> <br />
+ *
+ * Commands are blended within each tile in the same order the batch would
+ * draw them, so the result is identical whether tiles are composited in
+ * parallel or one after another.
+ *
+ * <br /> <br />
+ *
+ * Pages and backgrounds of TYPE_INT_ARGB or TYPE_INT_ARGB_PRE are read in
+ * place every frame, so a page or background that is painted over shows the
+ * change on the next frame, just as it would through Graphics. Pages of any
+ * other type are converted afresh every frame, which is slower and allocates
+ * a little. No pixels are kept from one frame to the next.
+ *
+ * <br /> <br />
+ *
+ * When given a list of dirty rectangles, only the tiles they touch are
+ * restored from the background and recomposited; all other tiles are left
+ * exactly as they were.
+ *
+ * <br /> <br />
+ *
+ * The tasks that divide the tiles among the pool are built once for each
+ * size of target and reused every frame, so compositing onto the same image
+ * allocates nothing once the bins have grown to fit.
+ *
+ * @see {@link SpriteBatch#setCompositor(TileCompositor)}
+ *
+ * @author Dominic Aquilina
+ */
+public class TileCompositor
+{
+  //Constants
+  /**
+   * Constant: The default width and height of each tile
+   */
+  public static final int DEFAULT_TILE_SIZE = 64;
+
+  /**
+   * The number of tiles below which a task composites its tiles itself
+   * rather than splitting them further.
+   */
+  private static final int TILES_PER_TASK = 4;
+
+  //Members
+  /**
+   * The width and height of each tile.
+   */
+  private final int tileSize;
+
+  /**
+   * The pool that composites tiles in parallel.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Whether tiles are composited in parallel.
+   */
+  private boolean parallel = true;
+
+  /**
+   * The commands overlapping each tile, by their position in drawing order.
+   */
+  private int [] [] bins = new int [0] [];
+
+  /**
+   * The number of commands in each bin.
+   */
+  private int [] binSizes = new int [0];
+
+  /**
+   * The pixels of the page of each command, by drawing order.
+   */
+  private int [] [] sources = new int [0] [];
+
+  /**
+   * The index of the top left pixel of each command's region within its
+   * pixels, and the distance between their rows, by drawing order.
+   */
+  private int [] sourceOffsets = new int [0];
+  private int [] sourceStrides = new int [0];
+
+  /**
+   * Whether the pixels of each command are premultiplied, by drawing order.
+   */
+  private boolean [] sourcesPremultiplied = new boolean [0];
+
+  /**
+   * The converted pixels of the commands whose pages cannot be read in
+   * place, by drawing order. Kept to be reused.
+   */
+  private int [] [] converted = new int [0] [];
+
+  /**
+   * Whether each tile is to be composited this frame.
+   */
+  private boolean [] tileDirty = new boolean [0];
+
+  /**
+   * Whether tiles are restored before compositing, this frame.
+   */
+  private boolean restoreTiles;
+
+  /**
+   * This frame's background, or null for transparent, and its pixels if
+   * they can be copied in place, or null.
+   */
+  private BufferedImage frameBackground;
+  private int [] backgroundPixels;
+
+  /**
+   * The index of the top left pixel of the background within its pixels,
+   * and the distance between their rows.
+   */
+  private int backgroundOffset;
+  private int backgroundStride;
+
+  /**
+   * The batch, target pixels and target dimensions of this frame.
+   */
+  private SpriteBatch frameBatch;
+  private int [] framePixels;
+  private int frameWidth;
+  private int frameHeight;
+  private int tilesX;
+
+  /**
+   * The root of the tasks dividing the tiles among the pool, built for the
+   * current number of tiles.
+   */
+  private CompositeTask root;
+
+  /**
+   * The number of command fragments composited by the last frame.
+   */
+  private int lastBlits;
+
+  //Constructors
+  /**
+   * Default Constructor. Uses 64x64 tiles and the common pool.
+   */
+  public TileCompositor ()
+  {
+    this (DEFAULT_TILE_SIZE, ForkJoinPool.commonPool ());
+  }
+
+  /**
+   * Creates a compositor with the given tile size and pool.
+   *
+   * @param tileSize - The width and height of each tile
+   * @param pool     - The pool that composites tiles in parallel
+   */
+  public TileCompositor (int tileSize, ForkJoinPool pool)
+  {
+    this.tileSize = tileSize;
+    this.pool     = pool;
+  }
+
+  //Functions
+  /**
+   * Determines whether tiles are composited in parallel.
+   *
+   * @return True if tiles are spread across the pool
+   */
+  public boolean isParallel ()
+  {
+    return parallel;
+  }
+
+  /**
+   * Sets whether tiles are composited in parallel, or one after another on
+   * the calling thread. Both produce identical images.
+   *
+   * @param parallel - True to spread tiles across the pool
+   */
+  public void setParallel (boolean parallel)
+  {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Determines whether the given image can be composited into directly.
+   *
+   * @param target - The image to draw onto
+   * @return True if the image is of TYPE_INT_ARGB
+   */
+  public boolean supports (BufferedImage target)
+  {
+    return target.getType () == BufferedImage.TYPE_INT_ARGB;
+  }
+
+  /**
+   * Composites every waiting command of the given batch over the existing
+   * contents of the given image. The batch itself is left untouched.
+   *
+   * @param batch  - The batch whose commands are drawn
+   * @param target - The image to draw onto, which must be TYPE_INT_ARGB
+   *
+   * @throws IllegalArgumentException - If the target is of another type
+   */
+  public void composite (SpriteBatch batch, BufferedImage target)
+  {
+    composite (batch, target, false, null, null);
+  }
+
+  /**
+   * Restores the tiles touched by the given areas from the background, then
+   * composites every waiting command of the given batch over them. Tiles not
+   * touched are left untouched. The batch itself is left untouched.
+   *
+   * @param batch      - The batch whose commands are drawn
+   * @param target     - The image to draw onto, which must be TYPE_INT_ARGB
+   * @param background - The image to restore from, the same size as the
+   *                     target, or null to restore to transparent
+   * @param dirty      - The areas to redraw, or null to redraw everything
+   *
+   * @throws IllegalArgumentException - If the target is of another type, or
+   *                                    the background another size
+   */
+  public void composite (SpriteBatch batch, BufferedImage target,
+                         BufferedImage background, List <Rectangle> dirty)
+  {
+    composite (batch, target, true, background, dirty);
+  }
+
+  /**
+   * Composites the commands of the batch onto the tiles that need it.
+   *
+   * @param batch      - The batch whose commands are drawn
+   * @param target     - The image to draw onto
+   * @param restore    - Whether tiles are restored before compositing
+   * @param background - The image to restore from, or null for transparent
+   * @param dirty      - The areas to redraw, or null for everything
+   */
+  private void composite (SpriteBatch batch, BufferedImage target,
+                          boolean restore, BufferedImage background,
+                          List <Rectangle> dirty)
+  {
+    if (!supports (target))
+    {
+      throw new IllegalArgumentException ("Target must be TYPE_INT_ARGB");
+    }
+
+    int width  = target.getWidth ();
+    int height = target.getHeight ();
+    int tilesX = (width  + tileSize - 1) / tileSize;
+    int tilesY = (height + tileSize - 1) / tileSize;
+
+    if (background != null && (background.getWidth () != width ||
+                               background.getHeight () != height))
+    {
+      throw new IllegalArgumentException ("Background must be the same size " +
+                                          "as the target");
+    }
+
+    batch.sort ();
+    bin (batch, width, height, tilesX, tilesY);
+    markTiles (dirty, width, height, tilesX);
+
+    if (root == null || root.to != tilesX * tilesY)
+    {
+      root = new CompositeTask (0, tilesX * tilesY);
+    }
+
+    lastBlits = 0;
+
+    for (int tile = 0; tile < tileDirty.length; tile++)
+    {
+      if (tileDirty [tile])
+      {
+        lastBlits += binSizes [tile];
+      }
+    }
+
+    frameBatch       = batch;
+    framePixels      = ((DataBufferInt) target.getRaster ().getDataBuffer ())
+                         .getData ();
+    frameWidth       = width;
+    frameHeight      = height;
+    this.tilesX      = tilesX;
+    restoreTiles     = restore;
+    frameBackground  = background;
+    backgroundPixels = null;
+
+    //Only pixels already in the target's format can be copied as they are
+    if (background != null &&
+        background.getType () == BufferedImage.TYPE_INT_ARGB)
+    {
+      backgroundPixels = pixelsOf (background);
+      backgroundOffset = indexOf (background, 0, 0);
+      backgroundStride = strideOf (background);
+    }
+
+    if (parallel)
+    {
+      root.reset ();
+      pool.invoke (root);
+    }
+    else
+    {
+      root.compositeTiles ();
+    }
+
+    frameBatch       = null;
+    framePixels      = null;
+    frameBackground  = null;
+    backgroundPixels = null;
+
+    //Pages are not held beyond the frame
+    Arrays.fill (sources, 0, batch.size (), null);
+  }
+
+  /**
+   * Returns the number of command fragments composited by the last frame,
+   * counting a command once for every tile it was composited into.
+   *
+   * @return The number of blits
+   */
+  int getLastBlits ()
+  {
+    return lastBlits;
+  }
+
+  /**
+   * Marks each tile touched by the given areas as needing to be composited.
+   *
+   * @param dirty  - The areas to redraw, or null for every tile
+   * @param width  - The width of the target
+   * @param height - The height of the target
+   * @param tilesX - The number of tile columns
+   */
+  private void markTiles (List <Rectangle> dirty, int width, int height,
+                          int tilesX)
+  {
+    if (tileDirty.length != bins.length)
+    {
+      tileDirty = new boolean [bins.length];
+    }
+
+    Arrays.fill (tileDirty, dirty == null);
+
+    if (dirty == null)
+    {
+      return;
+    }
+
+    for (int d = 0; d < dirty.size (); d++)
+    {
+      Rectangle area = dirty.get (d);
+      int left   = Math.max (area.x, 0);
+      int top    = Math.max (area.y, 0);
+      int right  = Math.min (area.x + area.width, width);
+      int bottom = Math.min (area.y + area.height, height);
+
+      for (int ty = top / tileSize; ty < (bottom + tileSize - 1) / tileSize;
+           ty++)
+      {
+        for (int tx = left / tileSize; tx < (right + tileSize - 1) / tileSize;
+             tx++)
+        {
+          tileDirty [ty * tilesX + tx] = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sorts the commands of the batch into the bins of the tiles they overlap,
+   * and locates the pixels of each command's region.
+   *
+   * @param batch  - The batch whose commands are drawn
+   * @param width  - The width of the target
+   * @param height - The height of the target
+   * @param tilesX - The number of tile columns
+   * @param tilesY - The number of tile rows
+   */
+  private void bin (SpriteBatch batch, int width, int height, int tilesX,
+                    int tilesY)
+  {
+    int tiles = tilesX * tilesY;
+    int count = batch.size ();
+
+    if (bins.length != tiles)
+    {
+      bins     = new int [tiles] [];
+      binSizes = new int [tiles];
+
+      for (int tile = 0; tile < tiles; tile++)
+      {
+        bins [tile] = new int [16];
+      }
+    }
+    else
+    {
+      Arrays.fill (binSizes, 0);
+    }
+
+    if (sources.length < count)
+    {
+      sources              = new int [count] [];
+      sourceOffsets        = new int [count];
+      sourceStrides        = new int [count];
+      sourcesPremultiplied = new boolean [count];
+      converted            = Arrays.copyOf (converted, count);
+    }
+
+    for (int order = 0; order < count; order++)
+    {
+      AtlasRegion region = batch.regionAt (order);
+      int x = batch.xAt (order) + region.getOffsetX ();
+      int y = batch.yAt (order) + region.getOffsetY ();
+
+      //Determine the tiles covered by the clipped bounds of the command
+      int left   = Math.max (x, 0);
+      int top    = Math.max (y, 0);
+      int right  = Math.min (x + region.getWidth (), width);
+      int bottom = Math.min (y + region.getHeight (), height);
+
+      if (left >= right || top >= bottom)
+      {
+        continue;
+      }
+
+      locate (order, region);
+
+      for (int ty = top / tileSize; ty <= (bottom - 1) / tileSize; ty++)
+      {
+        for (int tx = left / tileSize; tx <= (right - 1) / tileSize; tx++)
+        {
+          int tile = ty * tilesX + tx;
+
+          if (binSizes [tile] == bins [tile].length)
+          {
+            bins [tile] = Arrays.copyOf (bins [tile], bins [tile].length * 2);
+          }
+
+          bins [tile] [binSizes [tile]++] = order;
+        }
+      }
+    }
+  }
+
+  /**
+   * Locates the pixels of a command's region, reading them in place where
+   * the page is of an int ARGB type and converting them otherwise.
+   *
+   * @param order  - The position of the command in drawing order
+   * @param region - The region drawn by the command
+   */
+  private void locate (int order, AtlasRegion region)
+  {
+    BufferedImage page = region.getPage ();
+    int [] pixels = pixelsOf (page);
+
+    if (pixels != null)
+    {
+      sources [order]              = pixels;
+      sourceOffsets [order]        = indexOf (page, region.getX (),
+                                              region.getY ());
+      sourceStrides [order]        = strideOf (page);
+      sourcesPremultiplied [order] =
+        page.getType () == BufferedImage.TYPE_INT_ARGB_PRE;
+
+      return;
+    }
+
+    int width  = region.getWidth ();
+    int height = region.getHeight ();
+    int [] copy = converted [order];
+
+    if (copy == null || copy.length < width * height)
+    {
+      copy = new int [width * height];
+      converted [order] = copy;
+    }
+
+    page.getRGB (region.getX (), region.getY (), width, height, copy, 0,
+                 width);
+
+    sources [order]              = copy;
+    sourceOffsets [order]        = 0;
+    sourceStrides [order]        = width;
+    sourcesPremultiplied [order] = false;
+  }
+
+  /**
+   * Returns the pixel array of an image of TYPE_INT_ARGB or
+   * TYPE_INT_ARGB_PRE, which may be read in place.
+   *
+   * @param image - The image
+   * @return The pixels of the image, or null if it is of another type
+   */
+  private static int [] pixelsOf (BufferedImage image)
+  {
+    int type = image.getType ();
+
+    if (type != BufferedImage.TYPE_INT_ARGB &&
+        type != BufferedImage.TYPE_INT_ARGB_PRE)
+    {
+      return null;
+    }
+
+    return ((DataBufferInt) image.getRaster ().getDataBuffer ()).getData ();
+  }
+
+  /**
+   * Returns the index of a pixel of an int ARGB image within its pixel
+   * array, allowing for images that share the array of a larger one (ie.
+   * those returned by getSubimage).
+   *
+   * @param image - The image
+   * @param x     - The x position of the pixel
+   * @param y     - The y position of the pixel
+   * @return The index of the pixel
+   */
+  private static int indexOf (BufferedImage image, int x, int y)
+  {
+    WritableRaster raster = image.getRaster ();
+
+    return raster.getDataBuffer ().getOffset () +
+           (y - raster.getSampleModelTranslateY ()) * strideOf (image) +
+           (x - raster.getSampleModelTranslateX ());
+  }
+
+  /**
+   * Returns the distance between the rows of an int ARGB image within its
+   * pixel array.
+   *
+   * @param image - The image
+   * @return The distance between rows, in pixels
+   */
+  private static int strideOf (BufferedImage image)
+  {
+    return ((SinglePixelPackedSampleModel) image.getSampleModel ())
+             .getScanlineStride ();
+  }
+
+  /**
+   * Blends a non-premultiplied source pixel over a non-premultiplied
+   * destination pixel.
+   *
+   * @param src - The source pixel
+   * @param dst - The destination pixel
+   * @return The blended pixel
+   */
+  static int blend (int src, int dst)
+  {
+    int sa = src >>> 24;
+
+    if (sa == 0xFF)
+    {
+      return src;
+    }
+
+    if (sa == 0)
+    {
+      return dst;
+    }
+
+    //Over an opaque destination the result is opaque, and needs no division
+    if (dst >>> 24 == 0xFF)
+    {
+      int ia = 0xFF - sa;
+
+      return 0xFF000000 |
+             (mul255 ((src >> 16) & 0xFF, sa) +
+              mul255 ((dst >> 16) & 0xFF, ia)) << 16 |
+             (mul255 ((src >>  8) & 0xFF, sa) +
+              mul255 ((dst >>  8) & 0xFF, ia)) << 8 |
+             (mul255 ( src        & 0xFF, sa) +
+              mul255 ( dst        & 0xFF, ia));
+    }
+
+    int da = mul255 (dst >>> 24, 0xFF - sa);
+    int ra = sa + da;
+
+    int r = (((src >> 16) & 0xFF) * sa + ((dst >> 16) & 0xFF) * da) / ra;
+    int g = (((src >>  8) & 0xFF) * sa + ((dst >>  8) & 0xFF) * da) / ra;
+    int b = (( src        & 0xFF) * sa + ( dst        & 0xFF) * da) / ra;
+
+    return ra << 24 | r << 16 | g << 8 | b;
+  }
+
+  /**
+   * Blends a premultiplied source pixel over a non-premultiplied destination
+   * pixel, as blend would once the source had been divided by its alpha.
+   *
+   * @param src - The source pixel, premultiplied
+   * @param dst - The destination pixel
+   * @return The blended pixel
+   */
+  static int blendPremultiplied (int src, int dst)
+  {
+    int sa = src >>> 24;
+
+    if (sa == 0xFF)
+    {
+      return src;
+    }
+
+    if (sa == 0)
+    {
+      return dst;
+    }
+
+    int ia = 0xFF - sa;
+
+    //Over an opaque destination, the source is already weighted by alpha
+    if (dst >>> 24 == 0xFF)
+    {
+      return 0xFF000000 |
+             Math.min ((src >> 16 & 0xFF) +
+                       mul255 ((dst >> 16) & 0xFF, ia), 0xFF) << 16 |
+             Math.min ((src >>  8 & 0xFF) +
+                       mul255 ((dst >>  8) & 0xFF, ia), 0xFF) << 8 |
+             Math.min ((src       & 0xFF) +
+                       mul255 ( dst        & 0xFF, ia), 0xFF);
+    }
+
+    int da = mul255 (dst >>> 24, ia);
+    int ra = sa + da;
+
+    int r = Math.min (((src >> 16 & 0xFF) * 0xFF +
+                       ((dst >> 16) & 0xFF) * da) / ra, 0xFF);
+    int g = Math.min (((src >>  8 & 0xFF) * 0xFF +
+                       ((dst >>  8) & 0xFF) * da) / ra, 0xFF);
+    int b = Math.min (((src       & 0xFF) * 0xFF +
+                       ( dst        & 0xFF) * da) / ra, 0xFF);
+
+    return ra << 24 | r << 16 | g << 8 | b;
+  }
+
+  /**
+   * Multiplies two values in the range 0-255 as though they were fractions of
+   * 255, rounding to nearest.
+   *
+   * @param a - The first value
+   * @param b - The second value
+   * @return a * b / 255
+   */
+  static int mul255 (int a, int b)
+  {
+    int product = a * b + 0x80;
+
+    return (product + (product >> 8)) >> 8;
+  }
+
+  /**
+   * Composites a range of tiles, splitting the range across the pool while
+   * it remains large. The tasks covering each half of the range are built
+   * along with the task itself, and the whole tree is reset and reused every
+   * frame.
+   */
+  @SuppressWarnings ("serial")
+  private class CompositeTask extends RecursiveAction
+  {
+    //Members
+    private final int from;
+    private final int to;
+
+    /**
+     * The tasks covering each half of the range, or null if this task
+     * composites its tiles itself.
+     */
+    private final CompositeTask first;
+    private final CompositeTask second;
+
+    //Constructors
+    /**
+     * Creates a task for the tiles numbered from (inclusive) to (exclusive).
+     */
+    CompositeTask (int from, int to)
+    {
+      this.from = from;
+      this.to   = to;
+
+      if (to - from <= TILES_PER_TASK)
+      {
+        first  = null;
+        second = null;
+      }
+      else
+      {
+        int middle = (from + to) >>> 1;
+
+        first  = new CompositeTask (from, middle);
+        second = new CompositeTask (middle, to);
+      }
+    }
+
+    //Functions
+    @Override
+    protected void compute ()
+    {
+      if (first == null)
+      {
+        compositeTiles ();
+      }
+      else
+      {
+        invokeAll (first, second);
+      }
+    }
+
+    /**
+     * Readies this task and those beneath it to be run again.
+     */
+    void reset ()
+    {
+      reinitialize ();
+
+      if (first != null)
+      {
+        first.reset ();
+        second.reset ();
+      }
+    }
+
+    /**
+     * Composites every tile in this task's range on the calling thread.
+     */
+    void compositeTiles ()
+    {
+      for (int tile = from; tile < to; tile++)
+      {
+        if (tileDirty [tile])
+        {
+          compositeTile (tile);
+        }
+      }
+    }
+
+    /**
+     * Blends, in drawing order, the part of each binned command that falls
+     * within the given tile.
+     *
+     * @param tile - The number of the tile
+     */
+    private void compositeTile (int tile)
+    {
+      SpriteBatch batch = frameBatch;
+      int [] pixels = framePixels;
+      int width  = frameWidth;
+      int height = frameHeight;
+
+      int tileLeft   = (tile % tilesX) * tileSize;
+      int tileTop    = (tile / tilesX) * tileSize;
+      int tileRight  = Math.min (tileLeft + tileSize, width);
+      int tileBottom = Math.min (tileTop  + tileSize, height);
+
+      if (restoreTiles && backgroundPixels == null &&
+          frameBackground != null)
+      {
+        frameBackground.getRGB (tileLeft, tileTop, tileRight - tileLeft,
+                                tileBottom - tileTop, pixels,
+                                tileTop * width + tileLeft, width);
+      }
+      else if (restoreTiles)
+      {
+        for (int row = tileTop; row < tileBottom; row++)
+        {
+          int d = row * width + tileLeft;
+
+          if (backgroundPixels == null)
+          {
+            Arrays.fill (pixels, d, d + tileRight - tileLeft, 0);
+          }
+          else
+          {
+            System.arraycopy (backgroundPixels, backgroundOffset +
+                              row * backgroundStride + tileLeft, pixels, d,
+                              tileRight - tileLeft);
+          }
+        }
+      }
+
+      for (int i = 0; i < binSizes [tile]; i++)
+      {
+        int order = bins [tile] [i];
+        AtlasRegion region = batch.regionAt (order);
+        int x = batch.xAt (order) + region.getOffsetX ();
+        int y = batch.yAt (order) + region.getOffsetY ();
+
+        int left   = Math.max (x, tileLeft);
+        int top    = Math.max (y, tileTop);
+        int right  = Math.min (x + region.getWidth (), tileRight);
+        int bottom = Math.min (y + region.getHeight (), tileBottom);
+
+        int [] source = sources [order];
+        int stride = sourceStrides [order];
+        boolean premultiplied = sourcesPremultiplied [order];
+
+        for (int row = top; row < bottom; row++)
+        {
+          int s = sourceOffsets [order] + (row - y) * stride + left - x;
+          int d = row * width + left;
+
+          if (premultiplied)
+          {
+            for (int column = left; column < right; column++, s++, d++)
+            {
+              pixels [d] = blendPremultiplied (source [s], pixels [d]);
+            }
+          }
+          else
+          {
+            for (int column = left; column < right; column++, s++, d++)
+            {
+              pixels [d] = blend (source [s], pixels [d]);
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,418 @@
+//Package
+package DAquilina;
+
+//Imported Packages
+import java.lang.ref.*;
+
+/**
+ * Holds transformed copies of frames, so that each (frame, transform) pair is
+ * generated only once however often it is drawn. The cache is bounded by a
+ * budget of memory; the variants used least recently are dropped first, and
+ * are simply generated again should they be needed later.
+ *
+ * <br /> <br />
+ *
+ * Frames are held weakly. Once a frame is no longer used anywhere else (ie.
+ * it has been dropped by the FrameCache), its variants are dropped with it,
+ * and no longer count towards the budget. Looking up a variant allocates
+ * nothing.
+ *
+ * <br /> <br />
+ *
+ * ie. AtlasRegion mirrored = VariantCache.getShared ().get (
+ *       mySprite.getCurrentRegion (), FrameTransform.FLIP_H);
+ *
+ * @see {@link FrameTransform}
+ *
+ * @author Dominic Aquilina
+ */
+public final class VariantCache
+{
+  //Constants
+  /**
+   * The budget of the shared cache unless changed: 64MB.
+   */
+  public static final long DEFAULT_BUDGET = 64L << 20;
+
+  /**
+   * The cache used by AnimationClip.derive and Sprite.
+   */
+  private static final VariantCache SHARED = new VariantCache (DEFAULT_BUDGET);
+
+  /**
+   * The number of buckets in an empty table.
+   */
+  private static final int INITIAL_CAPACITY = 256;
+
+  //Members
+  /**
+   * The cached variants, chained by the hash of their frame and transform.
+   */
+  private Entry [] buckets = new Entry [INITIAL_CAPACITY];
+
+  /**
+   * The number of cached variants.
+   */
+  private int count = 0;
+
+  /**
+   * The cached variants, from least to most recently used, as a circular
+   * list through this sentinel.
+   */
+  private final Entry order = new Entry (null, null, 0, null, null, 0);
+
+  /**
+   * Receives the entries whose frames are no longer used elsewhere.
+   */
+  private final ReferenceQueue <AtlasRegion> collected =
+    new ReferenceQueue <AtlasRegion> ();
+
+  /**
+   * The most memory, in bytes, the cached variants may occupy.
+   */
+  private long budget;
+
+  /**
+   * The memory, in bytes, the cached variants currently occupy.
+   */
+  private long size = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  //Constructors
+  /**
+   * Creates a cache with the given budget.
+   *
+   * @param budget - The most memory, in bytes, the cached variants may occupy
+   */
+  public VariantCache (long budget)
+  {
+    this.budget = budget;
+
+    order.older = order.newer = order;
+  }
+
+  //Functions
+  /**
+   * Returns the cache used by AnimationClip.derive and Sprite.
+   *
+   * @return The shared cache
+   */
+  public static VariantCache getShared ()
+  {
+    return SHARED;
+  }
+
+  /**
+   * Returns the given variant of a frame, generating it if it is not cached.
+   * The identity transform returns the frame itself.
+   *
+   * @param region    - The frame
+   * @param transform - The transform to apply
+   * @return The region covering the variant
+   */
+  public AtlasRegion get (AtlasRegion region, FrameTransform transform)
+  {
+    if (transform.equals (FrameTransform.IDENTITY))
+    {
+      return region;
+    }
+
+    int hash = System.identityHashCode (region) * 31 + transform.hashCode ();
+
+    synchronized (this)
+    {
+      expunge ();
+
+      Entry entry = find (region, transform, hash);
+
+      if (entry != null)
+      {
+        hits++;
+
+        unlink (entry);
+        append (entry);
+
+        return entry.variant;
+      }
+
+      misses++;
+    }
+
+    //Generate the variant without holding the lock
+    AtlasRegion variant = transform.apply (region);
+
+    synchronized (this)
+    {
+      expunge ();
+
+      Entry existing = find (region, transform, hash);
+
+      if (existing != null)
+      {
+        return existing.variant;
+      }
+
+      Entry entry = new Entry (region, transform, hash, variant, collected,
+                               FrameCache.sizeOf (variant));
+
+      if (count >= buckets.length)
+      {
+        rehash ();
+      }
+
+      int bucket = hash & (buckets.length - 1);
+
+      entry.next = buckets [bucket];
+      buckets [bucket] = entry;
+      append (entry);
+      count++;
+      size += entry.bytes;
+
+      trim ();
+    }
+
+    return variant;
+  }
+
+  /**
+   * Changes the budget, evicting variants at once if the cache is now over
+   * it.
+   *
+   * @param budget - The most memory, in bytes, the cached variants may occupy
+   */
+  public synchronized void setBudget (long budget)
+  {
+    this.budget = budget;
+
+    trim ();
+  }
+
+  /**
+   * Returns the memory the cached variants currently occupy.
+   *
+   * @return The size, in bytes
+   */
+  public synchronized long getSize ()
+  {
+    expunge ();
+
+    return size;
+  }
+
+  /**
+   * Returns the number of requests answered from the cache.
+   *
+   * @return The number of hits
+   */
+  public synchronized long getHits ()
+  {
+    return hits;
+  }
+
+  /**
+   * Returns the number of requests that had to generate their variant.
+   *
+   * @return The number of misses
+   */
+  public synchronized long getMisses ()
+  {
+    return misses;
+  }
+
+  /**
+   * Returns the number of variants dropped to stay within the budget.
+   *
+   * @return The number of evictions
+   */
+  public synchronized long getEvictions ()
+  {
+    return evictions;
+  }
+
+  /**
+   * Drops every cached variant and resets the counters.
+   */
+  public synchronized void clear ()
+  {
+    for (Entry entry = order.newer; entry != order; entry = entry.newer)
+    {
+      //Cleared references are never enqueued
+      entry.clear ();
+    }
+
+    buckets = new Entry [INITIAL_CAPACITY];
+    order.older = order.newer = order;
+    count = 0;
+    size = hits = misses = evictions = 0;
+  }
+
+  @Override
+  public synchronized String toString ()
+  {
+    expunge ();
+
+    return "VariantCache: " + count + " variants, " + (size >> 10) +
+           "KB of " + (budget >> 10) + "KB, " + hits + " hits, " + misses +
+           " misses, " + evictions + " evictions";
+  }
+
+  /**
+   * Evicts the least recently used variants until the cache is within its
+   * budget. The most recent variant is always kept, however large.
+   */
+  private void trim ()
+  {
+    while (size > budget && count > 1)
+    {
+      Entry eldest = order.newer;
+
+      eldest.clear ();
+      remove (eldest);
+      evictions++;
+    }
+  }
+
+  /**
+   * Drops the variants of every frame no longer used elsewhere.
+   */
+  private void expunge ()
+  {
+    for (Reference <? extends AtlasRegion> gone = collected.poll ();
+         gone != null; gone = collected.poll ())
+    {
+      remove ((Entry) gone);
+    }
+  }
+
+  /**
+   * Finds the entry of a variant.
+   *
+   * @param region    - The frame
+   * @param transform - The transform
+   * @param hash      - The hash of both
+   * @return The entry, or null if the variant is not cached
+   */
+  private Entry find (AtlasRegion region, FrameTransform transform, int hash)
+  {
+    for (Entry entry = buckets [hash & (buckets.length - 1)]; entry != null;
+         entry = entry.next)
+    {
+      if (entry.hash == hash && entry.get () == region &&
+          entry.transform.equals (transform))
+      {
+        return entry;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Removes an entry from its bucket and from the order, if it is still
+   * cached.
+   *
+   * @param entry - The entry
+   */
+  private void remove (Entry entry)
+  {
+    int bucket = entry.hash & (buckets.length - 1);
+
+    for (Entry e = buckets [bucket], before = null; e != null;
+         before = e, e = e.next)
+    {
+      if (e == entry)
+      {
+        if (before == null)
+        {
+          buckets [bucket] = e.next;
+        }
+        else
+        {
+          before.next = e.next;
+        }
+
+        unlink (entry);
+        count--;
+        size -= entry.bytes;
+
+        return;
+      }
+    }
+  }
+
+  /**
+   * Doubles the number of buckets.
+   */
+  private void rehash ()
+  {
+    Entry [] grown = new Entry [buckets.length * 2];
+
+    for (Entry entry = order.newer; entry != order; entry = entry.newer)
+    {
+      int bucket = entry.hash & (grown.length - 1);
+
+      entry.next = grown [bucket];
+      grown [bucket] = entry;
+    }
+
+    buckets = grown;
+  }
+
+  /**
+   * Adds an entry to the most recently used end of the order.
+   */
+  private void append (Entry entry)
+  {
+    entry.older = order.older;
+    entry.newer = order;
+    order.older.newer = entry;
+    order.older = entry;
+  }
+
+  /**
+   * Removes an entry from the order.
+   */
+  private static void unlink (Entry entry)
+  {
+    entry.older.newer = entry.newer;
+    entry.newer.older = entry.older;
+  }
+
+  /**
+   * A cached variant, which refers to its frame weakly.
+   */
+  private static final class Entry extends WeakReference <AtlasRegion>
+  {
+    //Members
+    final FrameTransform transform;
+    final int hash;
+    final AtlasRegion variant;
+    final long bytes;
+
+    /**
+     * The next entry of the same bucket.
+     */
+    Entry next;
+
+    /**
+     * The neighbours of the entry in the order.
+     */
+    Entry older, newer;
+
+    //Constructors
+    Entry (AtlasRegion region, FrameTransform transform, int hash,
+           AtlasRegion variant, ReferenceQueue <AtlasRegion> queue,
+           long bytes)
+    {
+      super (region, queue);
+
+      this.transform = transform;
+      this.hash      = hash;
+      this.variant   = variant;
+      this.bytes     = bytes;
+    }
+  }
+}